@@ -102,9 +102,11 @@ public class AttachmentsController {
     public ResponseEntity<Resource> downloadPreview(
             Authentication authentication,
             @Parameter(name = "attachmentId", description = "The unique id of the attachment", required = true)
-            @PathVariable String attachmentId
+            @PathVariable String attachmentId,
+            @Parameter(name = "size", description = "The requested width of the preview, the nearest larger variant is returned")
+            @RequestParam(value = "size", required = false) Integer size
     ) throws Exception {
-        FileObjectDescription desc = attachmentService.getPreviewContent(attachmentId);
+        FileObjectDescription desc = attachmentService.getPreviewContent(attachmentId, size);
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.valueOf(desc.getContentType()));
         headers.setContentDisposition(
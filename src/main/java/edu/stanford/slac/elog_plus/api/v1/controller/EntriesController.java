@@ -239,6 +239,8 @@ public class EntriesController {
             @RequestParam("logbooks") Optional<List<String>> logBooks,
             @Parameter(name = "authors", description = "Only include entries that are authored by one of these users")
             @RequestParam("authors") Optional<List<String>> authors,
+            @Parameter(name = "shiftKeys", description = "Only include entries that belong to one of these shifts, each in the form logbookId:shiftId:yyyy-MM-dd where the date is the day when the shift started")
+            @RequestParam("shiftKeys") Optional<List<String>> shiftKeys,
             @Parameter(name = "sortByLogDate", description = "Sort entries by log date instead event date")
             @RequestParam(value = "sortByLogDate", defaultValue = "false") Optional<Boolean> sortByLogDate,
             @Parameter(name = "hideSummaries", description = "Hide the summaries from the search(default is false)")
@@ -263,6 +265,7 @@ public class EntriesController {
                                 // if the logBooks is empty we should use all the authorized logbook
                                 .logbooks(authorizationCache.getRootUser()?logBooks.orElse(Collections.emptyList()):logBooks.orElse(authorizationCache.getAuthorizedLogbookId()))
                                 .authors(authors.orElse(null))
+                                .shiftKeys(shiftKeys.orElse(null))
                                 .sortByLogDate(sortByLogDate.orElse(false))
                                 .hideSummaries(hideSummaries.orElse(false))
                                 .requireAllTags(requireAllTags.orElse(false))
@@ -1,6 +1,5 @@
 package edu.stanford.slac.elog_plus.api.v1.controller;
 
-import com.hp.jipp.encoding.IppInputStream;
 import com.hp.jipp.encoding.IppOutputStream;
 import com.hp.jipp.model.Operation;
 import com.hp.jipp.model.Status;
@@ -9,11 +8,14 @@ import edu.stanford.slac.ad.eed.baselib.api.v1.dto.ApiResultResponse;
 import edu.stanford.slac.ad.eed.baselib.service.AuthService;
 import edu.stanford.slac.elog_plus.api.v1.dto.AttachmentDTO;
 import edu.stanford.slac.elog_plus.api.v1.dto.LogbookDTO;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.config.filters.SpooledIppRequest;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.service.AttachmentService;
 import edu.stanford.slac.elog_plus.service.LogbookService;
 import edu.stanford.slac.elog_plus.service.PrinterService;
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.http.HttpStatus;
@@ -23,7 +25,6 @@ import org.springframework.security.core.Authentication;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,6 +42,7 @@ public class PrinterController {
     AuthService authService;
     LogbookService logbookService;
     PrinterService printerService;
+    ELOGAppProperties elogAppProperties;
 
     @PostMapping(
             value = "/default",
@@ -48,13 +50,15 @@ public class PrinterController {
     )
     public ResponseEntity<byte[]> defaultPrinter(
             Authentication authentication,
-            @RequestBody byte[] body
+            HttpServletRequest request
     ) throws IOException {
         IppPacketData response = null;
         byte[] returnBody = null;
         // check authentication
-        try (IppInputStream inputStream = new IppInputStream(new ByteArrayInputStream(body))) {
-            IppPacketData data = new IppPacketData(inputStream.readPacket(), inputStream);
+        // the packet has been already parsed by the authentication filter, the document is read from the spool
+        try {
+            SpooledIppRequest ippRequest = SpooledIppRequest.of(request, elogAppProperties.getIppSpoolThresholdBytes());
+            IppPacketData data = new IppPacketData(ippRequest.getPacket(), null);
             int operation = printerService.getPrintCommand(data);
             if ((authentication == null || !authentication.isAuthenticated()) &&
                     operation != Operation.Code.getPrinterAttributes) {
@@ -80,7 +84,7 @@ public class PrinterController {
                     response = new IppPacketData(printerService.createErrorResponsePacket(data.getPacket(), Status.clientErrorNotAuthorized));
                 } else {
                     log.info("Handling IPP packet");
-                    response = printerService.handleIppPacket(data, fullLogbook);
+                    response = printerService.handleIppPacket(ippRequest, fullLogbook, authentication);
                 }
             }
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -118,13 +122,15 @@ public class PrinterController {
     )
     public ResponseEntity<byte[]> attachmentQueue(
             Authentication authentication,
-            @RequestBody byte[] body
+            HttpServletRequest request
     ) throws IOException {
         IppPacketData response = null;
         byte[] returnBody = null;
         // check authentication
-        try (IppInputStream inputStream = new IppInputStream(new ByteArrayInputStream(body))) {
-            IppPacketData data = new IppPacketData(inputStream.readPacket(), inputStream);
+        // the packet has been already parsed by the authentication filter, the document is read from the spool
+        try {
+            SpooledIppRequest ippRequest = SpooledIppRequest.of(request, elogAppProperties.getIppSpoolThresholdBytes());
+            IppPacketData data = new IppPacketData(ippRequest.getPacket(), null);
             int operation = printerService.getPrintCommand(data);
             if ((authentication == null || !authentication.isAuthenticated()) &&
                     operation != Operation.Code.getPrinterAttributes) {
@@ -135,7 +141,7 @@ public class PrinterController {
                 if (!authorized) {
                     response = new IppPacketData(printerService.createErrorResponsePacket(data.getPacket(), Status.clientErrorNotAuthorized));
                 } else {
-                    response = printerService.handleIppPacketForAttachmentQueue("v1/printer/attachment-queue", data);
+                    response = printerService.handleIppPacketForAttachmentQueue("v1/printer/attachment-queue", ippRequest, authentication);
                 }
             }
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -41,6 +41,8 @@ public record QueryWithAnchorDTO(
         List<String> logbooks,
         @Schema(description = "Only include entries that belong to one of these authors.")
         List<String> authors,
+        @Schema(description = "Only include entries that belong to one of these shifts, each in the form logbookId:shiftId:yyyy-MM-dd where the date is the day when the shift started.")
+        List<String> shiftKeys,
         @Schema(description = "Sort by log date (the default is for event date)")
         Boolean sortByLogDate,
         @Schema(description = "Hide summaries from the query results")
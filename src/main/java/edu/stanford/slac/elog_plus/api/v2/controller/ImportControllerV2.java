@@ -1,5 +1,8 @@
 package edu.stanford.slac.elog_plus.api.v2.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.ApiResultResponse;
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.AuthorizationTypeDTO;
 import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
@@ -8,13 +11,19 @@ import edu.stanford.slac.ad.eed.baselib.service.AuthService;
 import edu.stanford.slac.elog_plus.api.v1.dto.EntryImportDTO;
 import edu.stanford.slac.elog_plus.api.v1.dto.NewLogbookDTO;
 import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryResultDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportReferenceResolutionDTO;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
 import edu.stanford.slac.elog_plus.service.ImportService;
 import edu.stanford.slac.elog_plus.service.LogbookService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.http.HttpStatus;
@@ -24,9 +33,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.*;
@@ -41,6 +48,9 @@ public class ImportControllerV2 {
     AuthService authService;
     ImportService importService;
     LogbookService logbookService;
+    ObjectMapper objectMapper;
+    Validator validator;
+    ELOGAppProperties elogAppProperties;
 
     @Operation(description = "Import an entry with attachment, ensure the logbooks, attachment and tags are managed correctly")
     @ResponseStatus(HttpStatus.CREATED)
@@ -154,4 +164,114 @@ public class ImportControllerV2 {
                                 )
                 );
     }
+
+    @Operation(description = "Import a batch of entries without attachment, the body is a stream of import entries one for each line (NDJSON), the result of each entry is returned in the same order. With deferred references the origin id references are resolved later by the resolve-references api")
+    @ResponseStatus(HttpStatus.CREATED)
+    @PostMapping(
+            path = "/batch",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    public ApiResultResponse<List<ImportEntryResultDTO>> importEntries
+            (
+                    Authentication authentication,
+                    @Parameter(description = "Store the origin id references and resolve them later, so the batches can be imported in any order")
+                    @RequestParam(value = "deferReferences", defaultValue = "false") Boolean deferReferences,
+                    HttpServletRequest request
+            ) throws IOException {
+        assertion
+                (
+                        NotAuthorized.notAuthorizedBuilder()
+                                .errorCode(-1)
+                                .errorDomain("ImportController:importEntries")
+                                .build(),
+                        () -> authService.checkAuthentication(authentication)
+                );
+        boolean isRoot = authService.checkForRoot(authentication);
+        List<ImportEntryResultDTO> results = new ArrayList<>();
+        List<ImportEntryDTO> batch = new ArrayList<>();
+        List<Integer> batchIndexes = new ArrayList<>();
+        int index = 0;
+        // the entries are read one at time from the stream and imported in batches of the configured size
+        try (MappingIterator<ImportEntryDTO> entries = objectMapper.readerFor(ImportEntryDTO.class).readValues(request.getInputStream())) {
+            while (true) {
+                ImportEntryDTO importEntryDTO;
+                try {
+                    if (!entries.hasNextValue()) break;
+                    importEntryDTO = entries.nextValue();
+                } catch (JsonProcessingException e) {
+                    // the stream cannot be resynchronized after a malformed entry so the import stops here
+                    results.add(invalidEntry(index, "Malformed entry: %s".formatted(e.getOriginalMessage())));
+                    break;
+                }
+                Set<ConstraintViolation<ImportEntryDTO>> violations = validator.validate(importEntryDTO);
+                if (violations.isEmpty()) {
+                    batch.add(importEntryDTO);
+                    batchIndexes.add(index);
+                } else {
+                    results.add(
+                            invalidEntry(
+                                    index,
+                                    violations.stream()
+                                            .map(violation -> "%s %s".formatted(violation.getPropertyPath(), violation.getMessage()))
+                                            .collect(Collectors.joining(", "))
+                            )
+                    );
+                }
+                index++;
+                if (batch.size() >= elogAppProperties.getImportBatchSize()) {
+                    results.addAll(importBatch(batch, batchIndexes, isRoot, deferReferences));
+                }
+            }
+        }
+        results.addAll(importBatch(batch, batchIndexes, isRoot, deferReferences));
+        results.sort(Comparator.comparing(ImportEntryResultDTO::index));
+        return ApiResultResponse.of(results);
+    }
+
+    @Operation(description = "Resolve the origin id references and the supersede links of the entries imported with deferred references")
+    @ResponseStatus(HttpStatus.OK)
+    @PostMapping(
+            path = "/resolve-references",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    public ApiResultResponse<ImportReferenceResolutionDTO> resolveReferences(Authentication authentication) {
+        assertion
+                (
+                        NotAuthorized.notAuthorizedBuilder()
+                                .errorCode(-1)
+                                .errorDomain("ImportController:resolveReferences")
+                                .build(),
+                        () -> all(
+                                () -> authService.checkAuthentication(authentication),
+                                () -> authService.checkForRoot(authentication)
+                        )
+                );
+        return ApiResultResponse.of(importService.resolveDeferredReferences());
+    }
+
+    /**
+     * Import the accumulated entries and clear the batch
+     *
+     * @return the results with the index of the entries in the whole stream
+     */
+    private List<ImportEntryResultDTO> importBatch(List<ImportEntryDTO> batch, List<Integer> batchIndexes, boolean isRoot, boolean deferReferences) {
+        if (batch.isEmpty()) return List.of();
+        List<ImportEntryResultDTO> results = importService.importEntries(batch, isRoot, deferReferences)
+                .stream()
+                .map(result -> result.toBuilder().index(batchIndexes.get(result.index())).build())
+                .toList();
+        batch.clear();
+        batchIndexes.clear();
+        return results;
+    }
+
+    private static ImportEntryResultDTO invalidEntry(int index, String errorMessage) {
+        return ImportEntryResultDTO
+                .builder()
+                .index(index)
+                .errorCode(-2)
+                .errorMessage(errorMessage)
+                .build();
+    }
 }
@@ -0,0 +1,22 @@
+package edu.stanford.slac.elog_plus.api.v2.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Builder(toBuilder = true)
+@Schema(description = "The result of the import of a single entry of a batch")
+public record ImportEntryResultDTO(
+        @Schema(description = "The position of the entry in the imported batch")
+        Integer index,
+        @Schema(description = "The origin id of the imported entry")
+        String originId,
+        @Schema(description = "The id of the created entry, not present when the import has failed")
+        String id,
+        @Schema(description = "The error code, zero when the entry has been imported")
+        Integer errorCode,
+        @Schema(description = "The error message when the import has failed")
+        String errorMessage
+) {
+}
@@ -0,0 +1,16 @@
+package edu.stanford.slac.elog_plus.api.v2.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+
+@Builder
+@Schema(description = "The result of the resolution of the origin id references of the entries imported with deferred references")
+public record ImportReferenceResolutionDTO(
+        @Schema(description = "The number of entries with all the references resolved")
+        Integer resolvedEntries,
+        @Schema(description = "The number of entries that still reference origin ids not yet imported")
+        Integer pendingEntries,
+        @Schema(description = "The number of entries marked as superseded")
+        Long supersededEntries
+) {
+}
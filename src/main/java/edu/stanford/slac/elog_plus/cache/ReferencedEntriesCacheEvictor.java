@@ -0,0 +1,44 @@
+package edu.stanford.slac.elog_plus.cache;
+
+import com.hazelcast.map.IMap;
+import com.hazelcast.spring.cache.HazelcastCache;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Evict from the cache all the keys that belong to the referenced entries
+ * <p>
+ * the keys of the cached queries contain the id of the entry, so the keys that contain one of the ids are evicted.
+ * The ids are collected by the caller so the keys of the cache are scanned only once for many entries.
+ */
+@Log4j2
+@Component
+@AllArgsConstructor
+public class ReferencedEntriesCacheEvictor {
+    private final CacheManager cacheManager;
+
+    /**
+     * Evict the keys of the referenced entries
+     *
+     * @param cacheName     the name of the cache
+     * @param referencedIds the ids of the referenced entries
+     */
+    public void evict(String cacheName, Collection<String> referencedIds) {
+        if (referencedIds.isEmpty()) return;
+        var cache = cacheManager.getCache(cacheName);
+        if (cache instanceof HazelcastCache hCache) {
+            // Extract the underlying map
+            IMap<Object, Object> nativeCache = hCache.getNativeCache();
+            log.info("Clearing cache {} for {} referenced entries", cacheName, referencedIds.size());
+            // Evict entries where the key contains one of the ids
+            nativeCache.keySet()
+                    .stream()
+                    .filter(key -> referencedIds.stream().anyMatch(id -> key.toString().contains(id)))
+                    .forEach(nativeCache::evict);
+        }
+    }
+}
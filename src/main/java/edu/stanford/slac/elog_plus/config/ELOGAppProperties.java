@@ -5,16 +5,102 @@ import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.List;
+
 @Log4j2
 @Getter
 @Setter
 @ConfigurationProperties(prefix = "edu.stanford.slac.elog-plus")
 public class ELOGAppProperties {
+    /**
+     * The topic of the interactive preview lane
+     */
     private String imagePreviewTopic;
+    /**
+     * The topic of the bulk preview lane used by the imports
+     */
+    private String imagePreviewBulkTopic;
+    /**
+     * The number of consumers of the bulk preview lane, the interactive lane use the kafka consumer concurrency
+     * so the ratio between the two values is the weight of the lanes
+     */
+    private Integer previewBulkConcurrency = 1;
+    /**
+     * The widths of the preview variants generated for each attachment, the largest one is
+     * the default preview and the 32x32 mini preview is always generated
+     */
+    private List<Integer> previewSizes = List.of(256, 1024);
+    /**
+     * The maximum heap memory in megabytes used by PDFBox for the streams of a document during the preview
+     * generation, the exceeding part is stored on temporary files
+     */
+    private Integer previewPdfMaxMainMemoryMb = 32;
+    /**
+     * The number of previews generated at the same time by the requests that find the preview not yet generated
+     */
+    private Integer previewOnDemandConcurrency = 2;
+    /**
+     * The maximum time in seconds a request wait for the on demand generation of a preview
+     */
+    private Integer previewOnDemandTimeoutSeconds = 10;
+    /**
+     * The number of PostScript conversion executed at the same time
+     */
+    private Integer psConversionPoolSize = 2;
+    /**
+     * The maximum number of PostScript conversion waiting for a free worker
+     */
+    private Integer psConversionQueueCapacity = 100;
+    /**
+     * The maximum time in seconds for a PostScript conversion, after that the Ghostscript process is killed
+     */
+    private Integer psConversionTimeoutSeconds = 60;
+    /**
+     * The maximum time in seconds a PostScript conversion can wait for a free worker
+     */
+    private Integer psConversionQueueWaitSeconds = 300;
+    /**
+     * Consume the bulk preview topic with the batch listener that process the polled records on a worker pool
+     */
+    private Boolean previewBatchEnabled = false;
+    /**
+     * The maximum number of records returned by a poll of the batch preview listener
+     */
+    private Integer previewBatchSize = 100;
+    /**
+     * The number of threads that generate the previews of a batch, zero means one for each processor
+     */
+    private Integer previewBatchWorkers = 0;
+    /**
+     * The maximum time in seconds for processing a batch, must be lower than the consumer max.poll.interval.ms
+     */
+    private Integer previewBatchTimeoutSeconds = 240;
     /**
      * The topic where the import entry will be published
      */
     private String importEntryTopic;
+    /**
+     * The number of partitions of the import topic, the producers key the records by logbook
+     * so the entries of the same logbook are imported in order
+     */
+    private Integer importEntryTopicPartitions = 8;
+    /**
+     * The number of consumers of the import topic, each one consumes its own partitions
+     */
+    private Integer importConsumerConcurrency = 4;
+    /**
+     * The number of entries of a batch import that are resolved and inserted together
+     */
+    private Integer importBatchSize = 500;
+    /**
+     * The maximum time in seconds a validated user token is kept in the authentication cache,
+     * the token is removed before if it expires
+     */
+    private Integer authenticationCacheTtlSeconds = 300;
+    /**
+     * The maximum number of validated user tokens kept in the authentication cache
+     */
+    private Integer authenticationCacheMaxSize = 1000;
     /**
      * The URI prefix for the IPP
      */
@@ -23,6 +109,55 @@ public class ELOGAppProperties {
      * The URI prefix for the IPP
      */
     private String ippUriPrefix;
+    /**
+     * The size in bytes over which the document of an IPP print job is spooled on a temporary file instead of memory
+     */
+    private Integer ippSpoolThresholdBytes = 1048576;
+    /**
+     * The number of workers that process the IPP print jobs
+     */
+    private Integer ippJobWorkers = 2;
+    /**
+     * The maximum number of IPP print jobs waiting for a worker, over it the jobs are rejected
+     */
+    private Integer ippJobQueueSize = 50;
+    /**
+     * The number of IPP print jobs kept in memory to report their state
+     */
+    private Integer ippJobRetention = 500;
+    /**
+     * The number of bytes read from the start of a document to detect its content type
+     */
+    private Integer contentDetectionPrefixBytes = 65536;
+    /**
+     * The delay in milliseconds between two scheduled runs of the outbox dispatcher, that dispatch the events
+     * not dispatched at the commit and retry the failed ones
+     */
+    private Long outboxDispatchIntervalMs = 1000L;
+    /**
+     * The number of outbox events claimed together by the dispatcher
+     */
+    private Integer outboxBatchSize = 100;
+    /**
+     * The number of failed dispatch after which an outbox event is not retried anymore
+     */
+    private Integer outboxMaxAttempts = 5;
+    /**
+     * The time in seconds after which an outbox event claimed and not dispatched is claimed again
+     */
+    private Integer outboxProcessingTimeoutSeconds = 300;
+    /**
+     * The cron expression for the task that remove the outbox events not retried anymore
+     */
+    private String outboxExhaustedCleanCron;
+    /**
+     * The number of days an outbox event not retried anymore is kept before being removed
+     */
+    private Integer outboxExhaustedRetentionDays = 30;
+    /**
+     * The number of entries whose shift keys are recomputed together when the shifts of a logbook change
+     */
+    private Integer entryShiftKeysBatchSize = 1000;
     /**
      * The cron expression for the task that will clean the expired attachments
      */
@@ -31,6 +166,34 @@ public class ELOGAppProperties {
      * The expiration time in hours for the attachments
      */
     private Integer attachmentExpirationMinutes;
+    /**
+     * The number of expired attachments checked together by the clean task
+     */
+    private Integer attachmentCleanBatchSize = 500;
+    /**
+     * The cron expression for the task that remove the attachments tagged as to be deleted
+     */
+    private String attachmentReapCron;
+    /**
+     * The number of attachments removed together
+     */
+    private Integer attachmentReapBatchSize = 500;
+    /**
+     * The maximum number of stored objects removed per second
+     */
+    private Integer attachmentReapMaxObjectsPerSecond = 1000;
+    /**
+     * The time in seconds after which an attachment claimed for removal and not removed is claimed again
+     */
+    private Integer attachmentReapProcessingTimeoutSeconds = 600;
+    /**
+     * The time in seconds after the tagging as to be deleted before which an attachment is not removed
+     */
+    private Integer attachmentReapGraceSeconds = 300;
+    /**
+     * The cron expression for the task that compare the storage content with the attachments
+     */
+    private String storageReconciliationCron;
     /**
      * The URI prefix for the show entry on the UI
      */
@@ -3,7 +3,7 @@ package edu.stanford.slac.elog_plus.config;
 import edu.stanford.slac.ad.eed.baselib.auth.jwt.SLACAuthenticationFilter;
 import edu.stanford.slac.ad.eed.baselib.config.AppProperties;
 import edu.stanford.slac.elog_plus.config.auth.IPPAuthenticationFilter;
-import edu.stanford.slac.elog_plus.config.filters.InstallServletRequestWrapper;
+import edu.stanford.slac.elog_plus.config.auth.TokenAuthenticationCache;
 import lombok.AllArgsConstructor;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.ApplicationContext;
@@ -19,8 +19,6 @@ import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
 import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
 
-import java.util.List;
-
 import static org.springframework.core.Ordered.HIGHEST_PRECEDENCE;
 import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.ORDERED;
 
@@ -49,18 +47,13 @@ public class IPPSecurityConfig {
                         ),
                         AnonymousAuthenticationFilter.class
                 )
-                .addFilterBefore(
-                        InstallServletRequestWrapper
-                                .builder()
-                                .applyOnUri(List.of("/v1/printers/**"))
-                                .build(),
-                        AnonymousAuthenticationFilter.class // Add CustomAuthenticationFilter before IPPAuthenticationFilter
-                )
                 .addFilterBefore(
                         new IPPAuthenticationFilter(
                                 "/v1/printers/**",
                                 applicationContext.getBean(AuthenticationManager.class),
-                                appProperties
+                                appProperties,
+                                applicationContext.getBean(ELOGAppProperties.class),
+                                applicationContext.getBean(TokenAuthenticationCache.class)
                         ),
                         AnonymousAuthenticationFilter.class
                 );
@@ -8,6 +8,7 @@ import lombok.extern.log4j.Log4j2;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.admin.KafkaAdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,6 +18,7 @@ import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.listener.CommonErrorHandler;
 import org.springframework.kafka.listener.ContainerProperties;
@@ -37,6 +39,16 @@ public class KafkaConfig {
     private final KafkaProperties kafkaProperties;
     @Value("${edu.stanford.slac.elog-plus.kafka-consumer-concurrency}")
     private int concurrencyLevel = 1;
+    @Value("${edu.stanford.slac.elog-plus.preview-bulk-concurrency:1}")
+    private int previewBulkConcurrency = 1;
+    @Value("${edu.stanford.slac.elog-plus.preview-batch-size:100}")
+    private int previewBatchSize = 100;
+    @Value("${edu.stanford.slac.elog-plus.import-entry-topic}")
+    private String importEntryTopic;
+    @Value("${edu.stanford.slac.elog-plus.import-entry-topic-partitions:8}")
+    private int importEntryTopicPartitions = 8;
+    @Value("${edu.stanford.slac.elog-plus.import-consumer-concurrency:4}")
+    private int importConsumerConcurrency = 4;
 
     @Bean
     public DefaultErrorHandler errorHandler() {
@@ -50,6 +62,16 @@ public class KafkaConfig {
         );
     }
 
+    /**
+     * The import topic is created with many partitions so the records, keyed by logbook, are consumed in parallel
+     */
+    @Bean
+    public NewTopic importEntryTopic() {
+        return TopicBuilder.name(importEntryTopic)
+                .partitions(importEntryTopicPartitions)
+                .build();
+    }
+
     @Bean
     public AdminClient admin() {
         Map<String, Object> props = kafkaProperties.buildAdminProperties(null);
@@ -75,6 +97,25 @@ public class KafkaConfig {
         return cf;
     }
 
+    @Bean
+    public ConsumerFactory<String, Attachment> attachmentBatchKafkaListenerConsumerFactory() {
+        Map<String, Object> props = kafkaProperties.buildConsumerProperties(null);
+
+        // the batch listener fan out a whole poll to the preview worker pool
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, previewBatchSize);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.KEY_DESERIALIZER_CLASS, StringDeserializer.class.getName());
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class.getName());
+        DefaultKafkaConsumerFactory<String, Attachment> cf = new DefaultKafkaConsumerFactory<>(
+                props,
+                new StringDeserializer(),
+                new JsonDeserializer<>(Attachment.class, false)
+        );
+        cf.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return cf;
+    }
+
     @Bean
     public ConsumerFactory<String, ImportEntryDTO> importEntryKafkaListenerConsumerFactory() {
         Map<String, Object> props = kafkaProperties.buildConsumerProperties(null);
@@ -104,12 +145,35 @@ public class KafkaConfig {
         return factory;
     }
 
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Attachment> attachmentBulkKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Attachment> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(attachmentKafkaListenerConsumerFactory());
+        // the bulk lane has its own concurrency so it cannot take all the consumers of the interactive lane
+        factory.setConcurrency(previewBulkConcurrency);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);  // Set AckMode to MANUAL
+        return factory;
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Attachment> attachmentBatchKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Attachment> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(attachmentBatchKafkaListenerConsumerFactory());
+        factory.setConcurrency(previewBulkConcurrency);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);  // Set AckMode to MANUAL
+        return factory;
+    }
+
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, ImportEntryDTO> importEntryKafkaListenerContainerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, ImportEntryDTO> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(importEntryKafkaListenerConsumerFactory());
-        factory.setConcurrency(concurrencyLevel);
+        // the order is kept only inside a partition, the records of the same logbook are on the same partition
+        factory.setConcurrency(importConsumerConcurrency);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);  // Set AckMode to MANUAL
         return factory;
     }
@@ -2,6 +2,7 @@ package edu.stanford.slac.elog_plus.config;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.AllArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -39,4 +40,13 @@ public class MetricsConfiguration {
                 .description("The number of preview request submitted")
                 .register(meterRegistry);
     }
+
+    @Bean
+    public Timer previewCpuTimer() {
+        return Timer
+                .builder("elog_plus_preview_processing_cpu_time")
+                .description("The cpu time spent by the consumer thread to generate all the preview variants of an attachment")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
 }
@@ -1,12 +1,20 @@
 package edu.stanford.slac.elog_plus.config;
 
+import edu.stanford.slac.elog_plus.repository.FileSystemStorageRepository;
+import edu.stanford.slac.elog_plus.repository.S3AsyncStorageRepository;
+import edu.stanford.slac.elog_plus.repository.S3StorageRepository;
+import edu.stanford.slac.elog_plus.repository.StorageRepository;
 import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
@@ -21,7 +29,30 @@ import java.net.URI;
 public class StorageConfig {
     private final ELOGAppProperties elogAppProperties;
 
+    /**
+     * Create the storage repository for the configured backend, the S3 clients are
+     * created only when the S3 backend is used
+     */
     @Bean
+    public StorageRepository storageRepository(
+            ObjectProvider<S3Client> s3Client,
+            ObjectProvider<S3AsyncClient> s3AsyncClient
+    ) {
+        StorageProperties storageProperties = elogAppProperties.getStorage();
+        return switch (storageProperties.getBackend()) {
+            case FILESYSTEM -> new FileSystemStorageRepository(storageProperties);
+            case S3 -> {
+                // the synchronous client is always created because it check the bucket at startup
+                S3Client client = s3Client.getObject();
+                yield storageProperties.getAsyncClient() ?
+                        new S3AsyncStorageRepository(s3AsyncClient.getObject(), storageProperties) :
+                        new S3StorageRepository(client, storageProperties);
+            }
+        };
+    }
+
+    @Bean
+    @Lazy
     public S3Client s3Client() {
         Region region = Region.US_EAST_1;
         S3Client s3 = S3Client.builder()
@@ -52,6 +83,34 @@ public class StorageConfig {
         return s3;
     }
 
+    /**
+     * The non-blocking client is created only when it is requested by the async storage repository
+     * the bucket is created by the synchronous client
+     */
+    @Bean
+    @Lazy
+    public S3AsyncClient s3AsyncClient() {
+        return S3AsyncClient.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(
+                        StaticCredentialsProvider.create(
+                                AwsBasicCredentials.create(
+                                        elogAppProperties.getStorage().getKey(),
+                                        elogAppProperties.getStorage().getSecret()
+                                )
+                        )
+                )
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(true)
+                        .build())
+                .httpClientBuilder(
+                        NettyNioAsyncHttpClient.builder()
+                                .maxConcurrency(elogAppProperties.getStorage().getMaxInFlightRequests())
+                )
+                .endpointOverride(URI.create(elogAppProperties.getStorage().getUrl()))
+                .build();
+    }
+
     private boolean doesBucketExist(S3Client s3, String bucketName) {
         try {
             s3.headBucket(
@@ -8,8 +8,37 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @Setter
 @ConfigurationProperties(prefix = "edu.stanford.slac.elog-plus.storage")
 public class StorageProperties {
+    public enum StorageBackend {
+        S3,
+        FILESYSTEM
+    }
+
+    /**
+     * The backend where the attachment content is stored
+     */
+    private StorageBackend backend = StorageBackend.S3;
+    /**
+     * The root directory used by the filesystem backend
+     */
+    private String filesystemRoot;
     private String url;
     private String bucket;
     private String secret;
     private String key;
+    /**
+     * If true the storage is accessed using the non-blocking S3 client
+     */
+    private Boolean asyncClient = false;
+    /**
+     * The maximum number of request toward the storage that can be executed at the same time
+     */
+    private Integer maxInFlightRequests = 64;
+    /**
+     * The maximum time, in milliseconds, a request waits for a free slot before failing
+     */
+    private Long requestSlotTimeoutMs = 10000L;
+    /**
+     * The number of key space partitions scanned concurrently during the storage inventory
+     */
+    private Integer scanParallelism = 8;
 }
@@ -0,0 +1,28 @@
+package edu.stanford.slac.elog_plus.config;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+@Log4j2
+@Configuration
+public class TikaConfiguration {
+    /**
+     * The content type detector shared by all the requests
+     * <p>
+     * the default configuration scans all the parsers and detectors available on the classpath, so it is loaded
+     * only once and warmed up with a first detection that loads the mime types database
+     */
+    @Bean
+    public Detector tikaDetector() throws IOException {
+        Detector detector = TikaConfig.getDefaultConfig().getDetector();
+        log.info("Tika detector loaded, warm up detection: {}", detector.detect(new ByteArrayInputStream(new byte[]{'%', 'P', 'D', 'F', '-'}), new Metadata()));
+        return detector;
+    }
+}
@@ -1,13 +1,15 @@
 package edu.stanford.slac.elog_plus.config.auth;
 
 
-import com.hp.jipp.encoding.IppInputStream;
+import com.hp.jipp.encoding.IppPacket;
 import com.hp.jipp.encoding.NameType;
-import com.hp.jipp.trans.IppPacketData;
-import edu.stanford.slac.ad.eed.baselib.auth.jwt.SLACAuthenticationToken;
 import edu.stanford.slac.ad.eed.baselib.config.AppProperties;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.config.filters.SpooledIppRequest;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.log4j.Log4j2;
@@ -20,9 +22,7 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Collections;
 
 import static com.hp.jipp.encoding.Tag.jobAttributes;
 
@@ -30,13 +30,29 @@ import static com.hp.jipp.encoding.Tag.jobAttributes;
 @Log4j2
 public class IPPAuthenticationFilter extends AbstractAuthenticationProcessingFilter {
     private final AppProperties appProperties;
+    private final ELOGAppProperties elogAppProperties;
+    private final TokenAuthenticationCache tokenAuthenticationCache;
 
     public IPPAuthenticationFilter(final String matcher,
                                    AuthenticationManager authenticationManager,
-                                   AppProperties appProperties) {
+                                   AppProperties appProperties,
+                                   ELOGAppProperties elogAppProperties,
+                                   TokenAuthenticationCache tokenAuthenticationCache) {
         super(matcher);
         super.setAuthenticationManager(authenticationManager);
         this.appProperties = appProperties;
+        this.elogAppProperties = elogAppProperties;
+        this.tokenAuthenticationCache = tokenAuthenticationCache;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        try {
+            super.doFilter(request, response, chain);
+        } finally {
+            // the spooled document is released when the request has been completely processed
+            SpooledIppRequest.release((HttpServletRequest) request);
+        }
     }
 
 
@@ -46,20 +62,14 @@ public class IPPAuthenticationFilter extends AbstractAuthenticationProcessingFil
             // If media type is not "application/ipp", pass the request to the next filter in the chain
             throw new AuthenticationServiceException("Unsupported media type");
         }
-        Authentication auth = null;
-        IppInputStream inputStream = new IppInputStream(request.getInputStream());
-        IppPacketData data = new IppPacketData(inputStream.readPacket(), inputStream);
-        String jwtIppAuthenticationToken = data.getPacket().getString(jobAttributes, new NameType.Set("jwt"));
-        if (jwtIppAuthenticationToken == null) {
-            auth = SLACAuthenticationToken.builder().build();
-        } else {
-            log.debug("Received IPP JWT token: " + data.getPacket().prettyPrint(100, " "));
-            auth = SLACAuthenticationToken
-                    .builder()
-                    .userToken(jwtIppAuthenticationToken)
-                    .build();
+        // the packet is parsed only once and shared with the controller by a request attribute
+        IppPacket packet = SpooledIppRequest.of(request, elogAppProperties.getIppSpoolThresholdBytes()).getPacket();
+        String jwtIppAuthenticationToken = packet.getString(jobAttributes, new NameType.Set("jwt"));
+        if (jwtIppAuthenticationToken != null) {
+            log.debug("Received IPP JWT token: " + packet.prettyPrint(100, " "));
         }
-        return getAuthenticationManager().authenticate(auth);
+        // a printer sends all the jobs with the same token, so it is validated only once
+        return tokenAuthenticationCache.authenticate(jwtIppAuthenticationToken);
     }
 
     @Override
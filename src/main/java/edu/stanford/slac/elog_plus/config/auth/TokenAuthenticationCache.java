@@ -0,0 +1,150 @@
+package edu.stanford.slac.elog_plus.config.auth;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.slac.ad.eed.baselib.auth.jwt.SLACAuthenticationToken;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the authentications of the validated user tokens
+ * <p>
+ * used by the paths where the same token is received many times in a short period, as the records of an import
+ * or the jobs sent by a printer. The tokens are kept by their SHA-256 hash in a bounded LRU map and each one
+ * expires after the configured time, or before when the token itself expires. The failed authentications are
+ * never cached.
+ */
+@Log4j2
+@Component
+public class TokenAuthenticationCache {
+    private final AuthenticationManager authenticationManager;
+    private final ObjectMapper objectMapper;
+    private final long ttlMillis;
+    private final Map<String, CachedAuthentication> authenticationByTokenHash;
+    private final Timer verificationTimer;
+    private final Counter hitCounter;
+    private final Counter savedTimeCounter;
+
+    public TokenAuthenticationCache(
+            AuthenticationManager authenticationManager,
+            ObjectMapper objectMapper,
+            ELOGAppProperties appProperties,
+            MeterRegistry meterRegistry
+    ) {
+        this.authenticationManager = authenticationManager;
+        this.objectMapper = objectMapper;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(appProperties.getAuthenticationCacheTtlSeconds());
+        int maxSize = appProperties.getAuthenticationCacheMaxSize();
+        this.authenticationByTokenHash = Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedAuthentication> eldest) {
+                        return size() > maxSize;
+                    }
+                }
+        );
+        this.verificationTimer = Timer.builder("elog_plus_token_authentication_verification_time")
+                .description("The time spent validating the user tokens not found in the cache")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.hitCounter = Counter.builder("elog_plus_token_authentication_cache_hit")
+                .description("The number of authentications served by the cache")
+                .register(meterRegistry);
+        this.savedTimeCounter = Counter.builder("elog_plus_token_authentication_saved_time")
+                .description("The estimated validation time saved by the cache, as the mean validation time of every hit")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("elog_plus_token_authentication_cache_size", authenticationByTokenHash, Map::size)
+                .description("The number of authentications in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Return the authentication of the user token, validating it only if not already in the cache
+     *
+     * @param userToken the user token, can be null for the anonymous authentication
+     * @return the authentication of the user
+     * @throws org.springframework.security.core.AuthenticationException if the token is not valid
+     */
+    public Authentication authenticate(String userToken) {
+        if (userToken == null || userToken.isBlank()) {
+            return authenticationManager.authenticate(SLACAuthenticationToken.builder().build());
+        }
+        String tokenHash = hash(userToken);
+        long now = System.currentTimeMillis();
+        CachedAuthentication cached = authenticationByTokenHash.get(tokenHash);
+        if (cached != null) {
+            if (cached.expireAt() > now) {
+                hitCounter.increment();
+                savedTimeCounter.increment(verificationTimer.mean(TimeUnit.SECONDS));
+                return cached.authentication();
+            }
+            authenticationByTokenHash.remove(tokenHash, cached);
+        }
+
+        long start = System.nanoTime();
+        Authentication authentication = authenticationManager.authenticate(
+                SLACAuthenticationToken
+                        .builder()
+                        .userToken(userToken)
+                        .build()
+        );
+        verificationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        // the cached authentication cannot outlive the token
+        long expireAt = expirationOf(userToken)
+                .map(expiration -> Math.min(expiration.toEpochMilli(), now + ttlMillis))
+                .orElse(now + ttlMillis);
+        if (expireAt > now) {
+            authenticationByTokenHash.put(tokenHash, new CachedAuthentication(authentication, expireAt));
+        }
+        return authentication;
+    }
+
+    /**
+     * Return the expiration of the token reading the exp claim, the token must be already validated
+     *
+     * @param userToken the JWT token
+     * @return the expiration of the token, empty if the token has no expiration or cannot be decoded
+     */
+    Optional<Instant> expirationOf(String userToken) {
+        String[] parts = userToken.split("\\.");
+        if (parts.length < 2) return Optional.empty();
+        try {
+            JsonNode claims = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1]));
+            JsonNode exp = claims.get("exp");
+            if (exp == null || !exp.canConvertToLong()) return Optional.empty();
+            return Optional.of(Instant.ofEpochSecond(exp.asLong()));
+        } catch (Exception e) {
+            log.debug("Cannot decode the expiration of the token: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static String hash(String userToken) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(userToken.getBytes(StandardCharsets.UTF_8))
+            );
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record CachedAuthentication(Authentication authentication, long expireAt) {
+    }
+}
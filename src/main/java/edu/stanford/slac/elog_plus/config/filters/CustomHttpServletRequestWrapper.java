@@ -1,71 +0,0 @@
-package edu.stanford.slac.elog_plus.config.filters;
-
-import jakarta.servlet.ReadListener;
-import jakarta.servlet.ServletInputStream;
-import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletRequestWrapper;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-public class CustomHttpServletRequestWrapper extends HttpServletRequestWrapper {
-    private byte[] requestBody;
-    public CustomHttpServletRequestWrapper(HttpServletRequest request) throws IOException {
-        super(request);
-        requestBody = readBody(request.getInputStream());
-    }
-
-    private byte[] readBody(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = inputStream.read(buffer)) != -1) {
-            byteArrayOutputStream.write(buffer, 0, length);
-        }
-        return byteArrayOutputStream.toByteArray();
-    }
-
-    @Override
-    public ServletInputStream getInputStream() throws IOException {
-        return new CustomServletInputStream(new ByteArrayInputStream(requestBody));
-    }
-
-    public byte[] getRequestBody() {
-        return requestBody;
-    }
-
-    private static class CustomServletInputStream extends ServletInputStream {
-
-        private final InputStream inputStream;
-
-        public CustomServletInputStream(InputStream inputStream) {
-            this.inputStream = inputStream;
-        }
-
-        @Override
-        public boolean isFinished() {
-            try {
-                return inputStream.available() == 0;
-            } catch (IOException e) {
-                return false;
-            }
-        }
-
-        @Override
-        public boolean isReady() {
-            return true;
-        }
-
-        @Override
-        public void setReadListener(ReadListener readListener) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int read() throws IOException {
-            return inputStream.read();
-        }
-    }
-}
\ No newline at end of file
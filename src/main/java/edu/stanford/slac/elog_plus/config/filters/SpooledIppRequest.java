@@ -0,0 +1,154 @@
+package edu.stanford.slac.elog_plus.config.filters;
+
+import com.hp.jipp.encoding.IppInputStream;
+import com.hp.jipp.encoding.IppPacket;
+import com.hp.jipp.trans.IppPacketData;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An IPP request parsed once from the body of the http request
+ * <p>
+ * the header is decoded directly from the request stream, the document that follows it is kept in memory
+ * up to the threshold and spooled on a temporary file when bigger, so the request body is never copied
+ * entirely in memory. The stream of the document report the exact number of remaining bytes as available
+ * because it is used as content length by the storage. The instance is shared with the controller by the
+ * {@link #REQUEST_ATTRIBUTE} request attribute and the temporary file is removed when it is closed, at the end
+ * of the request or, when it has been detached, by the asynchronous job that consume it.
+ */
+@Log4j2
+public class SpooledIppRequest implements Closeable {
+    public static final String REQUEST_ATTRIBUTE = SpooledIppRequest.class.getName();
+    private static final int BUFFER_SIZE = 8 * 1024;
+    @Getter
+    private final IppPacket packet;
+    private final InputStream document;
+    private final Path spoolFile;
+    private final AtomicBoolean detached = new AtomicBoolean(false);
+
+    private SpooledIppRequest(IppPacket packet, InputStream document, Path spoolFile) {
+        this.packet = packet;
+        this.document = document;
+        this.spoolFile = spoolFile;
+    }
+
+    /**
+     * Return the IPP request of the http request, parsing and storing it on the request the first time
+     *
+     * @param request        the http request
+     * @param spoolThreshold the size in bytes over which the document is spooled on a temporary file
+     * @return the parsed IPP request
+     * @throws IOException if the request cannot be read or parsed
+     */
+    public static SpooledIppRequest of(HttpServletRequest request, int spoolThreshold) throws IOException {
+        if (request.getAttribute(REQUEST_ATTRIBUTE) instanceof SpooledIppRequest spooledIppRequest) {
+            return spooledIppRequest;
+        }
+        SpooledIppRequest spooledIppRequest = read(request.getInputStream(), spoolThreshold);
+        request.setAttribute(REQUEST_ATTRIBUTE, spooledIppRequest);
+        return spooledIppRequest;
+    }
+
+    /**
+     * Release the IPP request stored on the http request if any
+     *
+     * @param request the http request
+     */
+    public static void release(HttpServletRequest request) {
+        if (request.getAttribute(REQUEST_ATTRIBUTE) instanceof SpooledIppRequest spooledIppRequest) {
+            request.removeAttribute(REQUEST_ATTRIBUTE);
+            if (!spooledIppRequest.detached.get()) {
+                spooledIppRequest.close();
+            }
+        }
+    }
+
+    /**
+     * Detach the document from the http request, it is not released at the end of the request
+     * and must be closed by the caller
+     *
+     * @return this instance
+     */
+    public SpooledIppRequest detach() {
+        detached.set(true);
+        return this;
+    }
+
+    /**
+     * Parse the IPP header and spool the document that follows it
+     *
+     * @param inputStream    the stream of the request body
+     * @param spoolThreshold the size in bytes over which the document is spooled on a temporary file
+     * @return the parsed IPP request
+     * @throws IOException if the request cannot be read or parsed
+     */
+    static SpooledIppRequest read(InputStream inputStream, int spoolThreshold) throws IOException {
+        IppInputStream ippInputStream = new IppInputStream(inputStream);
+        IppPacket packet = ippInputStream.readPacket();
+
+        ByteArrayOutputStream memoryBuffer = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = ippInputStream.read(buffer)) != -1) {
+            memoryBuffer.write(buffer, 0, bytesRead);
+            if (memoryBuffer.size() > spoolThreshold) {
+                return new SpooledIppRequest(packet, null, spool(memoryBuffer, ippInputStream));
+            }
+        }
+        return new SpooledIppRequest(packet, new ByteArrayInputStream(memoryBuffer.toByteArray()), null);
+    }
+
+    /**
+     * Write on a temporary file the bytes already read followed by the rest of the stream
+     */
+    private static Path spool(ByteArrayOutputStream memoryBuffer, InputStream remaining) throws IOException {
+        Path spoolFile = Files.createTempFile("elog-ipp-", ".spool");
+        try (OutputStream os = Files.newOutputStream(spoolFile)) {
+            memoryBuffer.writeTo(os);
+            remaining.transferTo(os);
+        } catch (IOException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+        log.debug("IPP document spooled on {}", spoolFile);
+        return spoolFile;
+    }
+
+    /**
+     * Return the IPP packet data with the stream of the document
+     * <p>
+     * the stream support mark and reset so the content type can be detected before the document is consumed
+     *
+     * @return the packet data
+     * @throws IOException if the spooled document cannot be opened
+     */
+    public IppPacketData getPacketData() throws IOException {
+        InputStream documentStream = spoolFile == null ?
+                document :
+                new BufferedInputStream(new FileInputStream(spoolFile.toFile()), BUFFER_SIZE);
+        return new IppPacketData(packet, documentStream);
+    }
+
+    /**
+     * Return true if the document has been spooled on a temporary file
+     */
+    public boolean isSpooled() {
+        return spoolFile != null;
+    }
+
+    @Override
+    public void close() {
+        if (spoolFile == null) return;
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            log.warn("Error removing the IPP spool file {}: {}", spoolFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package edu.stanford.slac.elog_plus.consumer;
+
+import edu.stanford.slac.elog_plus.model.PreviewLane;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics of the preview priority lanes
+ * <p>
+ * the lag of a lane is the sum of the last lag observed by its consumers on every assigned partition,
+ * the end-to-end latency is the time from the publication of the preview request to the completion of the preview
+ */
+@Component
+public class PreviewLaneMetrics {
+    private final Map<PreviewLane, Map<TopicPartition, Long>> laneLag = new EnumMap<>(PreviewLane.class);
+    private final Map<PreviewLane, Timer> laneLatency = new EnumMap<>(PreviewLane.class);
+
+    public PreviewLaneMetrics(MeterRegistry meterRegistry) {
+        for (PreviewLane lane : PreviewLane.values()) {
+            Map<TopicPartition, Long> partitionLag = new ConcurrentHashMap<>();
+            laneLag.put(lane, partitionLag);
+            Gauge.builder("elog_plus_preview_lane_lag", partitionLag, lag -> lag.values().stream().mapToLong(Long::longValue).sum())
+                    .tag("lane", lane.name())
+                    .description("The number of preview requests waiting in the lane")
+                    .register(meterRegistry);
+            laneLatency.put(
+                    lane,
+                    Timer.builder("elog_plus_preview_end_to_end_latency")
+                            .tag("lane", lane.name())
+                            .description("The time from the preview request to the completion of the preview")
+                            .publishPercentileHistogram()
+                            .register(meterRegistry)
+            );
+        }
+    }
+
+    /**
+     * Update the lag of the partition from which a record has been received
+     *
+     * @param lane      the lane of the record
+     * @param consumer  the consumer that received the record
+     * @param topic     the topic of the record
+     * @param partition the partition of the record
+     */
+    public void recordLag(PreviewLane lane, Consumer<?, ?> consumer, String topic, int partition) {
+        if (consumer == null) return;
+        TopicPartition topicPartition = new TopicPartition(topic, partition);
+        OptionalLong lag = consumer.currentLag(topicPartition);
+        if (lag.isPresent()) {
+            laneLag.get(lane).put(topicPartition, lag.getAsLong());
+        }
+    }
+
+    /**
+     * Record the end-to-end latency of a completed preview
+     *
+     * @param lane            the lane of the request
+     * @param recordTimestamp the timestamp of the record that requested the preview
+     */
+    public void recordLatency(PreviewLane lane, long recordTimestamp) {
+        if (recordTimestamp <= 0) return;
+        laneLatency.get(lane).record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - recordTimestamp)));
+    }
+}
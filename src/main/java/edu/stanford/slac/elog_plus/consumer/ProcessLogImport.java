@@ -1,15 +1,15 @@
 package edu.stanford.slac.elog_plus.consumer;
 
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.AuthorizationTypeDTO;
-import edu.stanford.slac.ad.eed.baselib.auth.jwt.SLACAuthenticationToken;
 import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
 import edu.stanford.slac.ad.eed.baselib.service.AuthService;
 import edu.stanford.slac.elog_plus.api.v1.dto.EntryImportDTO;
-import edu.stanford.slac.elog_plus.api.v1.dto.NewLogbookDTO;
 import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryDTO;
+import edu.stanford.slac.elog_plus.config.auth.TokenAuthenticationCache;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
 import edu.stanford.slac.elog_plus.service.ImportService;
 import edu.stanford.slac.elog_plus.service.LogbookService;
+import edu.stanford.slac.elog_plus.utility.StringUtilities;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
@@ -19,7 +19,6 @@ import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.retry.annotation.Backoff;
-import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
@@ -27,12 +26,18 @@ import org.springframework.stereotype.Component;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.*;
 
+/**
+ * Consume the import topic
+ * <p>
+ * the topic is consumed by many consumers, the producers key the records with {@link #importKey(ImportEntryDTO)}
+ * so the entries of the same logbooks are on the same partition and imported in order. The creation of the
+ * logbooks and tags is deduplicated by the {@link ImportService} among the records processed in parallel.
+ */
 @Log4j2
 @Component
 @AllArgsConstructor
@@ -40,7 +45,8 @@ public class ProcessLogImport {
     private final AuthService authService;
     private final ImportService importService;
     private final LogbookService logbookService;
-    private final AuthenticationManager authenticationManager;
+    // the same token is used for all the records of an import so it is validated only once
+    private final TokenAuthenticationCache tokenAuthenticationCache;
 
     @RetryableTopic(
             attempts = "3",
@@ -60,8 +66,9 @@ public class ProcessLogImport {
             ) {
         try {
             if(!headers.containsKey("Authorization")) {
-                log.info("Authorization header present message will not be processed {}", headers);
+                log.info("Authorization header not present message will not be processed {}", headers);
                 acknowledgment.acknowledge();
+                return;
             }
             if (importEntryDTO.entry() == null) {
                 log.error("[import] Received message without entry to import");
@@ -70,13 +77,8 @@ public class ProcessLogImport {
             }
             List<FileObjectDescription> attachmentList = new ArrayList<>();
             // create authentication token validating the user token
-            Authentication authentication = authenticationManager.authenticate(
-                    SLACAuthenticationToken
-                    .builder()
-                    .userToken(
-                            new String(Objects.requireNonNull(headers.get("Authorization", byte[].class)), StandardCharsets.UTF_8)
-                    )
-                    .build()
+            Authentication authentication = tokenAuthenticationCache.authenticate(
+                    new String(Objects.requireNonNull(headers.get("Authorization", byte[].class)), StandardCharsets.UTF_8)
             );
             // authorize current context
             SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -90,41 +92,21 @@ public class ProcessLogImport {
                 return;
             }
             boolean isRoot = authService.checkForRoot(authentication);
-            List<String> notFoundLogbook = importEntryDTO.entry().logbooks()
-                    .stream()
-                    .filter(logbookName -> !logbookService.existByName(logbookName))
-                    .toList();
-
-            assertion(
-                    ControllerLogicException
-                            .builder()
-                            .errorCode(-1)
-                            .errorMessage("User not autowired to create logbooks")
-                            .errorDomain("ProcessLogImport::processImport")
-                            .build(),
-                    () -> any(
-                            // or the logbook is empty
-                            notFoundLogbook::isEmpty,
-                            // or the user is root
-                            () -> all(
-                                    () -> !notFoundLogbook.isEmpty(),
-                                    () -> isRoot
-                            )
-                    )
-            );
-            log.info("[import {}] logbooks to create: {}", importEntryDTO.entry().title(), notFoundLogbook);
-            // if we are here and there are logbooks not found, the user is root
-            notFoundLogbook.forEach(
-                    logbookName -> {
-                        log.info("[import {}] logbooks {}, creating", importEntryDTO.entry().title(), logbookName);
-                        logbookService.createNew(
-                                NewLogbookDTO
-                                        .builder()
-                                        .name(logbookName)
-                                        .build()
-                        );
-                    }
-            );
+            List<String> logbooksId = new ArrayList<>();
+            for (String logbookName : importEntryDTO.entry().logbooks()) {
+                // the logbook is created only if the user is root
+                Optional<String> logbookId = importService.ensureLogbook(logbookName, isRoot);
+                assertion(
+                        ControllerLogicException
+                                .builder()
+                                .errorCode(-1)
+                                .errorMessage("User not autowired to create logbooks")
+                                .errorDomain("ProcessLogImport::processImport")
+                                .build(),
+                        logbookId::isPresent
+                );
+                logbooksId.add(logbookId.get());
+            }
 
             // authorize reader on logbook
             if (importEntryDTO.readerUserIds() != null && !importEntryDTO.readerUserIds().isEmpty()) {
@@ -137,8 +119,6 @@ public class ProcessLogImport {
             }
 
             // import the entry
-            log.info("[import {}] get logbooks id", importEntryDTO.entry().title());
-            var logbooksId =  importService.getLogbooksIdsByNames(importEntryDTO.entry().logbooks());
             log.info("[import {}] convert and get tags id", importEntryDTO.entry().title());
             var tagsId = importService.ensureTagsNamesOnAllLogbooks(importEntryDTO.entry().tags(), importEntryDTO.entry().logbooks());
             EntryImportDTO entryToImport = importEntryDTO.entry().toBuilder()
@@ -157,4 +137,21 @@ public class ProcessLogImport {
             log.error("Error processing message {} with stacktrace {}", e.getMessage(), sw.toString());
         }
     }
+
+    /**
+     * Return the key to use for publishing an import record, the entries of the same logbooks have
+     * the same key so they are published on the same partition and imported in order
+     *
+     * @param importEntryDTO the entry to import
+     * @return the key of the record
+     */
+    public static String importKey(ImportEntryDTO importEntryDTO) {
+        if (importEntryDTO.entry() == null || importEntryDTO.entry().logbooks() == null) return null;
+        return importEntryDTO.entry().logbooks()
+                .stream()
+                .map(StringUtilities::logbookNameNormalization)
+                .distinct()
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
 }
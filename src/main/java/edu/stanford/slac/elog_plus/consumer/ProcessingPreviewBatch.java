@@ -0,0 +1,177 @@
+package edu.stanford.slac.elog_plus.consumer;
+
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.PreviewLane;
+import edu.stanford.slac.elog_plus.service.PreviewGenerationService;
+import lombok.extern.log4j.Log4j2;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Batch consumer of the bulk preview lane
+ * <p>
+ * the records of a poll are grouped by key and every group is processed in order by one thread of
+ * a CPU sized worker pool, so the records of the same attachment are never processed concurrently.
+ * At the end of the batch only the contiguous prefix of completed records is committed, the others are
+ * sought back and redelivered with the next poll. A record that fails all the attempts is left in the
+ * error state and committed as the single record listener does after the last retry topic.
+ */
+@Log4j2
+@Component
+public class ProcessingPreviewBatch implements DisposableBean {
+    public static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MS = 2_000;
+    private static final Duration REDELIVERY_BACKOFF = Duration.ofSeconds(2);
+    private final PreviewGenerationService previewGenerationService;
+    private final ELOGAppProperties appProperties;
+    private final PreviewLaneMetrics previewLaneMetrics;
+    private final ExecutorService workerPool;
+
+    public ProcessingPreviewBatch(PreviewGenerationService previewGenerationService, ELOGAppProperties appProperties, PreviewLaneMetrics previewLaneMetrics) {
+        this.previewGenerationService = previewGenerationService;
+        this.appProperties = appProperties;
+        this.previewLaneMetrics = previewLaneMetrics;
+        int workers = appProperties.getPreviewBatchWorkers() > 0 ?
+                appProperties.getPreviewBatchWorkers() :
+                Runtime.getRuntime().availableProcessors();
+        this.workerPool = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("preview-batch-"));
+    }
+
+    @KafkaListener(
+            topics = "${edu.stanford.slac.elog-plus.image-preview-bulk-topic}",
+            containerFactory = "attachmentBatchKafkaListenerContainerFactory",
+            autoStartup = "${edu.stanford.slac.elog-plus.preview-batch-enabled:false}"
+    )
+    public void processPreviewBatch(List<ConsumerRecord<String, Attachment>> records, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        log.info("Process preview batch of {} records", records.size());
+        records.stream()
+                .map(record -> new TopicPartition(record.topic(), record.partition()))
+                .distinct()
+                .forEach(topicPartition -> previewLaneMetrics.recordLag(PreviewLane.Bulk, consumer, topicPartition.topic(), topicPartition.partition()));
+        int completedPrefix = processBatch(records);
+        if (completedPrefix == records.size()) {
+            acknowledgment.acknowledge();
+        } else {
+            log.warn("Preview batch completed only {} of {} records, the others will be redelivered", completedPrefix, records.size());
+            acknowledgment.nack(completedPrefix, REDELIVERY_BACKOFF);
+        }
+    }
+
+    /**
+     * Process all the records of the batch on the worker pool
+     *
+     * @param records the records of the batch
+     * @return the number of contiguous records completed from the start of the batch
+     */
+    int processBatch(List<ConsumerRecord<String, Attachment>> records) {
+        AtomicIntegerArray completed = new AtomicIntegerArray(records.size());
+        List<Future<?>> groupsProcessing = new ArrayList<>();
+        for (List<Integer> group : groupByKey(records).values()) {
+            groupsProcessing.add(workerPool.submit(() -> processGroup(records, group, completed)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(appProperties.getPreviewBatchTimeoutSeconds());
+        try {
+            for (Future<?> groupProcessing : groupsProcessing) {
+                groupProcessing.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            log.error("Preview batch not completed in {} seconds", appProperties.getPreviewBatchTimeoutSeconds());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Error processing a preview batch group: {}", e.getCause().getMessage());
+        } finally {
+            groupsProcessing.forEach(groupProcessing -> groupProcessing.cancel(true));
+        }
+
+        int completedPrefix = 0;
+        while (completedPrefix < records.size() && completed.get(completedPrefix) == 1) {
+            completedPrefix++;
+        }
+        return completedPrefix;
+    }
+
+    /**
+     * Group the index of the records by the record key, or by the attachment id for the records without key,
+     * keeping the order of the batch inside every group
+     */
+    private static Map<String, List<Integer>> groupByKey(List<ConsumerRecord<String, Attachment>> records) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int idx = 0; idx < records.size(); idx++) {
+            ConsumerRecord<String, Attachment> record = records.get(idx);
+            String key = record.key();
+            if (key == null) {
+                key = record.value() != null ? record.value().getId() : "offset-%d-%d".formatted(record.partition(), record.offset());
+            }
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(idx);
+        }
+        return groups;
+    }
+
+    /**
+     * Process in order the records of a group, stop at the first record that cannot be completed
+     * because the processing has been interrupted
+     */
+    private void processGroup(List<ConsumerRecord<String, Attachment>> records, List<Integer> group, AtomicIntegerArray completed) {
+        for (Integer idx : group) {
+            if (Thread.currentThread().isInterrupted() || !processRecord(records.get(idx))) {
+                return;
+            }
+            completed.set(idx, 1);
+        }
+    }
+
+    /**
+     * Generate the preview of the record retrying in case of error
+     *
+     * @return true if the record has been completed, also when all the attempts have failed
+     */
+    private boolean processRecord(ConsumerRecord<String, Attachment> record) {
+        if (record.value() == null) {
+            log.error("Preview record without attachment at {}-{} @ {}", record.topic(), record.partition(), record.offset());
+            return true;
+        }
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                log.info("Process preview for attachment: {} from {}-{} @ {} attempt {}", record.value(), record.topic(), record.partition(), record.offset(), attempt);
+                previewGenerationService.generatePreview(record.value());
+                previewLaneMetrics.recordLatency(PreviewLane.Bulk, record.timestamp());
+                return true;
+            } catch (Throwable e) {
+                if (Thread.currentThread().isInterrupted()) return false;
+                if (attempt == MAX_ATTEMPTS) {
+                    log.error("Preview generation failed for the attachment {} after {} attempts", record.value().getId(), MAX_ATTEMPTS);
+                    return true;
+                }
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        workerPool.shutdownNow();
+    }
+}
@@ -0,0 +1,57 @@
+package edu.stanford.slac.elog_plus.migration;
+
+import edu.stanford.slac.elog_plus.model.Attachment;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+@Log4j2
+@AllArgsConstructor
+@ChangeUnit(id = "attachment-content-hash-index", order = "12", author = "bisegni")
+public class M012_CreateAttachmentContentHashIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                Attachment.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "contentHash",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "canBeDeleted",
+                                Sort.Direction.ASC
+                        )
+                        .sparse()
+                        .named("contentHash")
+        );
+        MongoDDLOps.createIndex(
+                Attachment.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "storageId",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "canBeDeleted",
+                                Sort.Direction.ASC
+                        )
+                        .sparse()
+                        .named("storageId")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+    }
+
+}
@@ -0,0 +1,48 @@
+package edu.stanford.slac.elog_plus.migration;
+
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+@Log4j2
+@AllArgsConstructor
+@ChangeUnit(id = "outbox-event-index", order = "15", author = "bisegni")
+public class M015_CreateOutboxEventIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                OutboxEvent.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "createdDate",
+                                Sort.Direction.ASC
+                        )
+                        .named("createdDate")
+        );
+        MongoDDLOps.createIndex(
+                OutboxEvent.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "processingId",
+                                Sort.Direction.ASC
+                        )
+                        .sparse()
+                        .named("processingId")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+    }
+
+}
@@ -0,0 +1,52 @@
+package edu.stanford.slac.elog_plus.migration;
+
+import edu.stanford.slac.elog_plus.model.Attachment;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+@Log4j2
+@AllArgsConstructor
+@ChangeUnit(id = "attachment-reap-index", order = "16", author = "bisegni")
+public class M016_CreateAttachmentReapIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                Attachment.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "canBeDeleted",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "processingTimestamp",
+                                Sort.Direction.ASC
+                        )
+                        .named("claimNextDeletable")
+        );
+        MongoDDLOps.createIndex(
+                Attachment.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "previewID",
+                                Sort.Direction.ASC
+                        )
+                        .sparse()
+                        .named("previewID")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+    }
+
+}
@@ -0,0 +1,46 @@
+package edu.stanford.slac.elog_plus.migration;
+
+import edu.stanford.slac.elog_plus.model.Entry;
+import edu.stanford.slac.elog_plus.service.EntryShiftKeysService;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+@Log4j2
+@AllArgsConstructor
+@ChangeUnit(id = "entry-shift-keys", order = "17", author = "bisegni")
+public class M017_CreateEntryShiftKeys {
+    private final MongoTemplate mongoTemplate;
+    private final EntryShiftKeysService entryShiftKeysService;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                Entry.class,
+                mongoTemplate,
+                new Index()
+                        .on(
+                                "shiftKeys",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "eventAt",
+                                Sort.Direction.DESC
+                        )
+                        .named("shiftKeysEventAt")
+        );
+        // backfill the shift keys of the existing entries
+        long updated = entryShiftKeysService.recomputeAll();
+        log.info("[entry shift keys] updated entries: {}", updated);
+    }
+
+    @RollbackExecution
+    public void rollback() {
+    }
+
+}
@@ -7,6 +7,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 import java.util.Date;
+import java.util.Map;
 
 @Getter
 @Setter
@@ -33,6 +34,19 @@ public class Attachment {
      * Field to store the file content
      */
     private String contentType;
+    /**
+     * Field to store the SHA-256 hash of the file content
+     */
+    private String contentHash;
+    /**
+     * Field to store the size in bytes of the file content
+     */
+    private Long contentLength;
+    /**
+     * Field to store the id of the stored object that hold the content
+     * the same stored object can be shared by all the attachment with the same content hash
+     */
+    private String storageId;
     /**
      * Field to store the file size
      */
@@ -41,6 +55,11 @@ public class Attachment {
      * Field to store the preview ID
      */
     private String previewID;
+    /**
+     * Field to store the preview variants, the key is the width of the variant
+     * and the value is the id of the stored object
+     */
+    private Map<String, String> previewVariants;
     /**
      * Field to store the reference information
      */
@@ -59,11 +78,25 @@ public class Attachment {
      */
     @Builder.Default
     private Boolean canBeDeleted = false;
+    /**
+     * Field to store when the attachment has been tagged as to be deleted
+     */
+    private Date canBeDeletedTimestamp;
+    /**
+     * Field to store the last time the content has been reused by another attachment
+     */
+    private LocalDateTime contentReusedDate;
     /**
      * Field to mark the preview processing state
      */
     @Builder.Default
     private PreviewProcessingState previewState = PreviewProcessingState.Waiting;
+    /**
+     * Field incremented on every transition of the preview processing, used to guard the
+     * transitions against a concurrent processing of the same attachment
+     */
+    @Builder.Default
+    private Long previewRevision = 0L;
     /**
      * Field to mark the creation date
      */
@@ -0,0 +1,35 @@
+package edu.stanford.slac.elog_plus.model;
+
+import lombok.*;
+
+/**
+ * Result of a run of the physical deletion of the attachments tagged as to be deleted
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class AttachmentReapResult {
+    /**
+     * The number of attachment removed
+     */
+    private long deletedAttachments;
+    /**
+     * The number of stored objects removed, contents and previews
+     */
+    private long deletedObjects;
+    /**
+     * The number of bytes of the removed contents
+     */
+    private long reclaimedBytes;
+    /**
+     * The number of attachment left for the next run because some of their stored objects cannot be removed
+     */
+    private long failedAttachments;
+    /**
+     * The time spent for the run in milliseconds
+     */
+    private long elapsedMillis;
+}
@@ -52,6 +52,23 @@ public class Entry {
     private List<String> referencedBy = new ArrayList<>();
     private LocalDateTime loggedAt;
     private LocalDateTime eventAt;
+    /**
+     * The keys of the shifts that contain the event time, one for every logbook of the entry with a matching shift,
+     * in the form logbookId:shiftId:yyyy-MM-dd where the date is the day when the shift started.
+     * This field is computed on creation and recomputed when the shifts of a logbook change.
+     */
+    @Builder.Default
+    private List<String> shiftKeys = new ArrayList<>();
+    /**
+     * The origin ids of the references of an imported entry not yet resolved to the local ids.
+     * This field is present only on the entries imported with deferred reference resolution.
+     */
+    private List<String> unresolvedReferencesByOriginId;
+    /**
+     * The origin id of the entry superseded by an imported entry not yet resolved to the local id.
+     * This field is present only on the entries imported with deferred reference resolution.
+     */
+    private String unresolvedSupersedeOfByOriginId;
     /**
      * The list of user IDs that need to be notified by email when the entry is created.
      */
@@ -0,0 +1,85 @@
+package edu.stanford.slac.elog_plus.model;
+
+import lombok.*;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A side effect waiting to be dispatched
+ * <p>
+ * the event is written together with the change that generates it and is dispatched
+ * asynchronously, it is removed when the dispatch has been completed. An event that reaches the
+ * maximum number of attempts is marked as exhausted and kept for the retention period
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@Document()
+public class OutboxEvent {
+    public enum Type {
+        NewEntryNotification,
+        PreviewRequest,
+        ReferencedEntriesCacheEviction,
+        EntryShiftKeysRecompute
+    }
+    @Id
+    private String id;
+    /**
+     * Field to store the type of the side effect
+     */
+    private Type type;
+    /**
+     * Field to store the id of the model that generated the event
+     */
+    private String referenceId;
+    /**
+     * Field to store the email addresses to notify
+     */
+    private List<String> recipients;
+    /**
+     * Field to store the lane where the preview is requested
+     */
+    private PreviewLane previewLane;
+    /**
+     * Field to store the caches from which the referenced entries are evicted
+     */
+    private List<String> cacheNames;
+    /**
+     * Field to store the id of the last entry processed by a recompute, so an interrupted recompute is resumed from there
+     */
+    private String lastProcessedId;
+    /**
+     * Field to store the number of failed dispatch
+     */
+    @Builder.Default
+    private Integer attempts = 0;
+    /**
+     * Field to store the error of the last failed dispatch
+     */
+    private String lastError;
+    /**
+     * Field to store when the event reached the maximum number of attempts and has not been retried anymore
+     */
+    private LocalDateTime exhaustedDate;
+    /**
+     * Field to mark the creation date
+     */
+    @CreatedDate
+    private LocalDateTime createdDate;
+    /**
+     * Field to mark processing
+     */
+    private String processingId;
+    /**
+     * Field to store the processing timestamp
+     */
+    private Date processingTimestamp;
+}
@@ -0,0 +1,17 @@
+package edu.stanford.slac.elog_plus.model;
+
+/**
+ * The priority lane used to request the preview of an attachment
+ * <p>
+ * every lane has its own topic and consumers so the bulk requests never delay the interactive ones
+ */
+public enum PreviewLane {
+    /**
+     * Attachment uploaded by a user waiting for the preview
+     */
+    Interactive,
+    /**
+     * Attachment created by an import
+     */
+    Bulk
+}
@@ -31,6 +31,8 @@ public class QueryParameterWithAnchor {
     @Builder.Default
     List<String> authors = Collections.emptyList();
     @Builder.Default
+    List<String> shiftKeys = Collections.emptyList();
+    @Builder.Default
     private Boolean sortByLogDate = false;
     @Builder.Default
     private Boolean hideSummaries = false;
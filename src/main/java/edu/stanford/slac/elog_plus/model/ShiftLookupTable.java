@@ -0,0 +1,185 @@
+package edu.stanford.slac.elog_plus.model;
+
+import edu.stanford.slac.elog_plus.api.v1.dto.LogbookShiftDTO;
+import edu.stanford.slac.elog_plus.api.v1.dto.LogbookSummaryDTO;
+
+import java.time.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The shifts of a logbook compiled for the lookup by time
+ * <p>
+ * every minute of the day, in UTC, points to the index of the shift that contains it or -1 if the minute is not
+ * covered by any shift. The shift range is inclusive at both ends and can span midnight, when more shifts contain
+ * the same minute the first one of the logbook wins. The sorted start minutes of the shifts are kept to find
+ * the start of the last n shifts without walking back one shift at a time.
+ *
+ * @param minuteToShift the index of the shift for every UTC minute of the day
+ * @param shifts        the compiled shifts
+ * @param shiftStarts   the distinct start minutes of the shifts in UTC, sorted
+ */
+public record ShiftLookupTable(
+        short[] minuteToShift,
+        LogbookShiftDTO[] shifts,
+        int[] shiftStarts
+) {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * Compile the shifts of a logbook
+     *
+     * @param logbook the logbook of the shifts
+     * @param shifts  the shifts of the logbook, with the range in UTC
+     * @return the compiled lookup table
+     */
+    public static ShiftLookupTable compile(LogbookSummaryDTO logbook, List<Shift> shifts) {
+        short[] minuteToShift = new short[MINUTES_PER_DAY];
+        Arrays.fill(minuteToShift, (short) -1);
+        LogbookShiftDTO[] compiledShifts = new LogbookShiftDTO[shifts.size()];
+        // filled backward so the first shift overwrites the following ones where they overlap
+        for (int idx = shifts.size() - 1; idx >= 0; idx--) {
+            Shift shift = shifts.get(idx);
+            compiledShifts[idx] = LogbookShiftDTO.builder()
+                    .id(shift.getId())
+                    .name(shift.getName())
+                    .from(shift.getFrom())
+                    .to(shift.getTo())
+                    .logbook(logbook)
+                    .build();
+            if (shift.getFrom() == null || shift.getTo() == null) continue;
+            int from = minuteOfDay(LocalTime.parse(shift.getFrom()));
+            int to = minuteOfDay(LocalTime.parse(shift.getTo()));
+            if (from <= to) {
+                Arrays.fill(minuteToShift, from, to + 1, (short) idx);
+            } else {
+                // the shift spans midnight
+                Arrays.fill(minuteToShift, from, MINUTES_PER_DAY, (short) idx);
+                Arrays.fill(minuteToShift, 0, to + 1, (short) idx);
+            }
+        }
+        int[] shiftStarts = shifts.stream()
+                .filter(shift -> shift.getFrom() != null)
+                .mapToInt(shift -> minuteOfDay(LocalTime.parse(shift.getFrom())))
+                .distinct()
+                .sorted()
+                .toArray();
+        return new ShiftLookupTable(minuteToShift, compiledShifts, shiftStarts);
+    }
+
+    /**
+     * Find the shift that contains the local time of the current day
+     *
+     * @param localTime the time in the system time zone, the seconds are ignored
+     * @return the found shift, if any matches
+     */
+    public Optional<LogbookShiftDTO> find(LocalTime localTime) {
+        return find(LocalDateTime.of(LocalDate.now(), localTime));
+    }
+
+    /**
+     * Find the shift that contains the local date and time
+     *
+     * @param localDateTime the date and time in the system time zone, the seconds are ignored. The time is moved
+     *                      to UTC with the offset in force at that date, as for {@link #findShiftKey(LocalDateTime)}
+     * @return the found shift, if any matches
+     */
+    public Optional<LogbookShiftDTO> find(LocalDateTime localDateTime) {
+        int minute = minuteOfDay(localDateTime.toLocalTime());
+        short idx = minuteToShift[Math.floorMod(minute - systemOffsetMinutes(localDateTime), MINUTES_PER_DAY)];
+        return idx < 0 ? Optional.empty() : Optional.of(shifts[idx]);
+    }
+
+    /**
+     * Find the key of the shift that contains the local date and time
+     *
+     * @param localDateTime the date and time in the system time zone, the seconds are ignored. The time is moved
+     *                      to UTC with the offset in force at that date, so the key does not depend on when it is
+     *                      computed
+     * @return the key of the found shift, if any matches
+     */
+    public Optional<String> findShiftKey(LocalDateTime localDateTime) {
+        int offsetMinutes = systemOffsetMinutes(localDateTime);
+        int minute = minuteOfDay(localDateTime.toLocalTime());
+        short idx = minuteToShift[Math.floorMod(minute - offsetMinutes, MINUTES_PER_DAY)];
+        if (idx < 0) return Optional.empty();
+        LogbookShiftDTO shift = shifts[idx];
+        // a time before the start of its shift belongs to the shift started the day before across midnight
+        int localFrom = Math.floorMod(minuteOfDay(LocalTime.parse(shift.from())) + offsetMinutes, MINUTES_PER_DAY);
+        LocalDate shiftDate = minute < localFrom ? localDateTime.toLocalDate().minusDays(1) : localDateTime.toLocalDate();
+        return Optional.of(shiftKey(shift.logbook().id(), shift.id(), shiftDate));
+    }
+
+    /**
+     * Return the key of a shift of a day
+     *
+     * @param logbookId the logbook of the shift
+     * @param shiftId   the shift id
+     * @param date      the day when the shift started
+     * @return the key in the form logbookId:shiftId:yyyy-MM-dd
+     */
+    public static String shiftKey(String logbookId, String shiftId, LocalDate date) {
+        return "%s:%s:%s".formatted(logbookId, shiftId, date);
+    }
+
+    /**
+     * Find the start of the nth shift started before the date
+     *
+     * @param n        the number of shifts to go back
+     * @param fromDate the date, in the system time zone, from which to go back. The shifts are moved from UTC with
+     *                 the offset in force at that date, the found start is then moved by the offset change
+     *                 between the two dates when they are on the opposite sides of a daylight saving change
+     * @return the start of the nth shift or the date itself if there are no shifts
+     */
+    public LocalDateTime findStartOfLastNShifts(int n, LocalDateTime fromDate) {
+        if (n <= 0 || shiftStarts.length == 0) return fromDate;
+        int offsetMinutes = systemOffsetMinutes(fromDate);
+        int[] localStarts = new int[shiftStarts.length];
+        for (int idx = 0; idx < shiftStarts.length; idx++) {
+            localStarts[idx] = Math.floorMod(shiftStarts[idx] + offsetMinutes, MINUTES_PER_DAY);
+        }
+        Arrays.sort(localStarts);
+        LocalDateTime start = startOfLastNShifts(localStarts, n, fromDate);
+        return start.plusMinutes(systemOffsetMinutes(start) - offsetMinutes);
+    }
+
+    /**
+     * Find the start of the nth shift started before the date
+     * <p>
+     * the shifts start every day at the same times, so going back n shifts means going back the shifts already
+     * started on the day of the date, then n / shifts per day whole days and the remainder on the earliest day.
+     * A shift that starts exactly at the date is not counted as started.
+     *
+     * @param localStarts the distinct start minutes of the shifts in the time zone of the date, sorted
+     * @param n           the number of shifts to go back, greater than 0
+     * @param fromDate    the date from which to go back
+     * @return the start of the nth shift
+     */
+    private static LocalDateTime startOfLastNShifts(int[] localStarts, int n, LocalDateTime fromDate) {
+        int shiftsPerDay = localStarts.length;
+        LocalTime time = fromDate.toLocalTime();
+        int startedOnDay = 0;
+        while (startedOnDay < shiftsPerDay && toLocalTime(localStarts[startedOnDay]).isBefore(time)) startedOnDay++;
+        if (n <= startedOnDay) {
+            return LocalDateTime.of(fromDate.toLocalDate(), toLocalTime(localStarts[startedOnDay - n]));
+        }
+        int remaining = n - startedOnDay - 1;
+        return LocalDateTime.of(
+                fromDate.toLocalDate().minusDays(1 + remaining / shiftsPerDay),
+                toLocalTime(localStarts[shiftsPerDay - 1 - remaining % shiftsPerDay])
+        );
+    }
+
+    private static int systemOffsetMinutes(LocalDateTime localDateTime) {
+        return ZoneId.systemDefault().getRules().getOffset(localDateTime).getTotalSeconds() / 60;
+    }
+
+    private static LocalTime toLocalTime(int minuteOfDay) {
+        return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+    }
+
+    private static int minuteOfDay(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
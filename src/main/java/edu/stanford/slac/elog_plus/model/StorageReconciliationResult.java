@@ -0,0 +1,49 @@
+package edu.stanford.slac.elog_plus.model;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Result of the comparison between the keys found in the storage and the attachment collection
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class StorageReconciliationResult {
+    /**
+     * The number of keys found in the storage
+     */
+    private long scannedKeys;
+    /**
+     * The number of attachment checked
+     */
+    private long scannedAttachments;
+    /**
+     * The number of stored objects that are not referenced by any attachment
+     */
+    private long orphanKeysCount;
+    /**
+     * A sample of the stored objects that are not referenced by any attachment
+     */
+    private List<String> orphanKeys;
+    /**
+     * The number of attachment which content is not found in the storage
+     */
+    private long missingContentCount;
+    /**
+     * A sample of the attachment ids which content is not found in the storage
+     */
+    private List<String> missingContentAttachmentIds;
+    /**
+     * The number of attachment which preview is not found in the storage
+     */
+    private long missingPreviewCount;
+    /**
+     * The time spent for the reconciliation in milliseconds
+     */
+    private long elapsedMillis;
+}
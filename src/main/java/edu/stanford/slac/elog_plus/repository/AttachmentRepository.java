@@ -6,6 +6,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository for the attachment managements
@@ -24,6 +25,23 @@ public interface AttachmentRepository  extends MongoRepository<Attachment, Strin
      */
     List<Attachment> findAllByReferenceInfo(String referenceId);
 
+    /**
+     * Find an attachment, different from the one identified by id, that has the same content and
+     * that cannot be deleted, the attachments already in use are preferred because they cannot expire
+     * @param contentHash the hash of the content
+     * @param id the id of the attachment to exclude
+     * @return the attachment with the same content if any
+     */
+    Optional<Attachment> findFirstByContentHashAndCanBeDeletedIsFalseAndIdNotOrderByInUseDesc(String contentHash, String id);
+
+    /**
+     * Check if a stored object is still referenced by other attachments that cannot be deleted
+     * @param storageId the id of the stored object
+     * @param id the id of the attachment to exclude
+     * @return true if almost another attachment refers to the stored object
+     */
+    boolean existsByStorageIdAndCanBeDeletedIsFalseAndIdNot(String storageId, String id);
+
     // delete all attachment that are expired since some minutes
     void deleteByCreatedDateLessThanAndInUseIsFalse(LocalDateTime expirationTime);
 }
@@ -3,6 +3,10 @@ package edu.stanford.slac.elog_plus.repository;
 import edu.stanford.slac.elog_plus.model.Attachment;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 public interface AttachmentRepositoryCustom {
     /**
@@ -13,6 +17,14 @@ public interface AttachmentRepositoryCustom {
      */
     void setPreviewID(String id, String previewID);
 
+    /**
+     * Set the preview variants of an attachment
+     *
+     * @param id the attachment id
+     * @param previewVariants the map from the width of the variant to the id of the stored object
+     */
+    void setPreviewVariants(String id, Map<String, String> previewVariants);
+
     /**
      * set the mini-preview
      * @param id the id of the attachment
@@ -28,6 +40,79 @@ public interface AttachmentRepositoryCustom {
      */
     void setPreviewState(String id, Attachment.PreviewProcessingState state);
 
+    /**
+     * Move the preview of the attachment in the processing state if it is not already completed
+     *
+     * @param id the attachment id
+     * @return the updated attachment with the new preview revision or null if the attachment does not exist or
+     * its preview is already completed
+     */
+    Attachment startPreviewProcessing(String id);
+
+    /**
+     * Complete the preview processing setting all the preview information together
+     * <p>
+     * the update is applied only if the preview revision is still the one returned by {@link #startPreviewProcessing(String)}
+     *
+     * @param id the attachment id
+     * @param previewRevision the revision of the processing that generated the preview
+     * @param previewID the id of the stored default preview
+     * @param previewVariants the map from the width of the variant to the id of the stored object
+     * @param miniPreview the mini preview
+     * @return true if the attachment has been updated
+     */
+    boolean completePreviewProcessing(String id, Long previewRevision, String previewID, Map<String, String> previewVariants, byte[] miniPreview);
+
+    /**
+     * Set the preview processing state for an attachment only if the preview revision is the expected one
+     *
+     * @param id the attachment id
+     * @param previewRevision the revision of the processing that is updating the state
+     * @param state the new state of the preview
+     * @return true if the attachment has been updated
+     */
+    boolean setPreviewState(String id, Long previewRevision, Attachment.PreviewProcessingState state);
+
+    /**
+     * Release the attachments claimed by {@link #claimNextAvailableModels(int, LocalDateTime, LocalDateTime)}
+     * setting the result of the check and removing the reference information, with a single bulk operation
+     *
+     * @param processingId the processing id set when the attachments have been claimed
+     * @param inUseIds the ids of the attachments used by some entry
+     * @param unusedIds the ids of the attachments not used that can be deleted
+     * @return the number of released attachments
+     */
+    long releaseProcessedModels(String processingId, Collection<String> inUseIds, Collection<String> unusedIds);
+
+    /**
+     * Set the information about the stored content of the attachment
+     *
+     * @param id the attachment id
+     * @param contentHash the SHA-256 hash of the content
+     * @param contentLength the size in bytes of the content
+     * @param storageId the id of the stored object that hold the content
+     */
+    void setStoredContent(String id, String contentHash, Long contentLength, String storageId);
+
+    /**
+     * Mark the attachment as source of the content of another attachment, only if it cannot be deleted
+     * <p>
+     * the write conflicts with a concurrent tagging of the attachment as deletable, so once the transaction
+     * that reuse the content is committed the attachment cannot be reaped without seeing the new reference
+     *
+     * @param id the attachment id
+     * @return true if the attachment still cannot be deleted
+     */
+    boolean markContentReused(String id);
+
+    /**
+     * Reuse the preview of another attachment with the same content
+     *
+     * @param id the attachment id
+     * @param source the attachment from which the preview information are copied
+     */
+    void reusePreview(String id, Attachment source);
+
     /**
      * Return the current processing state of a preview
      * @param id attachment id
@@ -51,8 +136,44 @@ public interface AttachmentRepositoryCustom {
     void removeReferenceInfoOnAllInUseAndExpired(String referenceInfo, LocalDateTime expirationTime);
 
     /**
-     * Find the next available model to process
-     * @return the next available model to process
+     * Claim the next expired models to check, all the claimed models are marked with the same processing id
+     * @param batchSize the maximum number of models to claim
+     * @param expirationDate the creation date before which the models are expired
+     * @param processingTimeoutDate the date before which a claimed model is considered abandoned
+     * @return the claimed models, with only the id and the processing id loaded
+     */
+    List<Attachment> claimNextAvailableModels(int batchSize, LocalDateTime expirationDate, LocalDateTime processingTimeoutDate);
+
+    /**
+     * Claim the next models tagged as to be deleted, all the claimed models are marked with the same processing id
+     * @param batchSize the maximum number of models to claim
+     * @param processingTimeoutDate the date before which a claimed model is considered abandoned
+     * @param deletableDate the date before which a model should have been tagged as to be deleted to be claimed
+     * @return the claimed models, with only the identity, the processing id and the stored objects information loaded
+     */
+    List<Attachment> claimNextDeletableModels(int batchSize, Date processingTimeoutDate, Date deletableDate);
+
+    /**
+     * Find the models, other than the excluded ones, that share the stored content or the preview
+     * @param excludedIds the ids of the models to exclude
+     * @param storageIds the ids of the stored contents
+     * @param previewIds the ids of the previews
+     * @return the found models, with only the id, the storage id and the preview id loaded
+     */
+    List<Attachment> findAllSharingStoredObjects(Collection<String> excludedIds, Collection<String> storageIds, Collection<String> previewIds);
+
+    /**
+     * Remove the claimed models with a single operation
+     * @param processingId the processing id set when the models have been claimed
+     * @param ids the ids of the models to remove
+     * @return the number of removed models
+     */
+    long deleteClaimedModels(String processingId, Collection<String> ids);
+
+    /**
+     * Release the claimed models without changing them so they can be claimed again
+     * @param processingId the processing id set when the models have been claimed
+     * @param ids the ids of the models to release
      */
-    Attachment findAndUpdateNextAvailableModel(LocalDateTime expirationDate, LocalDateTime processingTimeoutDate);
+    void releaseClaimedModels(String processingId, Collection<String> ids);
 }
@@ -1,11 +1,13 @@
 package edu.stanford.slac.elog_plus.repository;
 
+import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.data.mongodb.MongoTransactionException;
 import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
@@ -19,9 +21,7 @@ import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.Date;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 
 
 @Log4j2
@@ -43,6 +43,18 @@ public class AttachmentRepositoryImpl implements AttachmentRepositoryCustom {
         log.debug("Set preview id update operation {}", ur.getModifiedCount() == 1);
     }
 
+    @Override
+    public void setPreviewVariants(String id, Map<String, String> previewVariants) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id)
+        );
+        Update u = new Update();
+        u.set("previewVariants", previewVariants);
+        UpdateResult ur = mongoTemplate.updateFirst(q, u, Attachment.class);
+        log.debug("Set preview variants update operation {}", ur.getModifiedCount() == 1);
+    }
+
     @Override
     public void setMiniPreview(String id, byte[] byteArray) {
         Query q = new Query();
@@ -68,6 +80,133 @@ public class AttachmentRepositoryImpl implements AttachmentRepositoryCustom {
         log.debug("Set preview state update operation {}", ur.getModifiedCount() == 1);
     }
 
+    @Override
+    public Attachment startPreviewProcessing(String id) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id).and("previewState").ne(Attachment.PreviewProcessingState.Completed)
+        );
+        q.fields().exclude("miniPreview");
+        Update u = new Update();
+        u.set("previewState", Attachment.PreviewProcessingState.Processing);
+        u.inc("previewRevision", 1);
+        return mongoTemplate.findAndModify(q, u, FindAndModifyOptions.options().returnNew(true), Attachment.class);
+    }
+
+    @Override
+    public boolean completePreviewProcessing(String id, Long previewRevision, String previewID, Map<String, String> previewVariants, byte[] miniPreview) {
+        Update u = new Update();
+        u.set("previewID", previewID);
+        u.set("previewVariants", previewVariants);
+        u.set("miniPreview", miniPreview);
+        u.set("previewState", Attachment.PreviewProcessingState.Completed);
+        u.inc("previewRevision", 1);
+        Attachment updated = mongoTemplate.findAndModify(revisionQuery(id, previewRevision), u, Attachment.class);
+        log.debug("Complete preview processing update operation {}", updated != null);
+        return updated != null;
+    }
+
+    @Override
+    public boolean setPreviewState(String id, Long previewRevision, Attachment.PreviewProcessingState state) {
+        Update u = new Update();
+        u.set("previewState", state);
+        u.inc("previewRevision", 1);
+        Attachment updated = mongoTemplate.findAndModify(revisionQuery(id, previewRevision), u, Attachment.class);
+        log.debug("Set preview state with revision update operation {}", updated != null);
+        return updated != null;
+    }
+
+    /**
+     * Build the query that match the attachment only if the preview revision is the expected one
+     */
+    private static Query revisionQuery(String id, Long previewRevision) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id).and("previewRevision").is(previewRevision)
+        );
+        q.fields().include("id");
+        return q;
+    }
+
+    @Override
+    public long releaseProcessedModels(String processingId, Collection<String> inUseIds, Collection<String> unusedIds) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Attachment.class);
+        if (!inUseIds.isEmpty()) {
+            bulkOperations.updateMulti(
+                    new Query(Criteria.where("id").in(inUseIds).and("processingId").is(processingId)),
+                    releaseUpdate().set("inUse", true)
+            );
+        }
+        if (!unusedIds.isEmpty()) {
+            bulkOperations.updateMulti(
+                    new Query(Criteria.where("id").in(unusedIds).and("processingId").is(processingId)),
+                    releaseUpdate()
+                            .set("canBeDeleted", true)
+                            .set("canBeDeletedTimestamp", new Date())
+            );
+        }
+        if (inUseIds.isEmpty() && unusedIds.isEmpty()) return 0;
+        long released = bulkOperations.execute().getModifiedCount();
+        log.debug("Release processed models update operation {}", released);
+        return released;
+    }
+
+    /**
+     * Build the update that remove the reference information and the processing fields
+     */
+    private static Update releaseUpdate() {
+        return new Update()
+                .unset("referenceInfo")
+                .unset("processingId")
+                .unset("processingTimestamp");
+    }
+
+    @Override
+    public void setStoredContent(String id, String contentHash, Long contentLength, String storageId) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id)
+        );
+        Update u = new Update();
+        u.set("contentHash", contentHash);
+        u.set("contentLength", contentLength);
+        u.set("storageId", storageId);
+
+        UpdateResult ur = mongoTemplate.updateFirst(q, u, Attachment.class);
+        log.debug("Set stored content update operation {}", ur.getModifiedCount() == 1);
+    }
+
+    @Override
+    public boolean markContentReused(String id) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id)
+                        .and("canBeDeleted").is(false)
+        );
+        Update u = new Update();
+        u.set("contentReusedDate", LocalDateTime.now());
+
+        UpdateResult ur = mongoTemplate.updateFirst(q, u, Attachment.class);
+        log.debug("Mark content reused update operation {}", ur.getModifiedCount() == 1);
+        return ur.getModifiedCount() == 1;
+    }
+
+    @Override
+    public void reusePreview(String id, Attachment source) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id)
+        );
+        Update u = new Update();
+        u.set("previewID", source.getPreviewID());
+        u.set("previewVariants", source.getPreviewVariants());
+        u.set("miniPreview", source.getMiniPreview());
+        u.set("previewState", source.getPreviewState());
+
+        UpdateResult ur = mongoTemplate.updateFirst(q, u, Attachment.class);
+        log.debug("Reuse preview update operation {}", ur.getModifiedCount() == 1);
+    }
+
     @Override
     public Attachment.PreviewProcessingState getPreviewState(String id) {
         Query q = new Query();
@@ -112,9 +251,9 @@ public class AttachmentRepositoryImpl implements AttachmentRepositoryCustom {
     }
 
     @Override
-    public Attachment findAndUpdateNextAvailableModel(LocalDateTime expirationDate, LocalDateTime timeoutDate) {
+    public List<Attachment> claimNextAvailableModels(int batchSize, LocalDateTime expirationDate, LocalDateTime timeoutDate) {
         // Build the criteria
-        Criteria criteria = new Criteria().andOperator(
+        Criteria claimable = new Criteria().andOperator(
                 Criteria.where("createdDate").lte(expirationDate),
                 new Criteria().orOperator(
                         Criteria.where("referenceInfo").exists(true),
@@ -131,20 +270,108 @@ public class AttachmentRepositoryImpl implements AttachmentRepositoryCustom {
                         Criteria.where("canBeDeleted").is(false)
                 )
         );
+        Query candidatesQuery = new Query(claimable).limit(batchSize);
+        candidatesQuery.fields().include("id");
+        List<String> candidateIds = mongoTemplate.find(candidatesQuery, Attachment.class)
+                .stream()
+                .map(Attachment::getId)
+                .toList();
+        if (candidateIds.isEmpty()) return List.of();
+
+        // the claim criteria are checked again so the models claimed concurrently by another instance are skipped
+        String processingId = UUID.randomUUID().toString();
+        UpdateResult ur = mongoTemplate.updateMulti(
+                new Query(new Criteria().andOperator(Criteria.where("id").in(candidateIds), claimable)),
+                new Update()
+                        .set("processingId", processingId)
+                        .set("processingTimestamp", new Date()),
+                Attachment.class
+        );
+        log.debug("Claimed {} attachments with processing id {}", ur.getModifiedCount(), processingId);
+        if (ur.getModifiedCount() == 0) return List.of();
+        Query claimedQuery = new Query(Criteria.where("processingId").is(processingId));
+        claimedQuery.fields().include("id", "processingId");
+        return mongoTemplate.find(claimedQuery, Attachment.class);
+    }
+
+    @Override
+    public List<Attachment> claimNextDeletableModels(int batchSize, Date processingTimeoutDate, Date deletableDate) {
+        Criteria claimable = new Criteria().andOperator(
+                Criteria.where("canBeDeleted").is(true),
+                // the attachments tagged before the tagging date was stored are deletable since long time
+                new Criteria().orOperator(
+                        Criteria.where("canBeDeletedTimestamp").exists(false),
+                        Criteria.where("canBeDeletedTimestamp").is(null),
+                        Criteria.where("canBeDeletedTimestamp").lte(deletableDate)
+                ),
+                new Criteria().orOperator(
+                        Criteria.where("processingId").exists(false),
+                        Criteria.where("processingId").is(null),
+                        Criteria.where("processingTimestamp").lte(processingTimeoutDate)
+                )
+        );
+        Query candidatesQuery = new Query(claimable).limit(batchSize);
+        candidatesQuery.fields().include("id");
+        List<String> candidateIds = mongoTemplate.find(candidatesQuery, Attachment.class)
+                .stream()
+                .map(Attachment::getId)
+                .toList();
+        if (candidateIds.isEmpty()) return List.of();
 
-        Query query = new Query(criteria);
-        query.limit(1); // Limit to one document
+        // the claim criteria are checked again so the models claimed concurrently by another instance are skipped
+        String processingId = UUID.randomUUID().toString();
+        UpdateResult ur = mongoTemplate.updateMulti(
+                new Query(new Criteria().andOperator(Criteria.where("id").in(candidateIds), claimable)),
+                new Update()
+                        .set("processingId", processingId)
+                        .set("processingTimestamp", new Date()),
+                Attachment.class
+        );
+        log.debug("Claimed {} deletable attachments with processing id {}", ur.getModifiedCount(), processingId);
+        if (ur.getModifiedCount() == 0) return List.of();
+        Query claimedQuery = new Query(Criteria.where("processingId").is(processingId));
+        claimedQuery.fields().include("id", "processingId", "storageId", "contentLength", "previewID", "previewVariants");
+        return mongoTemplate.find(claimedQuery, Attachment.class);
+    }
 
-        // Update to set the processingId and processingTimestamp
-        Update update = new Update()
-                .set("processingId", UUID.randomUUID().toString())
-                .set("processingTimestamp", new Date());
+    @Override
+    public List<Attachment> findAllSharingStoredObjects(Collection<String> excludedIds, Collection<String> storageIds, Collection<String> previewIds) {
+        Query q = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").nin(excludedIds),
+                        new Criteria().orOperator(
+                                Criteria.where("storageId").in(storageIds),
+                                // the attachments created before the content deduplication use their own id as storage id
+                                new Criteria().andOperator(Criteria.where("id").in(storageIds), Criteria.where("storageId").is(null)),
+                                Criteria.where("previewID").in(previewIds)
+                        )
+                )
+        );
+        q.fields().include("id", "storageId", "previewID");
+        return mongoTemplate.find(q, Attachment.class);
+    }
 
-        // Options to return the new document after update
-        FindAndModifyOptions options = new FindAndModifyOptions()
-                .returnNew(true)
-                .upsert(false);
+    @Override
+    public long deleteClaimedModels(String processingId, Collection<String> ids) {
+        if (ids.isEmpty()) return 0;
+        DeleteResult dr = mongoTemplate.remove(
+                new Query(Criteria.where("id").in(ids).and("processingId").is(processingId)),
+                Attachment.class
+        );
+        log.debug("Delete claimed models operation {}", dr.getDeletedCount());
+        return dr.getDeletedCount();
+    }
 
-        return mongoTemplate.findAndModify(query, update, options, Attachment.class);
+    @Override
+    public void releaseClaimedModels(String processingId, Collection<String> ids) {
+        if (ids.isEmpty()) return;
+        UpdateResult ur = mongoTemplate.updateMulti(
+                new Query(Criteria.where("id").in(ids).and("processingId").is(processingId)),
+                new Update()
+                        .unset("processingId")
+                        .unset("processingTimestamp"),
+                Attachment.class
+        );
+        log.debug("Release claimed models update operation {}", ur.getModifiedCount());
     }
 }
@@ -3,7 +3,10 @@ package edu.stanford.slac.elog_plus.repository;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.QueryParameterWithAnchor;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface EntryRepositoryCustom {
     List<Entry> searchAll(QueryParameterWithAnchor queryWithAnchorDTO);
@@ -16,4 +19,79 @@ public interface EntryRepositoryCustom {
      * @return the list of referenced entries
      */
     List<String> findReferencesBySourceId(String id);
+
+    /**
+     * Return the entries with the origin ids, only the id, origin id and superseded by fields are loaded
+     * @param originIds the origin ids to find
+     * @return the found entries
+     */
+    List<Entry> findAllIdentityByOriginIdIn(Collection<String> originIds);
+
+    /**
+     * Return which of the ids belong to an existing entry
+     * @param ids the ids to check
+     * @return the ids of the existing entries
+     */
+    List<String> findExistingIds(Collection<String> ids);
+
+    /**
+     * Return which of the attachments are used by some entry, with a single aggregation
+     * @param attachmentIds the ids of the attachments to check
+     * @return the ids of the used attachments
+     */
+    Set<String> findUsedAttachmentIds(Collection<String> attachmentIds);
+
+    /**
+     * Insert all the entries with a single unordered bulk operation, an entry that fails does not stop the others
+     * @param entries the entries to insert
+     * @return the error message of the failed entries by their index in the list
+     */
+    Map<Integer, String> bulkInsert(List<Entry> entries);
+
+    /**
+     * Set the superseded by field on many entries with a single unordered bulk operation,
+     * the entries already superseded are not updated
+     * @param supersededByIds the id of the superseding entry by the id of the superseded one
+     * @return the number of updated entries
+     */
+    long setSupersededBy(Map<String, String> supersededByIds);
+
+    /**
+     * Return all the entries with an origin id, only the id, origin id and superseded by fields are loaded
+     * @return the found entries
+     */
+    List<Entry> findAllIdentityWithOriginId();
+
+    /**
+     * Return all the entries imported with origin id references not yet resolved, only the id and
+     * the unresolved references fields are loaded
+     * @return the found entries
+     */
+    List<Entry> findAllWithUnresolvedOriginIdReferences();
+
+    /**
+     * Apply the resolution of the origin id references with a single unordered bulk operation
+     * <p>
+     * for every entry the references are added to the existing ones and the unresolved references
+     * fields are replaced, or removed when null or empty
+     * @param resolutions the entries with the id, the resolved references and the still unresolved ones
+     */
+    void applyOriginIdReferencesResolution(List<Entry> resolutions);
+
+    /**
+     * Return a batch of entries to compute the shift keys, ordered by id, only the id, logbooks, event time
+     * and shift keys fields are loaded
+     * @param logbookId the logbook of the entries or null for the entries of all the logbooks
+     * @param afterId the id after which the batch starts or null for the first batch
+     * @param limit the maximum number of entries
+     * @return the found entries
+     */
+    List<Entry> findShiftKeysSources(String logbookId, String afterId, int limit);
+
+    /**
+     * Set the shift keys on many entries with a single unordered bulk operation
+     * @param shiftKeys the shift keys by the id of the entry
+     * @return the number of updated entries
+     */
+    long setShiftKeys(Map<String, List<String>> shiftKeys);
 }
@@ -4,16 +4,18 @@ import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.QueryParameterWithAnchor;
 import lombok.AllArgsConstructor;
+import org.bson.Document;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.*;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 import static java.util.Collections.emptyList;
 
@@ -94,6 +96,12 @@ public class EntryRepositoryImpl implements EntryRepositoryCustom {
             );
         }
 
+        if(queryWithAnchor.getShiftKeys()!=null && !queryWithAnchor.getShiftKeys().isEmpty()) {
+            allCriteria.add(
+                    Criteria.where("shiftKeys").in(queryWithAnchor.getShiftKeys())
+            );
+        }
+
         // supersede criteria
         allCriteria.add(
                 Criteria.where("supersededBy").exists(false)
@@ -192,6 +200,145 @@ public class EntryRepositoryImpl implements EntryRepositoryCustom {
         mongoTemplate.updateFirst(q, u, Entry.class);
     }
 
+    @Override
+    public List<Entry> findAllIdentityByOriginIdIn(Collection<String> originIds) {
+        if (originIds.isEmpty()) return emptyList();
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("originId").in(originIds)
+        ).fields().include("id", "originId", "supersededBy");
+        return mongoTemplate.find(q, Entry.class);
+    }
+
+    @Override
+    public List<String> findExistingIds(Collection<String> ids) {
+        if (ids.isEmpty()) return emptyList();
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").in(ids)
+        ).fields().include("id");
+        return mongoTemplate.find(q, Entry.class).stream().map(Entry::getId).toList();
+    }
+
+    @Override
+    public Set<String> findUsedAttachmentIds(Collection<String> attachmentIds) {
+        if (attachmentIds.isEmpty()) return Collections.emptySet();
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("attachments").in(attachmentIds)),
+                Aggregation.project("attachments"),
+                Aggregation.unwind("attachments"),
+                Aggregation.match(Criteria.where("attachments").in(attachmentIds)),
+                Aggregation.group("attachments")
+        );
+        Set<String> usedIds = new HashSet<>();
+        mongoTemplate.aggregate(aggregation, Entry.class, Document.class)
+                .getMappedResults()
+                .forEach(result -> usedIds.add(result.getString("_id")));
+        return usedIds;
+    }
+
+    @Override
+    public List<Entry> findShiftKeysSources(String logbookId, String afterId, int limit) {
+        Query q = new Query();
+        if (logbookId != null) {
+            q.addCriteria(Criteria.where("logbooks").is(logbookId));
+        }
+        if (afterId != null) {
+            q.addCriteria(Criteria.where("id").gt(afterId));
+        }
+        q.with(Sort.by(Sort.Direction.ASC, "id"))
+                .limit(limit)
+                .fields().include("id", "logbooks", "eventAt", "shiftKeys");
+        return mongoTemplate.find(q, Entry.class);
+    }
+
+    @Override
+    public long setShiftKeys(Map<String, List<String>> shiftKeys) {
+        if (shiftKeys.isEmpty()) return 0;
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Entry.class);
+        shiftKeys.forEach(
+                (id, keys) -> bulkOperations.updateOne(
+                        new Query(Criteria.where("id").is(id)),
+                        new Update().set("shiftKeys", keys)
+                )
+        );
+        return bulkOperations.execute().getModifiedCount();
+    }
+
+    @Override
+    public Map<Integer, String> bulkInsert(List<Entry> entries) {
+        Map<Integer, String> failed = new HashMap<>();
+        if (entries.isEmpty()) return failed;
+        // the bulk insert does not initialize the version as the template insert does
+        entries.stream().filter(entry -> entry.getVersion() == null).forEach(entry -> entry.setVersion(0));
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Entry.class)
+                    .insert(entries)
+                    .execute();
+        } catch (BulkOperationException e) {
+            e.getErrors().forEach(error -> failed.put(error.getIndex(), error.getMessage()));
+        }
+        return failed;
+    }
+
+    @Override
+    public long setSupersededBy(Map<String, String> supersededByIds) {
+        if (supersededByIds.isEmpty()) return 0;
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Entry.class);
+        supersededByIds.forEach(
+                (id, supersededById) -> bulkOperations.updateOne(
+                        new Query(Criteria.where("id").is(id).and("supersededBy").isNull()),
+                        new Update().set("supersededBy", supersededById)
+                )
+        );
+        return bulkOperations.execute().getModifiedCount();
+    }
+
+    @Override
+    public List<Entry> findAllIdentityWithOriginId() {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("originId").exists(true)
+        ).fields().include("id", "originId", "supersededBy");
+        return mongoTemplate.find(q, Entry.class);
+    }
+
+    @Override
+    public List<Entry> findAllWithUnresolvedOriginIdReferences() {
+        Query q = new Query();
+        q.addCriteria(
+                new Criteria().orOperator(
+                        Criteria.where("unresolvedReferencesByOriginId").exists(true),
+                        Criteria.where("unresolvedSupersedeOfByOriginId").exists(true)
+                )
+        ).fields().include("id", "unresolvedReferencesByOriginId", "unresolvedSupersedeOfByOriginId");
+        return mongoTemplate.find(q, Entry.class);
+    }
+
+    @Override
+    public void applyOriginIdReferencesResolution(List<Entry> resolutions) {
+        if (resolutions.isEmpty()) return;
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Entry.class);
+        for (Entry resolution : resolutions) {
+            Update update = new Update();
+            if (resolution.getReferences() != null && !resolution.getReferences().isEmpty()) {
+                update.addToSet("references").each(resolution.getReferences().toArray());
+            }
+            if (resolution.getUnresolvedReferencesByOriginId() == null || resolution.getUnresolvedReferencesByOriginId().isEmpty()) {
+                update.unset("unresolvedReferencesByOriginId");
+            } else {
+                update.set("unresolvedReferencesByOriginId", resolution.getUnresolvedReferencesByOriginId());
+            }
+            if (resolution.getUnresolvedSupersedeOfByOriginId() == null) {
+                update.unset("unresolvedSupersedeOfByOriginId");
+            } else {
+                update.set("unresolvedSupersedeOfByOriginId", resolution.getUnresolvedSupersedeOfByOriginId());
+            }
+            bulkOperations.updateOne(new Query(Criteria.where("id").is(resolution.getId())), update);
+        }
+        bulkOperations.execute();
+    }
+
     @Override
     public List<String> findReferencesBySourceId(String id) {
         Query q = new Query();
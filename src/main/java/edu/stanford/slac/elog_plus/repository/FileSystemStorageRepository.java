@@ -0,0 +1,266 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.config.StorageProperties;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.ObjectListResult;
+import edu.stanford.slac.elog_plus.utility.ByteBufferInputStream;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Storage repository implementation that store the objects on the local filesystem
+ * <p>
+ * the objects are distributed on two level of directories named with the first four hex digit of
+ * the SHA-256 of the object id (65536 directories), so no directory grows too much also with millions of objects.
+ * The content type is stored in a sidecar file near the object content.
+ */
+@Log4j2
+public class FileSystemStorageRepository implements StorageRepository {
+    private static final String KEY_PREFIX = "attachment/";
+    private static final String CONTENT_TYPE_SUFFIX = ".content-type";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // under this size the file is read with a normal stream, mapping small files cost more than reading them
+    private static final long MEMORY_MAP_THRESHOLD = 1024 * 1024;
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private final Path root;
+
+    public FileSystemStorageRepository(StorageProperties storageProperties) {
+        assertion(() -> storageProperties.getFilesystemRoot() != null && !storageProperties.getFilesystemRoot().isBlank(),
+                -1,
+                "The filesystem root is mandatory for the filesystem storage backend",
+                "FileSystemStorageRepository::init");
+        this.root = Path.of(storageProperties.getFilesystemRoot()).toAbsolutePath();
+        wrapCatch(
+                () -> Files.createDirectories(root),
+                -2,
+                "FileSystemStorageRepository::init"
+        );
+        log.info("Filesystem storage backend use the root {}", root);
+    }
+
+    @Override
+    public void uploadFile(String id, FileObjectDescription attachment) throws IOException {
+        assertion(() -> attachment.getContentType() != null,
+                -1,
+                "The Content type is mandatory",
+                "FileSystemStorageRepository::uploadFile");
+        assertion(() -> attachment.getFileName() != null,
+                -1,
+                "The filename type is mandatory",
+                "FileSystemStorageRepository::uploadFile");
+        assertion(() -> attachment.getIs() != null,
+                -1,
+                "The input stream is mandatory type is mandatory",
+                "FileSystemStorageRepository::uploadFile");
+        Path objectPath = objectPath(id);
+        Files.createDirectories(objectPath.getParent());
+        // the content is written on a temporary file and moved at the end so a reader never see a partial object
+        Path tempPath = objectPath.resolveSibling(objectPath.getFileName() + TEMP_SUFFIX);
+        try (
+                ReadableByteChannel source = Channels.newChannel(attachment.getIs());
+                FileChannel destination = FileChannel.open(
+                        tempPath,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE
+                )
+        ) {
+            long position = 0;
+            long transferred;
+            while ((transferred = destination.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                position += transferred;
+            }
+            destination.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        Files.writeString(contentTypePath(objectPath), attachment.getContentType(), StandardCharsets.UTF_8);
+        Files.move(tempPath, objectPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void getFile(String id, FileObjectDescription objDesc) {
+        assertion(() -> !id.isBlank() && !id.isEmpty(),
+                -1,
+                "The attachment id is invalid",
+                "FileSystemStorageRepository::getFileObject");
+        Path objectPath = objectPath(id);
+        InputStream objectStream = wrapCatch(
+                () -> openObject(objectPath),
+                -1,
+                "FileSystemStorageRepository::getFile"
+        );
+        objDesc.setIs(objectStream);
+        objDesc.setContentType(
+                wrapCatch(
+                        () -> Files.readString(contentTypePath(objectPath), StandardCharsets.UTF_8),
+                        -2,
+                        "FileSystemStorageRepository::getFile"
+                )
+        );
+    }
+
+    @Override
+    public void deleteFile(String id) {
+        assertion(() -> !id.isBlank() && !id.isEmpty(),
+                -1,
+                "The attachment id is invalid",
+                "FileSystemStorageRepository::deleteFile");
+        Path objectPath = objectPath(id);
+        wrapCatch(
+                () -> {
+                    Files.deleteIfExists(objectPath);
+                    Files.deleteIfExists(contentTypePath(objectPath));
+                    return null;
+                },
+                -1,
+                "FileSystemStorageRepository::deleteFile"
+        );
+    }
+
+    /**
+     * Cycle on all the stored objects in the shard order
+     * <p>
+     * the continuation token is the relative path of the last returned object so a page
+     * start directly from the shard where the previous one has been terminated
+     *
+     * @param maxKeysPerPage    the maximum number of elements
+     * @param continuationToken the token returned in the last call if the new call is a continuation
+     * @return the list of found key
+     */
+    @Override
+    public ObjectListResult listFilesInBucket(int maxKeysPerPage, String continuationToken) {
+        String[] startPosition = continuationToken == null ? null : continuationToken.split("/", 3);
+        assertion(() -> startPosition == null || startPosition.length == 3,
+                -1,
+                "The continuation token is invalid",
+                "FileSystemStorageRepository::listFilesInBucket");
+        List<String> foundKeys = new ArrayList<>();
+        String lastRelativePath = null;
+        for (Path firstLevel : sortedChildren(root)) {
+            String firstName = firstLevel.getFileName().toString();
+            if (startPosition != null && firstName.compareTo(startPosition[0]) < 0) continue;
+            for (Path secondLevel : sortedChildren(firstLevel)) {
+                String secondName = secondLevel.getFileName().toString();
+                boolean startShard = startPosition != null && firstName.equals(startPosition[0]);
+                if (startShard && secondName.compareTo(startPosition[1]) < 0) continue;
+                startShard = startShard && secondName.equals(startPosition[1]);
+                for (Path object : sortedChildren(secondLevel)) {
+                    String objectName = object.getFileName().toString();
+                    if (objectName.endsWith(CONTENT_TYPE_SUFFIX) || objectName.endsWith(TEMP_SUFFIX)) continue;
+                    if (startShard && objectName.compareTo(startPosition[2]) <= 0) continue;
+                    if (foundKeys.size() == maxKeysPerPage) {
+                        // there are other objects so the page is returned with the token to continue
+                        return ObjectListResult
+                                .builder()
+                                .continuationToken(lastRelativePath)
+                                .keyFounds(foundKeys)
+                                .build();
+                    }
+                    foundKeys.add(KEY_PREFIX + objectName);
+                    lastRelativePath = "%s/%s/%s".formatted(firstName, secondName, objectName);
+                }
+            }
+        }
+        return ObjectListResult
+                .builder()
+                .continuationToken(null)
+                .keyFounds(foundKeys)
+                .build();
+    }
+
+    /**
+     * The partitions are the first level shard directories
+     */
+    @Override
+    public List<String> keyPartitions() {
+        return sortedChildren(root).stream().map(path -> path.getFileName().toString()).toList();
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<String> keyConsumer) {
+        assertion(() -> partition.length() == 2 && HexFormat.isHexDigit(partition.charAt(0)) && HexFormat.isHexDigit(partition.charAt(1)),
+                -1,
+                "The partition is invalid",
+                "FileSystemStorageRepository::scanPartition");
+        for (Path secondLevel : sortedChildren(root.resolve(partition))) {
+            for (Path object : sortedChildren(secondLevel)) {
+                String objectName = object.getFileName().toString();
+                if (objectName.endsWith(CONTENT_TYPE_SUFFIX) || objectName.endsWith(TEMP_SUFFIX)) continue;
+                keyConsumer.accept(KEY_PREFIX + objectName);
+            }
+        }
+    }
+
+    /**
+     * Open the stream of the object content, the big objects are memory mapped so
+     * the content is paged from the os page cache without copying it in the heap
+     *
+     * @param objectPath the path of the object
+     * @return the stream of the content
+     * @throws IOException in case the object cannot be open
+     */
+    private InputStream openObject(Path objectPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(objectPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MEMORY_MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+                // the mapping remain valid also after the channel is closed
+                return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return Files.newInputStream(objectPath, StandardOpenOption.READ);
+    }
+
+    private Path objectPath(String id) {
+        assertion(() -> !id.contains("/") && !id.contains("\\") && !id.startsWith("."),
+                -1,
+                "The object id is invalid",
+                "FileSystemStorageRepository::objectPath");
+        String shard = shardOf(id);
+        return root.resolve(shard.substring(0, 2)).resolve(shard.substring(2, 4)).resolve(id);
+    }
+
+    private static Path contentTypePath(Path objectPath) {
+        return objectPath.resolveSibling(objectPath.getFileName() + CONTENT_TYPE_SUFFIX);
+    }
+
+    private static String shardOf(String id) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 2);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Path> sortedChildren(Path directory) {
+        if (!Files.isDirectory(directory)) return List.of();
+        return wrapCatch(
+                () -> {
+                    try (Stream<Path> children = Files.list(directory)) {
+                        return children.sorted().toList();
+                    }
+                },
+                -1,
+                "FileSystemStorageRepository::sortedChildren"
+        );
+    }
+}
@@ -0,0 +1,10 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * Repository for the side effects waiting to be dispatched
+ */
+public interface OutboxEventRepository extends MongoRepository<OutboxEvent, String>, OutboxEventRepositoryCustom {
+}
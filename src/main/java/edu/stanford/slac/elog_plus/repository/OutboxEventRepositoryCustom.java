@@ -0,0 +1,55 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public interface OutboxEventRepositoryCustom {
+    /**
+     * Claim the oldest events that are not processed by someone else
+     * <p>
+     * an event is claimed again when its processing has not been completed before the timeout
+     *
+     * @param batchSize the maximum number of events to claim
+     * @param maxAttempts the number of failed dispatch after which the event is not claimed anymore
+     * @param processingTimeoutDate the events claimed before this date are considered abandoned
+     * @param types the types of the events to claim
+     * @return the claimed events, all with the same processing id
+     */
+    List<OutboxEvent> claimNextBatch(int batchSize, int maxAttempts, Date processingTimeoutDate, Collection<OutboxEvent.Type> types);
+
+    /**
+     * Renew the claim of an event that is still processed and store its progress
+     *
+     * @param id the event id
+     * @param processingId the processing id set when the event has been claimed
+     * @param lastProcessedId the id of the last processed model
+     * @return true if the event is still claimed with the processing id
+     */
+    boolean renewClaim(String id, String processingId, String lastProcessedId);
+
+    /**
+     * Release an event whose dispatch has failed so it will be claimed again
+     *
+     * @param id the event id
+     * @param processingId the processing id set when the event has been claimed
+     * @param error the error of the dispatch
+     * @param remainingRecipients the recipients still to notify or null to keep the current ones
+     * @param exhausted true if the failure reaches the maximum number of attempts and the event is not claimed anymore
+     */
+    void releaseFailed(String id, String processingId, String error, List<String> remainingRecipients, boolean exhausted);
+
+    /**
+     * Remove the events that reached the maximum number of attempts before a date
+     * <p>
+     * the events exhausted before the exhausted date was tracked are removed by their creation date
+     *
+     * @param maxAttempts the maximum number of attempts
+     * @param exhaustedBefore the date before which the exhausted events are removed
+     * @return the number of removed events
+     */
+    long deleteExhaustedBefore(int maxAttempts, LocalDateTime exhaustedBefore);
+}
@@ -0,0 +1,117 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+@Log4j2
+@Repository
+@AllArgsConstructor
+public class OutboxEventRepositoryImpl implements OutboxEventRepositoryCustom {
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public List<OutboxEvent> claimNextBatch(int batchSize, int maxAttempts, Date processingTimeoutDate, Collection<OutboxEvent.Type> types) {
+        Criteria claimable = new Criteria().andOperator(
+                Criteria.where("type").in(types),
+                Criteria.where("attempts").lt(maxAttempts),
+                new Criteria().orOperator(
+                        Criteria.where("processingId").exists(false),
+                        Criteria.where("processingId").is(null),
+                        Criteria.where("processingTimestamp").lte(processingTimeoutDate)
+                )
+        );
+        Query candidatesQuery = new Query(claimable)
+                .with(Sort.by(Sort.Direction.ASC, "createdDate"))
+                .limit(batchSize);
+        candidatesQuery.fields().include("id");
+        List<String> candidateIds = mongoTemplate.find(candidatesQuery, OutboxEvent.class)
+                .stream()
+                .map(OutboxEvent::getId)
+                .toList();
+        if (candidateIds.isEmpty()) return List.of();
+
+        // the claim criteria are checked again so the events claimed concurrently by another instance are skipped
+        String processingId = UUID.randomUUID().toString();
+        UpdateResult ur = mongoTemplate.updateMulti(
+                new Query(new Criteria().andOperator(Criteria.where("id").in(candidateIds), claimable)),
+                new Update()
+                        .set("processingId", processingId)
+                        .set("processingTimestamp", new Date()),
+                OutboxEvent.class
+        );
+        log.debug("Claimed {} outbox events with processing id {}", ur.getModifiedCount(), processingId);
+        if (ur.getModifiedCount() == 0) return List.of();
+        return mongoTemplate.find(
+                new Query(Criteria.where("processingId").is(processingId))
+                        .with(Sort.by(Sort.Direction.ASC, "createdDate")),
+                OutboxEvent.class
+        );
+    }
+
+    @Override
+    public boolean renewClaim(String id, String processingId, String lastProcessedId) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id).and("processingId").is(processingId)
+        );
+        Update u = new Update();
+        u.set("processingTimestamp", new Date());
+        u.set("lastProcessedId", lastProcessedId);
+
+        UpdateResult ur = mongoTemplate.updateFirst(q, u, OutboxEvent.class);
+        log.debug("Renew claim of outbox event update operation {}", ur.getModifiedCount() == 1);
+        return ur.getModifiedCount() == 1;
+    }
+
+    @Override
+    public void releaseFailed(String id, String processingId, String error, List<String> remainingRecipients, boolean exhausted) {
+        Query q = new Query();
+        q.addCriteria(
+                Criteria.where("id").is(id).and("processingId").is(processingId)
+        );
+        Update u = new Update();
+        u.inc("attempts", 1);
+        u.set("lastError", error);
+        u.unset("processingId");
+        u.unset("processingTimestamp");
+        if (remainingRecipients != null) u.set("recipients", remainingRecipients);
+        if (exhausted) u.set("exhaustedDate", LocalDateTime.now());
+
+        UpdateResult ur = mongoTemplate.updateFirst(q, u, OutboxEvent.class);
+        log.debug("Release failed outbox event update operation {}", ur.getModifiedCount() == 1);
+    }
+
+    @Override
+    public long deleteExhaustedBefore(int maxAttempts, LocalDateTime exhaustedBefore) {
+        Query q = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("attempts").gte(maxAttempts),
+                        new Criteria().orOperator(
+                                Criteria.where("exhaustedDate").lt(exhaustedBefore),
+                                new Criteria().andOperator(
+                                        Criteria.where("exhaustedDate").exists(false),
+                                        Criteria.where("createdDate").lt(exhaustedBefore)
+                                )
+                        )
+                )
+        );
+        DeleteResult dr = mongoTemplate.remove(q, OutboxEvent.class);
+        log.debug("Removed {} exhausted outbox events", dr.getDeletedCount());
+        return dr.getDeletedCount();
+    }
+}
@@ -0,0 +1,346 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import edu.stanford.slac.elog_plus.config.StorageProperties;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.ObjectListResult;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
+
+/**
+ * Storage repository implementation that use the non-blocking S3 client
+ * <p>
+ * the number of request in flight toward the storage is limited by a semaphore, when the limit is
+ * reached the caller waits for a running request to terminate at most for the request slot timeout,
+ * so a burst of uploads or downloads cannot exhaust the connection pool or the memory used to buffer
+ * the content. A download keeps its slot until the content stream is closed or drained
+ */
+@Log4j2
+public class S3AsyncStorageRepository implements StorageRepository, DisposableBean {
+    final private S3AsyncClient s3AsyncClient;
+    final private StorageProperties objectStorageProperties;
+    final private Semaphore inFlightRequests;
+    // used to read the input stream of the uploads without using the netty event loop threads
+    final private ExecutorService uploadReaderExecutor;
+
+    public S3AsyncStorageRepository(S3AsyncClient s3AsyncClient, StorageProperties objectStorageProperties) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.objectStorageProperties = objectStorageProperties;
+        this.inFlightRequests = new Semaphore(objectStorageProperties.getMaxInFlightRequests(), true);
+        this.uploadReaderExecutor = Executors.newFixedThreadPool(objectStorageProperties.getMaxInFlightRequests());
+    }
+
+    @Override
+    public void uploadFile(String id, FileObjectDescription attachment) throws IOException {
+        try {
+            uploadFileAsync(id, attachment).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public void getFile(String id, FileObjectDescription objDesc) {
+        try {
+            getFileAsync(id, objDesc).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public void deleteFile(String id) {
+        assertion(() -> !id.isBlank() && !id.isEmpty(),
+                -1,
+                "The attachment id is invalid",
+                "S3AsyncStorageRepository::deleteFile");
+        try {
+            executeBounded(
+                    () -> s3AsyncClient.deleteObject(
+                            DeleteObjectRequest.builder()
+                                    .bucket(objectStorageProperties.getBucket())
+                                    .key("attachment/%s".formatted(id))
+                                    .build()
+                    )
+            ).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public Set<String> deleteFiles(Collection<String> ids) {
+        // all the requests are sent together, bounded by the in flight limit
+        Map<DeleteObjectsRequest, CompletableFuture<DeleteObjectsResponse>> deleting = new LinkedHashMap<>();
+        for (DeleteObjectsRequest request : S3DeleteBatches.requests(objectStorageProperties.getBucket(), ids)) {
+            deleting.put(request, executeBounded(() -> s3AsyncClient.deleteObjects(request)));
+        }
+        Set<String> failed = new HashSet<>();
+        deleting.forEach(
+                (request, response) -> {
+                    try {
+                        response.join().errors().forEach(error -> failed.add(S3DeleteBatches.id(error.key())));
+                    } catch (CompletionException e) {
+                        log.error("Error deleting {} objects: {}", request.delete().objects().size(), unwrap(e).getMessage());
+                        failed.addAll(S3DeleteBatches.ids(request));
+                    }
+                }
+        );
+        return failed;
+    }
+
+    @Override
+    public ObjectListResult listFilesInBucket(int maxKeysPerPage, String continuationToken) {
+        List<String> foundKeys = new ArrayList<>();
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(objectStorageProperties.getBucket())
+                .maxKeys(maxKeysPerPage)
+                .prefix("attachment/")
+                .continuationToken(continuationToken)
+                .build();
+        ListObjectsV2Response result;
+        try {
+            result = executeBounded(() -> s3AsyncClient.listObjectsV2(request)).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+
+        result.contents().forEach(content -> foundKeys.add(content.key()));
+
+        return ObjectListResult
+                .builder()
+                .continuationToken(result.nextContinuationToken())
+                .keyFounds(foundKeys)
+                .build();
+    }
+
+    @Override
+    public List<String> keyPartitions() {
+        return S3KeyPartitions.PARTITIONS;
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<String> keyConsumer) {
+        String lowerBound = S3KeyPartitions.lowerBound(partition);
+        String upperBound = S3KeyPartitions.upperBound(partition);
+        String startAfter = S3KeyPartitions.startAfter(partition);
+        // the first page fetch a single key so an empty partition cost one small request
+        int pageSize = S3KeyPartitions.PROBE_PAGE_SIZE;
+        ListObjectsV2Response page;
+        do {
+            ListObjectsV2Request request = ListObjectsV2Request.builder()
+                    .bucket(objectStorageProperties.getBucket())
+                    .prefix(S3KeyPartitions.KEY_PREFIX)
+                    .startAfter(startAfter)
+                    .maxKeys(pageSize)
+                    .build();
+            try {
+                page = executeBounded(() -> s3AsyncClient.listObjectsV2(request)).join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+            for (S3Object content : page.contents()) {
+                if (!S3KeyPartitions.isBefore(content.key(), upperBound)) return;
+                startAfter = content.key();
+                if (S3KeyPartitions.isAtOrAfter(content.key(), lowerBound)) keyConsumer.accept(content.key());
+            }
+            pageSize = S3KeyPartitions.PAGE_SIZE;
+        } while (Boolean.TRUE.equals(page.isTruncated()));
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadFileAsync(String id, FileObjectDescription attachment) {
+        assertion(() -> attachment.getContentType() != null,
+                -1,
+                "The Content type is mandatory",
+                "S3AsyncStorageRepository::uploadFileAsync");
+        assertion(() -> attachment.getFileName() != null,
+                -1,
+                "The filename type is mandatory",
+                "S3AsyncStorageRepository::uploadFileAsync");
+        assertion(() -> attachment.getIs() != null,
+                -1,
+                "The input stream is mandatory type is mandatory",
+                "S3AsyncStorageRepository::uploadFileAsync");
+        long contentLength;
+        try {
+            contentLength = attachment.getIs().available();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return executeBounded(
+                () -> s3AsyncClient.putObject(
+                        PutObjectRequest.builder()
+                                .bucket(objectStorageProperties.getBucket())
+                                .key("attachment/%s".formatted(id))
+                                .contentType(attachment.getContentType())
+                                .contentLength(contentLength)
+                                .build(),
+                        AsyncRequestBody.fromInputStream(
+                                attachment.getIs(),
+                                contentLength,
+                                uploadReaderExecutor
+                        )
+                )
+        ).thenAccept(putObjectResponse -> log.debug("Uploaded object {}", id));
+    }
+
+    /**
+     * Fill the object description with the stream of the content without blocking the caller
+     * <p>
+     * the future is completed when the response headers are received, the content is streamed while
+     * the returned input stream is consumed. The request slot is kept until the stream is closed or drained,
+     * so also the transfer of the body is bounded
+     *
+     * @param id      the id of the object
+     * @param objDesc the description to fill
+     * @return the future completed with the filled description
+     */
+    @Override
+    public CompletableFuture<FileObjectDescription> getFileAsync(String id, FileObjectDescription objDesc) {
+        assertion(() -> !id.isBlank() && !id.isEmpty(),
+                -1,
+                "The attachment id is invalid",
+                "S3AsyncStorageRepository::getFileAsync");
+        Optional<ControllerLogicException> noSlot = acquireSlot();
+        if (noSlot.isPresent()) return CompletableFuture.failedFuture(noSlot.get());
+        return submit(
+                () -> s3AsyncClient.getObject(
+                        GetObjectRequest.builder()
+                                .bucket(objectStorageProperties.getBucket())
+                                .key("attachment/%s".formatted(id))
+                                .build(),
+                        AsyncResponseTransformer.toBlockingInputStream()
+                )
+        ).whenComplete(
+                (objectResponse, throwable) -> {
+                    if (throwable != null) inFlightRequests.release();
+                }
+        ).thenApply(
+                objectResponse -> {
+                    objDesc.setIs(new SlotReleasingInputStream(objectResponse));
+                    objDesc.setContentType(objectResponse.response().contentType());
+                    return objDesc;
+                }
+        );
+    }
+
+    /**
+     * Execute a request only when a free slot is available, the slot is released when the request terminates
+     *
+     * @param request the supplier that submit the request
+     * @return the future of the request
+     */
+    private <T> CompletableFuture<T> executeBounded(Supplier<CompletableFuture<T>> request) {
+        Optional<ControllerLogicException> noSlot = acquireSlot();
+        if (noSlot.isPresent()) return CompletableFuture.failedFuture(noSlot.get());
+        return submit(request).whenComplete((result, throwable) -> inFlightRequests.release());
+    }
+
+    /**
+     * Wait for a free request slot at most for the configured timeout, so a saturated storage fails the
+     * request instead of holding the caller thread
+     *
+     * @return the error to return if no slot has been acquired
+     */
+    private Optional<ControllerLogicException> acquireSlot() {
+        try {
+            if (inFlightRequests.tryAcquire(objectStorageProperties.getRequestSlotTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                return Optional.empty();
+            }
+            return Optional.of(
+                    ControllerLogicException.builder()
+                            .errorCode(-1)
+                            .errorMessage("No free storage request slot after %d ms".formatted(objectStorageProperties.getRequestSlotTimeoutMs()))
+                            .errorDomain("S3AsyncStorageRepository::acquireSlot")
+                            .build()
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.of(
+                    ControllerLogicException.builder()
+                            .errorCode(-2)
+                            .errorMessage("Interrupted while waiting for a free storage request slot")
+                            .errorDomain("S3AsyncStorageRepository::acquireSlot")
+                            .build()
+            );
+        }
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) return runtimeException;
+        return e;
+    }
+
+    @Override
+    public void destroy() {
+        uploadReaderExecutor.shutdown();
+    }
+
+    /**
+     * The content of a downloaded object that release the request slot when it is closed or drained
+     */
+    private final class SlotReleasingInputStream extends FilterInputStream {
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private SlotReleasingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read < 0) release();
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0) release();
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) inFlightRequests.release();
+        }
+    }
+}
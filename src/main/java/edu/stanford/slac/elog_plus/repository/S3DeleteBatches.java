@@ -0,0 +1,64 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Split the deletion of many stored objects in DeleteObjects requests
+ * <p>
+ * a single request can delete at most 1000 keys, the requests are quiet so the response
+ * contains only the keys that have not been deleted
+ */
+final class S3DeleteBatches {
+    static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    private S3DeleteBatches() {
+    }
+
+    /**
+     * Build the requests that delete the objects
+     *
+     * @param bucket the bucket of the objects
+     * @param ids    the ids of the objects to delete
+     * @return the requests, each one with at most {@link #MAX_KEYS_PER_REQUEST} keys
+     */
+    static List<DeleteObjectsRequest> requests(String bucket, Collection<String> ids) {
+        List<DeleteObjectsRequest> requests = new ArrayList<>();
+        List<ObjectIdentifier> objects = new ArrayList<>();
+        for (String id : ids) {
+            objects.add(ObjectIdentifier.builder().key(S3KeyPartitions.KEY_PREFIX + id).build());
+            if (objects.size() == MAX_KEYS_PER_REQUEST) {
+                requests.add(request(bucket, objects));
+                objects = new ArrayList<>();
+            }
+        }
+        if (!objects.isEmpty()) requests.add(request(bucket, objects));
+        return requests;
+    }
+
+    /**
+     * Return the ids of the objects of the request
+     */
+    static List<String> ids(DeleteObjectsRequest request) {
+        return request.delete().objects().stream().map(object -> id(object.key())).toList();
+    }
+
+    /**
+     * Return the id of the object from its key
+     */
+    static String id(String key) {
+        return key.startsWith(S3KeyPartitions.KEY_PREFIX) ? key.substring(S3KeyPartitions.KEY_PREFIX.length()) : key;
+    }
+
+    private static DeleteObjectsRequest request(String bucket, List<ObjectIdentifier> objects) {
+        return DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(objects).quiet(true).build())
+                .build();
+    }
+}
@@ -0,0 +1,98 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Partitions of the S3 key space used to scan the bucket concurrently
+ * <p>
+ * the attachment ids are object ids that start with the creation timestamp, so the key space is split on the
+ * first three hex digits of the id, which change about every twelve days. Every partition cover the keys from
+ * its prefix (included) to the prefix of the next partition, the first partition cover the keys before "000" so
+ * also the keys that does not start with a hex digit are covered. Most of the partitions are empty, so the scan
+ * fetch a single key first to leave an empty partition with one small request.
+ */
+final class S3KeyPartitions {
+    static final String KEY_PREFIX = "attachment/";
+    static final int PARTITION_DIGITS = 3;
+    static final int PROBE_PAGE_SIZE = 1;
+    static final int PAGE_SIZE = 1000;
+    static final List<String> PARTITIONS = buildPartitions();
+
+    private S3KeyPartitions() {
+    }
+
+    private static List<String> buildPartitions() {
+        int partitionCount = 1 << (4 * PARTITION_DIGITS);
+        List<String> partitions = new ArrayList<>(partitionCount + 1);
+        partitions.add("");
+        for (int idx = 0; idx < partitionCount; idx++) {
+            partitions.add(("%0" + PARTITION_DIGITS + "x").formatted(idx));
+        }
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Return the first key that belong to the partition
+     *
+     * @param partition the partition
+     * @return the prefix of the partition or null if the partition start from the first key
+     */
+    static String lowerBound(String partition) {
+        return partition.isEmpty() ? null : KEY_PREFIX + partition;
+    }
+
+    /**
+     * Return the key after which the partition scan should start
+     * <p>
+     * the start after key of S3 is exclusive, so the scan start after the greatest key before the prefix of the
+     * partition: the prefix with the last digit decremented and followed by the greatest character. The keys that
+     * are still before the lower bound are skipped by {@link #isAtOrAfter(String, String)}.
+     *
+     * @param partition the partition
+     * @return the start after key or null if the partition start from the first key
+     */
+    static String startAfter(String partition) {
+        String lowerBound = lowerBound(partition);
+        if (lowerBound == null) return null;
+        int last = lowerBound.length() - 1;
+        return lowerBound.substring(0, last) + (char) (lowerBound.charAt(last) - 1) + Character.MAX_VALUE;
+    }
+
+    /**
+     * Return the first key that does not belong to the partition
+     *
+     * @param partition the partition
+     * @return the first key of the next partition or null if it is the last partition
+     */
+    static String upperBound(String partition) {
+        int index = PARTITIONS.indexOf(partition);
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid partition %s".formatted(partition));
+        }
+        return index == PARTITIONS.size() - 1 ? null : KEY_PREFIX + PARTITIONS.get(index + 1);
+    }
+
+    /**
+     * Check if the key is not before the lower bound of the partition
+     *
+     * @param key        the key
+     * @param lowerBound the lower bound of the partition
+     * @return true if the key is at or after the lower bound
+     */
+    static boolean isAtOrAfter(String key, String lowerBound) {
+        return lowerBound == null || key.compareTo(lowerBound) >= 0;
+    }
+
+    /**
+     * Check if the key is before the upper bound of the partition
+     *
+     * @param key        the key
+     * @param upperBound the upper bound of the partition
+     * @return true if the key is before the upper bound
+     */
+    static boolean isBefore(String key, String upperBound) {
+        return upperBound == null || key.compareTo(upperBound) < 0;
+    }
+}
@@ -0,0 +1,163 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.config.StorageProperties;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.ObjectListResult;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+
+/**
+ * Storage repository implementation that use the synchronous S3 client
+ */
+@Log4j2
+@AllArgsConstructor
+public class S3StorageRepository implements StorageRepository {
+    final private S3Client s3Client;
+    final private StorageProperties objectStorageProperties;
+
+    @Override
+    public void uploadFile(String id, FileObjectDescription attachment) throws IOException {
+        PutObjectResponse putObjectResponse = null;
+        assertion(() -> attachment.getContentType() != null,
+                -1,
+                "The Content type is mandatory",
+                "S3StorageRepository::uploadFile");
+        assertion(() -> attachment.getFileName() != null,
+                -1,
+                "The filename type is mandatory",
+                "S3StorageRepository::uploadFile");
+        assertion(() -> attachment.getIs() != null,
+                -1,
+                "The input stream is mandatory type is mandatory",
+                "S3StorageRepository::uploadFile");
+
+        putObjectResponse = s3Client.putObject(
+                PutObjectRequest.builder()
+                        .bucket(objectStorageProperties.getBucket())
+                        .key("attachment/%s".formatted(id))
+                        .contentType(attachment.getContentType())
+                        .build(),
+                RequestBody.fromInputStream(
+                        attachment.getIs(),
+                        attachment.getIs().available()
+                )
+        );
+    }
+
+    @Override
+    public void getFile(String id, FileObjectDescription objDesc) {
+        assertion(() -> !id.isBlank() && !id.isEmpty(),
+                -1,
+                "The attachment id is invalid",
+                "S3StorageRepository::getFileObject");
+
+        ResponseInputStream<GetObjectResponse> objectResponse =
+                wrapCatch(
+                        () -> s3Client.getObject(
+                                GetObjectRequest.builder()
+                                        .bucket(objectStorageProperties.getBucket())
+                                        .key("attachment/%s".formatted(id))
+                                        .build(),
+                                ResponseTransformer.toInputStream()
+                        ),
+                        -1,
+                        "S3StorageRepository::getFile"
+                );
+        objDesc.setIs(objectResponse);
+        objDesc.setContentType(objectResponse.response().contentType());
+    }
+
+    @Override
+    public void deleteFile(String id) {
+        assertion(() -> !id.isBlank() && !id.isEmpty(),
+                -1,
+                "The attachment id is invalid",
+                "S3StorageRepository::deleteFile");
+
+        s3Client.deleteObject(
+                DeleteObjectRequest.builder()
+                        .bucket(objectStorageProperties.getBucket())
+                        .key("attachment/%s".formatted(id))
+                        .build()
+        );
+    }
+
+    @Override
+    public Set<String> deleteFiles(Collection<String> ids) {
+        Set<String> failed = new HashSet<>();
+        for (DeleteObjectsRequest request : S3DeleteBatches.requests(objectStorageProperties.getBucket(), ids)) {
+            try {
+                s3Client.deleteObjects(request).errors().forEach(error -> failed.add(S3DeleteBatches.id(error.key())));
+            } catch (RuntimeException e) {
+                log.error("Error deleting {} objects: {}", request.delete().objects().size(), e.getMessage());
+                failed.addAll(S3DeleteBatches.ids(request));
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public ObjectListResult listFilesInBucket(int maxKeysPerPage, String continuationToken) {
+        List<String> foundKeys = new ArrayList<>();
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(objectStorageProperties.getBucket())
+                .maxKeys(maxKeysPerPage)
+                .prefix("attachment/")
+                .continuationToken(continuationToken)
+                .build();
+
+        ListObjectsV2Response result = s3Client.listObjectsV2(request);
+
+        result.contents().forEach(content -> foundKeys.add(content.key()));
+
+        return ObjectListResult
+                .builder()
+                .continuationToken(result.nextContinuationToken())
+                .keyFounds(foundKeys)
+                .build();
+    }
+
+    @Override
+    public List<String> keyPartitions() {
+        return S3KeyPartitions.PARTITIONS;
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<String> keyConsumer) {
+        String lowerBound = S3KeyPartitions.lowerBound(partition);
+        String upperBound = S3KeyPartitions.upperBound(partition);
+        String startAfter = S3KeyPartitions.startAfter(partition);
+        // the first page fetch a single key so an empty partition cost one small request
+        int pageSize = S3KeyPartitions.PROBE_PAGE_SIZE;
+        ListObjectsV2Response page;
+        do {
+            page = s3Client.listObjectsV2(
+                    ListObjectsV2Request.builder()
+                            .bucket(objectStorageProperties.getBucket())
+                            .prefix(S3KeyPartitions.KEY_PREFIX)
+                            .startAfter(startAfter)
+                            .maxKeys(pageSize)
+                            .build()
+            );
+            for (S3Object content : page.contents()) {
+                if (!S3KeyPartitions.isBefore(content.key(), upperBound)) return;
+                startAfter = content.key();
+                if (S3KeyPartitions.isAtOrAfter(content.key(), lowerBound)) keyConsumer.accept(content.key());
+            }
+            pageSize = S3KeyPartitions.PAGE_SIZE;
+        } while (Boolean.TRUE.equals(page.isTruncated()));
+    }
+}
@@ -1,81 +1,62 @@
 package edu.stanford.slac.elog_plus.repository;
 
-import edu.stanford.slac.elog_plus.config.StorageProperties;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
 import edu.stanford.slac.elog_plus.model.ObjectListResult;
-import lombok.AllArgsConstructor;
-import org.springframework.stereotype.Repository;
-import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-
-import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
-import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Repository for the management of the storage
  */
-@Repository
-@AllArgsConstructor
-public class StorageRepository {
-    final private S3Client s3Client;
-    final private StorageProperties objectStorageProperties;
-
-    public void uploadFile(String id, FileObjectDescription attachment) throws IOException {
-        PutObjectResponse putObjectResponse = null;
-        assertion(() -> attachment.getContentType() != null,
-                -1,
-                "The Content type is mandatory",
-                "AttachmentRepository::uploadFile");
-        assertion(() -> attachment.getFileName() != null,
-                -1,
-                "The filename type is mandatory",
-                "AttachmentRepository::uploadFile");
-        assertion(() -> attachment.getIs() != null,
-                -1,
-                "The input stream is mandatory type is mandatory",
-                "AttachmentRepository::uploadFile");
+public interface StorageRepository {
+    /**
+     * Upload the content of a file object
+     *
+     * @param id         the id of the object
+     * @param attachment the description of the object with the stream of the content
+     * @throws IOException in case of error reading the content
+     */
+    void uploadFile(String id, FileObjectDescription attachment) throws IOException;
 
-        putObjectResponse = s3Client.putObject(
-                PutObjectRequest.builder()
-                        .bucket(objectStorageProperties.getBucket())
-                        .key("attachment/%s".formatted(id))
-                        .contentType(attachment.getContentType())
-                        .build(),
-                RequestBody.fromInputStream(
-                        attachment.getIs(),
-                        attachment.getIs().available()
-                )
-        );
-    }
+    /**
+     * Fill the object description with the stream of the content and the content type
+     *
+     * @param id      the id of the object
+     * @param objDesc the description to fill
+     */
+    void getFile(String id, FileObjectDescription objDesc);
 
-    public void getFile(String id, FileObjectDescription objDesc) {
-        assertion(() -> !id.isBlank() && !id.isEmpty(),
-                -1,
-                "The attachment id is invalid",
-                "AttachmentRepository::getFileObject");
+    /**
+     * Delete a stored object
+     *
+     * @param id the id of the object to delete
+     */
+    void deleteFile(String id);
 
-        ResponseInputStream<GetObjectResponse> objectResponse =
-                wrapCatch(
-                        () -> s3Client.getObject(
-                                GetObjectRequest.builder()
-                                        .bucket(objectStorageProperties.getBucket())
-                                        .key("attachment/%s".formatted(id))
-                                        .build(),
-                                ResponseTransformer.toInputStream()
-                        ),
-                        -1,
-                        "AttachmentRepository::getFile"
-                );
-        objDesc.setIs(objectResponse);
-        objDesc.setContentType(objectResponse.response().contentType());
+    /**
+     * Delete many stored objects, an object that does not exist is considered deleted
+     * <p>
+     * the default implementation delete the objects one by one
+     *
+     * @param ids the ids of the objects to delete
+     * @return the ids of the objects that have not been deleted
+     */
+    default Set<String> deleteFiles(Collection<String> ids) {
+        Set<String> failed = new HashSet<>();
+        for (String id : ids) {
+            try {
+                deleteFile(id);
+            } catch (RuntimeException e) {
+                failed.add(id);
+            }
+        }
+        return failed;
     }
 
     /**
@@ -85,24 +66,59 @@ public class StorageRepository {
      * @param continuationToken the token returned in the last call if the new call is a continuation
      * @return the list of found key
      */
-    public ObjectListResult listFilesInBucket(int maxKeysPerPage, String continuationToken) {
-        List<String> foundKeys = new ArrayList<>();
-        ListObjectsV2Request request = ListObjectsV2Request.builder()
-                .bucket(objectStorageProperties.getBucket())
-                .maxKeys(maxKeysPerPage)
-                .prefix("attachment/")
-                .continuationToken(continuationToken)
-                .build();
+    ObjectListResult listFilesInBucket(int maxKeysPerPage, String continuationToken);
 
-        ListObjectsV2Response result = s3Client.listObjectsV2(request);
+    /**
+     * Return the partitions of the key space, every partition can be scanned concurrently with the others
+     * and all together they cover all the stored keys without overlap
+     *
+     * @return the list of the partitions
+     */
+    List<String> keyPartitions();
 
-        result.contents().forEach(content -> foundKeys.add(content.key()));
+    /**
+     * Send to the consumer all the stored keys that belong to the partition
+     * <p>
+     * the consumer is called from the thread that scan the partition
+     *
+     * @param partition   the partition to scan, one of the values returned by {@link #keyPartitions()}
+     * @param keyConsumer the consumer of the keys
+     */
+    void scanPartition(String partition, Consumer<String> keyConsumer);
 
-        return ObjectListResult
-                .builder()
-                .continuationToken(result.nextContinuationToken())
-                .keyFounds(foundKeys)
-                .build();
+    /**
+     * Upload the content of a file object without blocking the caller
+     * <p>
+     * the default implementation execute the upload on the caller thread
+     *
+     * @param id         the id of the object
+     * @param attachment the description of the object with the stream of the content
+     * @return the future completed when the upload is terminated
+     */
+    default CompletableFuture<Void> uploadFileAsync(String id, FileObjectDescription attachment) {
+        try {
+            uploadFile(id, attachment);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
-}
 
+    /**
+     * Fill the object description with the stream of the content without blocking the caller
+     * <p>
+     * the default implementation execute the download on the caller thread
+     *
+     * @param id      the id of the object
+     * @param objDesc the description to fill
+     * @return the future completed with the filled description
+     */
+    default CompletableFuture<FileObjectDescription> getFileAsync(String id, FileObjectDescription objDesc) {
+        try {
+            getFile(id, objDesc);
+            return CompletableFuture.completedFuture(objDesc);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
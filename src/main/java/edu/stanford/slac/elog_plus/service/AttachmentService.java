@@ -7,15 +7,17 @@ import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
 import edu.stanford.slac.elog_plus.exception.AttachmentNotFound;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import edu.stanford.slac.elog_plus.model.PreviewLane;
 import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
 import edu.stanford.slac.elog_plus.repository.StorageRepository;
-import io.micrometer.core.instrument.Counter;
+import edu.stanford.slac.elog_plus.utility.ContentDigestInputStream;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.mongodb.MongoTransactionException;
 import org.springframework.data.mongodb.UncategorizedMongoDbException;
 import org.springframework.http.MediaType;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
@@ -23,9 +25,12 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.io.ByteArrayInputStream;
 import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
 
 
@@ -38,8 +43,9 @@ public class AttachmentService {
     final private ELOGAppProperties appProperties;
     final private StorageRepository storageRepository;
     final private AttachmentRepository attachmentRepository;
-    final private KafkaTemplate<String, Attachment> attachmentKafkaTemplate;
-    final private Counter previewSubmittedCounter;
+    final private OutboxService outboxService;
+    // resolved on use because the preview generation depends on this service
+    final private ObjectProvider<PreviewGenerationService> previewGenerationServiceProvider;
 
     /**
      * Create a new attachment
@@ -60,6 +66,19 @@ public class AttachmentService {
      */
     @Transactional
     public String createAttachment(FileObjectDescription attachment, boolean createPreview, Optional<String> referenceInfo) {
+        return createAttachment(attachment, createPreview, referenceInfo, PreviewLane.Interactive);
+    }
+
+    /**
+     * Create a new attachment
+     * @param attachment the new attachment content
+     * @param createPreview if true, create a preview of the attachment
+     * @param referenceInfo the reference information
+     * @param previewLane the lane where the preview is requested
+     * @return the id of the new created attachment
+     */
+    @Transactional
+    public String createAttachment(FileObjectDescription attachment, boolean createPreview, Optional<String> referenceInfo, PreviewLane previewLane) {
         Attachment att = Attachment
                 .builder()
                 .fileName(attachment.getFileName())
@@ -74,6 +93,13 @@ public class AttachmentService {
                         ),
                         0,
                         "AttachmentService::createAttachment");
+        // the content hash is calculated while the content is uploaded
+        ContentDigestInputStream digestInputStream = wrapCatch(
+                () -> new ContentDigestInputStream(attachment.getIs()),
+                -1,
+                "AttachmentService::createAttachment"
+        );
+        attachment.setIs(digestInputStream);
         try {
             wrapCatch(
                     () -> {
@@ -94,14 +120,98 @@ public class AttachmentService {
             );
         }
 
+        // check if the same content has been already stored
+        String contentHash = digestInputStream.getHexDigest();
+        att.setContentHash(contentHash);
+        att.setContentLength(digestInputStream.getByteCount());
+        Optional<Attachment> sameContentAttachment = wrapCatch(
+                () -> attachmentRepository.findFirstByContentHashAndCanBeDeletedIsFalseAndIdNotOrderByInUseDesc(contentHash, newAttachmentID.getId()),
+                -3,
+                "AttachmentService::createAttachment"
+        );
+        setStoredContent(newAttachmentID.getId(), att, sameContentAttachment.map(AttachmentService::getStorageId).orElse(newAttachmentID.getId()));
+
+        // the attachment with the same content can be tagged as deletable after the lookup, so the content
+        // is reused only if it still cannot be deleted now that the new reference has been written
+        boolean reuseContent = sameContentAttachment.isPresent() && wrapCatch(
+                () -> attachmentRepository.markContentReused(sameContentAttachment.get().getId()),
+                -4,
+                "AttachmentService::createAttachment"
+        );
+        if (sameContentAttachment.isPresent() && !reuseContent) {
+            log.info("Attachment {} keeps its own copy of the content because {} can be deleted", newAttachmentID.getId(), sameContentAttachment.get().getId());
+            setStoredContent(newAttachmentID.getId(), att, newAttachmentID.getId());
+        }
+
+        if (reuseContent) {
+            log.info("Attachment {} has the same content of the stored object {}", newAttachmentID.getId(), att.getStorageId());
+            // the uploaded copy is not needed anymore
+            try {
+                storageRepository.deleteFile(newAttachmentID.getId());
+            } catch (Exception e) {
+                log.warn("Error removing the duplicated object for attachment {}: {}", newAttachmentID.getId(), e.getMessage());
+            }
+
+            // reuse the preview if it has been already generated
+            if (sameContentAttachment.get().getPreviewState() == Attachment.PreviewProcessingState.Completed) {
+                wrapCatch(
+                        () -> {
+                            attachmentRepository.reusePreview(newAttachmentID.getId(), sameContentAttachment.get());
+                            return null;
+                        },
+                        -5,
+                        "AttachmentService::createAttachment"
+                );
+                createPreview = false;
+            }
+        }
+
         if (createPreview) {
-            attachmentKafkaTemplate.send(appProperties.getImagePreviewTopic(), att);
-            previewSubmittedCounter.increment();
+            // the preview request is sent by the outbox only when the attachment has been committed
+            outboxService.publish(
+                    OutboxEvent
+                            .builder()
+                            .type(OutboxEvent.Type.PreviewRequest)
+                            .referenceId(newAttachmentID.getId())
+                            .previewLane(previewLane)
+                            .build()
+            );
         }
         log.info("New attachment created with id {}", newAttachmentID.getId());
         return newAttachmentID.getId();
     }
 
+    /**
+     * Write the information about the stored content of the attachment
+     *
+     * @param id         the attachment id
+     * @param attachment the attachment with the content hash and length
+     * @param storageId  the id of the stored object that hold the content
+     */
+    private void setStoredContent(String id, Attachment attachment, String storageId) {
+        attachment.setStorageId(storageId);
+        wrapCatch(
+                () -> {
+                    attachmentRepository.setStoredContent(id, attachment.getContentHash(), attachment.getContentLength(), storageId);
+                    return null;
+                },
+                -4,
+                "AttachmentService::createAttachment"
+        );
+    }
+
+    /**
+     * Return the id of the stored object that hold the content of the attachment
+     * <p>
+     * attachment created before the content deduplication have the content stored using their own id
+     *
+     * @param attachment the attachment
+     * @return the id of the stored object
+     */
+    public static String getStorageId(Attachment attachment) {
+        return attachment.getStorageId() != null ? attachment.getStorageId() : attachment.getId();
+    }
+
     /**
      * Return the attachment raw content file
      * @param id the unique id of the attachment
@@ -140,7 +250,7 @@ public class AttachmentService {
         attachment.setFileName(foundAttachment.getFileName());
         wrapCatch(
                 () -> {
-                    storageRepository.getFile(id, attachment);
+                    storageRepository.getFile(getStorageId(foundAttachment), attachment);
                     return null;
                 },
                 -1,
@@ -155,25 +265,38 @@ public class AttachmentService {
      * @return the preview content
      */
     public FileObjectDescription getPreviewContent(String id) {
+        return getPreviewContent(id, null);
+    }
+
+    /**
+     * return the preview content with the requested size
+     * <p>
+     * the smallest variant that is at least large as the requested size is returned, if no variant
+     * is large enough or the size is not specified, the full size preview is returned.
+     * If the preview has not yet been generated it is generated on demand
+     *
+     * @param id the id of the attachment
+     * @param size the requested width of the preview, can be null
+     * @return the preview content
+     */
+    public FileObjectDescription getPreviewContent(String id, Integer size) {
         FileObjectDescription attachment = FileObjectDescription.builder().build();
         // fetch
-        Attachment foundAttachment = wrapCatch(
-                () -> attachmentRepository.findById(id),
-                -1,
-                "AttachmentService::getAttachment"
-        ).orElseThrow(
-                () -> AttachmentNotFound.attachmentNotFoundBuilder()
-                        .errorCode(-2)
-                        .attachmentID(id)
-                        .errorDomain("AttachmentService::getAttachment")
-                        .build()
-        );
+        Attachment foundAttachment = findPreviewAttachment(id);
+        if (foundAttachment.getPreviewID() == null &&
+                (foundAttachment.getPreviewState() == Attachment.PreviewProcessingState.Waiting ||
+                        foundAttachment.getPreviewState() == Attachment.PreviewProcessingState.Processing)) {
+            // the preview pipeline is behind, the preview is generated by this request
+            previewGenerationServiceProvider.getObject().generatePreviewOnDemand(foundAttachment);
+            foundAttachment = findPreviewAttachment(id);
+        }
 
         // retrieve stored file
         attachment.setFileName(foundAttachment.getFileName());
+        Attachment finalFoundAttachment = foundAttachment;
         wrapCatch(
                 () -> {
-                    storageRepository.getFile(foundAttachment.getPreviewID(), attachment);
+                    storageRepository.getFile(getPreviewStorageId(finalFoundAttachment, size), attachment);
                     return null;
                 },
                 -1,
@@ -182,6 +305,40 @@ public class AttachmentService {
         return attachment;
     }
 
+    private Attachment findPreviewAttachment(String id) {
+        return wrapCatch(
+                () -> attachmentRepository.findById(id),
+                -1,
+                "AttachmentService::getAttachment"
+        ).orElseThrow(
+                () -> AttachmentNotFound.attachmentNotFoundBuilder()
+                        .errorCode(-2)
+                        .attachmentID(id)
+                        .errorDomain("AttachmentService::getAttachment")
+                        .build()
+        );
+    }
+
+    /**
+     * Return the id of the stored preview that better fit the requested size
+     *
+     * @param attachment the attachment
+     * @param size the requested width, can be null
+     * @return the id of the stored preview
+     */
+    static String getPreviewStorageId(Attachment attachment, Integer size) {
+        if (size == null || attachment.getPreviewVariants() == null || attachment.getPreviewVariants().isEmpty()) {
+            return attachment.getPreviewID();
+        }
+        return attachment.getPreviewVariants()
+                .entrySet()
+                .stream()
+                .filter(variant -> Integer.parseInt(variant.getKey()) >= size)
+                .min(Comparator.comparingInt(variant -> Integer.parseInt(variant.getKey())))
+                .map(Map.Entry::getValue)
+                .orElse(attachment.getPreviewID());
+    }
+
     /**
      * Return the mini preview object description
      *
@@ -241,26 +398,15 @@ public class AttachmentService {
      * @param previewID the preview identifier for fetch it from object store
      */
     public void setPreviewID(String id, String previewID) {
-        // fetch
-        Attachment foundAttachment = wrapCatch(
-                () -> attachmentRepository.findById(id),
+        wrapCatch(
+                () -> {
+                    attachmentRepository.setPreviewID(id, previewID);
+                    return null;
+                },
                 -1,
                 "AttachmentService::setPreviewID"
-        ).orElseThrow(
-                () -> AttachmentNotFound.attachmentNotFoundBuilder()
-                        .errorCode(-2)
-                        .attachmentID(id)
-                        .errorDomain("AttachmentService::setPreviewID")
-                        .build()
-        );
-        foundAttachment.setPreviewID(previewID);
-        Attachment finalFoundAttachment = foundAttachment;
-        foundAttachment = wrapCatch(
-                () -> attachmentRepository.save(finalFoundAttachment),
-                -3,
-                "AttachmentService::setPreviewProcessingState"
         );
-        log.info("Set the preview id to {} for the attachment {}", previewID, foundAttachment.getId());
+        log.info("Set the preview id to {} for the attachment {}", previewID, id);
     }
 
     /**
@@ -270,26 +416,88 @@ public class AttachmentService {
      * @param processingState the new state of the attachment
      */
     public void setPreviewProcessingState(String id, Attachment.PreviewProcessingState processingState) {
-        // fetch
-        Attachment foundAttachment = wrapCatch(
-                () -> attachmentRepository.findById(id),
+        wrapCatch(
+                () -> {
+                    attachmentRepository.setPreviewState(id, processingState);
+                    return null;
+                },
                 -1,
                 "AttachmentService::setPreviewProcessingState"
-        ).orElseThrow(
-                () -> AttachmentNotFound.attachmentNotFoundBuilder()
+        );
+        log.info("Update the preview processing state to {} for the attachment {}", processingState, id);
+    }
+
+    /**
+     * Start the preview processing of the attachment
+     * <p>
+     * the attachment is moved in the processing state with a single update that also return the new preview revision,
+     * the revision need to be used for all the other transitions of the same processing
+     *
+     * @param id the unique identifier of the attachment
+     * @return the preview revision of the processing or empty if the preview is already completed
+     */
+    public Optional<Long> startPreviewProcessing(String id) {
+        Attachment updatedAttachment = wrapCatch(
+                () -> attachmentRepository.startPreviewProcessing(id),
+                -1,
+                "AttachmentService::startPreviewProcessing"
+        );
+        if (updatedAttachment != null) {
+            log.info("Started the preview processing with revision {} for the attachment {}", updatedAttachment.getPreviewRevision(), id);
+            return Optional.of(updatedAttachment.getPreviewRevision());
+        }
+        // the attachment is not updated if the preview is already completed or if the attachment does not exist
+        assertion(
+                () -> attachmentRepository.existsById(id),
+                AttachmentNotFound.attachmentNotFoundBuilder()
                         .errorCode(-2)
                         .attachmentID(id)
-                        .errorDomain("AttachmentService::setPreviewProcessingState")
+                        .errorDomain("AttachmentService::startPreviewProcessing")
                         .build()
         );
-        foundAttachment.setPreviewState(processingState);
-        Attachment finalFoundAttachment = foundAttachment;
-        foundAttachment = wrapCatch(
-                () -> attachmentRepository.save(finalFoundAttachment),
-                -3,
+        return Optional.empty();
+    }
+
+    /**
+     * Complete the preview processing setting together the preview id, the variants, the mini preview and the state
+     *
+     * @param id              the unique identifier of the attachment
+     * @param previewRevision the revision returned by {@link #startPreviewProcessing(String)}
+     * @param previewID       the id of the default preview
+     * @param previewVariants the map from the width of the variant to the id of the stored object
+     * @param miniPreview     the mini preview
+     * @return true if the attachment has been updated, false if another processing has updated it in the meantime
+     */
+    public boolean completePreviewProcessing(String id, Long previewRevision, String previewID, Map<String, String> previewVariants, byte[] miniPreview) {
+        boolean updated = wrapCatch(
+                () -> attachmentRepository.completePreviewProcessing(id, previewRevision, previewID, previewVariants, miniPreview),
+                -1,
+                "AttachmentService::completePreviewProcessing"
+        );
+        if (updated) {
+            log.info("Completed the preview processing with revision {} for the attachment {}", previewRevision, id);
+        } else {
+            log.warn("The preview processing with revision {} for the attachment {} has been superseded", previewRevision, id);
+        }
+        return updated;
+    }
+
+    /**
+     * Update the processing state of the attachment only if no other processing has updated it
+     *
+     * @param id              the unique identifier of the attachment
+     * @param previewRevision the revision returned by {@link #startPreviewProcessing(String)}
+     * @param processingState the new state of the attachment
+     * @return true if the attachment has been updated
+     */
+    public boolean setPreviewProcessingState(String id, Long previewRevision, Attachment.PreviewProcessingState processingState) {
+        boolean updated = wrapCatch(
+                () -> attachmentRepository.setPreviewState(id, previewRevision, processingState),
+                -1,
                 "AttachmentService::setPreviewProcessingState"
         );
-        log.info("Update the preview processing state to {} for the attachment {}", processingState, foundAttachment.getId());
+        log.info("Update the preview processing state to {} with revision {} for the attachment {}: {}", processingState, previewRevision, id, updated);
+        return updated;
     }
 
     /**
@@ -314,6 +522,24 @@ public class AttachmentService {
         return foundAttachment.getPreviewState().name();
     }
 
+    /**
+     * Set the preview variants of an attachment
+     *
+     * @param id              the unique identifier of an attachment
+     * @param previewVariants the map from the width of the variant to the id of the stored object
+     */
+    public void setPreviewVariants(String id, Map<String, String> previewVariants) {
+        wrapCatch(
+                () -> {
+                    attachmentRepository.setPreviewVariants(id, previewVariants);
+                    return null;
+                },
+                -1,
+                "AttachmentService::setPreviewVariants"
+        );
+        log.info("Set the preview variants {} for the attachment {}", previewVariants.keySet(), id);
+    }
+
     /**
      * Set the mini preview of an attachment
      *
@@ -321,27 +547,15 @@ public class AttachmentService {
      * @param byteArray the byte array represent the mini preview
      */
     public void setMiniPreview(String id, byte[] byteArray) {
-        // fetch
-        Attachment foundAttachment = wrapCatch(
-                () -> attachmentRepository.findById(id),
+        wrapCatch(
+                () -> {
+                    attachmentRepository.setMiniPreview(id, byteArray);
+                    return null;
+                },
                 -1,
                 "AttachmentService::setMiniPreview"
-        ).orElseThrow(
-                () -> AttachmentNotFound.attachmentNotFoundBuilder()
-                        .errorCode(-2)
-                        .attachmentID(id)
-                        .errorDomain("AttachmentService::setMiniPreview")
-                        .build()
-        );
-
-        foundAttachment.setMiniPreview(byteArray);
-        Attachment finalFoundAttachment = foundAttachment;
-        foundAttachment = wrapCatch(
-                () -> attachmentRepository.save(finalFoundAttachment),
-                -3,
-                "AttachmentService::setMiniPreview"
         );
-        log.info("Set the mini preview for the attachment {}", foundAttachment.getId());
+        log.info("Set the mini preview for the attachment {}", id);
     }
 
     /**
@@ -0,0 +1,65 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Detect the content type of a document before it is consumed
+ * <p>
+ * only a bounded prefix of the document is read, the detector works on a copy of the prefix so it never
+ * reads more than the configured bytes from the document, whatever the detector implementation does
+ * with the stream.
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class ContentDetectionService {
+    private final Detector tikaDetector;
+    private final ELOGAppProperties elogAppProperties;
+
+    /**
+     * The detected content type with the stream to use to read the whole document
+     *
+     * @param mediaType the detected content type
+     * @param stream    the stream positioned at the start of the document
+     */
+    public record DetectedContent(MediaType mediaType, InputStream stream) {
+    }
+
+    /**
+     * Detect the content type of the document
+     * <p>
+     * when the stream does not support mark and reset it is wrapped in a buffered stream, so the returned
+     * stream must be used in place of the original one to read the document
+     *
+     * @param documentStream the stream of the document
+     * @return the detected content type and the stream of the document
+     * @throws IOException if the document cannot be read
+     */
+    public DetectedContent detect(InputStream documentStream) throws IOException {
+        int prefixLength = elogAppProperties.getContentDetectionPrefixBytes();
+        InputStream markableStream = documentStream.markSupported() ?
+                documentStream :
+                new BufferedInputStream(documentStream, prefixLength);
+        markableStream.mark(prefixLength);
+        byte[] prefix;
+        try {
+            prefix = markableStream.readNBytes(prefixLength);
+        } finally {
+            markableStream.reset();
+        }
+        MediaType mediaType = tikaDetector.detect(new ByteArrayInputStream(prefix), new Metadata());
+        log.debug("Detected content type {} on {} bytes", mediaType, prefix.length);
+        return new DetectedContent(mediaType, markableStream);
+    }
+}
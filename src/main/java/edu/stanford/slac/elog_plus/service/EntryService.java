@@ -2,13 +2,12 @@ package edu.stanford.slac.elog_plus.service;
 
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.PersonDTO;
 import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
-import edu.stanford.slac.ad.eed.baselib.service.PeopleGroupService;
 import edu.stanford.slac.elog_plus.api.v1.dto.*;
 import edu.stanford.slac.elog_plus.api.v1.mapper.EntryMapper;
 import edu.stanford.slac.elog_plus.api.v1.mapper.QueryParameterMapper;
-import edu.stanford.slac.elog_plus.cache.CacheEvictReferenced;
 import edu.stanford.slac.elog_plus.exception.*;
 import edu.stanford.slac.elog_plus.model.Entry;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
 import edu.stanford.slac.elog_plus.model.Summarizes;
 import edu.stanford.slac.elog_plus.repository.EntryRepository;
 import lombok.AllArgsConstructor;
@@ -42,8 +41,8 @@ public class EntryService {
     final private LogbookService logbookService;
     final private AttachmentService attachmentService;
     final private EntryMapper entryMapper;
-    final private MailService mailService;
-    final private PeopleGroupService peopleGroupService;
+    final private OutboxService outboxService;
+    final private EntryShiftKeysService entryShiftKeysService;
 
     /**
      * Return the logbook id for the entry
@@ -138,9 +137,9 @@ public class EntryService {
         for (String logbookId :
                 logbookIds) {
             var shiftDTO = wrapCatch(
-                    () -> logbookService.findShiftByLocalTime(
+                    () -> logbookService.findShiftByLocalDateTime(
                             logbookId,
-                            eventAt.toLocalTime()
+                            eventAt
                     ),
                     -1,
                     "LogService::getShiftsForEntry"
@@ -182,7 +181,6 @@ public class EntryService {
      * @return the id of the newly created log
      */
     @Transactional
-    @CacheEvictReferenced(cacheName = ENTRIES)
     public String createNew(EntryNewDTO entryNewDTO, PersonDTO personDTO) {
         return createNew(
                 toModelWithCreator(
@@ -227,7 +225,6 @@ public class EntryService {
      * @return the id of the newly created log
      */
     @Transactional()
-    @CacheEvictReferenced(cacheName = ENTRIES)
     public String createNew(Entry newEntry) {
         //get and check for logbooks
         Entry finalNewEntry = newEntry;
@@ -342,6 +339,9 @@ public class EntryService {
         // remove the invalid references
         filterOutInvalidReference(newEntry);
 
+        // the shifts of the entry are materialized for the shift views
+        newEntry.setShiftKeys(entryShiftKeysService.computeShiftKeys(newEntry.getLogbooks(), newEntry.getEventAt()));
+
         // other check
         Entry finalNewEntryToSave = newEntry;
 
@@ -355,24 +355,104 @@ public class EntryService {
                         "LogService::createNew"
                 );
         log.info("New entry '{}' created", newEntry.getTitle());
-        // send email notification
+        // the side effects are queued in the same transaction and dispatched asynchronously
+        if (newEntry.getReferences() != null && !newEntry.getReferences().isEmpty()) {
+            outboxService.publish(
+                    OutboxEvent
+                            .builder()
+                            .type(OutboxEvent.Type.ReferencedEntriesCacheEviction)
+                            .referenceId(newEntry.getId())
+                            .cacheNames(List.of(ENTRIES))
+                            .build()
+            );
+        }
         if (newEntry.getUserIdsToNotify() != null && !newEntry.getUserIdsToNotify().isEmpty()) {
-            log.info("Sending email notification for new entry '{}'", newEntry.getTitle());
-
-            // validate the email addresses
-            var peopleList = newEntry.getUserIdsToNotify().stream().map(
-                    peopleGroupService::findPersonByEMail
-            ).toList();
-
-            // send the emails
-            mailService.sentNewEmailNotification(
-                    peopleList,
-                    newEntry
+            log.info("Queue email notification for new entry '{}'", newEntry.getTitle());
+            outboxService.publish(
+                    OutboxEvent
+                            .builder()
+                            .type(OutboxEvent.Type.NewEntryNotification)
+                            .referenceId(newEntry.getId())
+                            .recipients(List.copyOf(newEntry.getUserIdsToNotify()))
+                            .build()
             );
         }
         return newEntry.getId();
     }
 
+    /**
+     * Insert many already validated entries with a single bulk operation
+     * <p>
+     * the entries must have the logbooks, tags and references already checked by the caller, as the import does
+     * for the whole batch, the references that do not belong to an existing entry or to an entry of the same
+     * insert are removed
+     *
+     * @param newEntries the entries to insert, with the id already assigned
+     * @return the error message of the entries that have not been inserted by their index in the list
+     */
+    @CacheEvict(value = ENTRIES, allEntries = true)
+    public Map<Integer, String> createAllNew(List<Entry> newEntries) {
+        Set<String> insertingIds = newEntries.stream().map(Entry::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Set<String> referencedIds = newEntries.stream()
+                .filter(entry -> entry.getReferences() != null)
+                .flatMap(entry -> entry.getReferences().stream())
+                .filter(id -> !insertingIds.contains(id))
+                .collect(Collectors.toSet());
+        Set<String> validReferences = new HashSet<>(
+                wrapCatch(
+                        () -> entryRepository.findExistingIds(referencedIds),
+                        -1,
+                        "EntryService::createAllNew"
+                )
+        );
+        validReferences.addAll(insertingIds);
+        newEntries.stream()
+                .filter(entry -> entry.getReferences() != null)
+                .forEach(entry -> entry.setReferences(entry.getReferences().stream().filter(validReferences::contains).collect(Collectors.toList())));
+
+        newEntries.forEach(entry -> entry.setShiftKeys(entryShiftKeysService.computeShiftKeys(entry.getLogbooks(), entry.getEventAt())));
+
+        Map<Integer, String> failedEntries = wrapCatch(
+                () -> entryRepository.bulkInsert(newEntries),
+                -2,
+                "EntryService::createAllNew"
+        );
+        log.info("{} new entries created in bulk, {} failed", newEntries.size() - failedEntries.size(), failedEntries.size());
+        return failedEntries;
+    }
+
+    /**
+     * Set the superseded by on many entries at once, the entries already superseded are left untouched
+     *
+     * @param supersededByIds the id of the superseding entry by the id of the superseded one
+     * @return the number of superseded entries
+     */
+    @CacheEvict(value = ENTRIES, allEntries = true)
+    public long setAllSupersededBy(Map<String, String> supersededByIds) {
+        return wrapCatch(
+                () -> entryRepository.setSupersededBy(supersededByIds),
+                -1,
+                "EntryService::setAllSupersededBy"
+        );
+    }
+
+    /**
+     * Apply to many entries at once the resolution of the references imported by origin id
+     *
+     * @param resolutions the entries with the id, the resolved references and the still unresolved ones
+     */
+    @CacheEvict(value = ENTRIES, allEntries = true)
+    public void applyOriginIdReferencesResolution(List<Entry> resolutions) {
+        wrapCatch(
+                () -> {
+                    entryRepository.applyOriginIdReferencesResolution(resolutions);
+                    return null;
+                },
+                -1,
+                "EntryService::applyOriginIdReferencesResolution"
+        );
+    }
+
     /**
      * Return the ids of the logbooks which the parent entry is associated
      *
@@ -0,0 +1,180 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.api.v1.mapper.LogbookMapper;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Entry;
+import edu.stanford.slac.elog_plus.model.Logbook;
+import edu.stanford.slac.elog_plus.model.ShiftLookupTable;
+import edu.stanford.slac.elog_plus.repository.EntryRepository;
+import edu.stanford.slac.elog_plus.repository.LogbookRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Manage the shift keys of the entries
+ * <p>
+ * the shift keys are computed on the creation of the entries with the cached shift lookup tables of their logbooks.
+ * When the shifts of a logbook change the keys of all its entries are recomputed in batches, with the shifts read
+ * from the database so a lookup table still in the cache cannot be used, only the changed keys are written.
+ * The progress is reported after every batch, so a recompute can be stopped and resumed after the last batch.
+ */
+@Log4j2
+@Service
+public class EntryShiftKeysService {
+    private final EntryRepository entryRepository;
+    private final LogbookRepository logbookRepository;
+    private final LogbookMapper logbookMapper;
+    private final ShiftLookupService shiftLookupService;
+    private final ELOGAppProperties elogAppProperties;
+    private final Counter recomputedCounter;
+
+    public EntryShiftKeysService(EntryRepository entryRepository, LogbookRepository logbookRepository, LogbookMapper logbookMapper, ShiftLookupService shiftLookupService, ELOGAppProperties elogAppProperties, MeterRegistry meterRegistry) {
+        this.entryRepository = entryRepository;
+        this.logbookRepository = logbookRepository;
+        this.logbookMapper = logbookMapper;
+        this.shiftLookupService = shiftLookupService;
+        this.elogAppProperties = elogAppProperties;
+        this.recomputedCounter = Counter.builder("elog_plus_entry_shift_keys_recomputed")
+                .description("The number of entries with the shift keys changed by a recompute")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Compute the shift keys of an entry
+     *
+     * @param logbookIds the logbooks of the entry
+     * @param eventAt    the time of the event
+     * @return the key of the shift that contains the event time, for every logbook with a matching shift
+     */
+    public List<String> computeShiftKeys(List<String> logbookIds, LocalDateTime eventAt) {
+        return computeShiftKeys(logbookIds, eventAt, shiftLookupService::getShiftLookupTable);
+    }
+
+    /**
+     * Recompute the shift keys of all the entries of a logbook
+     *
+     * @param logbookId the logbook with the changed shifts
+     * @return the number of entries with changed keys
+     */
+    public long recomputeLogbook(String logbookId) {
+        return recompute(logbookId, null, lastId -> true);
+    }
+
+    /**
+     * Recompute the shift keys of the entries of a logbook that follow an entry
+     *
+     * @param logbookId    the logbook with the changed shifts
+     * @param startAfterId the id of the last entry already recomputed or null to start from the first entry
+     * @param progress     called with the id of the last recomputed entry after every batch, the recompute stops
+     *                     when it returns false
+     * @return the number of entries with changed keys
+     */
+    public long recomputeLogbook(String logbookId, String startAfterId, Predicate<String> progress) {
+        return recompute(logbookId, startAfterId, progress);
+    }
+
+    /**
+     * Recompute the shift keys of all the entries
+     *
+     * @return the number of entries with changed keys
+     */
+    public long recomputeAll() {
+        return recompute(null, null, lastId -> true);
+    }
+
+    private long recompute(String logbookId, String startAfterId, Predicate<String> progress) {
+        long start = System.nanoTime();
+        long checked = 0;
+        long updated = 0;
+        // the lookup tables are compiled once for the whole run
+        Map<String, ShiftLookupTable> tables = new HashMap<>();
+        String lastId = startAfterId;
+        List<Entry> batch;
+        do {
+            String afterId = lastId;
+            batch = wrapCatch(
+                    () -> entryRepository.findShiftKeysSources(logbookId, afterId, elogAppProperties.getEntryShiftKeysBatchSize()),
+                    -1,
+                    "EntryShiftKeysService:recompute"
+            );
+            if (batch.isEmpty()) break;
+            compileMissingTables(batch, tables);
+            Map<String, List<String>> changedKeys = new HashMap<>();
+            for (Entry entry : batch) {
+                List<String> shiftKeys = computeShiftKeys(entry.getLogbooks(), entry.getEventAt(), tables::get);
+                if (!shiftKeys.equals(Objects.requireNonNullElse(entry.getShiftKeys(), List.of()))) {
+                    changedKeys.put(entry.getId(), shiftKeys);
+                }
+            }
+            long batchUpdated = wrapCatch(
+                    () -> entryRepository.setShiftKeys(changedKeys),
+                    -2,
+                    "EntryShiftKeysService:recompute"
+            );
+            checked += batch.size();
+            updated += batchUpdated;
+            recomputedCounter.increment(batchUpdated);
+            lastId = batch.get(batch.size() - 1).getId();
+            if (!progress.test(lastId)) {
+                log.warn("Recompute of the shift keys stopped after the entry {}", lastId);
+                break;
+            }
+        } while (batch.size() >= elogAppProperties.getEntryShiftKeysBatchSize());
+        log.info(
+                "Recomputed the shift keys of {} entries {}, {} changed in {} ms",
+                checked,
+                logbookId == null ? "of all the logbooks" : "of the logbook %s".formatted(logbookId),
+                updated,
+                (System.nanoTime() - start) / 1_000_000
+        );
+        return updated;
+    }
+
+    /**
+     * Compile the lookup tables of the logbooks of the batch not yet compiled
+     */
+    private void compileMissingTables(List<Entry> batch, Map<String, ShiftLookupTable> tables) {
+        Set<String> missingIds = new HashSet<>();
+        batch.stream()
+                .filter(entry -> entry.getLogbooks() != null)
+                .flatMap(entry -> entry.getLogbooks().stream())
+                .filter(id -> !tables.containsKey(id))
+                .forEach(missingIds::add);
+        if (missingIds.isEmpty()) return;
+        wrapCatch(
+                () -> logbookRepository.findAllById(missingIds),
+                -3,
+                "EntryShiftKeysService:recompute"
+        ).forEach(
+                logbook -> tables.put(logbook.getId(), compile(logbook))
+        );
+        // the logbooks that do not exist anymore have no shifts
+        missingIds.forEach(id -> tables.putIfAbsent(id, null));
+    }
+
+    private ShiftLookupTable compile(Logbook logbook) {
+        return ShiftLookupTable.compile(
+                logbookMapper.fromModelToSummaryDTO(logbook),
+                Objects.requireNonNullElse(logbook.getShifts(), List.of())
+        );
+    }
+
+    private static List<String> computeShiftKeys(List<String> logbookIds, LocalDateTime eventAt, Function<String, ShiftLookupTable> tables) {
+        List<String> shiftKeys = new ArrayList<>();
+        if (logbookIds == null || eventAt == null) return shiftKeys;
+        for (String logbookId : logbookIds) {
+            ShiftLookupTable table = tables.apply(logbookId);
+            if (table != null) table.findShiftKey(eventAt).ifPresent(shiftKeys::add);
+        }
+        return shiftKeys;
+    }
+}
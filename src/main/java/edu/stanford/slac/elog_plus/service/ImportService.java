@@ -1,17 +1,29 @@
 package edu.stanford.slac.elog_plus.service;
 
+import edu.stanford.slac.ad.eed.baselib.api.v1.dto.AuthorizationTypeDTO;
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
 import edu.stanford.slac.elog_plus.api.v1.dto.EntryImportDTO;
+import edu.stanford.slac.elog_plus.api.v1.dto.NewLogbookDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryResultDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportReferenceResolutionDTO;
 import edu.stanford.slac.elog_plus.api.v1.mapper.EntryMapper;
 import edu.stanford.slac.elog_plus.exception.EntryNotFound;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.PreviewLane;
 import edu.stanford.slac.elog_plus.repository.EntryRepository;
+import edu.stanford.slac.elog_plus.utility.StringUtilities;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.bson.types.ObjectId;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
@@ -25,6 +37,9 @@ public class ImportService {
     private final LogbookService logbookService;
     private final AttachmentService attachmentService;
     private final EntryRepository entryRepository;
+    // the logbooks and tags in creation, the concurrent imports wait the same creation
+    private final Map<String, CompletableFuture<String>> inFlightLogbooks = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> inFlightTags = new ConcurrentHashMap<>();
 
 
     /**
@@ -70,7 +85,9 @@ public class ImportService {
         List<String> attachmentIDList = attachment.stream().map(
                 att -> attachmentService.createAttachment(
                         att,
-                        true
+                        true,
+                        Optional.empty(),
+                        PreviewLane.Bulk
                 )
         ).toList();
         log.info("[import {}] create entry", entryToUpload.title());
@@ -138,6 +155,484 @@ public class ImportService {
         return newEntryId;
     }
 
+    /**
+     * Import a batch of entries without attachments
+     * <p>
+     * the logbooks, the reader authorizations and the tags are resolved once for the whole batch, the origin ids
+     * are checked with a single query and all the valid entries are inserted with a single unordered bulk operation.
+     * An entry that cannot be imported does not stop the others, its error is reported in its result.
+     * An entry can reference and supersede, by origin id, the entries that precede it in the same batch.
+     *
+     * @param entriesToImport the entries to import
+     * @param isRoot          true if the missing logbooks can be created
+     * @return the result of each entry in the same order of the batch
+     */
+    public List<ImportEntryResultDTO> importEntries(List<ImportEntryDTO> entriesToImport, boolean isRoot) {
+        return importEntries(entriesToImport, isRoot, false);
+    }
+
+    /**
+     * Import a batch of entries without attachments
+     * <p>
+     * with the deferred references the origin id references and supersede links are not resolved during the import
+     * but stored on the entries, so the batches can be imported in any order and in parallel, and resolved all
+     * together by {@link #resolveDeferredReferences()} once the import is completed.
+     *
+     * @param entriesToImport  the entries to import
+     * @param isRoot           true if the missing logbooks can be created
+     * @param deferReferences  true if the references are resolved in a second pass
+     * @return the result of each entry in the same order of the batch
+     */
+    public List<ImportEntryResultDTO> importEntries(List<ImportEntryDTO> entriesToImport, boolean isRoot, boolean deferReferences) {
+        ImportEntryResultDTO[] results = new ImportEntryResultDTO[entriesToImport.size()];
+        log.info("[import batch] ensure logbooks and readers of {} entries", entriesToImport.size());
+        Map<String, String> logbookIdsByName = ensureLogbooks(entriesToImport, isRoot);
+        ensureReaders(entriesToImport, logbookIdsByName);
+
+        log.info("[import batch] load the entries referenced by origin id");
+        Map<String, Entry> storedByOriginId = loadStoredByOriginId(entriesToImport, deferReferences);
+        Map<String, String> tagIdsCache = new HashMap<>();
+        Map<String, String> batchIdsByOriginId = new HashMap<>();
+        Map<String, String> supersededByIds = new HashMap<>();
+        List<Entry> toInsert = new ArrayList<>();
+        List<Integer> toInsertIndexes = new ArrayList<>();
+        for (int idx = 0; idx < entriesToImport.size(); idx++) {
+            EntryImportDTO entryToImport = entriesToImport.get(idx).entry();
+            try {
+                toInsert.add(
+                        prepareEntry(
+                                entryToImport,
+                                logbookIdsByName,
+                                tagIdsCache,
+                                storedByOriginId,
+                                batchIdsByOriginId,
+                                supersededByIds,
+                                deferReferences
+                        )
+                );
+                toInsertIndexes.add(idx);
+            } catch (ControllerLogicException e) {
+                results[idx] = failedImport(idx, entryToImport, e.getErrorCode(), e.getErrorMessage());
+            }
+        }
+
+        log.info("[import batch] insert {} entries", toInsert.size());
+        Map<Integer, String> failedInserts = entryService.createAllNew(toInsert);
+        Set<String> insertedIds = new HashSet<>();
+        for (int insertIdx = 0; insertIdx < toInsert.size(); insertIdx++) {
+            int idx = toInsertIndexes.get(insertIdx);
+            EntryImportDTO entryToImport = entriesToImport.get(idx).entry();
+            if (failedInserts.containsKey(insertIdx)) {
+                results[idx] = failedImport(idx, entryToImport, -5, failedInserts.get(insertIdx));
+                continue;
+            }
+            insertedIds.add(toInsert.get(insertIdx).getId());
+            results[idx] = ImportEntryResultDTO
+                    .builder()
+                    .index(idx)
+                    .originId(entryToImport.originId())
+                    .id(toInsert.get(insertIdx).getId())
+                    .errorCode(0)
+                    .build();
+        }
+
+        // only the entries really inserted supersede their target
+        supersededByIds.values().retainAll(insertedIds);
+        if (!supersededByIds.isEmpty()) {
+            log.info("[import batch] update {} superseded entries", supersededByIds.size());
+            entryService.setAllSupersededBy(supersededByIds);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Resolve the origin id references of the entries imported with deferred references
+     * <p>
+     * the origin id to id map of all the imported entries is built with a single projection scan, then the references
+     * and the supersede links are applied with bulk updates. The origin ids not yet imported are left on the entries
+     * so the resolution can be executed again when the missing entries are imported.
+     *
+     * @return the number of resolved and still pending entries
+     */
+    public ImportReferenceResolutionDTO resolveDeferredReferences() {
+        List<Entry> pendingEntries = wrapCatch(
+                entryRepository::findAllWithUnresolvedOriginIdReferences,
+                -1,
+                "ImportService::resolveDeferredReferences"
+        );
+        if (pendingEntries.isEmpty()) {
+            return ImportReferenceResolutionDTO.builder().resolvedEntries(0).pendingEntries(0).supersededEntries(0L).build();
+        }
+
+        log.info("[import resolution] load the origin ids to resolve the references of {} entries", pendingEntries.size());
+        Map<String, String> idsByOriginId = new HashMap<>();
+        Set<String> alreadySupersededIds = new HashSet<>();
+        wrapCatch(
+                entryRepository::findAllIdentityWithOriginId,
+                -2,
+                "ImportService::resolveDeferredReferences"
+        ).forEach(
+                entry -> {
+                    idsByOriginId.putIfAbsent(entry.getOriginId(), entry.getId());
+                    if (entry.getSupersededBy() != null) alreadySupersededIds.add(entry.getId());
+                }
+        );
+
+        int pendingCount = 0;
+        List<Entry> resolutions = new ArrayList<>();
+        Map<String, String> supersededByIds = new HashMap<>();
+        for (Entry pendingEntry : pendingEntries) {
+            List<String> resolvedReferences = new ArrayList<>();
+            List<String> unresolvedReferences = new ArrayList<>();
+            if (pendingEntry.getUnresolvedReferencesByOriginId() != null) {
+                for (String originId : pendingEntry.getUnresolvedReferencesByOriginId()) {
+                    String localId = idsByOriginId.get(originId);
+                    if (localId != null) {
+                        resolvedReferences.add(localId);
+                    } else {
+                        unresolvedReferences.add(originId);
+                    }
+                }
+            }
+
+            String unresolvedSupersede = pendingEntry.getUnresolvedSupersedeOfByOriginId();
+            String supersededId = unresolvedSupersede != null ? idsByOriginId.get(unresolvedSupersede) : null;
+            if (supersededId != null) {
+                if (alreadySupersededIds.contains(supersededId) || supersededByIds.containsKey(supersededId)) {
+                    log.warn("[import resolution] entry {} cannot supersede {} that is already superseded", pendingEntry.getId(), supersededId);
+                } else {
+                    supersededByIds.put(supersededId, pendingEntry.getId());
+                }
+                unresolvedSupersede = null;
+            }
+
+            if (!unresolvedReferences.isEmpty() || unresolvedSupersede != null) pendingCount++;
+            // nothing has been resolved for this entry
+            if (resolvedReferences.isEmpty() && supersededId == null) continue;
+            resolutions.add(
+                    Entry.builder()
+                            .id(pendingEntry.getId())
+                            .references(resolvedReferences)
+                            .unresolvedReferencesByOriginId(unresolvedReferences)
+                            .unresolvedSupersedeOfByOriginId(unresolvedSupersede)
+                            .build()
+            );
+        }
+
+        // the supersede links are applied before removing the pending origin ids so a failure can be retried
+        long supersededCount = entryService.setAllSupersededBy(supersededByIds);
+        entryService.applyOriginIdReferencesResolution(resolutions);
+        log.info("[import resolution] {} entries resolved, {} still pending, {} superseded", pendingEntries.size() - pendingCount, pendingCount, supersededCount);
+        return ImportReferenceResolutionDTO
+                .builder()
+                .resolvedEntries(pendingEntries.size() - pendingCount)
+                .pendingEntries(pendingCount)
+                .supersededEntries(supersededCount)
+                .build();
+    }
+
+    /**
+     * Validate an entry of the batch and convert it to the model with the id already assigned
+     *
+     * @throws ControllerLogicException if the entry cannot be imported
+     */
+    private Entry prepareEntry(
+            EntryImportDTO entryToImport,
+            Map<String, String> logbookIdsByName,
+            Map<String, String> tagIdsCache,
+            Map<String, Entry> storedByOriginId,
+            Map<String, String> batchIdsByOriginId,
+            Map<String, String> supersededByIds,
+            boolean deferReferences
+    ) {
+        assertion(
+                () -> entryToImport != null,
+                -1,
+                "The entry is mandatory",
+                "ImportService::importEntries"
+        );
+        if (entryToImport.originId() != null) {
+            assertion(
+                    () -> !storedByOriginId.containsKey(entryToImport.originId()) && !batchIdsByOriginId.containsKey(entryToImport.originId()),
+                    -2,
+                    "Entry with origin id '%s' already exists".formatted(entryToImport.originId()),
+                    "ImportService::importEntries"
+            );
+        }
+        assertion(
+                () -> entryToImport.logbooks() != null && !entryToImport.logbooks().isEmpty(),
+                -1,
+                "The logbooks are mandatory, entry need to belong to almost one logbook",
+                "ImportService::importEntries"
+        );
+        List<String> logbookIds = new ArrayList<>();
+        for (String logbookName : entryToImport.logbooks()) {
+            assertion(
+                    () -> logbookIdsByName.containsKey(logbookName),
+                    -1,
+                    "The logbook '%s' does not exist".formatted(logbookName),
+                    "ImportService::importEntries"
+            );
+            logbookIds.add(logbookIdsByName.get(logbookName));
+        }
+        assertion(
+                () -> entryToImport.title() != null && !entryToImport.title().isEmpty(),
+                -4,
+                "The title is mandatory",
+                "ImportService::importEntries"
+        );
+        assertion(
+                () -> entryToImport.text() != null,
+                -4,
+                "The body is mandatory also if empty",
+                "ImportService::importEntries"
+        );
+
+        // the tags are ensured only once for each logbook of the batch
+        List<String> tagIds = new ArrayList<>();
+        if (entryToImport.tags() != null) {
+            for (String logbookId : logbookIds) {
+                for (String tagName : entryToImport.tags()) {
+                    tagIds.add(
+                            tagIdsCache.computeIfAbsent(
+                                    "%s/%s".formatted(logbookId, tagName),
+                                    key -> ensureTag(logbookId, tagName)
+                            )
+                    );
+                }
+            }
+        }
+
+        Entry newEntryModel = entryMapper.fromDTO(
+                entryToImport.toBuilder()
+                        .logbooks(logbookIds)
+                        .tags(tagIds)
+                        .build(),
+                new ArrayList<>()
+        );
+        // the id is assigned before the insert so the next entries of the batch can reference this one
+        newEntryModel.setId(new ObjectId().toHexString());
+
+        if (deferReferences) {
+            // the origin ids are kept on the entry and resolved by the second pass
+            if (entryToImport.referencesByOriginId() != null && !entryToImport.referencesByOriginId().isEmpty()) {
+                newEntryModel.setUnresolvedReferencesByOriginId(new ArrayList<>(entryToImport.referencesByOriginId()));
+            }
+            newEntryModel.setUnresolvedSupersedeOfByOriginId(entryToImport.supersedeOfByOriginId());
+        } else if (entryToImport.referencesByOriginId() != null) {
+            List<String> localIdReferenced = new ArrayList<>();
+            for (String originalIdReference : entryToImport.referencesByOriginId()) {
+                String localId = resolveOriginId(originalIdReference, storedByOriginId, batchIdsByOriginId);
+                assertion(
+                        () -> localId != null,
+                        -3,
+                        "No local id found for the original id:%s".formatted(originalIdReference),
+                        "ImportService::importEntries"
+                );
+                localIdReferenced.add(localId);
+            }
+            newEntryModel.setReferences(localIdReferenced);
+        }
+
+        if (!deferReferences && entryToImport.supersedeOfByOriginId() != null) {
+            String supersededId = resolveOriginId(entryToImport.supersedeOfByOriginId(), storedByOriginId, batchIdsByOriginId);
+            if (supersededId == null) {
+                throw EntryNotFound.entryNotFoundBuilderWithName()
+                        .errorCode(-1)
+                        .entryName(entryToImport.supersedeOfByOriginId())
+                        .errorDomain("ImportService::importEntries")
+                        .build();
+            }
+            Entry storedSuperseded = storedByOriginId.get(entryToImport.supersedeOfByOriginId());
+            String currentSupersededBy = supersededByIds.getOrDefault(
+                    supersededId,
+                    storedSuperseded != null ? storedSuperseded.getSupersededBy() : null
+            );
+            assertion(
+                    () -> currentSupersededBy == null,
+                    -3,
+                    "The entry is already superseded by %s".formatted(currentSupersededBy),
+                    "ImportService::importEntries"
+            );
+            supersededByIds.put(supersededId, newEntryModel.getId());
+        }
+
+        if (entryToImport.originId() != null) {
+            batchIdsByOriginId.put(entryToImport.originId(), newEntryModel.getId());
+        }
+        return newEntryModel;
+    }
+
+    /**
+     * Return the id of the entry with the origin id, searching first in the batch and then in the stored ones
+     */
+    private static String resolveOriginId(String originId, Map<String, Entry> storedByOriginId, Map<String, String> batchIdsByOriginId) {
+        if (batchIdsByOriginId.containsKey(originId)) return batchIdsByOriginId.get(originId);
+        Entry stored = storedByOriginId.get(originId);
+        return stored != null ? stored.getId() : null;
+    }
+
+    private static ImportEntryResultDTO failedImport(int idx, EntryImportDTO entryToImport, int errorCode, String errorMessage) {
+        return ImportEntryResultDTO
+                .builder()
+                .index(idx)
+                .originId(entryToImport != null ? entryToImport.originId() : null)
+                .errorCode(errorCode)
+                .errorMessage(errorMessage)
+                .build();
+    }
+
+    /**
+     * Resolve the id of all the logbooks used by the batch, the missing ones are created only for the root user
+     *
+     * @return the id of the found or created logbooks by name
+     */
+    private Map<String, String> ensureLogbooks(List<ImportEntryDTO> entriesToImport, boolean isRoot) {
+        Map<String, String> logbookIdsByName = new HashMap<>();
+        entriesToImport.stream()
+                .filter(importEntry -> importEntry.entry() != null && importEntry.entry().logbooks() != null)
+                .flatMap(importEntry -> importEntry.entry().logbooks().stream())
+                .distinct()
+                .forEach(
+                        logbookName -> ensureLogbook(logbookName, isRoot)
+                                .ifPresent(logbookId -> logbookIdsByName.put(logbookName, logbookId))
+                );
+        return logbookIdsByName;
+    }
+
+    /**
+     * Authorize the readers of the entries on their logbooks, with a single update for each logbook
+     */
+    private void ensureReaders(List<ImportEntryDTO> entriesToImport, Map<String, String> logbookIdsByName) {
+        Map<String, Set<String>> readersByLogbook = new LinkedHashMap<>();
+        entriesToImport.stream()
+                .filter(importEntry -> importEntry.entry() != null && importEntry.entry().logbooks() != null)
+                .filter(importEntry -> importEntry.readerUserIds() != null && !importEntry.readerUserIds().isEmpty())
+                .forEach(
+                        importEntry -> importEntry.entry().logbooks().stream()
+                                .filter(logbookIdsByName::containsKey)
+                                .forEach(
+                                        logbookName -> readersByLogbook
+                                                .computeIfAbsent(logbookName, name -> new LinkedHashSet<>())
+                                                .addAll(importEntry.readerUserIds())
+                                )
+                );
+        readersByLogbook.forEach(
+                (logbookName, readers) -> logbookService.ensureAuthorizationOnLogbook(
+                        List.of(logbookName),
+                        new ArrayList<>(readers),
+                        AuthorizationTypeDTO.Read
+                )
+        );
+    }
+
+    /**
+     * Load with a single query all the stored entries referenced by origin id from the batch
+     *
+     * @param deferReferences true if only the origin ids of the imported entries are needed
+     * @return the stored entries by origin id
+     */
+    private Map<String, Entry> loadStoredByOriginId(List<ImportEntryDTO> entriesToImport, boolean deferReferences) {
+        Set<String> originIds = new HashSet<>();
+        entriesToImport.stream()
+                .map(ImportEntryDTO::entry)
+                .filter(Objects::nonNull)
+                .forEach(
+                        entryToImport -> {
+                            if (entryToImport.originId() != null) originIds.add(entryToImport.originId());
+                            if (deferReferences) return;
+                            if (entryToImport.supersedeOfByOriginId() != null) originIds.add(entryToImport.supersedeOfByOriginId());
+                            if (entryToImport.referencesByOriginId() != null) originIds.addAll(entryToImport.referencesByOriginId());
+                        }
+                );
+        Map<String, Entry> storedByOriginId = new HashMap<>();
+        wrapCatch(
+                () -> entryRepository.findAllIdentityByOriginIdIn(originIds),
+                -1,
+                "ImportService::importEntries"
+        ).forEach(entry -> storedByOriginId.putIfAbsent(entry.getOriginId(), entry));
+        return storedByOriginId;
+    }
+
+    /**
+     * Return the id of the logbook creating it when it doesn't exist
+     * <p>
+     * the concurrent calls for the same logbook wait the first one, so the logbook is created only once
+     * when many imports for a new logbook are processed in parallel
+     *
+     * @param logbookName the name of the logbook
+     * @param canCreate   true if the logbook can be created
+     * @return the id of the logbook, empty if the logbook doesn't exist and cannot be created
+     */
+    public Optional<String> ensureLogbook(String logbookName, boolean canCreate) {
+        return Optional.ofNullable(
+                deduplicate(
+                        inFlightLogbooks,
+                        "%s/%s".formatted(StringUtilities.logbookNameNormalization(logbookName), canCreate),
+                        () -> {
+                            if (logbookService.existByName(logbookName)) {
+                                return logbookService.getLogbookByName(logbookName).id();
+                            }
+                            if (!canCreate) return null;
+                            log.info("[import] logbooks {}, creating", logbookName);
+                            return logbookService.createNew(
+                                    NewLogbookDTO
+                                            .builder()
+                                            .name(logbookName)
+                                            .build()
+                            );
+                        }
+                )
+        );
+    }
+
+    /**
+     * Return the id of the tag of the logbook creating it when it doesn't exist, the concurrent
+     * calls for the same tag wait the first one
+     *
+     * @param logbookId the id of the logbook
+     * @param tagName   the name of the tag
+     * @return the id of the tag
+     */
+    public String ensureTag(String logbookId, String tagName) {
+        return deduplicate(
+                inFlightTags,
+                "%s/%s".formatted(logbookId, StringUtilities.tagNameNormalization(tagName)),
+                () -> wrapCatch(
+                        () -> logbookService.ensureTag(logbookId, tagName),
+                        -2,
+                        "ImportService::ensureTag"
+                )
+        );
+    }
+
+    /**
+     * Execute the work only once for all the concurrent calls with the same key, the other callers
+     * wait and receive the same result or exception
+     */
+    private static <T> T deduplicate(Map<String, CompletableFuture<T>> inFlight, String key, Supplier<T> work) {
+        CompletableFuture<T> ownWork = new CompletableFuture<>();
+        CompletableFuture<T> runningWork = inFlight.putIfAbsent(key, ownWork);
+        if (runningWork != null) {
+            try {
+                return runningWork.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+                throw e;
+            }
+        }
+        try {
+            T result = work.get();
+            ownWork.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            ownWork.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, ownWork);
+        }
+    }
+
     /**
      * Create tags name on all logbooks
      *
@@ -157,12 +652,7 @@ public class ImportService {
 
             for (String tagName :
                     tags) {
-                tagIds.add(wrapCatch(
-                                () -> logbookService.ensureTag(lb.id(), tagName),
-                                -2,
-                                "ImportService::ensureTagByNameAndLogbooks"
-                        )
-                );
+                tagIds.add(ensureTag(lb.id(), tagName));
             }
 
         }
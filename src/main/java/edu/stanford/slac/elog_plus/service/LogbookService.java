@@ -15,11 +15,11 @@ import edu.stanford.slac.elog_plus.api.v1.mapper.ShiftMapper;
 import edu.stanford.slac.elog_plus.api.v1.mapper.TagMapper;
 import edu.stanford.slac.elog_plus.exception.*;
 import edu.stanford.slac.elog_plus.model.Logbook;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
 import edu.stanford.slac.elog_plus.model.Shift;
 import edu.stanford.slac.elog_plus.model.Tag;
 import edu.stanford.slac.elog_plus.repository.EntryRepository;
 import edu.stanford.slac.elog_plus.repository.LogbookRepository;
-import edu.stanford.slac.elog_plus.utility.DateUtilities;
 import edu.stanford.slac.elog_plus.utility.StringUtilities;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
@@ -30,7 +30,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
@@ -53,6 +52,8 @@ public class LogbookService {
     private final LogbookMapper logbookMapper;
     private final EntryRepository entryRepository;
     private final LogbookRepository logbookRepository;
+    private final ShiftLookupService shiftLookupService;
+    private final OutboxService outboxService;
     private final AuthenticationTokenRepository authenticationTokenRepository;
     private final AuthService authService;
     private final AuthorizationServices authorizationServices;
@@ -259,6 +260,7 @@ public class LogbookService {
         lbToUpdated.setName(
                 StringUtilities.logbookNameNormalization(logbookDTO.name())
         );
+        List<String> previousShiftBoundaries = shiftBoundaries(lbToUpdated.getShifts());
         // check that all shifts id are present, the shift with no id it's ok because he will be created
         verifyShiftAndUpdate(
                 updateLogbookInfo.getShifts(),
@@ -289,6 +291,9 @@ public class LogbookService {
                 "LogbookService:update"
         );
         log.info("Logbook '{}' has been updated", lbToUpdated.getName());
+        if (!previousShiftBoundaries.equals(shiftBoundaries(updatedLB.getShifts()))) {
+            publishEntryShiftKeysRecompute(logbookId);
+        }
         return logbookMapper.fromModel(
                 updatedLB,
                 true
@@ -844,6 +849,7 @@ public class LogbookService {
                 -3,
                 "LogbookService:addShift"
         );
+        publishEntryShiftKeysRecompute(logbookId);
     }
 
     /**
@@ -907,10 +913,12 @@ public class LogbookService {
                 -3,
                 "LogbookService:addShift"
         );
+        publishEntryShiftKeysRecompute(logbookId);
         return shiftToAdd.getId();
     }
 
     @Transactional(propagation = Propagation.NESTED)
+    @CacheEvict(value = {LOGBOOKS, TAGS}, allEntries = true)
     public void updateShift(String logbookId, ShiftDTO shiftDTO) {
         // validate the shift
         Shift shiftToUpdate = validateShift(
@@ -972,6 +980,33 @@ public class LogbookService {
                 -3,
                 "LogbookService:addShift"
         );
+        publishEntryShiftKeysRecompute(logbookId);
+    }
+
+    /**
+     * Queue the recompute of the shift keys of the entries of a logbook with changed shifts
+     *
+     * @param logbookId the logbook id
+     */
+    private void publishEntryShiftKeysRecompute(String logbookId) {
+        outboxService.publish(
+                OutboxEvent
+                        .builder()
+                        .type(OutboxEvent.Type.EntryShiftKeysRecompute)
+                        .referenceId(logbookId)
+                        .build()
+        );
+    }
+
+    /**
+     * Return the boundaries of the shifts to detect their changes
+     *
+     * @param shifts the shifts
+     * @return the id and range of every shift
+     */
+    private static List<String> shiftBoundaries(List<Shift> shifts) {
+        if (shifts == null) return Collections.emptyList();
+        return shifts.stream().map(s -> "%s:%s-%s".formatted(s.getId(), s.getFrom(), s.getTo())).toList();
     }
 
     /**
@@ -982,31 +1017,18 @@ public class LogbookService {
      * @return the found shift, if eny matches
      */
     public Optional<LogbookShiftDTO> findShiftByLocalTime(String logbookId, LocalTime localTime) {
-        LogbookDTO logbook = getLogbook(logbookId);
-        // //remove the seconds and nanoseconds to input date
-        localTime = localTime.withSecond(0).withNano(0);
-        LocalTime finalLocalTime = localTime;
-        return logbook.shifts().stream().filter(
-                s -> {
-                    var fromDate = DateUtilities.fromUTCString(s.from());
-                    var toDate = DateUtilities.fromUTCString(s.to());
-                    return DateUtilities.isBetween(
-                            fromDate,
-                            toDate,
-                            finalLocalTime
-                    );
-                }
-        ).findAny().map(
-                s -> LogbookShiftDTO.builder()
-                        .id(s.id())
-                        .name(s.name())
-                        .from(s.from())
-                        .to(s.to())
-                        .logbook(
-                                logbookMapper.fromModelToSummaryDTO(logbook)
-                        )
-                        .build()
-        );
+        return shiftLookupService.getShiftLookupTable(logbookId).find(localTime);
+    }
+
+    /**
+     * Return the shift which the date fall in its range
+     *
+     * @param logbookId     the logbooks unique identifier
+     * @param localDateTime the date and time of the event, the offset of the time zone at that date is used
+     * @return the found shift, if eny matches
+     */
+    public Optional<LogbookShiftDTO> findShiftByLocalDateTime(String logbookId, LocalDateTime localDateTime) {
+        return shiftLookupService.getShiftLookupTable(logbookId).find(localDateTime);
     }
 
     /**
@@ -1484,6 +1506,8 @@ public class LogbookService {
 
     /**
      * Find the earliest shift among the last n shifts
+     * <p>
+     * the start of the last n shifts of every logbook is calculated from its cached shift lookup table
      *
      * @param n        the number of shifts to consider
      * @param logbooks the logbooks to consider
@@ -1491,33 +1515,23 @@ public class LogbookService {
      * @return the earliest date
      */
     public LocalDateTime findEarliestNShiftForLogbooks(Integer n, List<String> logbooks, LocalDateTime fromDate) {
-        List<Logbook> allLogbooks = new ArrayList<>();
+        List<String> allLogbookIds = new ArrayList<>();
         if (logbooks == null || logbooks.isEmpty()) {
-            allLogbooks.addAll(
+            allLogbookIds.addAll(
                     wrapCatch(
                             logbookRepository::findAll,
                             -1,
                             "LogbookService:findEarliestNShiftForLogbooks"
-                    )
+                    ).stream().map(Logbook::getId).toList()
             );
         } else {
-            allLogbooks.addAll(
-                    wrapCatch(
-                            () -> logbookRepository.findAllById(logbooks),
-                            -1,
-                            "LogbookService:findEarliestNShiftForLogbooks"
-                    )
-            );
+            // the not existing logbooks are skipped
+            allLogbookIds.addAll(logbooks.stream().filter(logbookRepository::existsById).toList());
         }
         // now we need to find the earliest date among the last n shifts
         LocalDateTime earliestStart = fromDate;
-        // in ths case for each logbook we need to calculate the last n shifts, each shift is a hour range
-        // so we need to calculate the time range for the last n shifts
-        for (Logbook logbook : allLogbooks) {
-            var shifts = logbook.getShifts();
-            if (shifts.isEmpty()) continue;
-            // calculate the start date and time of the last n shifts
-            var dateFound = findEarliestDateAmongLastNShifts(shifts, n, fromDate);
+        for (String logbookId : allLogbookIds) {
+            var dateFound = shiftLookupService.getShiftLookupTable(logbookId).findStartOfLastNShifts(n, fromDate);
             if (dateFound.isBefore(earliestStart)) {
                 earliestStart = dateFound;
             }
@@ -1525,77 +1539,4 @@ public class LogbookService {
 
         return earliestStart;
     }
-
-    /**
-     * Finds the earliest start date and time among the last N shifts starting from now.
-     *
-     * @param shifts   List of shifts with 'from' and 'to' times in HH:mm format
-     * @param N        Number of last shifts to consider
-     * @param fromDate The date and time from which to consider the shifts
-     * @return The earliest LocalDateTime among the last N shifts
-     */
-    private LocalDateTime findEarliestDateAmongLastNShifts(List<Shift> shifts, int N, LocalDateTime fromDate) {
-        // Sort shifts by their start time
-        shifts.sort(Comparator.comparing(Shift::getFromTime));
-
-        List<LocalDateTime> shiftStartDateTimes = new ArrayList<>();
-        LocalDateTime currentDateTime = fromDate;
-
-        while (shiftStartDateTimes.size() < N) {
-            List<LocalDateTime> tempShiftStartDateTimes = new ArrayList<>();
-            for (Shift shift : shifts) {
-                LocalTime shiftFromTime = shift.getFromTime();
-                LocalTime shiftToTime = shift.getToTime();
-
-                boolean crossesMidnight = shiftFromTime.isAfter(shiftToTime);
-
-                LocalDate shiftStartDate;
-
-                // Determine the date when the shift started
-                if (crossesMidnight) {
-                    // Shift crosses midnight
-                    if (!currentDateTime.toLocalTime().isBefore(shiftFromTime)) {
-                        // Shift started today
-                        shiftStartDate = currentDateTime.toLocalDate();
-                    } else {
-                        // Shift started yesterday
-                        shiftStartDate = currentDateTime.toLocalDate().minusDays(1);
-                    }
-                } else {
-                    // Shift does not cross midnight
-                    if (!currentDateTime.toLocalTime().isBefore(shiftFromTime)) {
-                        // Shift started today
-                        shiftStartDate = currentDateTime.toLocalDate();
-                    } else {
-                        // Shift started yesterday
-                        shiftStartDate = currentDateTime.toLocalDate().minusDays(1);
-                    }
-                }
-
-                // Combine the date and time to get the shift start datetime
-                LocalDateTime shiftStartDateTime = LocalDateTime.of(shiftStartDate, shiftFromTime);
-
-                // Ensure that the shift started before the current date and time
-                if (shiftStartDateTime.isBefore(currentDateTime)) {
-                    tempShiftStartDateTimes.add(shiftStartDateTime);
-                }
-            }
-
-            if (tempShiftStartDateTimes.isEmpty()) {
-                // No valid shifts found for the current date, move back one day
-                currentDateTime = currentDateTime.minusDays(1);
-                continue;
-            }
-
-            // Find the latest shift start time before currentDateTime
-            LocalDateTime latestShiftStartDateTime = Collections.max(tempShiftStartDateTimes);
-            shiftStartDateTimes.add(latestShiftStartDateTime);
-
-            // Update currentDateTime to just before the found shift to prevent duplicates
-            currentDateTime = latestShiftStartDateTime.minusSeconds(1);
-        }
-
-        // After collecting the last N shift start times, find the earliest date
-        return Collections.min(shiftStartDateTimes);
-    }
 }
@@ -8,70 +8,113 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
 
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 @Log4j2
 @Service
 @AllArgsConstructor
 public class MailService {
+    // replaced in the rendered template with the name of every recipient
+    static final String RECIPIENT_NAME_PLACEHOLDER = "ELOG-RECIPIENT-NAME-PLACEHOLDER";
     private ELOGAppProperties appProperties;
     private JavaMailSender mailSender;
     private TemplateEngine templateEngine;
     private PeopleGroupService peopleGroupService;
 
     /**
-     * Send an email notification to the specified users when a new entry is created
+     * Resolve the people by their email addresses
+     * <p>
+     * every distinct address is resolved only once, the addresses that cannot be resolved are skipped
      *
-     * @param to              the list of email addresses to send the notification to
-     * @param newlyCreatedEntry the newly created entry
+     * @param mails the email addresses to resolve
+     * @return the resolved people by their email address
      */
-    public void sentNewEmailNotification(List<PersonDTO> to, Entry newlyCreatedEntry){
-        if(to == null) return;
-        // fetch the creator of the entry
-        var entryCreator = newlyCreatedEntry.getCreatedBy()!=null?peopleGroupService.findPersonByEMail(newlyCreatedEntry.getCreatedBy()):null;
-
-        // Prepare the email message
-        to.forEach(
-                person -> {
+    public Map<String, PersonDTO> resolvePeople(Collection<String> mails) {
+        Map<String, PersonDTO> people = new HashMap<>();
+        mails.stream().filter(Objects::nonNull).distinct().forEach(
+                mail -> {
                     try {
-                        log.info("Sending new entry notification to '{}' for entry '{}'", person.mail(), newlyCreatedEntry.getTitle());
-                        MimeMessage message = mailSender.createMimeMessage();
-                        MimeMessageHelper helper = new MimeMessageHelper(message, true);
-                        helper.setTo(person.mail());
-                        helper.setSubject("SLAC-ELOG: New Entry Notification");
-                        // Set the Thymeleaf context with template variables
-                        Context context = new Context();
-                        context.setVariables(
-                                Map.of(
-                                        "name", person.commonName(),
-                                        "createdBy", (entryCreator!=null?entryCreator.commonName():"Automatic notification"),
-                                        "createdAt", newlyCreatedEntry.getCreatedDate(),
-                                        "logDetails", newlyCreatedEntry.getTitle(),
-                                        "logLink", "%s/%s".formatted(appProperties.getShowEntryExternalLinkPrefix(), newlyCreatedEntry.getId()),
-                                        "thisYear", LocalDateTime.now().getYear()
-
-                                )
-                        );
-                        // Generate the email content from the template
-                        String htmlContent = templateEngine.process("newEntryEmailTemplate", context);
-                        helper.setText(htmlContent, true);
-
-                        // Send the email
-                        mailSender.send(message);
-                        log.info("New entry notification sent to: " + to);
-                    } catch (MessagingException e) {
-                        log.error("Error sending email to: " + person.mail(), e);
+                        PersonDTO person = peopleGroupService.findPersonByEMail(mail);
+                        if (person != null) people.put(mail, person);
+                    } catch (RuntimeException e) {
+                        log.warn("Cannot resolve the person with email '{}': {}", mail, e.getMessage());
                     }
                 }
         );
+        return people;
+    }
+
+    /**
+     * Send an email notification to the specified users when a new entry is created
+     * <p>
+     * the template is rendered only once and personalized for every recipient, all the messages
+     * are sent over the same connection to the mail server. When only some messages are not sent
+     * their recipients are returned, so the notification can be retried only for them
+     *
+     * @param to                the people to send the notification to
+     * @param entryCreator      the creator of the entry or null if it is unknown
+     * @param newlyCreatedEntry the newly created entry
+     * @return the mail of the recipients whose message has not been sent
+     * @throws MessagingException if a message cannot be created
+     */
+    public List<String> sentNewEmailNotification(List<PersonDTO> to, PersonDTO entryCreator, Entry newlyCreatedEntry) throws MessagingException {
+        if (to == null || to.isEmpty()) return List.of();
+        // Set the Thymeleaf context with template variables
+        Context context = new Context();
+        context.setVariables(
+                Map.of(
+                        "name", RECIPIENT_NAME_PLACEHOLDER,
+                        "createdBy", (entryCreator != null ? entryCreator.commonName() : "Automatic notification"),
+                        "createdAt", newlyCreatedEntry.getCreatedDate(),
+                        "logDetails", newlyCreatedEntry.getTitle(),
+                        "logLink", "%s/%s".formatted(appProperties.getShowEntryExternalLinkPrefix(), newlyCreatedEntry.getId()),
+                        "thisYear", LocalDateTime.now().getYear()
+                )
+        );
+        // Generate the email content from the template
+        String htmlContent = templateEngine.process("newEntryEmailTemplate", context);
+
+        // Prepare the email messages, keeping the recipient of every message
+        Map<MimeMessage, String> messages = new IdentityHashMap<>();
+        for (PersonDTO person : to) {
+            MimeMessage message = mailSender.createMimeMessage();
+            MimeMessageHelper helper = new MimeMessageHelper(message, true);
+            helper.setTo(person.mail());
+            helper.setSubject("SLAC-ELOG: New Entry Notification");
+            helper.setText(
+                    htmlContent.replace(
+                            RECIPIENT_NAME_PLACEHOLDER,
+                            HtmlUtils.htmlEscape(Objects.requireNonNullElse(person.commonName(), person.mail()))
+                    ),
+                    true
+            );
+            messages.put(message, person.mail());
+        }
 
+        // Send all the emails with a single connection
+        log.info("Sending new entry notification to {} recipients for entry '{}'", messages.size(), newlyCreatedEntry.getTitle());
+        try {
+            mailSender.send(messages.keySet().toArray(new MimeMessage[0]));
+        } catch (MailSendException e) {
+            if (e.getFailedMessages().isEmpty()) throw e;
+            List<String> failedRecipients = e.getFailedMessages()
+                    .keySet()
+                    .stream()
+                    .map(messages::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+            log.warn("New entry notification for entry '{}' not sent to {}: {}", newlyCreatedEntry.getTitle(), failedRecipients, e.getMessage());
+            return failedRecipients;
+        }
+        return List.of();
     }
 }
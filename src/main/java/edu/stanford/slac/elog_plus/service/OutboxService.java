@@ -0,0 +1,109 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import edu.stanford.slac.elog_plus.repository.OutboxEventRepository;
+import edu.stanford.slac.elog_plus.task.DispatchOutboxEvents;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Publish the side effects on the outbox
+ * <p>
+ * the event is inserted in the current transaction, so it exists only if the change that generates it has been
+ * committed. When the transaction is committed a dispatch is started in background without waiting the next
+ * scheduled run, the requests that arrive while a dispatch is waiting to start are coalesced in it. The recompute
+ * of the shift keys is started on its own thread so a long recompute does not delay the other events.
+ */
+@Log4j2
+@Service
+public class OutboxService implements DisposableBean {
+    private final OutboxEventRepository outboxEventRepository;
+    // resolved on use because the dispatcher depends on the services that publish the events
+    private final ObjectProvider<DispatchOutboxEvents> dispatchOutboxEventsProvider;
+    private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("outbox-dispatch-"));
+    private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+    private final ExecutorService recomputeExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("outbox-recompute-"));
+    private final AtomicBoolean recomputePending = new AtomicBoolean(false);
+
+    public OutboxService(OutboxEventRepository outboxEventRepository, ObjectProvider<DispatchOutboxEvents> dispatchOutboxEventsProvider) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.dispatchOutboxEventsProvider = dispatchOutboxEventsProvider;
+    }
+
+    /**
+     * Insert the event in the outbox
+     *
+     * @param event the event to publish
+     */
+    public void publish(OutboxEvent event) {
+        wrapCatch(
+                () -> outboxEventRepository.insert(event),
+                -1,
+                "OutboxService::publish"
+        );
+        Runnable request = event.getType() == OutboxEvent.Type.EntryShiftKeysRecompute ? this::requestRecompute : this::requestDispatch;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronization() {
+                        @Override
+                        public void afterCommit() {
+                            request.run();
+                        }
+                    }
+            );
+        } else {
+            request.run();
+        }
+    }
+
+    /**
+     * Start a dispatch in background if there isn't one already waiting to start
+     */
+    public void requestDispatch() {
+        requestRun(dispatchExecutor, dispatchPending, () -> dispatchOutboxEventsProvider.getObject().dispatchOutboxEvents());
+    }
+
+    /**
+     * Start the recompute of the shift keys in background if there isn't one already waiting to start
+     */
+    public void requestRecompute() {
+        requestRun(recomputeExecutor, recomputePending, () -> dispatchOutboxEventsProvider.getObject().dispatchEntryShiftKeysRecompute());
+    }
+
+    private static void requestRun(ExecutorService executor, AtomicBoolean pending, Runnable dispatch) {
+        if (!pending.compareAndSet(false, true)) return;
+        try {
+            executor.execute(
+                    () -> {
+                        pending.set(false);
+                        try {
+                            dispatch.run();
+                        } catch (Exception e) {
+                            log.error("Error dispatching the outbox events: {}", e.getMessage());
+                        }
+                    }
+            );
+        } catch (RejectedExecutionException e) {
+            // the events are dispatched by the next scheduled run
+            pending.set(false);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        dispatchExecutor.shutdownNow();
+        recomputeExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,96 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+
+/**
+ * Render the preview image of a pdf document
+ * <p>
+ * the document is spooled on a temporary file and parsed from there, the memory used by PDFBox for the
+ * document streams is limited by the configuration and the exceeding part is moved on temporary files.
+ * The first page is rendered directly at the resolution of the largest preview variant.
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class PdfRenderingService {
+    // the resolution used before the rendering was sized on the preview
+    public static final float MAX_DPI = 300;
+    public static final float MIN_DPI = 10;
+    private final ELOGAppProperties appProperties;
+
+    /**
+     * Render the first page of a pdf document
+     *
+     * @param is the input stream of the document
+     * @return the rendered page or null if the document has no pages
+     * @throws IOException if the document cannot be read
+     */
+    public BufferedImage renderFirstPage(InputStream is) throws IOException {
+        Path tmpPDFFilePath = Files.createTempFile("pdfTempFile_", ".pdf");
+        try {
+            Files.copy(is, tmpPDFFilePath, StandardCopyOption.REPLACE_EXISTING);
+            try (
+                    RandomAccessReadBufferedFile pdfFile = new RandomAccessReadBufferedFile(tmpPDFFilePath.toFile());
+                    PDDocument document = Loader.loadPDF(
+                            pdfFile,
+                            "",
+                            null,
+                            null,
+                            MemoryUsageSetting.setupMixed(appProperties.getPreviewPdfMaxMainMemoryMb() * 1024L * 1024L).streamCache
+                    )
+            ) {
+                if (document.getNumberOfPages() == 0) return null;
+                float dpi = previewDpi(document.getPage(0), targetWidth());
+                log.debug("Render first page of pdf at {} DPI", dpi);
+                PDFRenderer pdfRenderer = new PDFRenderer(document);
+                // the embedded images are down sampled to the rendering resolution while they are read
+                pdfRenderer.setSubsamplingAllowed(true);
+                return pdfRenderer.renderImageWithDPI(0, dpi, ImageType.RGB);
+            }
+        } finally {
+            Files.deleteIfExists(tmpPDFFilePath);
+        }
+    }
+
+    /**
+     * Return the width of the largest preview variant
+     */
+    private int targetWidth() {
+        return appProperties.getPreviewSizes().isEmpty() ? 1024 : Collections.max(appProperties.getPreviewSizes());
+    }
+
+    /**
+     * Calculate the resolution that render the page with the target width
+     *
+     * @param page        the page to render
+     * @param targetWidth the width in pixel of the rendered page
+     * @return the resolution in dot per inch
+     */
+    static float previewDpi(PDPage page, int targetWidth) {
+        PDRectangle cropBox = page.getCropBox();
+        // the rendered image is rotated so the width is the height of the page when it is rotated by 90 or 270 degree
+        float widthInPoints = page.getRotation() % 180 == 0 ? cropBox.getWidth() : cropBox.getHeight();
+        if (widthInPoints <= 0) return MAX_DPI;
+        float dpi = targetWidth * 72f / widthInPoints;
+        return Math.max(MIN_DPI, Math.min(MAX_DPI, dpi));
+    }
+}
@@ -0,0 +1,200 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.*;
+
+/**
+ * Rasterize the first page of a PostScript document using Ghostscript
+ * <p>
+ * the conversions are executed by a bounded pool of long-lived worker threads so only a limited number
+ * of Ghostscript processes run at the same time, the other conversions wait in a bounded queue.
+ * Every Ghostscript process render only the first page at the preview resolution and is killed
+ * if it does not terminate in the configured time.
+ */
+@Log4j2
+@Service
+public class PostScriptConversionService implements DisposableBean {
+    // the resolution used before the rendering was sized on the preview
+    public static final int MAX_DPI = 300;
+    // the width of a letter page in inches, used to calculate the resolution before knowing the page size
+    private static final double REFERENCE_PAGE_WIDTH_INCH = 8.5;
+    private final ELOGAppProperties appProperties;
+    private final ThreadPoolExecutor conversionExecutor;
+    private final Timer conversionSuccessTimer;
+    private final Timer conversionFailedTimer;
+    private final Timer conversionTimeoutTimer;
+
+    public PostScriptConversionService(ELOGAppProperties appProperties, MeterRegistry meterRegistry) {
+        this.appProperties = appProperties;
+        this.conversionExecutor = new ThreadPoolExecutor(
+                appProperties.getPsConversionPoolSize(),
+                appProperties.getPsConversionPoolSize(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(appProperties.getPsConversionQueueCapacity()),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        Gauge.builder("elog_plus_ps_conversion_queue_depth", conversionExecutor, executor -> executor.getQueue().size())
+                .description("The number of PostScript conversion waiting for a free worker")
+                .register(meterRegistry);
+        Gauge.builder("elog_plus_ps_conversion_active", conversionExecutor, ThreadPoolExecutor::getActiveCount)
+                .description("The number of PostScript conversion in execution")
+                .register(meterRegistry);
+        conversionSuccessTimer = conversionTimer(meterRegistry, "success");
+        conversionFailedTimer = conversionTimer(meterRegistry, "failed");
+        conversionTimeoutTimer = conversionTimer(meterRegistry, "timeout");
+    }
+
+    private static Timer conversionTimer(MeterRegistry meterRegistry, String result) {
+        return Timer
+                .builder("elog_plus_ps_conversion_duration")
+                .tag("result", result)
+                .description("The time from the submission to the end of a PostScript conversion")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Render the first page of a PostScript document
+     * <p>
+     * the calling thread wait until the conversion is terminated, or at most the time the conversion can wait
+     * in the queue plus the time the Ghostscript process can run
+     *
+     * @param is the input stream of the document
+     * @return the rendered page
+     * @throws IOException if the document cannot be converted
+     */
+    public BufferedImage renderFirstPage(InputStream is) throws IOException {
+        long start = System.nanoTime();
+        Path tmpPSFilePath = Files.createTempFile("psTempFile_", ".ps");
+        Future<BufferedImage> conversion = null;
+        try {
+            // the document is written by the caller so a worker is never blocked on the source stream
+            Files.copy(is, tmpPSFilePath, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                conversion = conversionExecutor.submit(() -> convert(tmpPSFilePath));
+            } catch (RejectedExecutionException e) {
+                conversionFailedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw ControllerLogicException.builder()
+                        .errorCode(-1)
+                        .errorMessage("Too many PostScript conversion are waiting")
+                        .errorDomain("PostScriptConversionService::renderFirstPage")
+                        .build();
+            }
+            BufferedImage image = conversion.get(
+                    appProperties.getPsConversionQueueWaitSeconds() + appProperties.getPsConversionTimeoutSeconds(),
+                    TimeUnit.SECONDS
+            );
+            conversionSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return image;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            conversionFailedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw new IOException("Interrupted while waiting the PostScript conversion", e);
+        } catch (TimeoutException e) {
+            conversionTimeoutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw new IOException("The PostScript conversion has not been completed in time", e);
+        } catch (ExecutionException e) {
+            (e.getCause() instanceof TimeoutException ? conversionTimeoutTimer : conversionFailedTimer)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new IOException(e.getCause());
+        } finally {
+            // the conversion is removed from the queue or its Ghostscript process is killed before
+            // removing the document it is reading
+            if (conversion != null) conversion.cancel(true);
+            Files.deleteIfExists(tmpPSFilePath);
+        }
+    }
+
+    /**
+     * Execute the Ghostscript process on the worker thread
+     *
+     * @param tmpPSFilePath the document to convert
+     * @return the rendered page
+     * @throws Exception if the conversion fails or the process is killed
+     */
+    private BufferedImage convert(Path tmpPSFilePath) throws Exception {
+        Path tmpPNGFilePath = Files.createTempFile("pngTempFile_", ".png");
+        Path tmpLogFilePath = Files.createTempFile("gsLogFile_", ".log");
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(
+                    "gs",
+                    "-q",
+                    "-dSAFER",
+                    "-dNOPAUSE",
+                    "-dBATCH",
+                    "-dFirstPage=1",
+                    "-dLastPage=1",
+                    "-sDEVICE=png16m",
+                    "-dTextAlphaBits=4",
+                    "-dGraphicsAlphaBits=4",
+                    "-r%d".formatted(previewDpi()),
+                    "-sOutputFile=" + tmpPNGFilePath,
+                    tmpPSFilePath.toString()
+            )
+                    .redirectErrorStream(true)
+                    .redirectOutput(tmpLogFilePath.toFile());
+            Process process = processBuilder.start();
+            try {
+                if (!process.waitFor(appProperties.getPsConversionTimeoutSeconds(), TimeUnit.SECONDS)) {
+                    throw new TimeoutException(
+                            "Ghostscript did not terminate in %d seconds and has been killed".formatted(appProperties.getPsConversionTimeoutSeconds())
+                    );
+                }
+            } finally {
+                if (process.isAlive()) {
+                    // hung or interrupted process, the process tree is killed to release the worker
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
+                    process.destroyForcibly();
+                }
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException(
+                        "Ghostscript failed to convert PS to PNG. Exit code: %d - %s".formatted(
+                                process.exitValue(),
+                                Files.readString(tmpLogFilePath, StandardCharsets.UTF_8).strip()
+                        )
+                );
+            }
+            BufferedImage image = ImageIO.read(tmpPNGFilePath.toFile());
+            if (image == null) {
+                throw new IOException("Ghostscript has not rendered any page");
+            }
+            return image;
+        } finally {
+            Files.deleteIfExists(tmpPNGFilePath);
+            Files.deleteIfExists(tmpLogFilePath);
+        }
+    }
+
+    /**
+     * The resolution that render a letter page with the width of the largest preview variant
+     */
+    private int previewDpi() {
+        int targetWidth = appProperties.getPreviewSizes().isEmpty() ? 1024 : Collections.max(appProperties.getPreviewSizes());
+        return (int) Math.min(MAX_DPI, Math.ceil(targetWidth / REFERENCE_PAGE_WIDTH_INCH));
+    }
+
+    @Override
+    public void destroy() {
+        conversionExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,263 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.repository.StorageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.tasks.UnsupportedFormatException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Generate the previews of the attachments
+ * <p>
+ * the previews are generated by the Kafka consumers and, when a preview is requested before the consumers
+ * have processed it, on demand by the request. The on demand renders are executed by a bounded pool and
+ * the concurrent requests for the same attachment wait the same render.
+ */
+@Log4j2
+@Service
+public class PreviewGenerationService implements DisposableBean {
+    private final AttachmentService attachmentService;
+    private final StorageRepository storageRepository;
+    private final Counter previewProcessedCounter;
+    private final Counter previewErrorsCounter;
+    private final Timer previewCpuTimer;
+    private final ELOGAppProperties appProperties;
+    private final PdfRenderingService pdfRenderingService;
+    private final PostScriptConversionService postScriptConversionService;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final ThreadPoolExecutor onDemandExecutor;
+    private final Map<String, CompletableFuture<Void>> onDemandRenders = new ConcurrentHashMap<>();
+
+    public PreviewGenerationService(
+            AttachmentService attachmentService,
+            StorageRepository storageRepository,
+            Counter previewProcessedCounter,
+            Counter previewErrorsCounter,
+            Timer previewCpuTimer,
+            ELOGAppProperties appProperties,
+            PdfRenderingService pdfRenderingService,
+            PostScriptConversionService postScriptConversionService
+    ) {
+        this.attachmentService = attachmentService;
+        this.storageRepository = storageRepository;
+        this.previewProcessedCounter = previewProcessedCounter;
+        this.previewErrorsCounter = previewErrorsCounter;
+        this.previewCpuTimer = previewCpuTimer;
+        this.appProperties = appProperties;
+        this.pdfRenderingService = pdfRenderingService;
+        this.postScriptConversionService = postScriptConversionService;
+        // no queue, when all the workers are busy the request does not wait and fails immediately
+        this.onDemandExecutor = new ThreadPoolExecutor(
+                appProperties.getPreviewOnDemandConcurrency(),
+                appProperties.getPreviewOnDemandConcurrency(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(),
+                new CustomizableThreadFactory("preview-on-demand-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Generate and store all the previews of an attachment updating its processing state
+     * <p>
+     * when the format is not supported the attachment is marked as without preview and the method returns normally,
+     * an attachment with the preview already completed is skipped so a redelivered record is not processed twice
+     *
+     * @param attachment the attachment to process
+     * @throws RuntimeException if the preview generation fails
+     * @throws IOException if the attachment content cannot be closed
+     */
+    public void generatePreview(Attachment attachment) throws RuntimeException, IOException {
+        // a single update move the attachment in processing and return the revision that guard the next transition
+        Optional<Long> previewRevision = attachmentService.startPreviewProcessing(attachment.getId());
+        if (previewRevision.isEmpty()) {
+            log.info("Preview already completed for the attachment {}", attachment.getId());
+            return;
+        }
+        FileObjectDescription fod = null;
+        try {
+            fod = attachmentService.getAttachmentContent(attachment.getId());
+            String previewID = String.format("%s-preview", attachment.getId());
+
+            long cpuTimeStart = threadMXBean.getCurrentThreadCpuTime();
+            // the source is decoded only once, all the variants are generated from the decoded image
+            BufferedImage sourceImage;
+            if (attachment.getContentType().compareToIgnoreCase("application/pdf") == 0) {
+                sourceImage = pdfRenderingService.renderFirstPage(fod.getIs());
+                if (sourceImage == null) {
+                    throw new UnsupportedFormatException("pdf", "The document has no pages");
+                }
+            } else if (
+                    attachment.getContentType().compareToIgnoreCase("application/ps") == 0 ||
+                            attachment.getContentType().compareToIgnoreCase("application/postscript") == 0) {
+                sourceImage = postScriptConversionService.renderFirstPage(fod.getIs());
+            } else {
+                sourceImage = decode(fod.getIs());
+            }
+            Map<String, String> previewVariants = new HashMap<>();
+            byte[] miniPreview = createVariants(previewID, sourceImage, previewVariants);
+            previewCpuTimer.record(threadMXBean.getCurrentThreadCpuTime() - cpuTimeStart, TimeUnit.NANOSECONDS);
+
+            attachmentService.completePreviewProcessing(attachment.getId(), previewRevision.get(), previewID, previewVariants, miniPreview);
+
+            previewProcessedCounter.increment();
+        } catch (UnsupportedFormatException e) {
+            attachmentService.setPreviewProcessingState(attachment.getId(), previewRevision.get(), Attachment.PreviewProcessingState.PreviewNotAvailable);
+            // in this case we manage this error with the state of image not available
+            log.info("Unsupported image for preview for the attachment {}", attachment);
+            previewErrorsCounter.increment();
+        } catch (Throwable e) {
+            attachmentService.setPreviewProcessingState(attachment.getId(), previewRevision.get(), Attachment.PreviewProcessingState.Error);
+            log.error("Error during preview generation for the attachment {} with error with message '{}' - [{}]", attachment, e.getMessage(), e);
+            previewErrorsCounter.increment();
+            throw new RuntimeException(e);
+        } finally {
+            if (fod != null && fod.getIs() != null) {
+                fod.getIs().close();
+            }
+        }
+    }
+
+    /**
+     * Generate the preview of the attachment on the calling request
+     * <p>
+     * the concurrent requests for the same attachment wait the same render, the caller wait at most the
+     * configured timeout and the render continue in background if the timeout expires so the preview is
+     * available for the next request. The preview request already queued on Kafka find the preview
+     * completed and does nothing.
+     *
+     * @param attachment the attachment without preview
+     */
+    public void generatePreviewOnDemand(Attachment attachment) {
+        CompletableFuture<Void> render = onDemandRenders.computeIfAbsent(
+                attachment.getId(),
+                id -> submitOnDemand(attachment)
+        );
+        try {
+            render.get(appProperties.getPreviewOnDemandTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw previewNotReady(attachment.getId(), "interrupted");
+        } catch (TimeoutException e) {
+            throw previewNotReady(attachment.getId(), "timeout");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ControllerLogicException controllerLogicException) throw controllerLogicException;
+            throw previewNotReady(attachment.getId(), e.getCause().getMessage());
+        } finally {
+            // a render terminated before being registered is removed here so the next request can try again
+            if (render.isDone()) onDemandRenders.remove(attachment.getId(), render);
+        }
+    }
+
+    /**
+     * Submit the render to the on demand pool, the render is removed from the in flight ones when terminated
+     */
+    private CompletableFuture<Void> submitOnDemand(Attachment attachment) {
+        CompletableFuture<Void> render = new CompletableFuture<>();
+        try {
+            onDemandExecutor.execute(
+                    () -> {
+                        try {
+                            log.info("Generate on demand the preview for the attachment {}", attachment.getId());
+                            generatePreview(attachment);
+                            render.complete(null);
+                        } catch (Throwable e) {
+                            render.completeExceptionally(e);
+                        } finally {
+                            onDemandRenders.remove(attachment.getId(), render);
+                        }
+                    }
+            );
+        } catch (RejectedExecutionException e) {
+            render.completeExceptionally(previewNotReady(attachment.getId(), "too many on demand preview in progress"));
+        }
+        return render;
+    }
+
+    private static ControllerLogicException previewNotReady(String id, String reason) {
+        return ControllerLogicException.builder()
+                .errorCode(-3)
+                .errorMessage("The preview of the attachment %s is not yet available: %s".formatted(id, reason))
+                .errorDomain("PreviewGenerationService::generatePreviewOnDemand")
+                .build();
+    }
+
+    /**
+     * Decode the image applying the exif orientation
+     *
+     * @param is the input stream of the encoded image
+     * @return the decoded image
+     * @throws IOException if the image cannot be decoded
+     */
+    private BufferedImage decode(InputStream is) throws IOException {
+        return Thumbnails.of(is).scale(1.0).asBufferedImage();
+    }
+
+    /**
+     * Create and store all the preview variants of the image
+     * <p>
+     * the variants are created from the largest to the smallest and each one is scaled down
+     * from the previous, so the full resolution image is scaled only once
+     *
+     * @param previewID       the id of the default (largest) preview
+     * @param sourceImage     the decoded image
+     * @param previewVariants filled with the width and the id of every stored variant
+     * @return the mini preview encoded as JPEG
+     * @throws IOException if an error occurs during the encoding or upload
+     */
+    private byte[] createVariants(String previewID, BufferedImage sourceImage, Map<String, String> previewVariants) throws IOException {
+        List<Integer> sizes = appProperties.getPreviewSizes().stream().distinct().sorted(Comparator.reverseOrder()).toList();
+        if (sizes.isEmpty()) sizes = List.of(1024);
+        BufferedImage currentImage = sourceImage;
+        for (int idx = 0; idx < sizes.size(); idx++) {
+            int size = sizes.get(idx);
+            String variantId = idx == 0 ? previewID : "%s-%d".formatted(previewID, size);
+            currentImage = Thumbnails.of(currentImage).width(size).asBufferedImage();
+            storageRepository.uploadFile(
+                    variantId,
+                    FileObjectDescription
+                            .builder()
+                            .fileName(variantId)
+                            .contentType(MediaType.IMAGE_JPEG_VALUE)
+                            .is(new ByteArrayInputStream(encodeJpeg(currentImage)))
+                            .build()
+            );
+            previewVariants.put(String.valueOf(size), variantId);
+        }
+        return encodeJpeg(Thumbnails.of(currentImage).size(32, 32).asBufferedImage());
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Thumbnails.of(image)
+                .scale(1.0)
+                .outputFormat("jpg")
+                .toOutputStream(baos);
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void destroy() {
+        onDemandExecutor.shutdownNow();
+    }
+}
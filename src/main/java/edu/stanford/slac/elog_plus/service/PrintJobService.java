@@ -0,0 +1,155 @@
+package edu.stanford.slac.elog_plus.service;
+
+import com.hp.jipp.model.JobState;
+import com.hp.jipp.model.JobStateReason;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of the IPP print jobs
+ * <p>
+ * a print job is accepted immediately and processed by a bounded worker pool, when the queue is full the job
+ * is rejected so the printer can retry later. The state of the last jobs is kept in memory so the clients can
+ * follow them with Get-Job-Attributes. The job ids start from the current time so they are not reused by a
+ * restarted instance.
+ */
+@Log4j2
+@Service
+public class PrintJobService implements DisposableBean {
+    private final ThreadPoolExecutor jobExecutor;
+    private final AtomicInteger nextJobId = new AtomicInteger((int) (Instant.now().getEpochSecond() % 1_000_000_000L) + 1);
+    private final Map<Integer, PrintJob> jobs;
+
+    public PrintJobService(ELOGAppProperties elogAppProperties) {
+        this.jobExecutor = new ThreadPoolExecutor(
+                elogAppProperties.getIppJobWorkers(),
+                elogAppProperties.getIppJobWorkers(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(elogAppProperties.getIppJobQueueSize()),
+                new CustomizableThreadFactory("ipp-job-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        int retention = elogAppProperties.getIppJobRetention();
+        this.jobs = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, PrintJob> eldest) {
+                return size() > retention;
+            }
+        };
+    }
+
+    /**
+     * The work executed by a print job
+     */
+    @FunctionalInterface
+    public interface PrintJobTask {
+        void execute() throws Exception;
+    }
+
+    /**
+     * A print job and its state
+     */
+    @Getter
+    public static class PrintJob {
+        private final int id;
+        private final URI uri;
+        private final URI printerUri;
+        private final String owner;
+        private volatile JobState state = JobState.pending;
+        private volatile JobStateReason stateReason = JobStateReason.jobQueued;
+
+        private PrintJob(int id, URI printerUri, String owner) {
+            this.id = id;
+            this.uri = URI.create("%s/jobs/%d".formatted(printerUri, id));
+            this.printerUri = printerUri;
+            this.owner = owner;
+        }
+
+        private void update(JobState state, JobStateReason stateReason) {
+            this.state = state;
+            this.stateReason = stateReason;
+        }
+    }
+
+    /**
+     * Submit a new print job
+     * <p>
+     * the task is executed with the authentication of the submitter
+     *
+     * @param printerUri     the uri of the printer that receive the job
+     * @param authentication the authentication of the submitter
+     * @param task           the work of the job
+     * @return the job in pending state or empty if the queue is full
+     */
+    public Optional<PrintJob> submit(URI printerUri, Authentication authentication, PrintJobTask task) {
+        int jobId = nextJobId.getAndIncrement();
+        PrintJob job = new PrintJob(jobId, printerUri, authentication.getName());
+        synchronized (jobs) {
+            jobs.put(jobId, job);
+        }
+        try {
+            jobExecutor.execute(() -> process(job, authentication, task));
+        } catch (RejectedExecutionException e) {
+            log.warn("Print job {} rejected, the job queue is full", jobId);
+            synchronized (jobs) {
+                jobs.remove(jobId);
+            }
+            return Optional.empty();
+        }
+        log.info("Print job {} queued by {}", jobId, job.getOwner());
+        return Optional.of(job);
+    }
+
+    /**
+     * Return the job owned by the user
+     *
+     * @param jobId the id of the job
+     * @param owner the name of the user that submitted the job
+     * @return the job or empty if it does not exist, is not owned by the user or has been already forgotten
+     */
+    public Optional<PrintJob> findJob(int jobId, String owner) {
+        PrintJob job;
+        synchronized (jobs) {
+            job = jobs.get(jobId);
+        }
+        return Optional.ofNullable(job).filter(j -> j.getOwner().equals(owner));
+    }
+
+    private void process(PrintJob job, Authentication authentication, PrintJobTask task) {
+        job.update(JobState.processing, JobStateReason.jobPrinting);
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        try {
+            task.execute();
+            job.update(JobState.completed, JobStateReason.jobCompletedSuccessfully);
+            log.info("Print job {} completed", job.getId());
+        } catch (Throwable e) {
+            job.update(JobState.aborted, JobStateReason.jobCompletedWithErrors);
+            log.error("Print job {} aborted: {}", job.getId(), e.getMessage(), e);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        jobExecutor.shutdownNow();
+    }
+}
@@ -11,12 +11,10 @@ import edu.stanford.slac.ad.eed.baselib.service.PeopleGroupService;
 import edu.stanford.slac.elog_plus.api.v1.dto.EntryNewDTO;
 import edu.stanford.slac.elog_plus.api.v1.dto.LogbookDTO;
 import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.config.filters.SpooledIppRequest;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.apache.tika.config.TikaConfig;
-import org.apache.tika.detect.Detector;
-import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -46,6 +44,8 @@ public class PrinterService {
     private final PeopleGroupService peopleGroupService;
     private final EntryService entryService;
     private final AttachmentService attachmentService;
+    private final PrintJobService printJobService;
+    private final ContentDetectionService contentDetectionService;
 
     /**
      * Get the print command from the IPP packet
@@ -81,16 +81,19 @@ public class PrinterService {
     /**
      * Process an IPP packet
      *
-     * @param inputData The IPP packet data
+     * @param ippRequest     The IPP request
+     * @param logbook        The logbook where the printed document is stored
+     * @param authentication The authentication of the user that sent the request
      * @return The IPP packet data
      */
-    public IppPacketData handleIppPacket(IppPacketData inputData, LogbookDTO logbook) {
-        IppPacket requestPacket = inputData.getPacket();
+    public IppPacketData handleIppPacket(SpooledIppRequest ippRequest, LogbookDTO logbook, Authentication authentication) {
+        IppPacket requestPacket = ippRequest.getPacket();
         log.info("Processing IPP request: " + requestPacket);
 
         IppPacket responsePacket;
-        responsePacket = switch (getPrintCommand(inputData)) {
-            case Operation.Code.printJob -> handlePrintDocument(requestPacket, inputData.getData(), logbook);
+        responsePacket = switch (requestPacket.getOperation().getCode()) {
+            case Operation.Code.printJob -> handlePrintDocument(ippRequest, logbook, authentication);
+            case Operation.Code.getJobAttributes -> handleGetJobAttributes(requestPacket, authentication);
             case Operation.Code.getPrinterAttributes -> handleGetPrinterAttributes(requestPacket);
             default -> createErrorResponsePacket(requestPacket, Status.clientErrorNotFetchable);
         };
@@ -99,13 +102,14 @@ public class PrinterService {
     }
 
 
-    public IppPacketData handleIppPacketForAttachmentQueue(String printerURI, IppPacketData inputData) {
-        IppPacket requestPacket = inputData.getPacket();
+    public IppPacketData handleIppPacketForAttachmentQueue(String printerURI, SpooledIppRequest ippRequest, Authentication authentication) {
+        IppPacket requestPacket = ippRequest.getPacket();
         log.info("Processing IPP request: " + requestPacket);
 
         IppPacket responsePacket;
-        responsePacket = switch (getPrintCommand(inputData)) {
-            case Operation.Code.printJob -> handleAttachmentQueue(printerURI, requestPacket, inputData.getData());
+        responsePacket = switch (requestPacket.getOperation().getCode()) {
+            case Operation.Code.printJob -> handleAttachmentQueue(printerURI, ippRequest, authentication);
+            case Operation.Code.getJobAttributes -> handleGetJobAttributes(requestPacket, authentication);
             case Operation.Code.getPrinterAttributes -> handleGetPrinterAttributes(requestPacket);
             default -> createErrorResponsePacket(requestPacket, Status.clientErrorNotFetchable);
         };
@@ -128,136 +132,189 @@ public class PrinterService {
 
     /**
      * Handle a Print-Job request
+     * <p>
+     * the document is processed by a print job, the response is returned as soon as the job is queued
      *
-     * @param requestPacket  The IPP request packet
-     * @param documentStream The document stream
+     * @param ippRequest     The IPP request with the spooled document
+     * @param logbook        The logbook where the printed document is stored
+     * @param authentication The authentication of the user that sent the request
      * @return The IPP response packet
      */
-    private IppPacket handlePrintDocument(IppPacket requestPacket, InputStream documentStream, LogbookDTO logbook) {
+    private IppPacket handlePrintDocument(SpooledIppRequest ippRequest, LogbookDTO logbook, Authentication authentication) {
         log.info("Received Print-Job request for logbook {}", logbook.name());
-        // Fetch the document from the IPP packet
-        IppPacket responsePacket = null;
-        TikaConfig config = TikaConfig.getDefaultConfig();
-        Detector detector = config.getDetector();
-        Metadata metadata = new Metadata();
-        try {
-            if (documentStream == null) {
-                // return error
-                return IppPacket.jobResponse(
-                                Status.clientErrorBadRequest,
-                                requestPacket.getRequestId(),
-                                URI.create("/v1/printers/defaults/jobs/1"),
-                                JobState.aborted,
-                                Collections.singletonList(JobStateReason.jobQueued))
-                        .putAttributes(operationAttributes, Types.printerUri.of(URI.create("/v1/printers/defaults")))
-                        .build();
-            }
-            MediaType mediaType = detector.detect(documentStream, metadata);
-            if (mediaType == null) {
-                // return error
-                return IppPacket.jobResponse(
-                                Status.clientErrorBadRequest,
-                                requestPacket.getRequestId(),
-                                URI.create("/v1/printers/defaults/jobs/1"),
-                                JobState.aborted,
-                                Collections.singletonList(JobStateReason.jobQueued))
-                        .putAttributes(operationAttributes, Types.printerUri.of(URI.create("/v1/printers/defaults")))
-                        .build();
-            }
+        IppPacket requestPacket = ippRequest.getPacket();
+        return submitPrintJob(
+                getPrinterUri(),
+                ippRequest,
+                authentication,
+                documentStream -> processPrintDocument(requestPacket, documentStream, logbook)
+        );
+    }
+
+    /**
+     * Handle a Print-Job request for the attachment queue
+     *
+     * @param printerURI     The uri of the attachment queue printer
+     * @param ippRequest     The IPP request with the spooled document
+     * @param authentication The authentication of the user that sent the request
+     * @return The IPP response packet
+     */
+    private IppPacket handleAttachmentQueue(String printerURI, SpooledIppRequest ippRequest, Authentication authentication) {
+        log.info("Received Print-Job request for attachment queue");
+        IppPacket requestPacket = ippRequest.getPacket();
+        return submitPrintJob(
+                URI.create(printerURI),
+                ippRequest,
+                authentication,
+                documentStream -> processAttachmentQueue(requestPacket, documentStream)
+        );
+    }
 
-            switch (mediaType.getBaseType().getType()) {
-                case "text" -> handleTextBaseType(requestPacket, logbook, mediaType, documentStream);
-                case "image" -> handleImageBaseType(requestPacket, logbook, mediaType, documentStream);
-                case "application" -> handleApplicationBaseType(requestPacket, logbook, mediaType, documentStream);
-                default -> {
-                    return new IppPacket(Status.clientErrorBadRequest, requestPacket.getRequestId());
+    /**
+     * Process the document of a print job
+     */
+    @FunctionalInterface
+    private interface DocumentProcessor {
+        void process(InputStream documentStream) throws Exception;
+    }
+
+    /**
+     * Queue the print job that process the spooled document
+     * <p>
+     * the spooled document is detached from the request and released by the job
+     *
+     * @param printerUri     The uri of the printer that received the job
+     * @param ippRequest     The IPP request with the spooled document
+     * @param authentication The authentication of the user that sent the request
+     * @param processor      The processing of the document
+     * @return The IPP response packet with the queued job or busy if the queue is full
+     */
+    private IppPacket submitPrintJob(URI printerUri, SpooledIppRequest ippRequest, Authentication authentication, DocumentProcessor processor) {
+        IppPacket requestPacket = ippRequest.getPacket();
+        ippRequest.detach();
+        Optional<PrintJobService.PrintJob> job = printJobService.submit(
+                printerUri,
+                authentication,
+                () -> {
+                    try (ippRequest; IppPacketData data = ippRequest.getPacketData()) {
+                        processor.process(data.getData());
+                    }
                 }
-            }
+        );
+        if (job.isEmpty()) {
+            ippRequest.close();
+            return createErrorResponsePacket(requestPacket, Status.serverErrorBusy);
+        }
+        return createJobResponsePacket(requestPacket, job.get());
+    }
 
-            responsePacket = IppPacket.jobResponse(
-                            Status.successfulOk,
-                            requestPacket.getRequestId(),
-                            URI.create("/v1/printers/defaults/jobs/1"),
-                            JobState.pending,
-                            Collections.singletonList(JobStateReason.jobQueued))
-                    .putAttributes(operationAttributes, Types.printerUri.of(URI.create("/v1/printers/defaults")))
-                    .build();
-        } catch (IOException e) {
-            log.error("Error processing print job {}", e.toString());
-            responsePacket = new IppPacket(Status.clientErrorBadRequest, requestPacket.getRequestId());
+    /**
+     * Handle a Get-Job-Attributes request
+     * <p>
+     * the job is identified by the job-id or the job-uri operation attribute and only its owner can read it
+     *
+     * @param requestPacket  The IPP request packet
+     * @param authentication The authentication of the user that sent the request
+     * @return The IPP response packet
+     */
+    private IppPacket handleGetJobAttributes(IppPacket requestPacket, Authentication authentication) {
+        Integer jobId = requestPacket.getValue(operationAttributes, Types.jobId);
+        URI jobUri = requestPacket.getValue(operationAttributes, Types.jobUri);
+        if (jobId == null && jobUri != null) {
+            String path = jobUri.getPath();
+            try {
+                jobId = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+            } catch (NumberFormatException e) {
+                log.info("Invalid job uri {}", jobUri);
+            }
+        }
+        if (jobId == null) {
+            return createErrorResponsePacket(requestPacket, Status.clientErrorBadRequest);
         }
-        // Return the response packet
-        return responsePacket;
+        return printJobService.findJob(jobId, authentication.getName())
+                .map(job -> createJobResponsePacket(requestPacket, job))
+                .orElseGet(() -> createErrorResponsePacket(requestPacket, Status.clientErrorNotFound));
     }
 
     /**
-     * Handle the attachment queue
+     * Create the response packet with the current state of a job
      *
      * @param requestPacket The IPP request packet
+     * @param job           The print job
      * @return The IPP response packet
      */
-    private IppPacket handleAttachmentQueue(String printerURI, IppPacket requestPacket, InputStream documentStream) {
-        IppPacket responsePacket = null;
-        log.info("Received Print-Job request for attachment queue");
-        TikaConfig config = TikaConfig.getDefaultConfig();
-        Detector detector = config.getDetector();
-        Metadata metadata = new Metadata();
-        try {
-            if (documentStream == null) {
-                // return error
-                return IppPacket.jobResponse(
-                                Status.clientErrorBadRequest,
-                                requestPacket.getRequestId(),
-                                URI.create("%s/jobs/1".formatted(printerURI)),
-                                JobState.aborted,
-                                Collections.singletonList(JobStateReason.jobQueued))
-                        .putAttributes(operationAttributes, Types.printerUri.of(URI.create(printerURI)))
-                        .build();
-            }
-            MediaType mediaType = detector.detect(documentStream, metadata);
-            if (mediaType == null) {
-                // return error
-                return IppPacket.jobResponse(
-                                Status.clientErrorBadRequest,
-                                requestPacket.getRequestId(),
-                                URI.create("%s/jobs/1".formatted(printerURI)),
-                                JobState.aborted,
-                                Collections.singletonList(JobStateReason.jobQueued))
-                        .putAttributes(operationAttributes, Types.printerUri.of(URI.create(printerURI)))
-                        .build();
-            }
+    private IppPacket createJobResponsePacket(IppPacket requestPacket, PrintJobService.PrintJob job) {
+        return IppPacket.jobResponse(
+                        Status.successfulOk,
+                        requestPacket.getRequestId(),
+                        job.getUri(),
+                        job.getState(),
+                        Collections.singletonList(job.getStateReason()))
+                .putAttributes(jobAttributes, Types.jobId.of(job.getId()))
+                .putAttributes(operationAttributes, Types.printerUri.of(job.getPrinterUri()))
+                .build();
+    }
 
-            switch (mediaType.getBaseType().getType()) {
-                case "image", "application" -> {
-                    String attachmentId = crateAttachmentAttachmentQueueElement(requestPacket, mediaType, documentStream);
-
-                    // if all is gone as it should at this point we can create the entry
-                    if (attachmentId == null) {
-                        throw ControllerLogicException.builder()
-                                .errorCode(-1)
-                                .errorMessage("Error creating attachment")
-                                .errorDomain("PrinterService::handleApplicationBaseType")
-                                .build();
-                    }
-                }
-                default -> {
-                    return new IppPacket(Status.clientErrorBadRequest, requestPacket.getRequestId());
+    /**
+     * Create the entry, or the attachment, from the printed document
+     *
+     * @param requestPacket  The IPP request packet
+     * @param documentStream The document stream
+     * @param logbook        The logbook where the entry is created
+     * @throws IOException If the document cannot be read
+     */
+    private void processPrintDocument(IppPacket requestPacket, InputStream documentStream, LogbookDTO logbook) throws IOException {
+        ContentDetectionService.DetectedContent detectedContent = contentDetectionService.detect(documentStream);
+        MediaType mediaType = detectedContent.mediaType();
+        if (mediaType == null) {
+            throw unsupportedDocument("PrinterService::processPrintDocument");
+        }
+        documentStream = detectedContent.stream();
+        switch (mediaType.getBaseType().getType()) {
+            case "text" -> handleTextBaseType(requestPacket, logbook, mediaType, documentStream);
+            case "image" -> handleImageBaseType(requestPacket, logbook, mediaType, documentStream);
+            case "application" -> handleApplicationBaseType(requestPacket, logbook, mediaType, documentStream);
+            default -> throw unsupportedDocument("PrinterService::processPrintDocument");
+        }
+    }
+
+    /**
+     * Create the attachment of the attachment queue from the printed document
+     *
+     * @param requestPacket  The IPP request packet
+     * @param documentStream The document stream
+     * @throws IOException If the document cannot be read
+     */
+    private void processAttachmentQueue(IppPacket requestPacket, InputStream documentStream) throws IOException {
+        ContentDetectionService.DetectedContent detectedContent = contentDetectionService.detect(documentStream);
+        MediaType mediaType = detectedContent.mediaType();
+        if (mediaType == null) {
+            throw unsupportedDocument("PrinterService::processAttachmentQueue");
+        }
+        documentStream = detectedContent.stream();
+        switch (mediaType.getBaseType().getType()) {
+            case "image", "application" -> {
+                String attachmentId = crateAttachmentAttachmentQueueElement(requestPacket, mediaType, documentStream);
+
+                // if all is gone as it should at this point we can create the entry
+                if (attachmentId == null) {
+                    throw ControllerLogicException.builder()
+                            .errorCode(-1)
+                            .errorMessage("Error creating attachment")
+                            .errorDomain("PrinterService::processAttachmentQueue")
+                            .build();
                 }
             }
-
-            responsePacket = IppPacket.jobResponse(
-                            Status.successfulOk,
-                            requestPacket.getRequestId(),
-                            URI.create("%s/jobs/1".formatted(printerURI)),
-                            JobState.pending,
-                            Collections.singletonList(JobStateReason.jobQueued))
-                    .putAttributes(operationAttributes, Types.printerUri.of(URI.create(printerURI)))
-                    .build();
-        } catch (IOException e) {
-            log.error("Error processing print job {}", e.toString());
-            responsePacket = new IppPacket(Status.clientErrorBadRequest, requestPacket.getRequestId());
+            default -> throw unsupportedDocument("PrinterService::processAttachmentQueue");
         }
-        return responsePacket;
+    }
+
+    private static ControllerLogicException unsupportedDocument(String errorDomain) {
+        return ControllerLogicException.builder()
+                .errorCode(-1)
+                .errorMessage("Unsupported document type")
+                .errorDomain(errorDomain)
+                .build();
     }
 
     /**
@@ -0,0 +1,55 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.api.v1.mapper.LogbookMapper;
+import edu.stanford.slac.elog_plus.exception.LogbookNotFound;
+import edu.stanford.slac.elog_plus.model.Logbook;
+import edu.stanford.slac.elog_plus.model.ShiftLookupTable;
+import edu.stanford.slac.elog_plus.repository.LogbookRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+import static edu.stanford.slac.elog_plus.config.CacheConfig.LOGBOOKS;
+
+/**
+ * Provide the compiled shift lookup table of the logbooks
+ * <p>
+ * the table is cached together with the logbooks, so it is compiled again after every change of the logbook shifts.
+ * It is a separate bean so the cache is used also by the logbook service.
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class ShiftLookupService {
+    private final LogbookMapper logbookMapper;
+    private final LogbookRepository logbookRepository;
+
+    /**
+     * Return the compiled shifts of the logbook
+     *
+     * @param logbookId the logbook id
+     * @return the shift lookup table of the logbook
+     */
+    @Cacheable(value = LOGBOOKS, key = "'getShiftLookupTable-' + #logbookId")
+    public ShiftLookupTable getShiftLookupTable(String logbookId) {
+        Logbook logbook = wrapCatch(
+                () -> logbookRepository.findById(
+                        logbookId
+                ).orElseThrow(
+                        () -> LogbookNotFound.logbookNotFoundBuilder()
+                                .errorCode(-2)
+                                .errorDomain("ShiftLookupService:getShiftLookupTable")
+                                .build()
+                ),
+                -1,
+                "ShiftLookupService:getShiftLookupTable"
+        );
+        log.debug("Compile the {} shifts of the logbook {}", logbook.getShifts().size(), logbookId);
+        return ShiftLookupTable.compile(
+                logbookMapper.fromModelToSummaryDTO(logbook),
+                logbook.getShifts()
+        );
+    }
+}
@@ -0,0 +1,154 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.config.StorageProperties;
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.StorageReconciliationResult;
+import edu.stanford.slac.elog_plus.repository.StorageRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Service that scan the full content of the storage
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class StorageInventoryService {
+    private static final String KEY_PREFIX = "attachment/";
+    private static final int MAX_REPORTED_ELEMENTS = 1000;
+    private final Clock clock;
+    private final MongoTemplate mongoTemplate;
+    private final StorageRepository storageRepository;
+    private final StorageProperties objectStorageProperties;
+
+    /**
+     * Scan all the keys of the storage, the partitions of the key space are scanned concurrently
+     * <p>
+     * the consumer is called concurrently by the scanning threads so it need to be thread safe
+     *
+     * @param keyConsumer the consumer of the keys
+     * @return the number of scanned keys
+     */
+    public long scanAllKeys(Consumer<String> keyConsumer) {
+        List<String> partitions = storageRepository.keyPartitions();
+        if (partitions.isEmpty()) return 0;
+        LongAdder scannedKeys = new LongAdder();
+        ExecutorService scanExecutor = Executors.newFixedThreadPool(
+                Math.min(objectStorageProperties.getScanParallelism(), partitions.size())
+        );
+        try {
+            List<Future<?>> scans = partitions.stream()
+                    .<Future<?>>map(
+                            partition -> scanExecutor.submit(
+                                    () -> storageRepository.scanPartition(
+                                            partition,
+                                            key -> {
+                                                scannedKeys.increment();
+                                                keyConsumer.accept(key);
+                                            }
+                                    )
+                            )
+                    )
+                    .toList();
+            for (Future<?> scan : scans) {
+                wrapCatch(
+                        scan::get,
+                        -1,
+                        "StorageInventoryService::scanAllKeys"
+                );
+            }
+        } finally {
+            scanExecutor.shutdownNow();
+        }
+        return scannedKeys.sum();
+    }
+
+    /**
+     * Compare the stored objects with the attachment collection reporting the objects
+     * that are not referenced by any attachment and the attachments which content is not found
+     * <p>
+     * an object is referenced as the content, the preview or a preview variant of an attachment. Only
+     * the attachments created before the start of the scan are checked, so the
+     * attachment created during the scan are not reported as missing
+     *
+     * @return the result of the reconciliation
+     */
+    public StorageReconciliationResult reconcile() {
+        long start = System.currentTimeMillis();
+        LocalDateTime scanStartDate = LocalDateTime.now(clock);
+        // for each stored object id keep if it is referenced by some attachment
+        Map<String, Boolean> storedObjects = new ConcurrentHashMap<>();
+        long scannedKeys = scanAllKeys(key -> storedObjects.put(key.substring(KEY_PREFIX.length()), false));
+        log.info("Found {} keys in the storage, start checking the attachments", scannedKeys);
+
+        long scannedAttachments = 0;
+        long missingContentCount = 0;
+        long missingPreviewCount = 0;
+        List<String> missingContentAttachmentIds = new ArrayList<>();
+        Query query = new Query(
+                new Criteria().orOperator(
+                        Criteria.where("createdDate").lt(scanStartDate),
+                        Criteria.where("createdDate").exists(false)
+                )
+        );
+        query.fields().include("id", "storageId", "previewID", "previewVariants");
+        try (Stream<Attachment> attachments = mongoTemplate.stream(query, Attachment.class)) {
+            for (Attachment attachment : (Iterable<Attachment>) attachments::iterator) {
+                scannedAttachments++;
+                String storageId = AttachmentService.getStorageId(attachment);
+                if (storedObjects.replace(storageId, true) == null) {
+                    missingContentCount++;
+                    if (missingContentAttachmentIds.size() < MAX_REPORTED_ELEMENTS) {
+                        missingContentAttachmentIds.add(attachment.getId());
+                    }
+                }
+                if (attachment.getPreviewID() != null && storedObjects.replace(attachment.getPreviewID(), true) == null) {
+                    missingPreviewCount++;
+                }
+                if (attachment.getPreviewVariants() != null) {
+                    attachment.getPreviewVariants().values().forEach(variantId -> storedObjects.replace(variantId, true));
+                }
+            }
+        }
+
+        long orphanKeysCount = 0;
+        List<String> orphanKeys = new ArrayList<>();
+        for (Map.Entry<String, Boolean> storedObject : storedObjects.entrySet()) {
+            if (storedObject.getValue()) continue;
+            orphanKeysCount++;
+            if (orphanKeys.size() < MAX_REPORTED_ELEMENTS) {
+                orphanKeys.add(KEY_PREFIX + storedObject.getKey());
+            }
+        }
+        return StorageReconciliationResult
+                .builder()
+                .scannedKeys(scannedKeys)
+                .scannedAttachments(scannedAttachments)
+                .orphanKeysCount(orphanKeysCount)
+                .orphanKeys(orphanKeys)
+                .missingContentCount(missingContentCount)
+                .missingContentAttachmentIds(missingContentAttachmentIds)
+                .missingPreviewCount(missingPreviewCount)
+                .elapsedMillis(System.currentTimeMillis() - start)
+                .build();
+    }
+}
@@ -4,55 +4,102 @@ import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
 import edu.stanford.slac.elog_plus.repository.EntryRepository;
-import edu.stanford.slac.elog_plus.service.AttachmentService;
-import lombok.AllArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Clock;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
-import static edu.stanford.slac.elog_plus.service.AttachmentService.ATTACHMENT_QUEUED_REFERENCE;
-
+/**
+ * Check the expired attachments and tag them as in use or as to be deleted
+ * <p>
+ * the attachments are claimed in batches with a single processing id, the usage of the whole batch is checked
+ * with a single aggregation on the entries and the result is applied with a single bulk operation. The number
+ * of checked attachments and the duration of every run are exposed as metrics.
+ */
 @Log4j2
 @Component
-@AllArgsConstructor
 public class CleanUnusedAttachment {
     private final Clock clock;
     private final EntryRepository entryRepository;
     private final AttachmentRepository attachmentRepository;
     private final ELOGAppProperties elogAppProperties;
+    private final Counter inUseCounter;
+    private final Counter unusedCounter;
+    private final Timer runTimer;
+
+    public CleanUnusedAttachment(Clock clock, EntryRepository entryRepository, AttachmentRepository attachmentRepository, ELOGAppProperties elogAppProperties, MeterRegistry meterRegistry) {
+        this.clock = clock;
+        this.entryRepository = entryRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.elogAppProperties = elogAppProperties;
+        this.inUseCounter = Counter.builder("elog_plus_attachment_clean_checked")
+                .tag("result", "in_use")
+                .description("The number of expired attachments found in use")
+                .register(meterRegistry);
+        this.unusedCounter = Counter.builder("elog_plus_attachment_clean_checked")
+                .tag("result", "unused")
+                .description("The number of expired attachments tagged as to be deleted")
+                .register(meterRegistry);
+        this.runTimer = Timer.builder("elog_plus_attachment_clean_run")
+                .description("The duration of a run of the unused attachments check")
+                .register(meterRegistry);
+    }
 
     @Scheduled(cron = "${edu.stanford.slac.elog-plus.attachment-clean-expired-cron}")
-    public void cleanExpiredNonUsedAttachments(){
-        Attachment attachment = null;
+    public void cleanExpiredNonUsedAttachments() {
         // the expiration data is calculated in minuted form now depending on the configuration
         log.debug("Cleaning unused attachments");
+        long start = System.nanoTime();
+        long checked = 0;
+        long batches = 0;
         var expirationAttachmentDate = LocalDateTime.now(clock).minusMinutes(elogAppProperties.getAttachmentExpirationMinutes());
-        while ((attachment = attachmentRepository.findAndUpdateNextAvailableModel(expirationAttachmentDate, expirationAttachmentDate.minusSeconds(30))) != null) {
-            try {
-                log.info("Processing attachment {}", attachment.getId());
-                var attachmentIsUsed = entryRepository.existsByAttachmentsContains(attachment.getId());
-                if(attachmentIsUsed) {
-                    log.info("Attachment {} is used so it will no be checked anymore", attachment.getId());
-                    attachment.setInUse(true);
-                } else {
-                    // set that can be deleted
-                    attachment.setCanBeDeleted(true);
-                    log.info("Attachment {} is not used and is tagged as to be deleted", attachment.getId());
-                }
-                // remove reference to so in case it was enqueued, it is also removed from the attachment queue
-                attachment.setReferenceInfo(null);
-            } catch (Exception e) {
-                log.error("Error processing attachment {}", attachment.getId(), e);
-            } finally {
-                attachment.setProcessingId(null);
-                attachment.setProcessingTimestamp(null);
-                attachmentRepository.save(attachment);
-            }
+        List<Attachment> batch;
+        while (!(batch = attachmentRepository.claimNextAvailableModels(
+                elogAppProperties.getAttachmentCleanBatchSize(),
+                expirationAttachmentDate,
+                expirationAttachmentDate.minusSeconds(30))).isEmpty()) {
+            checked += processBatch(batch);
+            batches++;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        runTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (checked > 0) {
+            double seconds = Math.max(elapsedNanos / 1e9, 1e-3);
+            log.info("Checked {} expired attachments in {} batches in {} ms ({} attachments/s)", checked, batches, elapsedNanos / 1_000_000, Math.round(checked / seconds));
         }
         log.debug("Cleaning unused attachments done");
     }
+
+    /**
+     * Check the usage of a batch of claimed attachments and release them
+     * <p>
+     * in case of error the attachments are left claimed and are claimed again when the processing timeout expires
+     *
+     * @param batch the claimed attachments
+     * @return the number of released attachments
+     */
+    private long processBatch(List<Attachment> batch) {
+        String processingId = batch.get(0).getProcessingId();
+        List<String> ids = batch.stream().map(Attachment::getId).toList();
+        Set<String> usedIds = entryRepository.findUsedAttachmentIds(ids);
+        List<String> unusedIds = new ArrayList<>();
+        ids.stream().filter(id -> !usedIds.contains(id)).forEach(unusedIds::add);
+        if (!usedIds.isEmpty()) log.info("Attachments {} are used so they will no be checked anymore", usedIds);
+        if (!unusedIds.isEmpty()) log.info("Attachments {} are not used and are tagged as to be deleted", unusedIds);
+        // only the fields managed by this task are updated so the concurrent preview processing is not overwritten,
+        // the reference is removed so in case it was enqueued, it is also removed from the attachment queue
+        long released = attachmentRepository.releaseProcessedModels(processingId, usedIds, unusedIds);
+        inUseCounter.increment(usedIds.size());
+        unusedCounter.increment(unusedIds.size());
+        return released;
+    }
 }
@@ -0,0 +1,359 @@
+package edu.stanford.slac.elog_plus.task;
+
+import edu.stanford.slac.ad.eed.baselib.api.v1.dto.PersonDTO;
+import edu.stanford.slac.elog_plus.cache.ReferencedEntriesCacheEvictor;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.Entry;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import edu.stanford.slac.elog_plus.model.PreviewLane;
+import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import edu.stanford.slac.elog_plus.repository.EntryRepository;
+import edu.stanford.slac.elog_plus.repository.OutboxEventRepository;
+import edu.stanford.slac.elog_plus.service.EntryShiftKeysService;
+import edu.stanford.slac.elog_plus.service.MailService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Dispatch the side effects queued in the outbox
+ * <p>
+ * the events are claimed in batches, so more instances can dispatch concurrently, and removed when
+ * dispatched. A failed event is released and retried on the next run until the maximum number of attempts,
+ * then it is marked as exhausted and removed after the retention period. A notification is retried only
+ * for the recipients that have not received it.
+ * The messages of a batch are sent together and the cache is scanned once for all the evictions of the batch.
+ * The lag of every dispatched event, from its creation to its dispatch, is recorded by type.
+ * The recompute of the shift keys can last long, so every recompute is claimed alone outside the batches of the
+ * other events and its claim is renewed with the last recomputed entry after every batch of entries, an interrupted
+ * recompute is resumed from there.
+ */
+@Log4j2
+@Component
+public class DispatchOutboxEvents {
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+    private static final Set<OutboxEvent.Type> RECOMPUTE_TYPES = EnumSet.of(OutboxEvent.Type.EntryShiftKeysRecompute);
+    private static final Set<OutboxEvent.Type> BATCHED_TYPES = EnumSet.complementOf(EnumSet.of(OutboxEvent.Type.EntryShiftKeysRecompute));
+    private final OutboxEventRepository outboxEventRepository;
+    private final EntryRepository entryRepository;
+    private final AttachmentRepository attachmentRepository;
+    private final MailService mailService;
+    private final KafkaTemplate<String, Attachment> attachmentKafkaTemplate;
+    private final ReferencedEntriesCacheEvictor referencedEntriesCacheEvictor;
+    private final EntryShiftKeysService entryShiftKeysService;
+    private final ELOGAppProperties elogAppProperties;
+    private final Counter previewSubmittedCounter;
+    private final Map<OutboxEvent.Type, Timer> dispatchLag = new EnumMap<>(OutboxEvent.Type.class);
+    private final Map<OutboxEvent.Type, Counter> dispatchErrors = new EnumMap<>(OutboxEvent.Type.class);
+    private final Map<OutboxEvent.Type, Counter> exhaustedEvents = new EnumMap<>(OutboxEvent.Type.class);
+
+    public DispatchOutboxEvents(
+            OutboxEventRepository outboxEventRepository,
+            EntryRepository entryRepository,
+            AttachmentRepository attachmentRepository,
+            MailService mailService,
+            KafkaTemplate<String, Attachment> attachmentKafkaTemplate,
+            ReferencedEntriesCacheEvictor referencedEntriesCacheEvictor,
+            EntryShiftKeysService entryShiftKeysService,
+            ELOGAppProperties elogAppProperties,
+            Counter previewSubmittedCounter,
+            MeterRegistry meterRegistry) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.entryRepository = entryRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.mailService = mailService;
+        this.attachmentKafkaTemplate = attachmentKafkaTemplate;
+        this.referencedEntriesCacheEvictor = referencedEntriesCacheEvictor;
+        this.entryShiftKeysService = entryShiftKeysService;
+        this.elogAppProperties = elogAppProperties;
+        this.previewSubmittedCounter = previewSubmittedCounter;
+        for (OutboxEvent.Type type : OutboxEvent.Type.values()) {
+            dispatchLag.put(
+                    type,
+                    Timer.builder("elog_plus_outbox_dispatch_lag")
+                            .tag("type", type.name())
+                            .description("The time from the creation of the outbox event to its dispatch")
+                            .publishPercentileHistogram()
+                            .register(meterRegistry)
+            );
+            dispatchErrors.put(
+                    type,
+                    Counter.builder("elog_plus_outbox_dispatch_errors")
+                            .tag("type", type.name())
+                            .description("The number of failed dispatch of the outbox events")
+                            .register(meterRegistry)
+            );
+            exhaustedEvents.put(
+                    type,
+                    Counter.builder("elog_plus_outbox_exhausted")
+                            .tag("type", type.name())
+                            .description("The number of outbox events not retried anymore after the maximum number of attempts")
+                            .register(meterRegistry)
+            );
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${edu.stanford.slac.elog-plus.outbox-dispatch-interval-ms}")
+    public void dispatchOutboxEvents() {
+        List<OutboxEvent> batch;
+        // a batch with failures stop the run so the failed events are retried on the next run
+        while (!(batch = claimNextBatch(elogAppProperties.getOutboxBatchSize(), BATCHED_TYPES)).isEmpty()) {
+            if (!dispatchBatch(batch)) break;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${edu.stanford.slac.elog-plus.outbox-dispatch-interval-ms}")
+    public void dispatchEntryShiftKeysRecompute() {
+        List<OutboxEvent> claimed;
+        // a failed recompute stop the run so it is retried on the next run
+        while (!(claimed = claimNextBatch(1, RECOMPUTE_TYPES)).isEmpty()) {
+            if (!dispatchEntryShiftKeysRecompute(claimed.getFirst())) break;
+        }
+    }
+
+    /**
+     * Remove the events not retried anymore after the retention period
+     *
+     * @return the number of removed events
+     */
+    @Scheduled(cron = "${edu.stanford.slac.elog-plus.outbox-exhausted-clean-cron}")
+    public long removeExhaustedEvents() {
+        long removed = outboxEventRepository.deleteExhaustedBefore(
+                elogAppProperties.getOutboxMaxAttempts(),
+                LocalDateTime.now().minusDays(elogAppProperties.getOutboxExhaustedRetentionDays())
+        );
+        if (removed > 0) log.info("Removed {} exhausted outbox events", removed);
+        return removed;
+    }
+
+    private List<OutboxEvent> claimNextBatch(int batchSize, Set<OutboxEvent.Type> types) {
+        return outboxEventRepository.claimNextBatch(
+                batchSize,
+                elogAppProperties.getOutboxMaxAttempts(),
+                Date.from(Instant.now().minus(elogAppProperties.getOutboxProcessingTimeoutSeconds(), ChronoUnit.SECONDS)),
+                types
+        );
+    }
+
+    /**
+     * Recompute the shift keys of a logbook, starting after the last entry recomputed by a previous attempt
+     *
+     * @param event the claimed event
+     * @return true if the recompute has been completed
+     */
+    boolean dispatchEntryShiftKeysRecompute(OutboxEvent event) {
+        AtomicBoolean claimed = new AtomicBoolean(true);
+        try {
+            entryShiftKeysService.recomputeLogbook(
+                    event.getReferenceId(),
+                    event.getLastProcessedId(),
+                    lastId -> {
+                        claimed.set(outboxEventRepository.renewClaim(event.getId(), event.getProcessingId(), lastId));
+                        return claimed.get();
+                    }
+            );
+        } catch (Exception e) {
+            releaseFailed(event, e);
+            return false;
+        }
+        if (!claimed.get()) {
+            log.warn("The outbox event {} has been claimed by another dispatcher during the recompute", event.getId());
+            return false;
+        }
+        outboxEventRepository.deleteById(event.getId());
+        recordLag(List.of(event));
+        return true;
+    }
+
+    /**
+     * Dispatch a batch of claimed events
+     *
+     * @param batch the claimed events
+     * @return true if all the events have been dispatched
+     */
+    boolean dispatchBatch(List<OutboxEvent> batch) {
+        log.debug("Dispatch {} outbox events", batch.size());
+        // all the entries, the attachments and the people of the batch are fetched together
+        Map<String, Entry> entries = findReferenced(batch, Set.of(OutboxEvent.Type.NewEntryNotification, OutboxEvent.Type.ReferencedEntriesCacheEviction), entryRepository::findAllById, Entry::getId);
+        Map<String, Attachment> attachments = findReferenced(batch, Set.of(OutboxEvent.Type.PreviewRequest), attachmentRepository::findAllById, Attachment::getId);
+        Set<String> mails = new HashSet<>();
+        batch.forEach(event -> {
+            if (event.getRecipients() != null) mails.addAll(event.getRecipients());
+            Entry entry = event.getType() == OutboxEvent.Type.NewEntryNotification ? entries.get(event.getReferenceId()) : null;
+            if (entry != null && entry.getCreatedBy() != null) mails.add(entry.getCreatedBy());
+        });
+        Map<String, PersonDTO> people = mails.isEmpty() ? Map.of() : mailService.resolvePeople(mails);
+
+        List<OutboxEvent> dispatched = new ArrayList<>();
+        List<OutboxEvent> failed = new ArrayList<>();
+        Map<OutboxEvent, CompletableFuture<?>> sending = new LinkedHashMap<>();
+        Map<String, Set<String>> toEvict = new HashMap<>();
+        Map<String, List<OutboxEvent>> evictionEvents = new HashMap<>();
+        for (OutboxEvent event : batch) {
+            try {
+                switch (event.getType()) {
+                    case NewEntryNotification -> {
+                        List<String> failedRecipients = dispatchNewEntryNotification(event, entries, people);
+                        if (failedRecipients.isEmpty()) {
+                            dispatched.add(event);
+                        } else {
+                            // only the recipients that have not received the notification are retried
+                            releaseFailed(event, "Notification not sent to %s".formatted(failedRecipients), failedRecipients);
+                            failed.add(event);
+                        }
+                    }
+                    case PreviewRequest -> sendPreviewRequest(event, attachments).ifPresentOrElse(
+                            future -> sending.put(event, future),
+                            () -> dispatched.add(event)
+                    );
+                    case ReferencedEntriesCacheEviction -> {
+                        Entry entry = entries.get(event.getReferenceId());
+                        List<String> cacheNames = Objects.requireNonNullElse(event.getCacheNames(), List.of());
+                        for (String cacheName : cacheNames) {
+                            if (entry != null && entry.getReferences() != null) {
+                                toEvict.computeIfAbsent(cacheName, k -> new HashSet<>()).addAll(entry.getReferences());
+                            }
+                            evictionEvents.computeIfAbsent(cacheName, k -> new ArrayList<>()).add(event);
+                        }
+                        if (cacheNames.isEmpty()) dispatched.add(event);
+                    }
+                }
+            } catch (Exception e) {
+                releaseFailed(event, e);
+                failed.add(event);
+            }
+        }
+
+        // the keys of every cache are scanned once for all the referenced entries of the batch
+        Set<OutboxEvent> evictionFailed = new HashSet<>();
+        evictionEvents.forEach(
+                (cacheName, events) -> {
+                    try {
+                        referencedEntriesCacheEvictor.evict(cacheName, toEvict.getOrDefault(cacheName, Set.of()));
+                    } catch (Exception e) {
+                        events.stream().filter(evictionFailed::add).forEach(event -> releaseFailed(event, e));
+                    }
+                }
+        );
+        evictionEvents.values().stream().flatMap(List::stream).distinct()
+                .forEach(event -> (evictionFailed.contains(event) ? failed : dispatched).add(event));
+
+        // wait for all the messages of the batch
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SEND_TIMEOUT_SECONDS);
+        sending.forEach(
+                (event, future) -> {
+                    try {
+                        future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        previewSubmittedCounter.increment();
+                        dispatched.add(event);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        releaseFailed(event, e);
+                        failed.add(event);
+                    } catch (Exception e) {
+                        releaseFailed(event, e);
+                        failed.add(event);
+                    }
+                }
+        );
+
+        outboxEventRepository.deleteAllById(dispatched.stream().map(OutboxEvent::getId).toList());
+        recordLag(dispatched);
+        return failed.isEmpty();
+    }
+
+    private void recordLag(List<OutboxEvent> dispatched) {
+        LocalDateTime now = LocalDateTime.now();
+        dispatched.stream()
+                .filter(event -> event.getCreatedDate() != null)
+                .forEach(event -> dispatchLag.get(event.getType()).record(Duration.between(event.getCreatedDate(), now).abs()));
+    }
+
+    /**
+     * Find all the models referenced by the events of the given types
+     */
+    private static <T> Map<String, T> findReferenced(List<OutboxEvent> batch, Set<OutboxEvent.Type> types, Function<Set<String>, List<T>> finder, Function<T, String> idGetter) {
+        Set<String> ids = batch.stream()
+                .filter(event -> types.contains(event.getType()))
+                .map(OutboxEvent::getReferenceId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (ids.isEmpty()) return Map.of();
+        return finder.apply(ids).stream().collect(Collectors.toMap(idGetter, Function.identity()));
+    }
+
+    private void releaseFailed(OutboxEvent event, Exception e) {
+        releaseFailed(event, e.getMessage(), null);
+    }
+
+    private void releaseFailed(OutboxEvent event, String error, List<String> remainingRecipients) {
+        dispatchErrors.get(event.getType()).increment();
+        int attempts = Objects.requireNonNullElse(event.getAttempts(), 0) + 1;
+        boolean exhausted = attempts >= elogAppProperties.getOutboxMaxAttempts();
+        if (exhausted) {
+            log.error("The outbox event {} of type {} is not retried anymore after {} attempts: {}", event.getId(), event.getType(), attempts, error);
+            exhaustedEvents.get(event.getType()).increment();
+        } else {
+            log.error("Error dispatching the outbox event {} of type {}: {}", event.getId(), event.getType(), error);
+        }
+        outboxEventRepository.releaseFailed(event.getId(), event.getProcessingId(), error, remainingRecipients, exhausted);
+    }
+
+    /**
+     * Send the notification of a new entry
+     *
+     * @return the recipients that have not received the notification
+     */
+    private List<String> dispatchNewEntryNotification(OutboxEvent event, Map<String, Entry> entries, Map<String, PersonDTO> people) throws Exception {
+        Entry entry = entries.get(event.getReferenceId());
+        if (entry == null) {
+            log.warn("The entry {} to notify does not exist anymore", event.getReferenceId());
+            return List.of();
+        }
+        List<PersonDTO> recipients = event.getRecipients() == null ?
+                List.of() :
+                event.getRecipients().stream().distinct().map(people::get).filter(Objects::nonNull).toList();
+        return mailService.sentNewEmailNotification(
+                recipients,
+                entry.getCreatedBy() != null ? people.get(entry.getCreatedBy()) : null,
+                entry
+        );
+    }
+
+    /**
+     * Send the preview request of the attachment to the topic of its lane
+     *
+     * @return the pending send or empty if the attachment does not exist anymore
+     */
+    private Optional<CompletableFuture<?>> sendPreviewRequest(OutboxEvent event, Map<String, Attachment> attachments) {
+        Attachment attachment = attachments.get(event.getReferenceId());
+        if (attachment == null) {
+            log.warn("The attachment {} to preview does not exist anymore", event.getReferenceId());
+            return Optional.empty();
+        }
+        // the attachment id is the key so all the requests for the same attachment go to the same partition
+        return Optional.of(
+                attachmentKafkaTemplate.send(
+                        event.getPreviewLane() == PreviewLane.Bulk ? elogAppProperties.getImagePreviewBulkTopic() : elogAppProperties.getImagePreviewTopic(),
+                        attachment.getId(),
+                        attachment
+                )
+        );
+    }
+}
@@ -0,0 +1,181 @@
+package edu.stanford.slac.elog_plus.task;
+
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.AttachmentReapResult;
+import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import edu.stanford.slac.elog_plus.repository.StorageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static edu.stanford.slac.elog_plus.service.AttachmentService.getStorageId;
+
+/**
+ * Remove the attachments tagged as to be deleted together with their stored content and previews
+ * <p>
+ * the attachments are claimed in batches, the stored objects still shared with other attachments, by the content
+ * deduplication or the preview reuse, are kept and the others are removed with batched delete requests. The documents
+ * are removed only when all their objects have been removed, an attachment with a failed removal is released and
+ * retried by the next run, so an interrupted run is resumed from where it stopped. The number of objects removed per
+ * second is limited to not overload the storage. An attachment is removed only after a grace time from its tagging, so
+ * a new attachment that is reusing its content in the meanwhile is seen as sharing the stored object.
+ */
+@Log4j2
+@Component
+public class ReapDeletedAttachments {
+    private final AttachmentRepository attachmentRepository;
+    private final StorageRepository storageRepository;
+    private final ELOGAppProperties elogAppProperties;
+    private final Counter deletedAttachmentsCounter;
+    private final Counter deletedObjectsCounter;
+    private final Counter reclaimedBytesCounter;
+
+    public ReapDeletedAttachments(AttachmentRepository attachmentRepository, StorageRepository storageRepository, ELOGAppProperties elogAppProperties, MeterRegistry meterRegistry) {
+        this.attachmentRepository = attachmentRepository;
+        this.storageRepository = storageRepository;
+        this.elogAppProperties = elogAppProperties;
+        this.deletedAttachmentsCounter = Counter.builder("elog_plus_attachment_reap_deleted_attachments")
+                .description("The number of attachments removed")
+                .register(meterRegistry);
+        this.deletedObjectsCounter = Counter.builder("elog_plus_attachment_reap_deleted_objects")
+                .description("The number of stored objects removed")
+                .register(meterRegistry);
+        this.reclaimedBytesCounter = Counter.builder("elog_plus_attachment_reap_reclaimed_bytes")
+                .baseUnit("bytes")
+                .description("The number of bytes of the removed contents")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(cron = "${edu.stanford.slac.elog-plus.attachment-reap-cron}")
+    public AttachmentReapResult reapDeletedAttachments() {
+        log.debug("Removing deleted attachments");
+        long start = System.nanoTime();
+        AttachmentReapResult result = new AttachmentReapResult();
+        List<Attachment> batch;
+        while (!(batch = claimNextBatch()).isEmpty()) {
+            long batchStart = System.nanoTime();
+            long failedBefore = result.getFailedAttachments();
+            long deletedObjects = reapBatch(batch, result);
+            // a batch with failures stop the run so the failed attachments are retried on the next run
+            if (result.getFailedAttachments() > failedBefore || !throttle(batchStart, deletedObjects)) break;
+        }
+        result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (result.getDeletedAttachments() > 0 || result.getFailedAttachments() > 0) {
+            log.info(
+                    "Removed {} attachments and {} stored objects in {} ms, reclaimed {} bytes, {} attachments left for the next run",
+                    result.getDeletedAttachments(),
+                    result.getDeletedObjects(),
+                    result.getElapsedMillis(),
+                    result.getReclaimedBytes(),
+                    result.getFailedAttachments()
+            );
+        }
+        return result;
+    }
+
+    private List<Attachment> claimNextBatch() {
+        return attachmentRepository.claimNextDeletableModels(
+                elogAppProperties.getAttachmentReapBatchSize(),
+                Date.from(Instant.now().minus(elogAppProperties.getAttachmentReapProcessingTimeoutSeconds(), ChronoUnit.SECONDS)),
+                Date.from(Instant.now().minus(elogAppProperties.getAttachmentReapGraceSeconds(), ChronoUnit.SECONDS))
+        );
+    }
+
+    /**
+     * Remove a batch of claimed attachments
+     *
+     * @param batch  the claimed attachments
+     * @param result the result of the run to update
+     * @return the number of removed stored objects
+     */
+    private long reapBatch(List<Attachment> batch, AttachmentReapResult result) {
+        String processingId = batch.get(0).getProcessingId();
+        Set<String> batchIds = new HashSet<>();
+        // the content size is counted once for every stored content also when shared by more attachments of the batch
+        Map<String, Long> contentLengths = new HashMap<>();
+        Map<String, Set<String>> previewObjects = new HashMap<>();
+        for (Attachment attachment : batch) {
+            batchIds.add(attachment.getId());
+            contentLengths.merge(getStorageId(attachment), Objects.requireNonNullElse(attachment.getContentLength(), 0L), Math::max);
+            if (attachment.getPreviewID() != null) {
+                Set<String> objects = previewObjects.computeIfAbsent(attachment.getPreviewID(), k -> new HashSet<>());
+                objects.add(attachment.getPreviewID());
+                if (attachment.getPreviewVariants() != null) objects.addAll(attachment.getPreviewVariants().values());
+            }
+        }
+
+        // the objects still used by the other attachments are kept
+        Set<String> sharedStorageIds = new HashSet<>();
+        Set<String> sharedPreviewIds = new HashSet<>();
+        attachmentRepository.findAllSharingStoredObjects(batchIds, contentLengths.keySet(), previewObjects.keySet())
+                .forEach(
+                        attachment -> {
+                            sharedStorageIds.add(getStorageId(attachment));
+                            if (attachment.getPreviewID() != null) sharedPreviewIds.add(attachment.getPreviewID());
+                        }
+                );
+        Set<String> toDelete = new HashSet<>();
+        contentLengths.keySet().stream().filter(storageId -> !sharedStorageIds.contains(storageId)).forEach(toDelete::add);
+        previewObjects.forEach(
+                (previewId, objects) -> {
+                    if (!sharedPreviewIds.contains(previewId)) toDelete.addAll(objects);
+                }
+        );
+
+        Set<String> failedObjects = toDelete.isEmpty() ? Set.of() : storageRepository.deleteFiles(toDelete);
+        List<String> deletedIds = new ArrayList<>();
+        List<String> failedIds = new ArrayList<>();
+        for (Attachment attachment : batch) {
+            boolean failed = failedObjects.contains(getStorageId(attachment)) ||
+                    (attachment.getPreviewID() != null && previewObjects.get(attachment.getPreviewID()).stream().anyMatch(failedObjects::contains));
+            (failed ? failedIds : deletedIds).add(attachment.getId());
+        }
+        if (!failedIds.isEmpty()) {
+            log.warn("The stored objects of the attachments {} cannot be removed, they will be retried", failedIds);
+            attachmentRepository.releaseClaimedModels(processingId, failedIds);
+        }
+        long deletedAttachments = attachmentRepository.deleteClaimedModels(processingId, deletedIds);
+
+        long deletedObjects = toDelete.size() - failedObjects.size();
+        long reclaimedBytes = contentLengths.entrySet().stream()
+                .filter(entry -> toDelete.contains(entry.getKey()) && !failedObjects.contains(entry.getKey()))
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+        result.setDeletedAttachments(result.getDeletedAttachments() + deletedAttachments);
+        result.setDeletedObjects(result.getDeletedObjects() + deletedObjects);
+        result.setReclaimedBytes(result.getReclaimedBytes() + reclaimedBytes);
+        result.setFailedAttachments(result.getFailedAttachments() + failedIds.size());
+        deletedAttachmentsCounter.increment(deletedAttachments);
+        deletedObjectsCounter.increment(deletedObjects);
+        reclaimedBytesCounter.increment(reclaimedBytes);
+        return deletedObjects;
+    }
+
+    /**
+     * Wait the time needed to keep the removal under the configured rate
+     *
+     * @param batchStart     the start of the batch in nanoseconds
+     * @param deletedObjects the number of objects removed by the batch
+     * @return false if the wait has been interrupted
+     */
+    private boolean throttle(long batchStart, long deletedObjects) {
+        long minimumNanos = TimeUnit.SECONDS.toNanos(deletedObjects) / Math.max(1, elogAppProperties.getAttachmentReapMaxObjectsPerSecond());
+        long remainingNanos = minimumNanos - (System.nanoTime() - batchStart);
+        if (remainingNanos <= 0) return true;
+        try {
+            TimeUnit.NANOSECONDS.sleep(remainingNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package edu.stanford.slac.elog_plus.task;
+
+import edu.stanford.slac.elog_plus.model.StorageReconciliationResult;
+import edu.stanford.slac.elog_plus.service.StorageInventoryService;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Log4j2
+@Component
+@AllArgsConstructor
+public class ReconcileStorage {
+    private final StorageInventoryService storageInventoryService;
+
+    /**
+     * Report the stored objects without attachment and the attachments without stored content
+     */
+    @Scheduled(cron = "${edu.stanford.slac.elog-plus.storage-reconciliation-cron}")
+    public void reconcileStorage() {
+        log.info("Start storage reconciliation");
+        StorageReconciliationResult result = storageInventoryService.reconcile();
+        log.info(
+                "Storage reconciliation done in {} ms: {} keys, {} attachments, {} orphan keys, {} attachments without content, {} attachments without preview",
+                result.getElapsedMillis(),
+                result.getScannedKeys(),
+                result.getScannedAttachments(),
+                result.getOrphanKeysCount(),
+                result.getMissingContentCount(),
+                result.getMissingPreviewCount()
+        );
+        if (result.getOrphanKeysCount() > 0) {
+            log.warn("Orphan keys found in the storage: {}", result.getOrphanKeys());
+        }
+        if (result.getMissingContentCount() > 0) {
+            log.warn("Attachments without stored content: {}", result.getMissingContentAttachmentIds());
+        }
+    }
+}
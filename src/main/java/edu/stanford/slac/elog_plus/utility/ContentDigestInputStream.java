@@ -0,0 +1,71 @@
+package edu.stanford.slac.elog_plus.utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Input stream that calculate the SHA-256 digest and the size of the content
+ * while it is consumed, so the hash is available as soon as the upload is completed
+ * <p>
+ * mark and reset are not supported, a reset would read again the same bytes and add them twice to the digest
+ * and to the size, so the clients that need to retry buffer the content on their side
+ */
+public class ContentDigestInputStream extends DigestInputStream {
+    private long byteCount = 0;
+
+    public ContentDigestInputStream(InputStream stream) throws NoSuchAlgorithmException {
+        super(stream, MessageDigest.getInstance("SHA-256"));
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) byteCount++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) byteCount += read;
+        return read;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Return the number of byte read until now
+     *
+     * @return the number of byte read
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Return the hex representation of the digest of all the byte read
+     * <p>
+     * the digest is finalized by this call so it should be called only once the stream has been consumed
+     *
+     * @return the hex string of the SHA-256 digest
+     */
+    public String getHexDigest() {
+        return HexFormat.of().formatHex(getMessageDigest().digest());
+    }
+}
@@ -0,0 +1,90 @@
+package edu.stanford.slac.elog_plus.auth;
+
+import edu.stanford.slac.ad.eed.baselib.auth.JWTHelper;
+import edu.stanford.slac.elog_plus.config.auth.TokenAuthenticationCache;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Date;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class TokenAuthenticationCacheTest {
+    @Autowired
+    private TokenAuthenticationCache tokenAuthenticationCache;
+    @Autowired
+    private JWTHelper jwtHelper;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void sameTokenIsValidatedOnce() {
+        String token = jwtHelper.generateJwt("user1@slac.stanford.edu");
+        double hitsBefore = meterRegistry.get("elog_plus_token_authentication_cache_hit").counter().count();
+        long verificationsBefore = meterRegistry.get("elog_plus_token_authentication_verification_time").timer().count();
+
+        Authentication first = assertDoesNotThrow(() -> tokenAuthenticationCache.authenticate(token));
+        Authentication second = assertDoesNotThrow(() -> tokenAuthenticationCache.authenticate(token));
+
+        assertThat(second).isSameAs(first);
+        assertThat(meterRegistry.get("elog_plus_token_authentication_cache_hit").counter().count()).isEqualTo(hitsBefore + 1);
+        assertThat(meterRegistry.get("elog_plus_token_authentication_verification_time").timer().count()).isEqualTo(verificationsBefore + 1);
+    }
+
+    @Test
+    public void cachedAuthenticationExpiresWithTheToken() {
+        String token = generateJwt("user1@slac.stanford.edu", 2);
+        assertDoesNotThrow(() -> tokenAuthenticationCache.authenticate(token));
+
+        // once the token is expired it is validated again and refused
+        await()
+                .atMost(10, SECONDS)
+                .pollDelay(1, SECONDS)
+                .until(
+                        () -> {
+                            try {
+                                tokenAuthenticationCache.authenticate(token);
+                                return false;
+                            } catch (AuthenticationException e) {
+                                return true;
+                            }
+                        }
+                );
+    }
+
+    @Test
+    public void invalidTokenIsNotCached() {
+        String token = jwtHelper.generateJwt("user1@slac.stanford.edu") + "corrupt";
+        assertThrows(AuthenticationException.class, () -> tokenAuthenticationCache.authenticate(token));
+        assertThrows(AuthenticationException.class, () -> tokenAuthenticationCache.authenticate(token));
+    }
+
+    private String generateJwt(String email, int expireInSeconds) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setHeader(Map.of("typ", "JWT"))
+                .addClaims(Map.of("email", email))
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + expireInSeconds * 1000L))
+                .signWith(jwtHelper.getKey())
+                .compact();
+    }
+}
@@ -12,6 +12,7 @@ import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.Logbook;
 import edu.stanford.slac.elog_plus.service.EntryService;
+import edu.stanford.slac.elog_plus.service.ImportService;
 import edu.stanford.slac.elog_plus.service.LogbookService;
 import edu.stanford.slac.elog_plus.v1.controller.TestControllerHelperService;
 import org.apache.kafka.clients.admin.AdminClient;
@@ -34,10 +35,10 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -66,6 +67,8 @@ public class ProcessLogImportTest {
     @Autowired
     private EntryService entryService;
     @Autowired
+    private ImportService importService;
+    @Autowired
     private MockMvc mockMvc;
     @Autowired
     private TestControllerHelperService testControllerHelperService;
@@ -132,7 +135,7 @@ public class ProcessLogImportTest {
                                 .build()
                 )
                 .build();
-        ProducerRecord<String, ImportEntryDTO> message = new ProducerRecord<>(importEntryTopic, "key", dto);
+        ProducerRecord<String, ImportEntryDTO> message = new ProducerRecord<>(importEntryTopic, ProcessLogImport.importKey(dto), dto);
         message.headers().add("Authorization", jwtHelper.generateJwt("user1@slac.stanford.edu").getBytes());
 
         var sendData = importEntryDTOKafkaTemplate.send(message);
@@ -189,4 +192,58 @@ public class ProcessLogImportTest {
         assertThat(foundEntries.getErrorCode()).isEqualTo(0);
         assertThat(foundEntries.getPayload().getFirst().title()).isEqualTo(dto.entry().title());
     }
+
+    @Test
+    public void testSubmitManyImportsOnNewLogbooks() {
+        Faker faker = new Faker();
+        List<String> logbooks = List.of("new-logbook-a", "new-logbook-b");
+        for (int idx = 0; idx < 10; idx++) {
+            ImportEntryDTO dto = ImportEntryDTO
+                    .builder()
+                    .readerUserIds(List.of("user2@slac.stanford.edu"))
+                    .entry(
+                            EntryImportDTO
+                                    .builder()
+                                    .logbooks(List.of(logbooks.get(idx % logbooks.size())))
+                                    .title(faker.book().title())
+                                    .text(faker.lorem().paragraph())
+                                    .tags(List.of("import-tag"))
+                                    .originId("many-original-id-%d".formatted(idx))
+                                    .build()
+                    )
+                    .build();
+            ProducerRecord<String, ImportEntryDTO> message = new ProducerRecord<>(importEntryTopic, ProcessLogImport.importKey(dto), dto);
+            message.headers().add("Authorization", jwtHelper.generateJwt("user1@slac.stanford.edu").getBytes());
+            assertDoesNotThrow(() -> importEntryDTOKafkaTemplate.send(message).get());
+        }
+
+        await()
+                .atMost(60, SECONDS)
+                .pollDelay(2, SECONDS)
+                .until(() -> mongoTemplate.count(new Query(), Entry.class) == 10);
+
+        // every logbook and tag has been created only once
+        assertThat(mongoTemplate.count(new Query(), Logbook.class)).isEqualTo(logbooks.size());
+        logbooks.forEach(
+                logbookName -> assertThat(
+                        logbookService.getAllTags(logbookService.getLogbookByName(logbookName).id())
+                ).hasSize(1)
+        );
+    }
+
+    @Test
+    public void testConcurrentEnsureLogbookCreateItOnce() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Optional<String>>> results = new ArrayList<>();
+        for (int idx = 0; idx < 16; idx++) {
+            results.add(executor.submit(() -> importService.ensureLogbook("concurrent-logbook", true)));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, SECONDS)).isTrue();
+
+        Set<String> logbookIds = new HashSet<>();
+        results.forEach(result -> logbookIds.add(assertDoesNotThrow(() -> result.get().orElseThrow())));
+        assertThat(logbookIds).hasSize(1);
+        assertThat(importService.ensureLogbook("not-creatable-logbook", false)).isEmpty();
+    }
 }
@@ -0,0 +1,115 @@
+package edu.stanford.slac.elog_plus.consumer;
+
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import edu.stanford.slac.elog_plus.service.AttachmentService;
+import edu.stanford.slac.elog_plus.service.DocumentGenerationService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class ProcessingPreviewBatchTest {
+    @Autowired
+    private ProcessingPreviewBatch processingPreviewBatch;
+    @Autowired
+    private AttachmentService attachmentService;
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+    @Autowired
+    private DocumentGenerationService documentGenerationService;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private ELOGAppProperties appProperties;
+
+    @BeforeEach
+    public void preTest() {
+        mongoTemplate.remove(new Query(), Attachment.class);
+    }
+
+    @Test
+    public void batchIsCommittedWhenAllRecordsAreCompleted() {
+        List<ConsumerRecord<String, Attachment>> records = new ArrayList<>();
+        for (int idx = 0; idx < 6; idx++) {
+            String attachmentID = createAttachment();
+            Attachment attachment = attachmentRepository.findById(attachmentID).orElseThrow();
+            records.add(new ConsumerRecord<>(appProperties.getImagePreviewBulkTopic(), idx % 2, idx, attachmentID, attachment));
+        }
+        // a redelivered record of the first attachment is processed after the first one
+        records.add(new ConsumerRecord<>(appProperties.getImagePreviewBulkTopic(), 0, 6, records.get(0).key(), records.get(0).value()));
+
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        processingPreviewBatch.processPreviewBatch(records, acknowledgment, null);
+
+        verify(acknowledgment, times(1)).acknowledge();
+        verify(acknowledgment, never()).nack(anyInt(), any(Duration.class));
+        records.forEach(
+                record -> assertThat(attachmentService.getPreviewProcessingState(record.key()))
+                        .isEqualTo(Attachment.PreviewProcessingState.Completed.name())
+        );
+    }
+
+    @Test
+    public void failedRecordIsCommittedAfterAllAttempts() {
+        String attachmentID = createAttachment();
+        List<ConsumerRecord<String, Attachment>> records = List.of(
+                // the attachment of the first record does not exist
+                new ConsumerRecord<>(
+                        appProperties.getImagePreviewBulkTopic(), 0, 0, "not-exists",
+                        Attachment.builder().id("not-exists").contentType(MediaType.IMAGE_JPEG_VALUE).build()
+                ),
+                new ConsumerRecord<>(
+                        appProperties.getImagePreviewBulkTopic(), 0, 1, attachmentID,
+                        attachmentRepository.findById(attachmentID).orElseThrow()
+                )
+        );
+        assertThat(processingPreviewBatch.processBatch(records)).isEqualTo(records.size());
+        assertThat(attachmentService.getPreviewProcessingState(attachmentID))
+                .isEqualTo(Attachment.PreviewProcessingState.Completed.name());
+    }
+
+    private String createAttachment() {
+        return assertDoesNotThrow(
+                () -> {
+                    try (InputStream is = documentGenerationService.getTestJpeg()) {
+                        return attachmentService.createAttachment(
+                                FileObjectDescription
+                                        .builder()
+                                        .fileName("jpegFileName")
+                                        .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                        .is(is)
+                                        .build(),
+                                false
+                        );
+                    }
+                }
+        );
+    }
+}
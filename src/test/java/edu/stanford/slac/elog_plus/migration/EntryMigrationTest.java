@@ -1,8 +1,14 @@
 package edu.stanford.slac.elog_plus.migration;
 
+import edu.stanford.slac.elog_plus.api.v1.dto.NewLogbookDTO;
+import edu.stanford.slac.elog_plus.api.v1.dto.ShiftDTO;
 import edu.stanford.slac.elog_plus.migration.M008_RenameSupersedeBy;
 import edu.stanford.slac.elog_plus.model.Entry;
+import edu.stanford.slac.elog_plus.model.ShiftLookupTable;
 import edu.stanford.slac.elog_plus.repository.EntryRepository;
+import edu.stanford.slac.elog_plus.service.EntryShiftKeysService;
+import edu.stanford.slac.elog_plus.service.LogbookService;
+import edu.stanford.slac.elog_plus.utility.DateUtilities;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,6 +23,11 @@ import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
 import java.util.Vector;
 
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -32,6 +43,10 @@ public class EntryMigrationTest {
     MongoTemplate mongoTemplate;
     @Autowired
     EntryRepository entryRepository;
+    @Autowired
+    LogbookService logbookService;
+    @Autowired
+    EntryShiftKeysService entryShiftKeysService;
 
     class WrongNameEntry extends Entry {
         public String supersedeBy;
@@ -73,4 +88,43 @@ public class EntryMigrationTest {
             }
         });
     }
+
+    @Test
+    public void testBackfillShiftKeys() {
+        String logbookId = assertDoesNotThrow(
+                () -> logbookService.createNew(
+                        NewLogbookDTO.builder().name(UUID.randomUUID().toString()).build()
+                )
+        );
+        assertDoesNotThrow(
+                () -> logbookService.replaceShift(
+                        logbookId,
+                        List.of(
+                                ShiftDTO
+                                        .builder()
+                                        .name("Day Shift")
+                                        .from(DateUtilities.toUTCString(LocalTime.of(8, 0)))
+                                        .to(DateUtilities.toUTCString(LocalTime.of(15, 59)))
+                                        .build()
+                        )
+                )
+        );
+        String shiftId = assertDoesNotThrow(() -> logbookService.getLogbook(logbookId)).shifts().getFirst().id();
+        // entries saved without the shift keys, as before the migration
+        var inShift = entryRepository.save(
+                Entry.builder().logbooks(List.of(logbookId)).eventAt(LocalDateTime.of(2024, 3, 10, 9, 0)).build()
+        );
+        var outOfShift = entryRepository.save(
+                Entry.builder().logbooks(List.of(logbookId)).eventAt(LocalDateTime.of(2024, 3, 10, 20, 0)).build()
+        );
+
+        // run the migration
+        assertDoesNotThrow(
+                () -> new M017_CreateEntryShiftKeys(mongoTemplate, entryShiftKeysService).changeSet()
+        );
+
+        assertThat(entryRepository.findById(inShift.getId()).orElseThrow().getShiftKeys())
+                .containsExactly(ShiftLookupTable.shiftKey(logbookId, shiftId, LocalDate.of(2024, 3, 10)));
+        assertThat(entryRepository.findById(outOfShift.getId()).orElseThrow().getShiftKeys()).isEmpty();
+    }
 }
@@ -0,0 +1,28 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.config.StorageProperties;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class FileSystemStorageRepositoryContractTest extends StorageRepositoryContractTest {
+    @TempDir
+    Path storageRoot;
+    private StorageRepository storageRepository;
+
+    @BeforeAll
+    public void init() {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setBackend(StorageProperties.StorageBackend.FILESYSTEM);
+        storageProperties.setFilesystemRoot(storageRoot.toString());
+        storageRepository = new FileSystemStorageRepository(storageProperties);
+    }
+
+    @Override
+    protected StorageRepository storageRepository() {
+        return storageRepository;
+    }
+}
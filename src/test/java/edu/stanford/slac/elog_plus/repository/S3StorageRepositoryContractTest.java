@@ -0,0 +1,65 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles(profiles = "test")
+public class S3StorageRepositoryContractTest extends StorageRepositoryContractTest {
+    @Autowired
+    private StorageRepository storageRepository;
+
+    @Override
+    protected StorageRepository storageRepository() {
+        return storageRepository;
+    }
+
+    @Test
+    public void scanAllPartitionsFindEveryKeyOnce() {
+        // the keys at the bounds of the partitions, out of the hex digits and a real object id
+        String objectId = new ObjectId().toHexString();
+        List<String> ids = List.of("0", "000", "0000", "00f", "010", "6ab", objectId, objectId.substring(0, 3), "fff", "fffz", "g", "~x");
+        try {
+            ids.forEach(
+                    id -> assertDoesNotThrow(
+                            () -> storageRepository.uploadFile(
+                                    id,
+                                    FileObjectDescription
+                                            .builder()
+                                            .fileName("partition-test")
+                                            .contentType(MediaType.TEXT_PLAIN_VALUE)
+                                            .is(new ByteArrayInputStream(new byte[]{1}))
+                                            .build()
+                            )
+                    )
+            );
+
+            List<String> foundKeys = new ArrayList<>();
+            for (String partition : storageRepository.keyPartitions()) {
+                assertDoesNotThrow(() -> storageRepository.scanPartition(partition, foundKeys::add));
+            }
+            for (String id : ids) {
+                assertThat(foundKeys).containsOnlyOnce("attachment/%s".formatted(id));
+            }
+        } finally {
+            ids.forEach(id -> storageRepository.deleteFile(id));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.ObjectListResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Contract that all the storage repository implementation need to respect
+ */
+public abstract class StorageRepositoryContractTest {
+    private final List<String> createdIds = new ArrayList<>();
+
+    /**
+     * Return the storage repository under test
+     */
+    protected abstract StorageRepository storageRepository();
+
+    @AfterEach
+    public void cleanCreatedObjects() {
+        createdIds.forEach(id -> storageRepository().deleteFile(id));
+        createdIds.clear();
+    }
+
+    @Test
+    public void uploadAndDownloadSmallObject() {
+        byte[] content = randomContent(1024);
+        String id = upload(content, MediaType.IMAGE_JPEG_VALUE);
+
+        FileObjectDescription found = FileObjectDescription.builder().build();
+        assertDoesNotThrow(() -> storageRepository().getFile(id, found));
+        assertThat(found.getContentType()).isEqualTo(MediaType.IMAGE_JPEG_VALUE);
+        assertThat(readAll(found)).isEqualTo(content);
+    }
+
+    @Test
+    public void uploadAndDownloadBigObject() {
+        byte[] content = randomContent(4 * 1024 * 1024 + 17);
+        String id = upload(content, MediaType.APPLICATION_PDF_VALUE);
+
+        FileObjectDescription found = FileObjectDescription.builder().build();
+        assertDoesNotThrow(() -> storageRepository().getFile(id, found));
+        assertThat(found.getContentType()).isEqualTo(MediaType.APPLICATION_PDF_VALUE);
+        assertThat(readAll(found)).isEqualTo(content);
+    }
+
+    @Test
+    public void uploadReplaceTheContent() {
+        String id = upload(randomContent(512), MediaType.IMAGE_JPEG_VALUE);
+        byte[] newContent = randomContent(256);
+        assertDoesNotThrow(() -> storageRepository().uploadFile(id, description(newContent, MediaType.IMAGE_PNG_VALUE)));
+
+        FileObjectDescription found = FileObjectDescription.builder().build();
+        assertDoesNotThrow(() -> storageRepository().getFile(id, found));
+        assertThat(found.getContentType()).isEqualTo(MediaType.IMAGE_PNG_VALUE);
+        assertThat(readAll(found)).isEqualTo(newContent);
+    }
+
+    @Test
+    public void deletedObjectIsNotFound() {
+        String id = upload(randomContent(128), MediaType.IMAGE_JPEG_VALUE);
+        assertDoesNotThrow(() -> storageRepository().deleteFile(id));
+
+        assertThrows(
+                ControllerLogicException.class,
+                () -> storageRepository().getFile(id, FileObjectDescription.builder().build())
+        );
+        // delete a not existing object is not an error
+        assertDoesNotThrow(() -> storageRepository().deleteFile(id));
+    }
+
+    @Test
+    public void missingObjectIsNotFound() {
+        assertThrows(
+                ControllerLogicException.class,
+                () -> storageRepository().getFile(UUID.randomUUID().toString(), FileObjectDescription.builder().build())
+        );
+    }
+
+    @Test
+    public void listAllObjectsUsingPages() {
+        Set<String> expectedKeys = new HashSet<>();
+        for (int idx = 0; idx < 23; idx++) {
+            expectedKeys.add("attachment/%s".formatted(upload(randomContent(16), MediaType.TEXT_PLAIN_VALUE)));
+        }
+
+        List<String> foundKeys = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            String token = continuationToken;
+            ObjectListResult page = assertDoesNotThrow(() -> storageRepository().listFilesInBucket(7, token));
+            assertThat(page.getKeyFounds()).hasSizeLessThanOrEqualTo(7);
+            foundKeys.addAll(page.getKeyFounds());
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        // every key is returned only once
+        assertThat(new HashSet<>(foundKeys)).hasSize(foundKeys.size());
+        assertThat(foundKeys).containsAll(expectedKeys);
+    }
+
+    private String upload(byte[] content, String contentType) {
+        String id = UUID.randomUUID().toString();
+        assertDoesNotThrow(() -> storageRepository().uploadFile(id, description(content, contentType)));
+        createdIds.add(id);
+        return id;
+    }
+
+    private static FileObjectDescription description(byte[] content, String contentType) {
+        return FileObjectDescription
+                .builder()
+                .fileName("contract-test")
+                .contentType(contentType)
+                .is(new ByteArrayInputStream(content))
+                .build();
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random().nextBytes(content);
+        return content;
+    }
+
+    private static byte[] readAll(FileObjectDescription objectDescription) {
+        return assertDoesNotThrow(
+                () -> {
+                    try (InputStream is = objectDescription.getIs()) {
+                        return is.readAllBytes();
+                    }
+                }
+        );
+    }
+}
@@ -0,0 +1,158 @@
+package edu.stanford.slac.elog_plus.repository;
+
+import edu.stanford.slac.elog_plus.config.StorageProperties;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Compare the throughput of the synchronous and non-blocking storage repository against
+ * the storage used by the test (minio)
+ */
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles(profiles = "test")
+public class StorageRepositoryThroughputTest {
+    private static final Logger log = LoggerFactory.getLogger(StorageRepositoryThroughputTest.class);
+    private static final int OBJECT_NUMBER = 64;
+    private static final int OBJECT_SIZE = 256 * 1024;
+    @Autowired
+    private StorageRepository storageRepository;
+    @Autowired
+    private S3AsyncClient s3AsyncClient;
+    @Autowired
+    private StorageProperties storageProperties;
+    private S3AsyncStorageRepository asyncStorageRepository;
+    private byte[] content;
+
+    @BeforeAll
+    public void init() {
+        content = new byte[OBJECT_SIZE];
+        new Random(0).nextBytes(content);
+        asyncStorageRepository = new S3AsyncStorageRepository(s3AsyncClient, storageProperties);
+    }
+
+    @AfterAll
+    public void cleanup() {
+        for (int idx = 0; idx < OBJECT_NUMBER; idx++) {
+            storageRepository.deleteFile("throughput-sync-%d".formatted(idx));
+            storageRepository.deleteFile("throughput-async-%d".formatted(idx));
+        }
+        asyncStorageRepository.destroy();
+    }
+
+    @Test
+    public void compareSyncAndAsyncThroughput() {
+        long syncStart = System.nanoTime();
+        for (int idx = 0; idx < OBJECT_NUMBER; idx++) {
+            String id = "throughput-sync-%d".formatted(idx);
+            assertDoesNotThrow(() -> storageRepository.uploadFile(id, objectDescription()));
+        }
+        long syncElapsed = System.nanoTime() - syncStart;
+
+        long asyncStart = System.nanoTime();
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for (int idx = 0; idx < OBJECT_NUMBER; idx++) {
+            uploads.add(asyncStorageRepository.uploadFileAsync("throughput-async-%d".formatted(idx), objectDescription()));
+        }
+        assertDoesNotThrow(() -> CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join());
+        long asyncElapsed = System.nanoTime() - asyncStart;
+
+        log.info(
+                "Uploaded {} objects of {} bytes: sync {} MB/s, async {} MB/s (max in flight {})",
+                OBJECT_NUMBER,
+                OBJECT_SIZE,
+                throughputMBs(syncElapsed),
+                throughputMBs(asyncElapsed),
+                storageProperties.getMaxInFlightRequests()
+        );
+
+        // all the content need to be downloaded intact
+        List<CompletableFuture<FileObjectDescription>> downloads = new ArrayList<>();
+        for (int idx = 0; idx < OBJECT_NUMBER; idx++) {
+            downloads.add(
+                    asyncStorageRepository.getFileAsync(
+                            "throughput-async-%d".formatted(idx),
+                            FileObjectDescription.builder().build()
+                    )
+            );
+        }
+        for (CompletableFuture<FileObjectDescription> download : downloads) {
+            var objectDescription = assertDoesNotThrow(() -> download.join());
+            assertThat(objectDescription.getContentType()).isEqualTo(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            try (InputStream is = objectDescription.getIs()) {
+                assertThat(assertDoesNotThrow(() -> is.readAllBytes())).isEqualTo(content);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test
+    public void downloadKeepTheSlotUntilTheStreamIsClosed() throws Exception {
+        StorageProperties singleSlotProperties = new StorageProperties();
+        singleSlotProperties.setBucket(storageProperties.getBucket());
+        singleSlotProperties.setMaxInFlightRequests(1);
+        singleSlotProperties.setRequestSlotTimeoutMs(200L);
+        S3AsyncStorageRepository singleSlotRepository = new S3AsyncStorageRepository(s3AsyncClient, singleSlotProperties);
+        try {
+            assertDoesNotThrow(() -> singleSlotRepository.uploadFileAsync("throughput-async-0", objectDescription()).join());
+            FileObjectDescription first = assertDoesNotThrow(
+                    () -> singleSlotRepository.getFileAsync("throughput-async-0", FileObjectDescription.builder().build()).join()
+            );
+            // the body of the first download is not consumed so there is no free slot
+            CompletableFuture<FileObjectDescription> second = singleSlotRepository.getFileAsync(
+                    "throughput-async-0",
+                    FileObjectDescription.builder().build()
+            );
+            assertThrows(CompletionException.class, second::join);
+
+            first.getIs().close();
+            FileObjectDescription third = assertDoesNotThrow(
+                    () -> singleSlotRepository.getFileAsync("throughput-async-0", FileObjectDescription.builder().build()).join()
+            );
+            try (InputStream is = third.getIs()) {
+                assertThat(is.readAllBytes()).isEqualTo(content);
+            }
+        } finally {
+            singleSlotRepository.destroy();
+        }
+    }
+
+    private FileObjectDescription objectDescription() {
+        return FileObjectDescription
+                .builder()
+                .fileName("throughput.bin")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .is(new ByteArrayInputStream(content))
+                .build();
+    }
+
+    private double throughputMBs(long elapsedNanos) {
+        return ((double) OBJECT_NUMBER * OBJECT_SIZE / (1024 * 1024)) / (elapsedNanos / 1_000_000_000.0);
+    }
+}
@@ -4,7 +4,9 @@ import edu.stanford.slac.elog_plus.api.v1.dto.AttachmentDTO;
 import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.PreviewLane;
 import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -24,10 +26,16 @@ import org.springframework.test.context.ActiveProfiles;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
+import javax.imageio.ImageIO;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -55,6 +63,8 @@ public class AttachmentServiceTest {
     private MongoTemplate mongoTemplate;
     @Autowired
     private ELOGAppProperties appProperties;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @BeforeEach
     public void preTest() {
@@ -266,6 +276,102 @@ public class AttachmentServiceTest {
             assertThat(attachment.previewState()).isEqualTo(Attachment.PreviewProcessingState.Completed.name());
         }
     }
+    @Test
+    public void testPreviewVariants() throws IOException {
+        String attachmentID = assertDoesNotThrow(
+                () -> attachmentService.createAttachment(
+                        FileObjectDescription
+                                .builder()
+                                .fileName("jpegFileName")
+                                .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                .is(documentGenerationService.getTestJpeg())
+                                .build(),
+                        true
+                )
+        );
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(1, SECONDS)
+                .until(
+                        () -> attachmentService.getPreviewProcessingState(attachmentID).compareTo(Attachment.PreviewProcessingState.Completed.name()) == 0
+                );
+
+        var attachment = attachmentRepository.findById(attachmentID).orElseThrow();
+        assertThat(attachment.getPreviewVariants()).containsOnlyKeys("256", "1024");
+        assertThat(attachment.getPreviewVariants().get("1024")).isEqualTo(attachment.getPreviewID());
+        assertThat(attachment.getMiniPreview()).isNotEmpty();
+
+        // the nearest larger variant is returned
+        assertThat(previewWidth(attachmentID, 100)).isEqualTo(256);
+        assertThat(previewWidth(attachmentID, 256)).isEqualTo(256);
+        assertThat(previewWidth(attachmentID, 257)).isEqualTo(1024);
+        // the default preview is the largest one
+        assertThat(previewWidth(attachmentID, null)).isEqualTo(1024);
+        assertThat(previewWidth(attachmentID, 4096)).isEqualTo(1024);
+    }
+
+    private int previewWidth(String attachmentID, Integer size) throws IOException {
+        var preview = assertDoesNotThrow(() -> attachmentService.getPreviewContent(attachmentID, size));
+        try (InputStream is = preview.getIs()) {
+            return ImageIO.read(is).getWidth();
+        }
+    }
+
+    @Test
+    public void testSameContentIsStoredOnce() throws IOException {
+        byte[] content = assertDoesNotThrow(() -> documentGenerationService.getTestJpeg().readAllBytes());
+        String firstAttachmentID = assertDoesNotThrow(
+                () -> attachmentService.createAttachment(
+                        FileObjectDescription
+                                .builder()
+                                .fileName("jpegFileName")
+                                .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                .is(new ByteArrayInputStream(content))
+                                .build(),
+                        true
+                )
+        );
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(1, SECONDS)
+                .until(
+                        () -> attachmentService.getPreviewProcessingState(firstAttachmentID).compareTo(Attachment.PreviewProcessingState.Completed.name()) == 0
+                );
+
+        String secondAttachmentID = assertDoesNotThrow(
+                () -> attachmentService.createAttachment(
+                        FileObjectDescription
+                                .builder()
+                                .fileName("jpegFileNameCopy")
+                                .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                .is(new ByteArrayInputStream(content))
+                                .build(),
+                        true
+                )
+        );
+        assertThat(secondAttachmentID).isNotEqualTo(firstAttachmentID);
+
+        var firstAttachment = attachmentRepository.findById(firstAttachmentID).orElseThrow();
+        var secondAttachment = attachmentRepository.findById(secondAttachmentID).orElseThrow();
+        assertThat(firstAttachment.getContentHash()).isNotNull();
+        assertThat(secondAttachment.getContentHash()).isEqualTo(firstAttachment.getContentHash());
+        assertThat(secondAttachment.getContentLength()).isEqualTo((long) content.length);
+        assertThat(secondAttachment.getStorageId()).isEqualTo(firstAttachmentID);
+        // the preview is reused without processing it again
+        assertThat(secondAttachment.getPreviewState()).isEqualTo(Attachment.PreviewProcessingState.Completed);
+        assertThat(secondAttachment.getPreviewID()).isEqualTo(firstAttachment.getPreviewID());
+
+        // the content is read from the shared object
+        var secondContent = assertDoesNotThrow(() -> attachmentService.getAttachmentContent(secondAttachmentID));
+        try (InputStream is = secondContent.getIs()) {
+            assertThat(is.readAllBytes()).isEqualTo(content);
+        }
+
+        // only the first object and its preview are in the storage
+        var foundList = attachmentService.listFromStorage(10, null);
+        assertThat(foundList.keyFounds()).hasSize(2);
+    }
+
     @Test
     public void testListObject() throws IOException {
         for (
@@ -273,11 +379,14 @@ public class AttachmentServiceTest {
                 idx < 10;
                 idx++
         ) {
+            int finalIdx = idx;
             try (InputStream is = assertDoesNotThrow(
-                    () -> documentGenerationService.getTestJpeg()
+                    // every file need a different content to not be deduplicated
+                    () -> new ByteArrayInputStream(
+                            concat(documentGenerationService.getTestJpeg().readAllBytes(), new byte[]{(byte) finalIdx})
+                    )
             )) {
                 // save the
-                int finalIdx = idx;
                 String attachmentID = assertDoesNotThrow(
                         () -> attachmentService.createAttachment(
                                 FileObjectDescription
@@ -322,4 +431,130 @@ public class AttachmentServiceTest {
         assertThat(foundList3.continuationToken()).isNull();
         assertThat(foundList3.keyFounds()).hasSize(20);
     }
+
+    @Test
+    public void testBulkLanePreview() throws IOException {
+        try (InputStream is = assertDoesNotThrow(
+                () -> documentGenerationService.getTestPng()
+        )) {
+            String attachmentID = assertDoesNotThrow(
+                    () -> attachmentService.createAttachment(
+                            FileObjectDescription
+                                    .builder()
+                                    .fileName("pngFileName")
+                                    .contentType(MediaType.IMAGE_PNG_VALUE)
+                                    .is(is)
+                                    .build(),
+                            true,
+                            Optional.empty(),
+                            PreviewLane.Bulk
+                    )
+            );
+
+            await()
+                    .atMost(30, SECONDS)
+                    .pollInterval(1, SECONDS)
+                    .until(
+                            () -> {
+                                String state = attachmentService.getPreviewProcessingState(attachmentID);
+                                log.info("state {} for attachment id {}", state, attachmentID);
+                                return state.compareTo(Attachment.PreviewProcessingState.Completed.name()) == 0;
+                            }
+                    );
+            assertThat(
+                    meterRegistry.get("elog_plus_preview_end_to_end_latency").tag("lane", PreviewLane.Bulk.name()).timer().count()
+            ).isGreaterThan(0);
+            assertThat(
+                    meterRegistry.get("elog_plus_preview_lane_lag").tag("lane", PreviewLane.Bulk.name()).gauge()
+            ).isNotNull();
+        }
+    }
+
+    @Test
+    public void testPreviewGeneratedOnDemand() throws IOException {
+        try (InputStream is = assertDoesNotThrow(
+                () -> documentGenerationService.getTestJpeg()
+        )) {
+            // the preview is not requested to the pipeline
+            String attachmentID = assertDoesNotThrow(
+                    () -> attachmentService.createAttachment(
+                            FileObjectDescription
+                                    .builder()
+                                    .fileName("jpegFileName")
+                                    .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                    .is(is)
+                                    .build(),
+                            false
+                    )
+            );
+            double processedBefore = meterRegistry.get("elog_plus_preview_processing_event").tag("operation", "processing").tag("state", "success").counter().count();
+
+            // concurrent requests wait the same render
+            List<CompletableFuture<FileObjectDescription>> requests = new ArrayList<>();
+            for (int idx = 0; idx < 4; idx++) {
+                requests.add(CompletableFuture.supplyAsync(() -> assertDoesNotThrow(() -> attachmentService.getPreviewContent(attachmentID))));
+            }
+            for (CompletableFuture<FileObjectDescription> request : requests) {
+                FileObjectDescription preview = request.join();
+                assertThat(preview.getContentType()).isEqualTo(MediaType.IMAGE_JPEG_VALUE);
+                try (InputStream previewStream = preview.getIs()) {
+                    assertThat(ImageIO.read(previewStream)).isNotNull();
+                }
+            }
+            assertThat(
+                    meterRegistry.get("elog_plus_preview_processing_event").tag("operation", "processing").tag("state", "success").counter().count() - processedBefore
+            ).isEqualTo(1.0);
+            assertThat(attachmentService.getPreviewProcessingState(attachmentID)).isEqualTo(Attachment.PreviewProcessingState.Completed.name());
+        }
+    }
+
+    @Test
+    public void testPreviewTransitionsAreGuardedByRevision() throws IOException {
+        try (InputStream is = assertDoesNotThrow(
+                () -> documentGenerationService.getTestJpeg()
+        )) {
+            String attachmentID = assertDoesNotThrow(
+                    () -> attachmentService.createAttachment(
+                            FileObjectDescription
+                                    .builder()
+                                    .fileName("jpegFileName")
+                                    .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                    .is(is)
+                                    .build(),
+                            false
+                    )
+            );
+
+            // two processing of the same attachment, the second one supersede the first
+            Optional<Long> firstRevision = assertDoesNotThrow(() -> attachmentService.startPreviewProcessing(attachmentID));
+            Optional<Long> secondRevision = assertDoesNotThrow(() -> attachmentService.startPreviewProcessing(attachmentID));
+            assertThat(firstRevision).isPresent();
+            assertThat(secondRevision).isPresent();
+            assertThat(secondRevision.get()).isGreaterThan(firstRevision.get());
+
+            // the first processing cannot update the attachment anymore
+            assertThat(
+                    attachmentService.setPreviewProcessingState(attachmentID, firstRevision.get(), Attachment.PreviewProcessingState.Error)
+            ).isFalse();
+            assertThat(
+                    attachmentService.completePreviewProcessing(attachmentID, secondRevision.get(), "preview-id", Map.of("1024", "preview-id"), new byte[]{1, 2, 3})
+            ).isTrue();
+
+            var attachmentModel = attachmentRepository.findById(attachmentID).orElseThrow();
+            assertThat(attachmentModel.getPreviewState()).isEqualTo(Attachment.PreviewProcessingState.Completed);
+            assertThat(attachmentModel.getPreviewID()).isEqualTo("preview-id");
+            assertThat(attachmentModel.getPreviewVariants()).containsEntry("1024", "preview-id");
+            assertThat(attachmentModel.getMiniPreview()).containsExactly(1, 2, 3);
+
+            // a completed preview is not processed again
+            assertThat(attachmentService.startPreviewProcessing(attachmentID)).isEmpty();
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
 }
@@ -0,0 +1,108 @@
+package edu.stanford.slac.elog_plus.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+/**
+ * Detect the content type of the printed documents and compare the cost of the shared detector
+ * with the detector loaded for every job
+ */
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class ContentDetectionServiceTest {
+    private static final Logger log = LoggerFactory.getLogger(ContentDetectionServiceTest.class);
+    private static final int ITERATIONS = 20;
+    @Autowired
+    private ContentDetectionService contentDetectionService;
+    @Autowired
+    private DocumentGenerationService documentGenerationService;
+
+    @Test
+    public void detectOnNotMarkableStreamKeepTheWholeDocument() throws Exception {
+        byte[] png;
+        try (InputStream is = documentGenerationService.getTestPng()) {
+            png = is.readAllBytes();
+        }
+        byte[] pdf;
+        try (PDDocument pdfDocument = documentGenerationService.generatePdf()) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            pdfDocument.save(outputStream);
+            pdf = outputStream.toByteArray();
+        }
+        byte[] text = "hello world".getBytes(StandardCharsets.UTF_8);
+
+        assertDetected(png, "image/png");
+        assertDetected(pdf, "application/pdf");
+        assertDetected(text, "text/plain");
+    }
+
+    @Test
+    public void sharedDetectorIsCheaperThanLoadingTheConfiguration() throws Exception {
+        byte[] png;
+        try (InputStream is = documentGenerationService.getTestPng()) {
+            png = is.readAllBytes();
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int idx = 0; idx < ITERATIONS; idx++) {
+            TikaConfig.getDefaultConfig().getDetector().detect(new ByteArrayInputStream(png), new Metadata());
+        }
+        long perJobConfigNanos = (System.nanoTime() - start) / ITERATIONS;
+        long perJobConfigAllocated = (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore) / ITERATIONS;
+
+        allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (int idx = 0; idx < ITERATIONS; idx++) {
+            contentDetectionService.detect(new ByteArrayInputStream(png));
+        }
+        long sharedNanos = (System.nanoTime() - start) / ITERATIONS;
+        long sharedAllocated = (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore) / ITERATIONS;
+
+        log.info("Detection per job: loading the configuration {}us {}KB, shared detector {}us {}KB",
+                perJobConfigNanos / 1000, perJobConfigAllocated / 1024, sharedNanos / 1000, sharedAllocated / 1024);
+        assertThat(sharedNanos).isLessThan(perJobConfigNanos);
+        assertThat(sharedAllocated).isLessThan(perJobConfigAllocated);
+    }
+
+    private void assertDetected(byte[] document, String expectedType) throws IOException {
+        ContentDetectionService.DetectedContent detectedContent = assertDoesNotThrow(
+                () -> contentDetectionService.detect(new NotMarkableInputStream(new ByteArrayInputStream(document)))
+        );
+        assertThat(detectedContent.mediaType().getBaseType().toString()).isEqualTo(expectedType);
+        // the available bytes are used as content length by the storage
+        assertThat(detectedContent.stream().available()).isEqualTo(document.length);
+        assertThat(detectedContent.stream().readAllBytes()).isEqualTo(document);
+    }
+
+    private static class NotMarkableInputStream extends FilterInputStream {
+        NotMarkableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -3,7 +3,10 @@ package edu.stanford.slac.elog_plus.service;
 import edu.stanford.slac.elog_plus.api.v1.dto.*;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.Logbook;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import edu.stanford.slac.elog_plus.model.ShiftLookupTable;
 import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import edu.stanford.slac.elog_plus.task.DispatchOutboxEvents;
 import edu.stanford.slac.elog_plus.utility.DateUtilities;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -16,17 +19,25 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
 import java.util.*;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForClassTypes.not;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.awaitility.Awaitility.await;
 
 @AutoConfigureMockMvc
 @SpringBootTest()
@@ -46,6 +57,10 @@ public class EntryServiceShiftTest {
     @Autowired
     private SharedUtilityService sharedUtilityService;
     @Autowired
+    private EntryShiftKeysService entryShiftKeysService;
+    @Autowired
+    private DispatchOutboxEvents dispatchOutboxEvents;
+    @Autowired
     MongoTemplate mongoTemplate;
 
     @BeforeEach
@@ -133,4 +148,196 @@ public class EntryServiceShiftTest {
         assertThat(entryDTO.shifts().getFirst().name()).isEqualTo("Swing Shift");
     }
 
+    @Test
+    public void entriesAreFoundByTheirShiftKeys() {
+        var testLogbook = getTestLogbook();
+        assertDoesNotThrow(
+                () -> logbookService.replaceShift(
+                        testLogbook.id(),
+                        List.of(
+                                ShiftDTO
+                                        .builder()
+                                        .name("Owl Shift")
+                                        .from(DateUtilities.toUTCString(LocalTime.of(22, 0)))
+                                        .to(DateUtilities.toUTCString(LocalTime.of(5, 59)))
+                                        .build(),
+                                ShiftDTO
+                                        .builder()
+                                        .name("Day Shift")
+                                        .from(DateUtilities.toUTCString(LocalTime.of(6, 0)))
+                                        .to(DateUtilities.toUTCString(LocalTime.of(21, 59)))
+                                        .build()
+                        )
+                )
+        );
+        LogbookDTO logbookDTO = assertDoesNotThrow(() -> logbookService.getLogbook(testLogbook.id()));
+        String owlShiftId = logbookDTO.shifts().stream().filter(s -> s.name().equals("Owl Shift")).findFirst().orElseThrow().id();
+        String dayShiftId = logbookDTO.shifts().stream().filter(s -> s.name().equals("Day Shift")).findFirst().orElseThrow().id();
+
+        // the owl shift started on the 15th contains the entries of both days
+        String beforeMidnight = createEntryAt(testLogbook.id(), LocalDateTime.of(2024, 8, 15, 23, 30));
+        String afterMidnight = createEntryAt(testLogbook.id(), LocalDateTime.of(2024, 8, 16, 3, 0));
+        String dayTime = createEntryAt(testLogbook.id(), LocalDateTime.of(2024, 8, 16, 10, 0));
+        String owlShiftKey = ShiftLookupTable.shiftKey(testLogbook.id(), owlShiftId, LocalDate.of(2024, 8, 15));
+        assertThat(mongoTemplate.findById(beforeMidnight, Entry.class).getShiftKeys()).containsExactly(owlShiftKey);
+        assertThat(mongoTemplate.findById(afterMidnight, Entry.class).getShiftKeys()).containsExactly(owlShiftKey);
+        assertThat(mongoTemplate.findById(dayTime, Entry.class).getShiftKeys())
+                .containsExactly(ShiftLookupTable.shiftKey(testLogbook.id(), dayShiftId, LocalDate.of(2024, 8, 16)));
+
+        List<EntrySummaryDTO> found = assertDoesNotThrow(
+                () -> entryService.findAll(
+                        QueryWithAnchorDTO
+                                .builder()
+                                .logbooks(List.of(testLogbook.id()))
+                                .shiftKeys(List.of(owlShiftKey))
+                                .limit(10)
+                                .build()
+                )
+        );
+        assertThat(found).extracting(EntrySummaryDTO::id).containsExactlyInAnyOrder(beforeMidnight, afterMidnight);
+
+        // the keys are recomputed when the shifts are replaced
+        assertDoesNotThrow(
+                () -> logbookService.replaceShift(
+                        testLogbook.id(),
+                        List.of(
+                                ShiftDTO
+                                        .builder()
+                                        .name("Morning Shift")
+                                        .from(DateUtilities.toUTCString(LocalTime.of(0, 0)))
+                                        .to(DateUtilities.toUTCString(LocalTime.of(11, 59)))
+                                        .build()
+                        )
+                )
+        );
+        String morningShiftId = assertDoesNotThrow(() -> logbookService.getLogbook(testLogbook.id())).shifts().getFirst().id();
+        await().atMost(10, SECONDS).untilAsserted(
+                () -> {
+                    assertThat(mongoTemplate.findById(beforeMidnight, Entry.class).getShiftKeys()).isEmpty();
+                    assertThat(mongoTemplate.findById(afterMidnight, Entry.class).getShiftKeys())
+                            .containsExactly(ShiftLookupTable.shiftKey(testLogbook.id(), morningShiftId, LocalDate.of(2024, 8, 16)));
+                    assertThat(mongoTemplate.findById(dayTime, Entry.class).getShiftKeys())
+                            .containsExactly(ShiftLookupTable.shiftKey(testLogbook.id(), morningShiftId, LocalDate.of(2024, 8, 16)));
+                }
+        );
+    }
+
+    @Test
+    public void shiftKeyUsesTheOffsetOfTheEventTime() {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        ZoneId losAngeles = ZoneId.of("America/Los_Angeles");
+        TimeZone.setDefault(TimeZone.getTimeZone(losAngeles));
+        try {
+            var testLogbook = getTestLogbook();
+            // the shifts are given in UTC, the day shift starts at midnight or at one in the morning in Los Angeles
+            assertDoesNotThrow(
+                    () -> logbookService.replaceShift(
+                            testLogbook.id(),
+                            List.of(
+                                    ShiftDTO
+                                            .builder()
+                                            .name("Day Shift")
+                                            .from("08:00")
+                                            .to("08:59")
+                                            .build(),
+                                    ShiftDTO
+                                            .builder()
+                                            .name("Night Shift")
+                                            .from("09:00")
+                                            .to("07:59")
+                                            .build()
+                            )
+                    )
+            );
+            String dayShiftId = assertDoesNotThrow(() -> logbookService.getLogbook(testLogbook.id()))
+                    .shifts()
+                    .stream()
+                    .filter(s -> s.name().equals("Day Shift"))
+                    .findFirst()
+                    .orElseThrow()
+                    .id();
+
+            // an event in the opposite daylight saving season of now
+            ZoneRules rules = losAngeles.getRules();
+            LocalDate eventDate = rules.isDaylightSavings(Instant.now())
+                    ? LocalDate.of(LocalDate.now().getYear() + 1, 1, 15)
+                    : LocalDate.of(LocalDate.now().getYear(), 7, 15);
+            LocalDateTime eventAt = eventDate
+                    .atTime(8, 30)
+                    .atZone(ZoneOffset.UTC)
+                    .withZoneSameInstant(losAngeles)
+                    .toLocalDateTime();
+            String entryId = createEntryAt(testLogbook.id(), eventAt);
+            String dayShiftKey = ShiftLookupTable.shiftKey(testLogbook.id(), dayShiftId, eventDate);
+            assertThat(mongoTemplate.findById(entryId, Entry.class).getShiftKeys()).containsExactly(dayShiftKey);
+            // the shift shown with the entry is the one of its key
+            EntryDTO entryDTO = assertDoesNotThrow(() -> entryService.getFullEntry(entryId));
+            assertThat(entryDTO.shifts()).extracting(LogbookShiftDTO::id).containsExactly(dayShiftId);
+
+            // a recompute finds the same key
+            await().atMost(10, SECONDS).untilAsserted(
+                    () -> assertThat(entryShiftKeysService.recomputeLogbook(testLogbook.id())).isEqualTo(0)
+            );
+            assertThat(mongoTemplate.findById(entryId, Entry.class).getShiftKeys()).containsExactly(dayShiftKey);
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    @Test
+    public void interruptedRecomputeIsResumedAfterTheLastProcessedEntry() {
+        var testLogbook = getTestLogbook();
+        assertDoesNotThrow(
+                () -> logbookService.replaceShift(
+                        testLogbook.id(),
+                        List.of(
+                                ShiftDTO
+                                        .builder()
+                                        .name("All Day Shift")
+                                        .from("00:00")
+                                        .to("23:59")
+                                        .build()
+                        )
+                )
+        );
+        await().atMost(10, SECONDS).until(() -> mongoTemplate.count(new Query(), OutboxEvent.class) == 0);
+        List<String> entryIds = List.of(
+                createEntryAt(testLogbook.id(), LocalDateTime.of(2024, 8, 15, 10, 0)),
+                createEntryAt(testLogbook.id(), LocalDateTime.of(2024, 8, 15, 11, 0)),
+                createEntryAt(testLogbook.id(), LocalDateTime.of(2024, 8, 15, 12, 0))
+        );
+        mongoTemplate.updateMulti(new Query(), new Update().set("shiftKeys", List.of()), Entry.class);
+
+        // the first entry has been recomputed by a previous attempt
+        OutboxEvent event = mongoTemplate.insert(
+                OutboxEvent
+                        .builder()
+                        .type(OutboxEvent.Type.EntryShiftKeysRecompute)
+                        .referenceId(testLogbook.id())
+                        .lastProcessedId(entryIds.getFirst())
+                        .build()
+        );
+        dispatchOutboxEvents.dispatchEntryShiftKeysRecompute();
+
+        assertThat(mongoTemplate.findById(entryIds.getFirst(), Entry.class).getShiftKeys()).isEmpty();
+        entryIds.subList(1, entryIds.size()).forEach(
+                entryId -> assertThat(mongoTemplate.findById(entryId, Entry.class).getShiftKeys()).hasSize(1)
+        );
+        assertThat(mongoTemplate.findById(event.getId(), OutboxEvent.class)).isNull();
+    }
+
+    private String createEntryAt(String logbookId, LocalDateTime eventAt) {
+        return assertDoesNotThrow(
+                () -> entryService.createNew(
+                        EntryNewDTO
+                                .builder()
+                                .logbooks(Set.of(logbookId))
+                                .text("This is a log for test")
+                                .title("A very wonderful log")
+                                .eventAt(eventAt)
+                                .build(),
+                        sharedUtilityService.getPersonForEmail("user1@slac.stanford.edu")
+                )
+        );
+    }
 }
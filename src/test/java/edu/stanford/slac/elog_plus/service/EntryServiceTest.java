@@ -17,6 +17,7 @@ import edu.stanford.slac.elog_plus.model.FileObjectDescription;
 import edu.stanford.slac.elog_plus.model.Logbook;
 import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
 import edu.stanford.slac.elog_plus.task.CleanUnusedAttachment;
+import edu.stanford.slac.elog_plus.task.DispatchOutboxEvents;
 import edu.stanford.slac.elog_plus.utility.DateUtilities;
 import jakarta.mail.Message;
 import org.apache.kafka.clients.admin.AdminClient;
@@ -48,6 +49,7 @@ import java.util.*;
 import static edu.stanford.slac.elog_plus.api.v1.mapper.EntryMapper.ELOG_ENTRY_REF;
 import static edu.stanford.slac.elog_plus.api.v1.mapper.EntryMapper.ELOG_ENTRY_REF_ID;
 import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.AssertionsForClassTypes.not;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -88,6 +90,8 @@ public class EntryServiceTest {
     private Clock clock; // Mock the Clock bean
     @Autowired
     private JavaMailSender mailSender;
+    @Autowired
+    private DispatchOutboxEvents dispatchOutboxEvents;
     private GreenMail greenMail;
 
     @BeforeAll
@@ -185,6 +189,8 @@ public class EntryServiceTest {
         );
 
         assertThat(newLogID).isNotNull();
+        // the notification is sent by the outbox dispatcher
+        dispatchOutboxEvents.dispatchOutboxEvents();
         // check that email has been sent
         assertThat(greenMail.waitForIncomingEmail(5000, 2)).isTrue();
         Message[] messages = greenMail.getReceivedMessages();
@@ -2106,20 +2112,23 @@ public class EntryServiceTest {
         );
         assertThat(referencerEntry.references()).hasSize(1).extracting("id").contains(referencedEntryId);
         assertThat(sharedUtilityService.htmlContainsReferenceWithId(referencerEntry.text(), referencedEntryId)).isTrue();
-        //fetch referenced
-        EntryDTO referencedEntry2 = assertDoesNotThrow(
-                () -> entryService.getFullEntry(
-                        referencedEntryId,
-                        Optional.of(false),
-                        Optional.of(false),
-                        Optional.of(false),
-                        Optional.of(false),
-                        Optional.of(true),
-                        Optional.of(true)
-                )
+        //fetch referenced, the cached references are evicted asynchronously after the commit
+        await().atMost(10, SECONDS).untilAsserted(
+                () -> {
+                    EntryDTO referencedEntry2 = assertDoesNotThrow(
+                            () -> entryService.getFullEntry(
+                                    referencedEntryId,
+                                    Optional.of(false),
+                                    Optional.of(false),
+                                    Optional.of(false),
+                                    Optional.of(false),
+                                    Optional.of(true),
+                                    Optional.of(true)
+                            )
+                    );
+                    assertThat(referencedEntry2.referencedBy()).hasSize(1).extracting("id").contains(referencerEntryId);
+                }
         );
-
-        assertThat(referencedEntry2.referencedBy()).hasSize(1).extracting("id").contains(referencerEntryId);
     }
 
     @Test
@@ -1589,6 +1589,79 @@ public class LogbookServiceTest {
         assertThat(foundShift.isPresent()).isFalse();
     }
 
+    @Test
+    public void findShiftByLocalTimeMatchesTheShiftRangesOnEveryMinute() {
+        String newLogbookID = sharedUtilityService.getTestLogbook();
+        List<ShiftDTO> replaceShifts = List.of(
+                ShiftDTO
+                        .builder()
+                        .name("Night")
+                        .from(DateUtilities.toUTCString(LocalTime.of(22, 0)))
+                        .to(DateUtilities.toUTCString(LocalTime.of(5, 59)))
+                        .build(),
+                ShiftDTO
+                        .builder()
+                        .name("Morning")
+                        .from(DateUtilities.toUTCString(LocalTime.of(6, 0)))
+                        .to(DateUtilities.toUTCString(LocalTime.of(11, 59)))
+                        .build()
+        );
+        assertDoesNotThrow(
+                () -> {
+                    logbookService.replaceShift(
+                            newLogbookID,
+                            replaceShifts
+                    );
+                    return null;
+                }
+        );
+
+        // every minute of the day is checked against the shift ranges
+        for (int minute = 0; minute < 24 * 60; minute++) {
+            LocalTime localTime = LocalTime.of(minute / 60, minute % 60, 30);
+            String expectedShiftName = replaceShifts.stream()
+                    .filter(
+                            s -> DateUtilities.isBetween(
+                                    DateUtilities.fromUTCString(s.from()),
+                                    DateUtilities.fromUTCString(s.to()),
+                                    localTime.withSecond(0)
+                            )
+                    )
+                    .map(ShiftDTO::name)
+                    .findFirst()
+                    .orElse(null);
+            Optional<LogbookShiftDTO> foundShift = assertDoesNotThrow(
+                    () -> logbookService.findShiftByLocalTime(
+                            newLogbookID,
+                            localTime
+                    )
+            );
+            assertThat(foundShift.map(LogbookShiftDTO::name).orElse(null)).isEqualTo(expectedShiftName);
+            foundShift.ifPresent(shift -> assertThat(shift.logbook().id()).isEqualTo(newLogbookID));
+        }
+
+        // the lookup is compiled again when the shifts change
+        assertDoesNotThrow(
+                () -> logbookService.addShift(
+                        newLogbookID,
+                        NewShiftDTO
+                                .builder()
+                                .name("Afternoon")
+                                .from(DateUtilities.toUTCString(LocalTime.of(12, 0)))
+                                .to(DateUtilities.toUTCString(LocalTime.of(17, 59)))
+                                .build()
+                )
+        );
+        Optional<LogbookShiftDTO> foundShift = assertDoesNotThrow(
+                () -> logbookService.findShiftByLocalTime(
+                        newLogbookID,
+                        LocalTime.of(15, 0)
+                )
+        );
+        assertThat(foundShift.isPresent()).isTrue();
+        assertThat(foundShift.get().name()).isEqualTo("Afternoon");
+    }
+
 
     @Test
     public void updateLogbookTagOK() {
@@ -2025,4 +2098,76 @@ public class LogbookServiceTest {
         var earliestDate00DayMinus3 = logbookService.findEarliestNShiftForLogbooks(4, List.of(newLogbookAID, newLogbookBID), LocalDateTime.of(LocalDate.now(), LocalTime.of(13, 30)));
         assertThat(earliestDate00DayMinus3).isNotNull().isEqualTo(LocalDateTime.of(LocalDate.now().minusDays(3), shiftRanges[0][0]));
     }
+
+    @Test
+    public void testFindEarliestNShiftDateMatchesTheShiftByShiftWalk() {
+        // seeded so a failure can be reproduced
+        Random random = new Random(20240417L);
+        String newLogbookID = sharedUtilityService.getTestLogbook();
+        for (int run = 0; run < 20; run++) {
+            // random shifts that cover the whole day, the last one can span midnight
+            int shiftsPerDay = 1 + random.nextInt(6);
+            TreeSet<Integer> startMinutes = new TreeSet<>();
+            while (startMinutes.size() < shiftsPerDay) startMinutes.add(random.nextInt(24 * 60));
+            List<Integer> starts = new ArrayList<>(startMinutes);
+            List<ShiftDTO> shifts = new ArrayList<>();
+            for (int idx = 0; idx < shiftsPerDay; idx++) {
+                int from = starts.get(idx);
+                int to = Math.floorMod(starts.get((idx + 1) % shiftsPerDay) - 1, 24 * 60);
+                shifts.add(
+                        ShiftDTO.builder()
+                                .name("Shift%d".formatted(idx))
+                                .from(DateUtilities.toUTCString(LocalTime.of(from / 60, from % 60)))
+                                .to(DateUtilities.toUTCString(LocalTime.of(to / 60, to % 60)))
+                                .build()
+                );
+            }
+            assertDoesNotThrow(() -> logbookService.replaceShift(newLogbookID, shifts));
+            List<LocalTime> shiftStarts = shifts.stream().map(s -> DateUtilities.fromUTCString(s.from())).toList();
+
+            for (int query = 0; query < 25; query++) {
+                LocalDateTime fromDate = LocalDateTime.of(LocalDate.now(), LocalTime.ofSecondOfDay(random.nextInt(24 * 60 * 60)));
+                // also the dates that are exactly at the start of a shift, except with one shift where the walk never ends
+                if (shiftsPerDay > 1 && random.nextBoolean()) {
+                    fromDate = LocalDateTime.of(LocalDate.now(), shiftStarts.get(random.nextInt(shiftsPerDay)));
+                }
+                int n = random.nextBoolean() ? 1 + random.nextInt(3 * shiftsPerDay) : 1 + random.nextInt(2000);
+                LocalDateTime finalFromDate = fromDate;
+                var earliestDate = assertDoesNotThrow(
+                        () -> logbookService.findEarliestNShiftForLogbooks(n, List.of(newLogbookID), finalFromDate)
+                );
+                assertThat(earliestDate)
+                        .as("shifts %s, n %d from %s", shifts, n, fromDate)
+                        .isEqualTo(walkBackNShifts(shiftStarts, n, fromDate));
+            }
+        }
+    }
+
+    /**
+     * Find the start of the nth shift before the date walking back one shift at a time
+     */
+    private static LocalDateTime walkBackNShifts(List<LocalTime> shiftStarts, int n, LocalDateTime fromDate) {
+        List<LocalDateTime> shiftStartDateTimes = new ArrayList<>();
+        LocalDateTime currentDateTime = fromDate;
+        while (shiftStartDateTimes.size() < n) {
+            List<LocalDateTime> tempShiftStartDateTimes = new ArrayList<>();
+            for (LocalTime shiftFromTime : shiftStarts) {
+                LocalDate shiftStartDate = !currentDateTime.toLocalTime().isBefore(shiftFromTime) ?
+                        currentDateTime.toLocalDate() :
+                        currentDateTime.toLocalDate().minusDays(1);
+                LocalDateTime shiftStartDateTime = LocalDateTime.of(shiftStartDate, shiftFromTime);
+                if (shiftStartDateTime.isBefore(currentDateTime)) {
+                    tempShiftStartDateTimes.add(shiftStartDateTime);
+                }
+            }
+            if (tempShiftStartDateTimes.isEmpty()) {
+                currentDateTime = currentDateTime.minusDays(1);
+                continue;
+            }
+            LocalDateTime latestShiftStartDateTime = Collections.max(tempShiftStartDateTimes);
+            shiftStartDateTimes.add(latestShiftStartDateTime);
+            currentDateTime = latestShiftStartDateTime.minusSeconds(1);
+        }
+        return Collections.min(shiftStartDateTimes);
+    }
 }
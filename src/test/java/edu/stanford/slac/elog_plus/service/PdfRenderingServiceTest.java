@@ -0,0 +1,140 @@
+package edu.stanford.slac.elog_plus.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+/**
+ * Render a fixed corpus of documents checking the size of the rendered page and the memory
+ * allocated by the rendering
+ */
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class PdfRenderingServiceTest {
+    private static final Logger log = LoggerFactory.getLogger(PdfRenderingServiceTest.class);
+    // rendering an A0 page at 300 DPI allocate more than 500MB only for the image raster
+    private static final long MAX_ALLOCATED_BYTES = 128L * 1024 * 1024;
+    @Autowired
+    private PdfRenderingService pdfRenderingService;
+
+    @Test
+    public void renderCorpusWithBoundedAllocation() throws IOException {
+        Map<String, byte[]> corpus = new LinkedHashMap<>();
+        corpus.put("letter-text", textDocument(PDRectangle.LETTER, 0));
+        corpus.put("a0-text", textDocument(PDRectangle.A0, 0));
+        corpus.put("a0-landscape-text", textDocument(PDRectangle.A0, 90));
+        corpus.put("a0-big-image", imageDocument(PDRectangle.A0, 3000));
+
+        // warm up the font and the renderer classes
+        assertDoesNotThrow(() -> pdfRenderingService.renderFirstPage(new ByteArrayInputStream(corpus.get("letter-text"))));
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (Map.Entry<String, byte[]> document : corpus.entrySet()) {
+            long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+            BufferedImage image = assertDoesNotThrow(
+                    () -> pdfRenderingService.renderFirstPage(new ByteArrayInputStream(document.getValue()))
+            );
+            long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            log.info("Rendered {} as {}x{} allocating {} bytes", document.getKey(), image.getWidth(), image.getHeight(), allocated);
+
+            // the page is rendered at the width of the largest preview
+            assertThat(image.getWidth()).isBetween(1020, 1028);
+            assertThat(image.getType()).isEqualTo(BufferedImage.TYPE_INT_RGB);
+            assertThat(allocated).isLessThan(MAX_ALLOCATED_BYTES);
+        }
+    }
+
+    @Test
+    public void emptyDocumentHasNoPreview() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            document.save(baos);
+        }
+        BufferedImage image = assertDoesNotThrow(
+                () -> pdfRenderingService.renderFirstPage(new ByteArrayInputStream(baos.toByteArray()))
+        );
+        assertThat(image).isNull();
+    }
+
+    @Test
+    public void dpiIsCalculatedOnPageWidth() {
+        assertThat(PdfRenderingService.previewDpi(new PDPage(PDRectangle.LETTER), 1224)).isEqualTo(144f);
+        // the resolution is never bigger than the old fixed one
+        assertThat(PdfRenderingService.previewDpi(new PDPage(new PDRectangle(36, 36)), 1024)).isEqualTo(PdfRenderingService.MAX_DPI);
+        PDPage rotated = new PDPage(new PDRectangle(612, 1224));
+        rotated.setRotation(90);
+        assertThat(PdfRenderingService.previewDpi(rotated, 1224)).isEqualTo(72f);
+    }
+
+    private static byte[] textDocument(PDRectangle size, int rotation) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage(size);
+            page.setRotation(rotation);
+            document.addPage(page);
+            try (PDPageContentStream contents = new PDPageContentStream(document, page)) {
+                contents.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 24);
+                for (int line = 0; line < 100; line++) {
+                    contents.beginText();
+                    contents.newLineAtOffset(50, size.getHeight() - 50 - line * 30);
+                    contents.showText("Line %d of the fixed preview corpus".formatted(line));
+                    contents.endText();
+                }
+            }
+            document.save(baos);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] imageDocument(PDRectangle size, int imageSize) throws IOException {
+        BufferedImage image = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(0);
+        for (int y = 0; y < imageSize; y += 10) {
+            for (int x = 0; x < imageSize; x += 10) {
+                int color = random.nextInt();
+                for (int dy = 0; dy < 10; dy++) {
+                    for (int dx = 0; dx < 10; dx++) {
+                        image.setRGB(x + dx, y + dy, color);
+                    }
+                }
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage(size);
+            document.addPage(page);
+            try (PDPageContentStream contents = new PDPageContentStream(document, page)) {
+                contents.drawImage(LosslessFactory.createFromImage(document, image), 0, 0, size.getWidth(), size.getHeight());
+            }
+            document.save(baos);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class PostScriptConversionServiceTest {
+    @Autowired
+    private PostScriptConversionService postScriptConversionService;
+    @Autowired
+    private DocumentGenerationService documentGenerationService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void renderFirstPageAtPreviewResolution() throws Exception {
+        try (InputStream is = documentGenerationService.getTestPS()) {
+            BufferedImage image = assertDoesNotThrow(() -> postScriptConversionService.renderFirstPage(is));
+            assertThat(image).isNotNull();
+            // rendered at the resolution of the largest preview and not at 300 DPI
+            assertThat(image.getWidth()).isLessThan(2550);
+            assertThat(image.getWidth()).isGreaterThan(0);
+        }
+        assertThat(meterRegistry.get("elog_plus_ps_conversion_duration").tag("result", "success").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.get("elog_plus_ps_conversion_queue_depth").gauge()).isNotNull();
+    }
+
+    @Test
+    public void concurrentConversionsAreQueued() {
+        List<CompletableFuture<BufferedImage>> conversions = new ArrayList<>();
+        for (int idx = 0; idx < 6; idx++) {
+            conversions.add(
+                    CompletableFuture.supplyAsync(
+                            () -> assertDoesNotThrow(
+                                    () -> {
+                                        try (InputStream is = documentGenerationService.getTestPS()) {
+                                            return postScriptConversionService.renderFirstPage(is);
+                                        }
+                                    }
+                            )
+                    )
+            );
+        }
+        conversions.forEach(conversion -> assertThat(conversion.join()).isNotNull());
+    }
+
+    @Test
+    public void invalidDocumentFails() {
+        assertThrows(
+                IOException.class,
+                () -> postScriptConversionService.renderFirstPage(new ByteArrayInputStream("%!PS\n this is not valid postscript".getBytes()))
+        );
+    }
+
+    @Test
+    public void hungConversionIsKilled() {
+        ELOGAppProperties appProperties = new ELOGAppProperties();
+        appProperties.setPsConversionPoolSize(1);
+        appProperties.setPsConversionQueueCapacity(1);
+        appProperties.setPsConversionTimeoutSeconds(2);
+        SimpleMeterRegistry simpleMeterRegistry = new SimpleMeterRegistry();
+        PostScriptConversionService service = new PostScriptConversionService(appProperties, simpleMeterRegistry);
+        try {
+            long start = System.nanoTime();
+            assertThrows(
+                    IOException.class,
+                    // a document that never terminate
+                    () -> service.renderFirstPage(new ByteArrayInputStream("%!PS\n{ } loop\n".getBytes()))
+            );
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(30);
+            assertThat(simpleMeterRegistry.get("elog_plus_ps_conversion_duration").tag("result", "timeout").timer().count()).isEqualTo(1);
+        } finally {
+            service.destroy();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.stanford.slac.elog_plus.service;
+
+import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.FileObjectDescription;
+import edu.stanford.slac.elog_plus.model.StorageReconciliationResult;
+import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import edu.stanford.slac.elog_plus.repository.StorageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class StorageInventoryServiceTest {
+    @Autowired
+    private StorageInventoryService storageInventoryService;
+    @Autowired
+    private StorageRepository storageRepository;
+    @Autowired
+    private AttachmentService attachmentService;
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void preTest() {
+        mongoTemplate.remove(new Query(), Attachment.class);
+        Set<String> keys = ConcurrentHashMap.newKeySet();
+        storageInventoryService.scanAllKeys(keys::add);
+        keys.forEach(key -> storageRepository.deleteFile(key.substring("attachment/".length())));
+    }
+
+    @Test
+    public void scanFindAllTheKeys() {
+        for (int idx = 0; idx < 50; idx++) {
+            upload("scan-%d".formatted(idx));
+        }
+        // also the ids that are not hex strings are found
+        upload("-scan");
+        upload("Zscan");
+
+        Set<String> keys = ConcurrentHashMap.newKeySet();
+        long scanned = storageInventoryService.scanAllKeys(keys::add);
+        assertThat(scanned).isEqualTo(52);
+        assertThat(keys).hasSize(52);
+        assertThat(keys).contains("attachment/scan-0", "attachment/scan-49", "attachment/-scan", "attachment/Zscan");
+    }
+
+    @Test
+    public void reconcileReportOrphansOnBothSides() {
+        String attachmentId = assertDoesNotThrow(
+                () -> attachmentService.createAttachment(
+                        FileObjectDescription
+                                .builder()
+                                .fileName("file.txt")
+                                .contentType(MediaType.TEXT_PLAIN_VALUE)
+                                .is(new ByteArrayInputStream("attachment content".getBytes()))
+                                .build(),
+                        false
+                )
+        );
+        // an object without attachment
+        upload("orphan-object");
+        // an attachment without object
+        Attachment attachmentWithoutContent = attachmentRepository.save(
+                Attachment
+                        .builder()
+                        .fileName("missing.txt")
+                        .contentType(MediaType.TEXT_PLAIN_VALUE)
+                        .storageId("missing-object")
+                        .build()
+        );
+        // the attachments need to be created before the start of the reconciliation
+        mongoTemplate.updateMulti(
+                new Query(),
+                Update.update("createdDate", LocalDateTime.now().minusMinutes(1)),
+                Attachment.class
+        );
+
+        StorageReconciliationResult result = assertDoesNotThrow(() -> storageInventoryService.reconcile());
+        assertThat(result.getScannedKeys()).isEqualTo(2);
+        assertThat(result.getScannedAttachments()).isEqualTo(2);
+        assertThat(result.getOrphanKeysCount()).isEqualTo(1);
+        assertThat(result.getOrphanKeys()).containsExactly("attachment/orphan-object");
+        assertThat(result.getMissingContentCount()).isEqualTo(1);
+        assertThat(result.getMissingContentAttachmentIds()).containsExactly(attachmentWithoutContent.getId());
+        assertThat(result.getOrphanKeys()).doesNotContain("attachment/%s".formatted(attachmentId));
+    }
+
+    @Test
+    public void reconcileDoesNotReportThePreviewVariants() {
+        upload("with-variant");
+        upload("with-variant-preview");
+        upload("with-variant-preview-320");
+        attachmentRepository.save(
+                Attachment
+                        .builder()
+                        .fileName("image.png")
+                        .contentType(MediaType.IMAGE_PNG_VALUE)
+                        .storageId("with-variant")
+                        .previewID("with-variant-preview")
+                        .previewVariants(Map.of("320", "with-variant-preview-320"))
+                        .build()
+        );
+        mongoTemplate.updateMulti(
+                new Query(),
+                Update.update("createdDate", LocalDateTime.now().minusMinutes(1)),
+                Attachment.class
+        );
+
+        StorageReconciliationResult result = assertDoesNotThrow(() -> storageInventoryService.reconcile());
+        assertThat(result.getScannedKeys()).isEqualTo(3);
+        assertThat(result.getScannedAttachments()).isEqualTo(1);
+        assertThat(result.getOrphanKeysCount()).isEqualTo(0);
+        assertThat(result.getOrphanKeys()).isEmpty();
+        assertThat(result.getMissingContentCount()).isEqualTo(0);
+        assertThat(result.getMissingPreviewCount()).isEqualTo(0);
+    }
+
+    private void upload(String id) {
+        assertDoesNotThrow(
+                () -> storageRepository.uploadFile(
+                        id,
+                        FileObjectDescription
+                                .builder()
+                                .fileName(id)
+                                .contentType(MediaType.TEXT_PLAIN_VALUE)
+                                .is(new ByteArrayInputStream(id.getBytes()))
+                                .build()
+                )
+        );
+    }
+}
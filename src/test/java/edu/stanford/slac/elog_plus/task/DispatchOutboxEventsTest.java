@@ -0,0 +1,251 @@
+package edu.stanford.slac.elog_plus.task;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import edu.stanford.slac.ad.eed.baselib.api.v1.dto.PersonDTO;
+import edu.stanford.slac.elog_plus.api.v1.dto.EntryNewDTO;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
+import edu.stanford.slac.elog_plus.model.Entry;
+import edu.stanford.slac.elog_plus.model.Logbook;
+import edu.stanford.slac.elog_plus.model.OutboxEvent;
+import edu.stanford.slac.elog_plus.service.EntryService;
+import edu.stanford.slac.elog_plus.service.SharedUtilityService;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+public class DispatchOutboxEventsTest {
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private EntryService entryService;
+    @Autowired
+    private DispatchOutboxEvents dispatchOutboxEvents;
+    @Autowired
+    private SharedUtilityService sharedUtilityService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private ELOGAppProperties elogAppProperties;
+    @SpyBean
+    private JavaMailSender mailSender;
+    private GreenMail greenMail;
+
+    @BeforeAll
+    public void setup() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+    }
+
+    @AfterAll
+    public void tearDown() {
+        greenMail.stop();
+    }
+
+    @BeforeEach
+    public void preTest() {
+        mongoTemplate.remove(new Query(), Entry.class);
+        mongoTemplate.remove(new Query(), Logbook.class);
+        mongoTemplate.remove(new Query(), OutboxEvent.class);
+        greenMail.reset();
+    }
+
+    @Test
+    public void notificationIsSentAsynchronouslyToEveryRecipient() {
+        String logbookId = sharedUtilityService.getTestLogbook();
+        double dispatchedBefore = meterRegistry.get("elog_plus_outbox_dispatch_lag").tag("type", "NewEntryNotification").timer().count();
+        assertDoesNotThrow(
+                () -> entryService.createNew(
+                        EntryNewDTO
+                                .builder()
+                                .logbooks(Set.of(logbookId))
+                                .text("This is a log for test")
+                                .title("A very wonderful log")
+                                .userIdsToNotify(Set.of("user2@slac.stanford.edu", "user3@slac.stanford.edu", "not-exists@slac.stanford.edu"))
+                                .build(),
+                        sharedUtilityService.getPersonForEmail("user1@slac.stanford.edu")
+                )
+        );
+
+        // the commit of the entry start the dispatch, the unknown recipient is skipped and the others receive their own message
+        assertThat(greenMail.waitForIncomingEmail(5000, 2)).isTrue();
+        Message[] messages = greenMail.getReceivedMessages();
+        assertThat(messages).hasSize(2);
+        for (String mail : Set.of("user2@slac.stanford.edu", "user3@slac.stanford.edu")) {
+            PersonDTO person = sharedUtilityService.getPersonForEmail(mail);
+            Message message = Arrays.stream(messages)
+                    .filter(m -> assertDoesNotThrow(() -> m.getAllRecipients()[0].toString()).equals(mail))
+                    .findFirst()
+                    .orElseThrow();
+            String body = GreenMailUtil.getBody(message);
+            assertThat(body).contains(person.commonName());
+            assertThat(body).doesNotContain("ELOG-RECIPIENT-NAME-PLACEHOLDER");
+        }
+        await().atMost(10, SECONDS).until(() -> mongoTemplate.count(new Query(), OutboxEvent.class) == 0);
+        assertThat(meterRegistry.get("elog_plus_outbox_dispatch_lag").tag("type", "NewEntryNotification").timer().count())
+                .isGreaterThan((long) dispatchedBefore);
+    }
+
+    @Test
+    public void failedDispatchIsRetried() {
+        String logbookId = sharedUtilityService.getTestLogbook();
+        // the mail server is down
+        greenMail.stop();
+        try {
+            assertDoesNotThrow(
+                    () -> entryService.createNew(
+                            EntryNewDTO
+                                    .builder()
+                                    .logbooks(Set.of(logbookId))
+                                    .text("This is a log for test")
+                                    .title("A very wonderful log")
+                                    .userIdsToNotify(Set.of("user2@slac.stanford.edu"))
+                                    .build(),
+                            sharedUtilityService.getPersonForEmail("user1@slac.stanford.edu")
+                    )
+            );
+            await().atMost(10, SECONDS).until(
+                    () -> mongoTemplate.findAll(OutboxEvent.class)
+                            .stream()
+                            .anyMatch(event -> event.getAttempts() == 1 && event.getProcessingId() == null)
+            );
+        } finally {
+            greenMail.start();
+        }
+        assertThat(mongoTemplate.count(new Query(), OutboxEvent.class)).isEqualTo(1);
+
+        // the next run dispatch it
+        dispatchOutboxEvents.dispatchOutboxEvents();
+        assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+        assertThat(mongoTemplate.count(new Query(), OutboxEvent.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void onlyTheFailedRecipientsAreRetried() {
+        String logbookId = sharedUtilityService.getTestLogbook();
+        // the message to user3 is rejected the first time, the others are sent
+        doAnswer(
+                invocation -> {
+                    MimeMessage[] messages = (MimeMessage[]) invocation.getRawArguments()[0];
+                    List<MimeMessage> rejected = Arrays.stream(messages).filter(m -> isSentTo(m, "user3@slac.stanford.edu")).toList();
+                    List<MimeMessage> accepted = Arrays.stream(messages).filter(m -> !rejected.contains(m)).toList();
+                    mailSender.send(accepted.toArray(new MimeMessage[0]));
+                    throw new MailSendException(Map.of(rejected.getFirst(), new MessagingException("Recipient rejected")));
+                }
+        ).doCallRealMethod().when(mailSender).send(any(MimeMessage[].class));
+
+        assertDoesNotThrow(
+                () -> entryService.createNew(
+                        EntryNewDTO
+                                .builder()
+                                .logbooks(Set.of(logbookId))
+                                .text("This is a log for test")
+                                .title("A very wonderful log")
+                                .userIdsToNotify(Set.of("user2@slac.stanford.edu", "user3@slac.stanford.edu"))
+                                .build(),
+                        sharedUtilityService.getPersonForEmail("user1@slac.stanford.edu")
+                )
+        );
+        await().atMost(10, SECONDS).until(
+                () -> mongoTemplate.findAll(OutboxEvent.class)
+                        .stream()
+                        .anyMatch(event -> event.getAttempts() == 1 && event.getProcessingId() == null)
+        );
+        assertThat(mongoTemplate.findAll(OutboxEvent.class).getFirst().getRecipients()).containsExactly("user3@slac.stanford.edu");
+        assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+
+        // the retry send the notification only to user3
+        dispatchOutboxEvents.dispatchOutboxEvents();
+        assertThat(greenMail.waitForIncomingEmail(5000, 2)).isTrue();
+        Message[] messages = greenMail.getReceivedMessages();
+        assertThat(messages).hasSize(2);
+        assertThat(Arrays.stream(messages).filter(m -> isSentTo(m, "user2@slac.stanford.edu")).count()).isEqualTo(1);
+        assertThat(Arrays.stream(messages).filter(m -> isSentTo(m, "user3@slac.stanford.edu")).count()).isEqualTo(1);
+        assertThat(mongoTemplate.count(new Query(), OutboxEvent.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void exhaustedEventIsMarkedAndRemovedAfterTheRetention() {
+        String logbookId = sharedUtilityService.getTestLogbook();
+        double exhaustedBefore = meterRegistry.get("elog_plus_outbox_exhausted").tag("type", "NewEntryNotification").counter().count();
+        // the mail server is down
+        greenMail.stop();
+        try {
+            assertDoesNotThrow(
+                    () -> entryService.createNew(
+                            EntryNewDTO
+                                    .builder()
+                                    .logbooks(Set.of(logbookId))
+                                    .text("This is a log for test")
+                                    .title("A very wonderful log")
+                                    .userIdsToNotify(Set.of("user2@slac.stanford.edu"))
+                                    .build(),
+                            sharedUtilityService.getPersonForEmail("user1@slac.stanford.edu")
+                    )
+            );
+            await().atMost(10, SECONDS).until(
+                    () -> mongoTemplate.findAll(OutboxEvent.class)
+                            .stream()
+                            .anyMatch(event -> event.getAttempts() == 1 && event.getProcessingId() == null)
+            );
+            for (int attempt = 1; attempt < elogAppProperties.getOutboxMaxAttempts(); attempt++) {
+                dispatchOutboxEvents.dispatchOutboxEvents();
+            }
+        } finally {
+            greenMail.start();
+        }
+        OutboxEvent exhausted = mongoTemplate.findAll(OutboxEvent.class).getFirst();
+        assertThat(exhausted.getAttempts()).isEqualTo(elogAppProperties.getOutboxMaxAttempts());
+        assertThat(exhausted.getExhaustedDate()).isNotNull();
+        assertThat(meterRegistry.get("elog_plus_outbox_exhausted").tag("type", "NewEntryNotification").counter().count())
+                .isEqualTo(exhaustedBefore + 1);
+
+        // the exhausted event is not retried and kept for the retention period
+        dispatchOutboxEvents.dispatchOutboxEvents();
+        assertThat(greenMail.waitForIncomingEmail(1000, 1)).isFalse();
+        assertThat(dispatchOutboxEvents.removeExhaustedEvents()).isEqualTo(0);
+
+        mongoTemplate.updateMulti(
+                new Query(),
+                Update.update("exhaustedDate", LocalDateTime.now().minusDays(elogAppProperties.getOutboxExhaustedRetentionDays() + 1)),
+                OutboxEvent.class
+        );
+        assertThat(dispatchOutboxEvents.removeExhaustedEvents()).isEqualTo(1);
+        assertThat(mongoTemplate.count(new Query(), OutboxEvent.class)).isEqualTo(0);
+    }
+
+    private static boolean isSentTo(Message message, String mail) {
+        return assertDoesNotThrow(() -> message.getAllRecipients()[0].toString()).equals(mail);
+    }
+}
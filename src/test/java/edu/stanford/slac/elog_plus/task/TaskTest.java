@@ -8,11 +8,15 @@ import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
 import edu.stanford.slac.elog_plus.exception.AttachmentNotFound;
 import edu.stanford.slac.elog_plus.migration.M010_CreateIndexForAttachmentProcessing;
 import edu.stanford.slac.elog_plus.model.Attachment;
+import edu.stanford.slac.elog_plus.model.AttachmentReapResult;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.FileObjectDescription;
 import edu.stanford.slac.elog_plus.model.Logbook;
 import edu.stanford.slac.elog_plus.repository.AttachmentRepository;
+import edu.stanford.slac.elog_plus.repository.StorageRepository;
 import edu.stanford.slac.elog_plus.service.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -34,6 +38,7 @@ import java.io.InputStream;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -62,6 +67,10 @@ public class TaskTest {
     @Autowired
     private CleanUnusedAttachment cleanUnusedAttachment;
     @Autowired
+    private ReapDeletedAttachments reapDeletedAttachments;
+    @Autowired
+    private StorageRepository storageRepository;
+    @Autowired
     private DocumentGenerationService documentGenerationService;
     @Autowired
     private ELOGAppProperties elogAppProperties;
@@ -71,6 +80,8 @@ public class TaskTest {
     private EntryService entryService;
     @Autowired
     private SharedUtilityService sharedUtilityService;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @BeforeEach
     public void preTest() {
         mongoTemplate.remove(new Query(), Attachment.class);
@@ -252,6 +263,157 @@ public class TaskTest {
     }
 
 
+    @Test
+    public void expiredAttachmentsAreCheckedInBatches() throws IOException {
+        // more attachments than the batch size, half of them used by an entry
+        int attachmentsCount = 7;
+        List<String> attachmentIds = new ArrayList<>();
+        for (int idx = 0; idx < attachmentsCount; idx++) {
+            try (InputStream is = assertDoesNotThrow(
+                    () -> documentGenerationService.getTestJpeg()
+            )) {
+                attachmentIds.add(
+                        assertDoesNotThrow(() -> attachmentService.createAttachment(
+                                        FileObjectDescription
+                                                .builder()
+                                                .fileName("jpegFileName")
+                                                .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                                .is(is)
+                                                .build(),
+                                        false,
+                                        Optional.of("test")
+                                )
+                        )
+                );
+            }
+        }
+        List<String> usedIds = attachmentIds.subList(0, 3);
+        usedIds.forEach(attachmentId -> assertDoesNotThrow(() -> createEntryWithAttachment(attachmentId)));
+        double checkedBefore = meterRegistry.get("elog_plus_attachment_clean_checked").counters().stream().mapToDouble(Counter::count).sum();
+
+        // jmp to expiration date
+        Integer batchSize = elogAppProperties.getAttachmentCleanBatchSize();
+        elogAppProperties.setAttachmentCleanBatchSize(2);
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            when(clock.instant()).thenReturn(now.plusMinutes(elogAppProperties.getAttachmentExpirationMinutes()).atZone(ZoneId.systemDefault()).toInstant());
+            when(clock.getZone()).thenReturn(ZoneId.systemDefault());
+            assertDoesNotThrow(() -> cleanUnusedAttachment.cleanExpiredNonUsedAttachments());
+        } finally {
+            elogAppProperties.setAttachmentCleanBatchSize(batchSize);
+        }
+
+        for (String attachmentId : attachmentIds) {
+            var attachment = assertDoesNotThrow(() -> attachmentRepository.findById(attachmentId).orElseThrow(() -> new RuntimeException("Attachment not found")));
+            assertThat(attachment.getReferenceInfo()).isNull();
+            assertThat(attachment.getProcessingId()).isNull();
+            assertThat(attachment.getInUse()).isEqualTo(usedIds.contains(attachmentId));
+            assertThat(attachment.getCanBeDeleted()).isEqualTo(!usedIds.contains(attachmentId));
+        }
+        double checkedAfter = meterRegistry.get("elog_plus_attachment_clean_checked").counters().stream().mapToDouble(Counter::count).sum();
+        assertThat(checkedAfter - checkedBefore).isEqualTo(attachmentsCount);
+    }
+
+    @Test
+    public void deletedAttachmentIsRemovedWithItsContent() throws IOException {
+        String attachmentId = createTestAttachment();
+        var createdAttachment = assertDoesNotThrow(() -> attachmentRepository.findById(attachmentId).orElseThrow());
+
+        jumpToExpirationAndClean();
+        AttachmentReapResult result = reapWithoutGraceTime();
+
+        assertThat(result.getDeletedAttachments()).isEqualTo(1);
+        assertThat(result.getDeletedObjects()).isEqualTo(1);
+        assertThat(result.getReclaimedBytes()).isEqualTo(createdAttachment.getContentLength());
+        assertThat(result.getFailedAttachments()).isEqualTo(0);
+        assertThat(attachmentRepository.existsById(attachmentId)).isFalse();
+        assertThrows(
+                Exception.class,
+                () -> storageRepository.getFile(attachmentId, FileObjectDescription.builder().build())
+        );
+    }
+
+    @Test
+    public void sharedContentIsKeptWhenDeletedAttachmentIsRemoved() throws IOException {
+        // the two attachments have the same content so the second one use the stored object of the first one
+        String deletedAttachmentId = createTestAttachment();
+        String usedAttachmentId = createTestAttachment();
+        var usedAttachment = assertDoesNotThrow(() -> attachmentRepository.findById(usedAttachmentId).orElseThrow());
+        assertThat(usedAttachment.getStorageId()).isEqualTo(deletedAttachmentId);
+        assertDoesNotThrow(() -> createEntryWithAttachment(usedAttachmentId));
+
+        jumpToExpirationAndClean();
+        AttachmentReapResult result = reapWithoutGraceTime();
+
+        assertThat(result.getDeletedAttachments()).isEqualTo(1);
+        assertThat(result.getDeletedObjects()).isEqualTo(0);
+        assertThat(result.getReclaimedBytes()).isEqualTo(0);
+        assertThat(attachmentRepository.existsById(deletedAttachmentId)).isFalse();
+        assertThat(attachmentRepository.existsById(usedAttachmentId)).isTrue();
+        FileObjectDescription content = FileObjectDescription.builder().build();
+        assertDoesNotThrow(() -> storageRepository.getFile(deletedAttachmentId, content));
+        assertDoesNotThrow(() -> content.getIs().close());
+    }
+
+    @Test
+    public void deletedAttachmentIsKeptForTheGraceTime() throws IOException {
+        String attachmentId = createTestAttachment();
+
+        jumpToExpirationAndClean();
+        AttachmentReapResult result = assertDoesNotThrow(() -> reapDeletedAttachments.reapDeletedAttachments());
+
+        assertThat(result.getDeletedAttachments()).isEqualTo(0);
+        assertThat(attachmentRepository.existsById(attachmentId)).isTrue();
+        FileObjectDescription content = FileObjectDescription.builder().build();
+        assertDoesNotThrow(() -> storageRepository.getFile(attachmentId, content));
+        assertDoesNotThrow(() -> content.getIs().close());
+    }
+
+    /**
+     * Create an attachment with the test jpeg without preview
+     * @return the attachment id
+     */
+    private String createTestAttachment() throws IOException {
+        try (InputStream is = assertDoesNotThrow(
+                () -> documentGenerationService.getTestJpeg()
+        )) {
+            return assertDoesNotThrow(() -> attachmentService.createAttachment(
+                            FileObjectDescription
+                                    .builder()
+                                    .fileName("jpegFileName")
+                                    .contentType(MediaType.IMAGE_JPEG_VALUE)
+                                    .is(is)
+                                    .build(),
+                            false
+                    )
+            );
+        }
+    }
+
+    /**
+     * Run the reap task without waiting the grace time after the tagging of the attachments
+     * @return the result of the run
+     */
+    private AttachmentReapResult reapWithoutGraceTime() {
+        Integer graceSeconds = elogAppProperties.getAttachmentReapGraceSeconds();
+        elogAppProperties.setAttachmentReapGraceSeconds(0);
+        try {
+            return assertDoesNotThrow(() -> reapDeletedAttachments.reapDeletedAttachments());
+        } finally {
+            elogAppProperties.setAttachmentReapGraceSeconds(graceSeconds);
+        }
+    }
+
+    /**
+     * Run the clean task as it is supposed to run after the expiration of the attachments
+     */
+    private void jumpToExpirationAndClean() {
+        LocalDateTime now = LocalDateTime.now();
+        when(clock.instant()).thenReturn(now.plusMinutes(elogAppProperties.getAttachmentExpirationMinutes()).atZone(ZoneId.systemDefault()).toInstant());
+        when(clock.getZone()).thenReturn(ZoneId.systemDefault());
+        assertDoesNotThrow(() -> cleanUnusedAttachment.cleanExpiredNonUsedAttachments());
+    }
+
     /**
      * Create an entry with the attachment
      * @param finalAttachmentId the attachment id
@@ -3,12 +3,15 @@ package edu.stanford.slac.elog_plus.v1.controller;
 import com.github.javafaker.Faker;
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.ApiResultResponse;
 import edu.stanford.slac.ad.eed.baselib.config.AppProperties;
+import edu.stanford.slac.ad.eed.baselib.exception.NotAuthorized;
 import edu.stanford.slac.ad.eed.baselib.model.AuthenticationToken;
 import edu.stanford.slac.ad.eed.baselib.model.Authorization;
 import edu.stanford.slac.ad.eed.baselib.service.AuthService;
 import edu.stanford.slac.elog_plus.api.v1.dto.EntryDTO;
 import edu.stanford.slac.elog_plus.api.v1.dto.EntryImportDTO;
 import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryResultDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportReferenceResolutionDTO;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.Logbook;
@@ -212,4 +215,203 @@ public class ImportV2ControllerTest {
         );
         assertThat(fullLog.getPayload().tags()).extracting("name").contains("tag-one");
     }
+
+    @Test
+    public void importBatchOfEntries() {
+        List<ImportEntryDTO> batch = List.of(
+                importEntry("batch-1", null, null, List.of("new-logbook")),
+                // reference and supersede an entry of the same batch
+                importEntry("batch-2", "batch-1", List.of("batch-1"), List.of("new-logbook")),
+                // duplicated origin id
+                importEntry("batch-1", null, null, List.of("new-logbook")),
+                // reference not found
+                importEntry("batch-3", null, List.of("not-exists"), List.of("new-logbook")),
+                importEntry("batch-4", null, null, List.of("new-logbook", "second-logbook"))
+        );
+
+        ApiResultResponse<List<ImportEntryResultDTO>> importResult = assertDoesNotThrow(
+                () -> testControllerHelperService.importEntriesV2(
+                        mockMvc,
+                        status().isCreated(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        ),
+                        batch
+                )
+        );
+        assertThat(importResult.getErrorCode()).isEqualTo(0);
+        assertThat(importResult.getPayload()).hasSize(batch.size());
+        assertThat(importResult.getPayload()).extracting(ImportEntryResultDTO::index).containsExactly(0, 1, 2, 3, 4);
+        assertThat(importResult.getPayload()).extracting(ImportEntryResultDTO::errorCode).containsExactly(0, 0, -2, -3, 0);
+
+        String firstId = importResult.getPayload().get(0).id();
+        String secondId = importResult.getPayload().get(1).id();
+        Entry first = mongoTemplate.findById(firstId, Entry.class);
+        Entry second = mongoTemplate.findById(secondId, Entry.class);
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(first.getSupersededBy()).isEqualTo(secondId);
+        assertThat(second.getReferences()).containsExactly(firstId);
+        assertThat(mongoTemplate.findById(importResult.getPayload().get(4).id(), Entry.class).getLogbooks()).hasSize(2);
+
+        // the reader has been authorized on the new logbook
+        ApiResultResponse<EntryDTO> fullLog = assertDoesNotThrow(
+                () -> testControllerHelperService.getFullLog(
+                        mockMvc,
+                        status().isOk(),
+                        Optional.of(
+                                "user2@slac.stanford.edu"
+                        ),
+                        secondId
+                )
+        );
+        assertThat(fullLog.getPayload().tags()).extracting("name").contains("tag-one");
+
+        // a next batch cannot supersede again the same entry
+        ApiResultResponse<List<ImportEntryResultDTO>> secondImportResult = assertDoesNotThrow(
+                () -> testControllerHelperService.importEntriesV2(
+                        mockMvc,
+                        status().isCreated(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        ),
+                        List.of(
+                                importEntry("batch-5", "batch-1", null, List.of("new-logbook")),
+                                importEntry("batch-6", null, List.of("batch-4"), List.of("new-logbook"))
+                        )
+                )
+        );
+        assertThat(secondImportResult.getPayload()).extracting(ImportEntryResultDTO::errorCode).containsExactly(-3, 0);
+        assertThat(mongoTemplate.findById(secondImportResult.getPayload().get(1).id(), Entry.class).getReferences())
+                .containsExactly(importResult.getPayload().get(4).id());
+    }
+
+    @Test
+    public void importBatchFailOnMissingLogbookForNonRootUser() {
+        ApiResultResponse<List<ImportEntryResultDTO>> importResult = assertDoesNotThrow(
+                () -> testControllerHelperService.importEntriesV2(
+                        mockMvc,
+                        status().isCreated(),
+                        Optional.of(
+                                "user2@slac.stanford.edu"
+                        ),
+                        List.of(importEntry("batch-1", null, null, List.of("new-logbook")))
+                )
+        );
+        assertThat(importResult.getPayload()).hasSize(1);
+        assertThat(importResult.getPayload().get(0).errorCode()).isEqualTo(-1);
+        assertThat(importResult.getPayload().get(0).id()).isNull();
+        assertThat(logbookService.existByName("new-logbook")).isFalse();
+    }
+
+    @Test
+    public void importBatchWithDeferredReferences() {
+        // the entry that reference and supersede is imported before the referenced one
+        ApiResultResponse<List<ImportEntryResultDTO>> firstImport = assertDoesNotThrow(
+                () -> testControllerHelperService.importEntriesV2(
+                        mockMvc,
+                        status().isCreated(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        ),
+                        List.of(importEntry("deferred-2", "deferred-1", List.of("deferred-1", "deferred-3"), List.of("new-logbook"))),
+                        true
+                )
+        );
+        ApiResultResponse<List<ImportEntryResultDTO>> secondImport = assertDoesNotThrow(
+                () -> testControllerHelperService.importEntriesV2(
+                        mockMvc,
+                        status().isCreated(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        ),
+                        List.of(importEntry("deferred-1", null, null, List.of("new-logbook"))),
+                        true
+                )
+        );
+        assertThat(firstImport.getPayload()).extracting(ImportEntryResultDTO::errorCode).containsExactly(0);
+        assertThat(secondImport.getPayload()).extracting(ImportEntryResultDTO::errorCode).containsExactly(0);
+        String supersedingId = firstImport.getPayload().get(0).id();
+        String supersededId = secondImport.getPayload().get(0).id();
+
+        // only root can resolve
+        assertThrows(
+                NotAuthorized.class,
+                () -> testControllerHelperService.importResolveReferencesV2(
+                        mockMvc,
+                        status().is4xxClientError(),
+                        Optional.of(
+                                "user2@slac.stanford.edu"
+                        )
+                )
+        );
+
+        ApiResultResponse<ImportReferenceResolutionDTO> resolution = assertDoesNotThrow(
+                () -> testControllerHelperService.importResolveReferencesV2(
+                        mockMvc,
+                        status().isOk(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        )
+                )
+        );
+        // deferred-3 has not been imported
+        assertThat(resolution.getPayload().resolvedEntries()).isEqualTo(0);
+        assertThat(resolution.getPayload().pendingEntries()).isEqualTo(1);
+        assertThat(resolution.getPayload().supersededEntries()).isEqualTo(1L);
+
+        Entry superseding = mongoTemplate.findById(supersedingId, Entry.class);
+        assertThat(superseding).isNotNull();
+        assertThat(superseding.getReferences()).containsExactly(supersededId);
+        assertThat(superseding.getUnresolvedReferencesByOriginId()).containsExactly("deferred-3");
+        assertThat(superseding.getUnresolvedSupersedeOfByOriginId()).isNull();
+        assertThat(mongoTemplate.findById(supersededId, Entry.class).getSupersededBy()).isEqualTo(supersedingId);
+
+        // the missing entry is imported and the resolution completed
+        ApiResultResponse<List<ImportEntryResultDTO>> thirdImport = assertDoesNotThrow(
+                () -> testControllerHelperService.importEntriesV2(
+                        mockMvc,
+                        status().isCreated(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        ),
+                        List.of(importEntry("deferred-3", null, null, List.of("new-logbook"))),
+                        true
+                )
+        );
+        resolution = assertDoesNotThrow(
+                () -> testControllerHelperService.importResolveReferencesV2(
+                        mockMvc,
+                        status().isOk(),
+                        Optional.of(
+                                "user1@slac.stanford.edu"
+                        )
+                )
+        );
+        assertThat(resolution.getPayload().resolvedEntries()).isEqualTo(1);
+        assertThat(resolution.getPayload().pendingEntries()).isEqualTo(0);
+        superseding = mongoTemplate.findById(supersedingId, Entry.class);
+        assertThat(superseding.getReferences()).containsExactlyInAnyOrder(supersededId, thirdImport.getPayload().get(0).id());
+        assertThat(superseding.getUnresolvedReferencesByOriginId()).isNull();
+    }
+
+    private ImportEntryDTO importEntry(String originId, String supersedeOfByOriginId, List<String> referencesByOriginId, List<String> logbooks) {
+        Faker faker = new Faker();
+        return ImportEntryDTO
+                .builder()
+                .readerUserIds(List.of("user2@slac.stanford.edu"))
+                .entry(
+                        EntryImportDTO
+                                .builder()
+                                .originId(originId)
+                                .supersedeOfByOriginId(supersedeOfByOriginId)
+                                .referencesByOriginId(referencesByOriginId)
+                                .logbooks(logbooks)
+                                .title(faker.book().title())
+                                .text(faker.lorem().paragraph())
+                                .tags(List.of("Tag OnE"))
+                                .build()
+                )
+                .build();
+    }
 }
@@ -4,6 +4,7 @@ import com.hp.jipp.encoding.IppInputStream;
 import com.hp.jipp.encoding.IppOutputStream;
 import com.hp.jipp.encoding.IppPacket;
 import com.hp.jipp.encoding.NameType;
+import com.hp.jipp.model.JobState;
 import com.hp.jipp.model.Status;
 import com.hp.jipp.trans.IppPacketData;
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.ApiResultResponse;
@@ -13,6 +14,7 @@ import edu.stanford.slac.ad.eed.baselib.model.Authorization;
 import edu.stanford.slac.ad.eed.baselib.service.AuthService;
 import edu.stanford.slac.elog_plus.api.v1.dto.LogbookDTO;
 import edu.stanford.slac.elog_plus.api.v1.dto.NewLogbookDTO;
+import edu.stanford.slac.elog_plus.config.ELOGAppProperties;
 import edu.stanford.slac.elog_plus.model.Attachment;
 import edu.stanford.slac.elog_plus.model.Entry;
 import edu.stanford.slac.elog_plus.model.Logbook;
@@ -46,8 +48,10 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
+import static com.hp.jipp.encoding.Tag.jobAttributes;
 import static com.hp.jipp.encoding.Tag.printerAttributes;
 import static com.hp.jipp.model.Types.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.awaitility.Awaitility.await;
@@ -70,6 +74,8 @@ public class PrinterControllerTest {
     @Autowired
     private AppProperties appProperties;
     @Autowired
+    private ELOGAppProperties elogAppProperties;
+    @Autowired
     private MongoTemplate mongoTemplate;
     @Autowired
     private AuthService authService;
@@ -202,6 +208,82 @@ public class PrinterControllerTest {
         }
     }
 
+    @Test
+    public void testPrintingSpooledPNGImage() {
+        byte[] png = assertDoesNotThrow(() -> {
+            try (InputStream is = documentGenerationService.getTestPng()) {
+                return is.readAllBytes();
+            }
+        });
+        // force the document to be spooled on a temporary file
+        Integer spoolThreshold = elogAppProperties.getIppSpoolThresholdBytes();
+        elogAppProperties.setIppSpoolThresholdBytes(png.length / 2);
+        try (var responsePacket = assertDoesNotThrow(() -> print(Optional.of("user1@slac.stanford.edu"), new ByteArrayInputStream(png), fullLogbook.name(), status().isOk()))) {
+            assertThat(responsePacket).isNotNull();
+            assertThat(responsePacket.getPacket().getStatus()).isEqualTo(Status.successfulOk);
+        } finally {
+            elogAppProperties.setIppSpoolThresholdBytes(spoolThreshold);
+        }
+
+        // the whole document has been stored by the print job
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(500, MILLISECONDS)
+                .until(() -> mongoTemplate.count(new Query(), Attachment.class) == 1);
+        var attachments = mongoTemplate.findAll(Attachment.class);
+        assertThat(attachments.get(0).getContentLength()).isEqualTo((long) png.length);
+    }
+
+    @Test
+    public void testPrintJobStateIsReportedByGetJobAttributes() {
+        int printedJobId;
+        try (InputStream is = assertDoesNotThrow(() -> documentGenerationService.getTestPng())) {
+            try (var responsePacket = assertDoesNotThrow(() -> print(Optional.of("user1@slac.stanford.edu"), is, fullLogbook.name(), status().isOk()))) {
+                assertThat(responsePacket.getPacket().getStatus()).isEqualTo(Status.successfulOk);
+                assertThat(responsePacket.getPacket().getValue(jobAttributes, jobState)).isIn(JobState.pending, JobState.processing, JobState.completed);
+                printedJobId = responsePacket.getPacket().getValue(jobAttributes, jobId);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        // the job is completed in background and the entry is created
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(500, MILLISECONDS)
+                .until(
+                        () -> {
+                            try (var jobPacket = assertDoesNotThrow(() -> getJobAttributes(Optional.of("user1@slac.stanford.edu"), printedJobId, status().isOk()))) {
+                                assertThat(jobPacket.getPacket().getStatus()).isEqualTo(Status.successfulOk);
+                                return jobPacket.getPacket().getValue(jobAttributes, jobState) == JobState.completed;
+                            }
+                        }
+                );
+        assertThat(mongoTemplate.count(new Query(), Entry.class)).isEqualTo(1);
+
+        // a document that cannot be converted abort the job
+        int abortedJobId;
+        try (var responsePacket = assertDoesNotThrow(() -> print(Optional.of("user1@slac.stanford.edu"), new ByteArrayInputStream(new byte[]{0, 1, 2, 3, 4, 5, 6, 7}), fullLogbook.name(), status().isOk()))) {
+            assertThat(responsePacket.getPacket().getStatus()).isEqualTo(Status.successfulOk);
+            abortedJobId = responsePacket.getPacket().getValue(jobAttributes, jobId);
+        }
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(500, MILLISECONDS)
+                .until(
+                        () -> {
+                            try (var jobPacket = assertDoesNotThrow(() -> getJobAttributes(Optional.of("user1@slac.stanford.edu"), abortedJobId, status().isOk()))) {
+                                return jobPacket.getPacket().getValue(jobAttributes, jobState) == JobState.aborted;
+                            }
+                        }
+                );
+
+        // the job of another user is not visible
+        try (var jobPacket = assertDoesNotThrow(() -> getJobAttributes(Optional.of("user2@slac.stanford.edu"), printedJobId, status().isOk()))) {
+            assertThat(jobPacket.getPacket().getStatus()).isEqualTo(Status.clientErrorNotFound);
+        }
+    }
+
     @Test
     public void testPrintingPSImage() {
         // check if printer support png
@@ -333,16 +415,23 @@ public class PrinterControllerTest {
             }
         }
 
-        // fetch all queued attachment waiting to be processed
-        var attachmentList = assertDoesNotThrow(() -> testControllerHelperService.attachmentControllerFindAllQueued(
-                        mockMvc,
-                        status().isOk(),
-                        Optional.of("user1@slac.stanford.edu")
-                )
-        );
-        assertThat(attachmentList).isNotNull();
-        assertThat(attachmentList.getPayload()).isNotNull();
-        assertThat(attachmentList.getPayload().size()).isEqualTo(numberOfDocument);
+        // fetch all queued attachment waiting to be processed, the print jobs are processed asynchronously
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(500, MILLISECONDS)
+                .until(
+                        () -> {
+                            var attachmentList = assertDoesNotThrow(() -> testControllerHelperService.attachmentControllerFindAllQueued(
+                                            mockMvc,
+                                            status().isOk(),
+                                            Optional.of("user1@slac.stanford.edu")
+                                    )
+                            );
+                            assertThat(attachmentList).isNotNull();
+                            assertThat(attachmentList.getPayload()).isNotNull();
+                            return attachmentList.getPayload().size() == numberOfDocument;
+                        }
+                );
 
         // wait for preview generation
         await()
@@ -383,6 +472,24 @@ public class PrinterControllerTest {
         return sendRequest("/v1/printers/default", userInfo, request, status);
     }
 
+    /**
+     * Get the attributes of a print job
+     *
+     * @param userInfo The user info
+     * @param jobId    The id of the job
+     * @param status   The expected status
+     * @return The IPP packet data
+     * @throws Exception If an error occurs
+     */
+    public IppPacketData getJobAttributes(Optional<String> userInfo, int jobId, ResultMatcher status) throws Exception {
+        IppPacket.Builder jobAttributesRequestBuilder = IppPacket.getJobAttributes(URI.create("/v1/printers/default"), jobId);
+        userInfo.ifPresent(
+                s -> jobAttributesRequestBuilder.putJobAttributes(new NameType.Set("jwt").of(jwtHelper.generateJwt(s)))
+        );
+        IppPacketData request = new IppPacketData(jobAttributesRequestBuilder.build());
+        return sendRequest("/v1/printers/default", userInfo, request, status);
+    }
+
     /**
      * Print a document
      *
@@ -12,6 +12,8 @@ import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
 import edu.stanford.slac.elog_plus.api.v1.dto.*;
 import edu.stanford.slac.elog_plus.api.v1.dto.NewAuthorizationDTO;
 import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportEntryResultDTO;
+import edu.stanford.slac.elog_plus.api.v2.dto.ImportReferenceResolutionDTO;
 import edu.stanford.slac.elog_plus.api.v2.dto.NewEntryDTO;
 import edu.stanford.slac.elog_plus.service.LogbookService;
 import edu.stanford.slac.elog_plus.service.SharedUtilityService;
@@ -378,6 +380,69 @@ public class TestControllerHelperService {
                 });
     }
 
+    public ApiResultResponse<List<ImportEntryResultDTO>> importEntriesV2(
+            MockMvc mockMvc,
+            ResultMatcher resultMatcher,
+            Optional<String> userInfo,
+            List<ImportEntryDTO> importEntryDTOs) throws Exception {
+        return importEntriesV2(mockMvc, resultMatcher, userInfo, importEntryDTOs, false);
+    }
+
+    public ApiResultResponse<List<ImportEntryResultDTO>> importEntriesV2(
+            MockMvc mockMvc,
+            ResultMatcher resultMatcher,
+            Optional<String> userInfo,
+            List<ImportEntryDTO> importEntryDTOs,
+            boolean deferReferences) throws Exception {
+        // one json object for each line
+        ObjectMapper objectMapper = new ObjectMapper();
+        StringBuilder ndjson = new StringBuilder();
+        for (ImportEntryDTO importEntryDTO : importEntryDTOs) {
+            ndjson.append(objectMapper.writeValueAsString(importEntryDTO)).append('\n');
+        }
+        MockHttpServletRequestBuilder requestBuilder = post("/v2/import/batch")
+                .param("deferReferences", String.valueOf(deferReferences))
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(ndjson.toString());
+        userInfo.ifPresent(login -> requestBuilder.header(appProperties.getUserHeaderName(), jwtHelper.generateJwt(login)));
+
+        MvcResult result = mockMvc.perform(
+                        requestBuilder
+                )
+                .andExpect(resultMatcher)
+                .andReturn();
+        if (result.getResolvedException() != null) {
+            throw result.getResolvedException();
+        }
+        return new ObjectMapper().readValue(
+                result.getResponse().getContentAsString(),
+                new TypeReference<>() {
+                });
+    }
+
+    public ApiResultResponse<ImportReferenceResolutionDTO> importResolveReferencesV2(
+            MockMvc mockMvc,
+            ResultMatcher resultMatcher,
+            Optional<String> userInfo) throws Exception {
+        MockHttpServletRequestBuilder requestBuilder = post("/v2/import/resolve-references")
+                .accept(MediaType.APPLICATION_JSON);
+        userInfo.ifPresent(login -> requestBuilder.header(appProperties.getUserHeaderName(), jwtHelper.generateJwt(login)));
+
+        MvcResult result = mockMvc.perform(
+                        requestBuilder
+                )
+                .andExpect(resultMatcher)
+                .andReturn();
+        if (result.getResolvedException() != null) {
+            throw result.getResolvedException();
+        }
+        return new ObjectMapper().readValue(
+                result.getResponse().getContentAsString(),
+                new TypeReference<>() {
+                });
+    }
+
     public ApiResultResponse<String> v2EntriesControllerCreateEntry(
             MockMvc mockMvc,
             ResultMatcher resultMatcher,